@@ -0,0 +1,38 @@
+package com.justinwells.xlsUploader.benchmark;
+
+import software.amazon.awssdk.services.sqs.SqsAsyncClient;
+import software.amazon.awssdk.services.sqs.model.SendMessageBatchRequest;
+import software.amazon.awssdk.services.sqs.model.SendMessageBatchResponse;
+import software.amazon.awssdk.services.sqs.model.SendMessageBatchResultEntry;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.stream.Collectors;
+
+// SQS stand-in that acknowledges every entry immediately, so benchmarks measure the parser and not the network
+public class AcknowledgingSqsClient implements SqsAsyncClient {
+    private final AtomicLong messages = new AtomicLong();
+
+    @Override
+    public CompletableFuture<SendMessageBatchResponse> sendMessageBatch(SendMessageBatchRequest request) {
+        messages.addAndGet(request.entries().size());
+        return CompletableFuture.completedFuture(SendMessageBatchResponse.builder()
+                .successful(request.entries().stream()
+                        .map(entry -> SendMessageBatchResultEntry.builder().id(entry.id()).build())
+                        .collect(Collectors.toList()))
+                .build());
+    }
+
+    public long getMessageCount() {
+        return messages.get();
+    }
+
+    @Override
+    public String serviceName() {
+        return SERVICE_NAME;
+    }
+
+    @Override
+    public void close() {
+    }
+}
@@ -0,0 +1,57 @@
+package com.justinwells.xlsUploader.benchmark;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.justinwells.xlsUploader.model.CellValue;
+import com.justinwells.xlsUploader.model.SheetRow;
+import com.justinwells.xlsUploader.model.XlsSpec;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.IOException;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+// Header row to field/column map, done once per file
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class HeaderMappingBenchmark {
+
+    @Param({"participant", "payment", "events", "assignments", "properties"})
+    public String spec;
+
+    private XlsSpec xlsSpec;
+    private SheetRow headerRow;
+
+    @Setup
+    public void setUp() throws IOException {
+        xlsSpec = new XlsSpec(new ObjectMapper());
+        // Headers as users tend to type them, so normalization is exercised
+        headerRow = new SheetRow(0, xlsSpec.getSpec(spec).stream()
+                .map(header -> CellValue.string(" " + header.getHeader().toUpperCase() + " "))
+                .toArray(CellValue[]::new));
+    }
+
+    @TearDown
+    public void tearDown() throws IOException {
+        xlsSpec.shutdown();
+    }
+
+    @Benchmark
+    public Map<String, Integer> headerMap() {
+        return xlsSpec.getHeaderMap(spec, headerRow);
+    }
+}
@@ -0,0 +1,143 @@
+package com.justinwells.xlsUploader.benchmark;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.justinwells.xlsUploader.model.SpecDefinition;
+import com.justinwells.xlsUploader.model.XlsSpec;
+import com.justinwells.xlsUploader.service.InspectedPackage;
+import com.justinwells.xlsUploader.service.KeyIndexService;
+import com.justinwells.xlsUploader.service.MessageCodec;
+import com.justinwells.xlsUploader.service.PackageInspector;
+import com.justinwells.xlsUploader.service.ParseResult;
+import com.justinwells.xlsUploader.service.RowPipeline;
+import com.justinwells.xlsUploader.service.SpreadsheetParser;
+import com.justinwells.xlsUploader.service.SqsBatchPublisher;
+import com.justinwells.xlsUploader.service.UploadMetrics;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.springframework.core.env.StandardEnvironment;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Comparator;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Stream;
+
+// Whole-file runs over generated workbooks: open, header mapping, the row pipeline, validation with key
+// constraints and encoding. Divide gc.alloc.rate.norm by rows for bytes per row.
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 2)
+@Measurement(iterations = 5)
+@Fork(value = 1, jvmArgsAppend = "-Xmx2g")
+public class ParseBenchmark {
+
+    abstract static class Fixture {
+        XlsSpec xlsSpec;
+        KeyIndexService keyIndexService;
+        RowPipeline rowPipeline;
+        PackageInspector packageInspector;
+        SpreadsheetParser parser;
+        AcknowledgingSqsClient sqsClient;
+        File workbook;
+        private Path keyDir;
+
+        void open(String specName, int rows) throws IOException {
+            ObjectMapper objectMapper = new ObjectMapper();
+            xlsSpec = new XlsSpec(objectMapper);
+            SpecDefinition spec = xlsSpec.getDefinition(specName);
+            workbook = WorkbookGenerator.workbook(spec, rows);
+
+            keyDir = Files.createTempDirectory("jmh-keys");
+            keyIndexService = new KeyIndexService(keyDir.toString());
+            for (XlsSpec.HeaderSpec header : spec.getHeaders()) {
+                if (header.getReferences() != null) {
+                    keyIndexService.addAll(header.getReferences(),
+                            WorkbookGenerator.referencedKeys(header.getReferences(), rows));
+                }
+            }
+
+            sqsClient = new AcknowledgingSqsClient();
+            rowPipeline = new RowPipeline(0, 256, 0);
+            packageInspector = new PackageInspector();
+            parser = new SpreadsheetParser(new SqsBatchPublisher(sqsClient, 8, 64, 3, 100, 5000), packageInspector,
+                    rowPipeline, xlsSpec, new MessageCodec(objectMapper, "envelope", 262144), keyIndexService,
+                    new UploadMetrics(new SimpleMeterRegistry()), new StandardEnvironment(), true, 1000, 0, 0);
+        }
+
+        void close() throws IOException {
+            rowPipeline.shutdown();
+            keyIndexService.shutdown();
+            xlsSpec.shutdown();
+            try (Stream<Path> files = Files.walk(keyDir)) {
+                for (Path path : (Iterable<Path>) files.sorted(Comparator.reverseOrder())::iterator) {
+                    Files.deleteIfExists(path);
+                }
+            }
+        }
+    }
+
+    @State(Scope.Benchmark)
+    public static class Upload extends Fixture {
+        @Param({"participant", "payment", "events", "assignments", "properties"})
+        public String spec;
+
+        @Param({"1000", "100000", "1000000"})
+        public int rows;
+
+        @Setup(Level.Trial)
+        public void setUp() throws IOException {
+            open(spec, rows);
+        }
+
+        @TearDown(Level.Trial)
+        public void tearDown() throws IOException {
+            close();
+        }
+    }
+
+    // Only participant has a queue configured, so publishing is measured on that spec alone
+    @State(Scope.Benchmark)
+    public static class Publish extends Fixture {
+        @Param({"1000", "100000", "1000000"})
+        public int rows;
+
+        @Setup(Level.Trial)
+        public void setUp() throws IOException {
+            open("participant", rows);
+        }
+
+        @TearDown(Level.Trial)
+        public void tearDown() throws IOException {
+            close();
+        }
+    }
+
+    @Benchmark
+    public long validateFile(Upload upload) throws IOException {
+        try (InspectedPackage inspected = upload.packageInspector.inspect(upload.workbook)) {
+            ParseResult result = upload.parser.validate(inspected, upload.spec);
+            return result.getRowsRead() + result.getErrors().getTotal();
+        }
+    }
+
+    @Benchmark
+    public long parseAndQueue(Publish publish) throws IOException {
+        ParseResult result = publish.parser.parseAndQueue(publish.workbook, "participant", "bench/participant.xlsx");
+        result.getPublished().join();
+        return result.getRowsRead();
+    }
+}
@@ -0,0 +1,131 @@
+package com.justinwells.xlsUploader.benchmark;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.justinwells.xlsUploader.model.FieldValidator;
+import com.justinwells.xlsUploader.model.RowErrors;
+import com.justinwells.xlsUploader.model.SheetRow;
+import com.justinwells.xlsUploader.model.SpecDefinition;
+import com.justinwells.xlsUploader.model.ValidationPlan;
+import com.justinwells.xlsUploader.model.XlsSpec;
+import com.justinwells.xlsUploader.service.MessageCodec;
+import com.justinwells.xlsUploader.service.XlsxStreamReader;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
+
+// Per-row cost of validation and of both message encodings, one operation per row. With -prof gc,
+// gc.alloc.rate.norm is bytes allocated per row, which is what the whole-file numbers scale with.
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class RowBenchmark {
+    private static final int SAMPLE_ROWS = 1000;
+
+    @Param({"participant", "payment", "events", "assignments", "properties"})
+    public String spec;
+
+    private XlsSpec xlsSpec;
+    private MessageCodec rowCodec;
+    private MessageCodec envelopeCodec;
+    private ValidationPlan plan;
+    private RowErrors errors;
+    private SheetRow[] rows;
+    private Map<String, Object> rowData;
+    private Object[] values;
+    private int next;
+
+    @Setup
+    public void setUp() throws IOException {
+        ObjectMapper objectMapper = new ObjectMapper();
+        xlsSpec = new XlsSpec(objectMapper);
+        rowCodec = new MessageCodec(objectMapper, "row", 262144);
+        envelopeCodec = new MessageCodec(objectMapper, "envelope", 262144);
+        SpecDefinition definition = xlsSpec.getDefinition(spec);
+
+        List<SheetRow> sample = new ArrayList<>(SAMPLE_ROWS);
+        try (XlsxStreamReader reader = XlsxStreamReader.open(WorkbookGenerator.workbook(definition, SAMPLE_ROWS))) {
+            SheetRow header = reader.next();
+            Map<String, Integer> headerMap = definition.getHeaderMap(header);
+            // The sample rows are validated over and over, so key constraints (which only make sense once
+            // per file) are left out; ParseBenchmark covers them
+            List<FieldValidator> validators = definition.getHeaders().stream()
+                    .map(h -> new FieldValidator(new XlsSpec.HeaderSpec(
+                            h.getHeader(), h.getField(), h.getType(), h.isRequired(), h.getConstraint())))
+                    .collect(Collectors.toList());
+            plan = new ValidationPlan(validators, headerMap);
+            SheetRow row;
+            while ((row = reader.next()) != null) {
+                sample.add(row);
+            }
+        }
+        rows = sample.toArray(new SheetRow[0]);
+        errors = new RowErrors(1000, 0);
+
+        rowData = new HashMap<>();
+        values = new Object[plan.getFieldCount()];
+        SheetRow first = rows[0];
+        plan.validateRow(first, first.getRowIndex() + 1, rowData, errors);
+        plan.validateRow(first, first.getRowIndex() + 1, values, errors);
+    }
+
+    @TearDown
+    public void tearDown() throws IOException {
+        xlsSpec.shutdown();
+    }
+
+    private SheetRow nextRow() {
+        SheetRow row = rows[next];
+        next = next + 1 == rows.length ? 0 : next + 1;
+        return row;
+    }
+
+    @Benchmark
+    public Object[] validateRow() {
+        SheetRow row = nextRow();
+        Object[] out = new Object[plan.getFieldCount()];
+        plan.validateRow(row, row.getRowIndex() + 1, out, errors);
+        return out;
+    }
+
+    @Benchmark
+    public String encodeRow() throws IOException {
+        return rowCodec.encodeRow(rowData);
+    }
+
+    @Benchmark
+    public String encodeValues() throws IOException {
+        return envelopeCodec.encodeValues(2, values);
+    }
+
+    // Validation plus serialization as the pipeline workers run it
+    @Benchmark
+    public String validateAndEncode() throws IOException {
+        SheetRow row = nextRow();
+        int lineNumber = row.getRowIndex() + 1;
+        Object[] out = new Object[plan.getFieldCount()];
+        if (!plan.validateRow(row, lineNumber, out, errors)) {
+            return null;
+        }
+        return envelopeCodec.encodeValues(lineNumber, out);
+    }
+}
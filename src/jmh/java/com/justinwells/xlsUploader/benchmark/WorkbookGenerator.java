@@ -0,0 +1,160 @@
+package com.justinwells.xlsUploader.benchmark;
+
+import com.justinwells.xlsUploader.model.KeyHash;
+import com.justinwells.xlsUploader.model.LongHashSet;
+import com.justinwells.xlsUploader.model.SpecDefinition;
+import com.justinwells.xlsUploader.model.XlsSpec;
+import org.apache.poi.ss.usermodel.Cell;
+import org.apache.poi.ss.usermodel.CellStyle;
+import org.apache.poi.ss.usermodel.Row;
+import org.apache.poi.ss.usermodel.Sheet;
+import org.apache.poi.xssf.streaming.SXSSFWorkbook;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.time.LocalDate;
+import java.util.List;
+
+// Writes synthetic .xlsx uploads for a spec. Values are derived from the row number so files are
+// reproducible: key fields are "<field>-<row>", and a "references" field points at the row with the
+// same number in the target spec. With invalidEvery > 0 every invalidEvery-th row breaks one rule of
+// the spec, a different column each time. Generated files are kept under target/ and reused across runs.
+public final class WorkbookGenerator {
+    private static final File DIRECTORY = new File("target/jmh-workbooks");
+    private static final LocalDate BASE_DATE = LocalDate.of(2024, 1, 1);
+
+    private WorkbookGenerator() {
+    }
+
+    public static File workbook(SpecDefinition spec, int rows) throws IOException {
+        return workbook(spec, rows, 0);
+    }
+
+    public static File workbook(SpecDefinition spec, int rows, int invalidEvery) throws IOException {
+        String name = spec.getName() + "-" + rows + (invalidEvery > 0 ? "-invalid" + invalidEvery : "") + ".xlsx";
+        File file = new File(DIRECTORY, name);
+        if (!file.isFile()) {
+            DIRECTORY.mkdirs();
+            File partial = new File(DIRECTORY, file.getName() + ".tmp");
+            write(spec, rows, invalidEvery, partial);
+            if (!partial.renameTo(file)) {
+                throw new IOException("Failed to move " + partial + " to " + file);
+            }
+        }
+        return file;
+    }
+
+    // Keys the referencing rows of a generated file need to find in the "<spec>.<field>" index
+    public static LongHashSet referencedKeys(String reference, int rows) {
+        String field = reference.substring(reference.indexOf('.') + 1);
+        LongHashSet keys = new LongHashSet();
+        for (int row = 1; row <= rows; row++) {
+            keys.add(KeyHash.of(field + "-" + row));
+        }
+        return keys;
+    }
+
+    private static void write(SpecDefinition spec, int rows, int invalidEvery, File file) throws IOException {
+        List<XlsSpec.HeaderSpec> headers = spec.getHeaders();
+        // Only a window of rows is kept in memory, so 1M-row files can be written with a small heap
+        try (SXSSFWorkbook workbook = new SXSSFWorkbook(1000)) {
+            workbook.getXSSFWorkbook().getProperties().getCustomProperties().addProperty("Spec", spec.getName());
+            CellStyle dateStyle = workbook.createCellStyle();
+            dateStyle.setDataFormat(workbook.getCreationHelper().createDataFormat().getFormat("yyyy-mm-dd"));
+
+            Sheet sheet = workbook.createSheet(spec.getName());
+            Row headerRow = sheet.createRow(0);
+            for (int i = 0; i < headers.size(); i++) {
+                headerRow.createCell(i).setCellValue(headers.get(i).getHeader());
+            }
+            LocalDate today = LocalDate.now();
+            for (int rowNumber = 1; rowNumber <= rows; rowNumber++) {
+                Row row = sheet.createRow(rowNumber);
+                int broken = invalidEvery > 0 && rowNumber % invalidEvery == 0
+                        ? breakableColumn(headers, rowNumber / invalidEvery) : -1;
+                for (int i = 0; i < headers.size(); i++) {
+                    if (i == broken) {
+                        writeInvalidCell(row, i, headers.get(i), rowNumber);
+                    } else {
+                        writeCell(row.createCell(i), headers.get(i), rowNumber, today, dateStyle);
+                    }
+                }
+            }
+            try (OutputStream out = new FileOutputStream(file)) {
+                workbook.write(out);
+            }
+            workbook.dispose();
+        }
+    }
+
+    // The nth column that a value can be wrong for, cycling through them
+    private static int breakableColumn(List<XlsSpec.HeaderSpec> headers, int n) {
+        int[] breakable = new int[headers.size()];
+        int count = 0;
+        for (int i = 0; i < headers.size(); i++) {
+            if (canBreak(headers.get(i))) {
+                breakable[count++] = i;
+            }
+        }
+        return count > 0 ? breakable[n % count] : -1;
+    }
+
+    // An optional free-text column accepts anything, blank included
+    private static boolean canBreak(XlsSpec.HeaderSpec header) {
+        String constraint = header.getConstraint() != null ? header.getConstraint().toLowerCase() : "";
+        return header.isRequired() || !"STRING".equals(header.getType().toUpperCase())
+                || "email".equals(constraint) || header.getReferences() != null;
+    }
+
+    private static void writeInvalidCell(Row row, int column, XlsSpec.HeaderSpec header, int rowNumber) {
+        String constraint = header.getConstraint() != null ? header.getConstraint().toLowerCase() : "";
+        switch (header.getType().toUpperCase()) {
+            case "DATE":
+                row.createCell(column).setCellValue("not a date");
+                break;
+            case "STRING":
+                if ("email".equals(constraint)) {
+                    row.createCell(column).setCellValue("user" + rowNumber + "-at-example.com");
+                } else if (header.getReferences() != null) {
+                    row.createCell(column).setCellValue("missing-" + rowNumber);
+                }
+                // Otherwise a required value is left out
+                break;
+            default:
+                row.createCell(column).setCellValue("n/a");
+        }
+    }
+
+    private static void writeCell(Cell cell, XlsSpec.HeaderSpec header, int rowNumber, LocalDate today,
+                                  CellStyle dateStyle) {
+        String constraint = header.getConstraint() != null ? header.getConstraint().toLowerCase() : "";
+        switch (header.getType().toUpperCase()) {
+            case "DATE":
+                LocalDate date;
+                if ("future".equals(constraint)) {
+                    date = today.plusDays(30 + rowNumber % 365);
+                } else if ("past".equals(constraint)) {
+                    date = today.minusDays(30 + rowNumber % 365);
+                } else {
+                    date = BASE_DATE.plusDays(rowNumber % 365);
+                }
+                cell.setCellValue(date);
+                cell.setCellStyle(dateStyle);
+                break;
+            case "STRING":
+                if ("email".equals(constraint)) {
+                    cell.setCellValue("user" + rowNumber + "@example.com");
+                } else if (header.getReferences() != null) {
+                    String reference = header.getReferences();
+                    cell.setCellValue(reference.substring(reference.indexOf('.') + 1) + "-" + rowNumber);
+                } else {
+                    cell.setCellValue(header.getField() + "-" + rowNumber);
+                }
+                break;
+            default:
+                cell.setCellValue(rowNumber % 1000);
+        }
+    }
+}
@@ -0,0 +1,339 @@
+package com.justinwells.xlsUploader.loadtest;
+
+import com.amazonaws.services.s3.AbstractAmazonS3;
+import com.amazonaws.services.s3.AmazonS3;
+import com.amazonaws.services.s3.model.AmazonS3Exception;
+import com.amazonaws.services.s3.model.GetObjectTaggingRequest;
+import com.amazonaws.services.s3.model.GetObjectTaggingResult;
+import com.amazonaws.services.s3.model.ObjectMetadata;
+import com.amazonaws.services.s3.model.SetObjectTaggingRequest;
+import com.amazonaws.services.s3.model.SetObjectTaggingResult;
+import com.amazonaws.services.s3.model.Tag;
+import org.reactivestreams.Subscriber;
+import org.reactivestreams.Subscription;
+import software.amazon.awssdk.awscore.exception.AwsErrorDetails;
+import software.amazon.awssdk.core.async.AsyncRequestBody;
+import software.amazon.awssdk.services.s3.S3AsyncClient;
+import software.amazon.awssdk.services.s3.model.AbortMultipartUploadRequest;
+import software.amazon.awssdk.services.s3.model.AbortMultipartUploadResponse;
+import software.amazon.awssdk.services.s3.model.CompleteMultipartUploadRequest;
+import software.amazon.awssdk.services.s3.model.CompleteMultipartUploadResponse;
+import software.amazon.awssdk.services.s3.model.CreateMultipartUploadRequest;
+import software.amazon.awssdk.services.s3.model.CreateMultipartUploadResponse;
+import software.amazon.awssdk.services.s3.model.DeleteObjectRequest;
+import software.amazon.awssdk.services.s3.model.DeleteObjectResponse;
+import software.amazon.awssdk.services.s3.model.HeadObjectRequest;
+import software.amazon.awssdk.services.s3.model.HeadObjectResponse;
+import software.amazon.awssdk.services.s3.model.ListObjectsV2Request;
+import software.amazon.awssdk.services.s3.model.ListObjectsV2Response;
+import software.amazon.awssdk.services.s3.model.NoSuchKeyException;
+import software.amazon.awssdk.services.s3.model.NoSuchUploadException;
+import software.amazon.awssdk.services.s3.model.PutObjectRequest;
+import software.amazon.awssdk.services.s3.model.PutObjectResponse;
+import software.amazon.awssdk.services.s3.model.S3Exception;
+import software.amazon.awssdk.services.s3.model.UploadPartRequest;
+import software.amazon.awssdk.services.s3.model.UploadPartResponse;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.nio.ByteBuffer;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.stream.Collectors;
+
+// One bucket's worth of S3 behind both the v1 client (tags, downloads) and the v2 async client (uploads,
+// checkpoints, dedup markers), so the two see the same objects. Bucket names are ignored. Object bodies
+// are only counted unless retainContent is set, which keeps the heap the upload path uses measurable.
+public class InMemoryS3 extends SimulatedService {
+    private static final Set<String> V1_OPERATIONS = Set.of("GetObject", "GetObjectTagging", "PutObjectTagging");
+
+    private final boolean retainContent;
+    private final Map<String, StoredObject> objects = new ConcurrentHashMap<>();
+    private final Map<String, Map<Integer, byte[]>> multipartUploads = new ConcurrentHashMap<>();
+    private final Map<String, AtomicLong> multipartSizes = new ConcurrentHashMap<>();
+    private final AtomicLong bytesStored = new AtomicLong();
+    private final AmazonS3 amazonS3 = new V1();
+    private final S3AsyncClient s3AsyncClient = new V2();
+
+    public InMemoryS3(boolean retainContent) {
+        super("in-memory-s3");
+        this.retainContent = retainContent;
+    }
+
+    public AmazonS3 getAmazonS3() {
+        return amazonS3;
+    }
+
+    public S3AsyncClient getS3AsyncClient() {
+        return s3AsyncClient;
+    }
+
+    public int getObjectCount(String prefix) {
+        return (int) objects.keySet().stream().filter(key -> key.startsWith(prefix)).count();
+    }
+
+    public long getBytesStored() {
+        return bytesStored.get();
+    }
+
+    public String getTag(String key, String name) {
+        StoredObject object = objects.get(key);
+        return object == null ? null : object.tags.stream()
+                .filter(tag -> tag.getKey().equals(name))
+                .map(Tag::getValue)
+                .findFirst()
+                .orElse(null);
+    }
+
+    // Each client fails the way its SDK reports S3's 503 Slow Down
+    @Override
+    protected RuntimeException throttlingError(String operation) {
+        if (V1_OPERATIONS.contains(operation)) {
+            AmazonS3Exception e = new AmazonS3Exception(operation + ": Please reduce your request rate");
+            e.setStatusCode(503);
+            e.setErrorCode("SlowDown");
+            return e;
+        }
+        return S3Exception.builder()
+                .statusCode(503)
+                .awsErrorDetails(AwsErrorDetails.builder().errorCode("SlowDown").serviceName("S3").build())
+                .message(operation + ": Please reduce your request rate")
+                .build();
+    }
+
+    private void store(String key, byte[] content, long size, Map<String, String> metadata) {
+        StoredObject previous = objects.put(key, new StoredObject(retainContent ? content : null, size, metadata));
+        bytesStored.addAndGet(size - (previous != null ? previous.size : 0));
+    }
+
+    private StoredObject require(String key) {
+        StoredObject object = objects.get(key);
+        if (object == null) {
+            throw NoSuchKeyException.builder().statusCode(404).message("No such key: " + key).build();
+        }
+        return object;
+    }
+
+    private static class StoredObject {
+        private final byte[] content;
+        private final long size;
+        private final Map<String, String> metadata;
+        private final Instant lastModified = Instant.now();
+        private volatile List<Tag> tags = List.of();
+
+        private StoredObject(byte[] content, long size, Map<String, String> metadata) {
+            this.content = content;
+            this.size = size;
+            this.metadata = metadata;
+        }
+    }
+
+    private class V1 extends AbstractAmazonS3 {
+
+        @Override
+        public com.amazonaws.services.s3.model.S3Object getObject(String bucketName, String key) {
+            return respondNow("GetObject", () -> {
+                StoredObject stored = objects.get(key);
+                if (stored == null || stored.content == null) {
+                    AmazonS3Exception e = new AmazonS3Exception(stored == null
+                            ? "No such key: " + key : "Content of " + key + " was not retained");
+                    e.setStatusCode(404);
+                    e.setErrorCode("NoSuchKey");
+                    throw e;
+                }
+                com.amazonaws.services.s3.model.S3Object object = new com.amazonaws.services.s3.model.S3Object();
+                object.setBucketName(bucketName);
+                object.setKey(key);
+                ObjectMetadata metadata = new ObjectMetadata();
+                metadata.setContentLength(stored.size);
+                metadata.setUserMetadata(stored.metadata);
+                object.setObjectMetadata(metadata);
+                object.setObjectContent(new ByteArrayInputStream(stored.content));
+                return object;
+            });
+        }
+
+        @Override
+        public GetObjectTaggingResult getObjectTagging(GetObjectTaggingRequest request) {
+            return respondNow("GetObjectTagging",
+                    () -> new GetObjectTaggingResult(new ArrayList<>(tagged(request.getKey()).tags)));
+        }
+
+        @Override
+        public SetObjectTaggingResult setObjectTagging(SetObjectTaggingRequest request) {
+            return respondNow("PutObjectTagging", () -> {
+                tagged(request.getKey()).tags = List.copyOf(request.getTagging().getTagSet());
+                return new SetObjectTaggingResult();
+            });
+        }
+
+        private StoredObject tagged(String key) {
+            StoredObject object = objects.get(key);
+            if (object == null) {
+                AmazonS3Exception e = new AmazonS3Exception("No such key: " + key);
+                e.setStatusCode(404);
+                e.setErrorCode("NoSuchKey");
+                throw e;
+            }
+            return object;
+        }
+    }
+
+    private class V2 implements S3AsyncClient {
+
+        @Override
+        public CompletableFuture<PutObjectResponse> putObject(PutObjectRequest request, AsyncRequestBody body) {
+            return read(body).thenCompose(content -> respond("PutObject", () -> {
+                store(request.key(), content, content.length, Optional.ofNullable(request.metadata()).orElse(Map.of()));
+                return PutObjectResponse.builder().eTag(Integer.toHexString(request.key().hashCode())).build();
+            }));
+        }
+
+        @Override
+        public CompletableFuture<CreateMultipartUploadResponse> createMultipartUpload(
+                CreateMultipartUploadRequest request) {
+            return respond("CreateMultipartUpload", () -> {
+                String uploadId = UUID.randomUUID().toString();
+                multipartUploads.put(uploadId, new ConcurrentSkipListMap<>());
+                multipartSizes.put(uploadId, new AtomicLong());
+                return CreateMultipartUploadResponse.builder()
+                        .bucket(request.bucket()).key(request.key()).uploadId(uploadId).build();
+            });
+        }
+
+        @Override
+        public CompletableFuture<UploadPartResponse> uploadPart(UploadPartRequest request, AsyncRequestBody body) {
+            return read(body).thenCompose(content -> respond("UploadPart", () -> {
+                Map<Integer, byte[]> parts = requireUpload(request.uploadId());
+                parts.put(request.partNumber(), retainContent ? content : new byte[0]);
+                multipartSizes.get(request.uploadId()).addAndGet(content.length);
+                return UploadPartResponse.builder().eTag("part-" + request.partNumber()).build();
+            }));
+        }
+
+        @Override
+        public CompletableFuture<CompleteMultipartUploadResponse> completeMultipartUpload(
+                CompleteMultipartUploadRequest request) {
+            return respond("CompleteMultipartUpload", () -> {
+                Map<Integer, byte[]> parts = requireUpload(request.uploadId());
+                ByteArrayOutputStream content = new ByteArrayOutputStream();
+                if (retainContent) {
+                    parts.values().forEach(content::writeBytes);
+                }
+                store(request.key(), content.toByteArray(), multipartSizes.get(request.uploadId()).get(), Map.of());
+                multipartUploads.remove(request.uploadId());
+                multipartSizes.remove(request.uploadId());
+                return CompleteMultipartUploadResponse.builder().bucket(request.bucket()).key(request.key()).build();
+            });
+        }
+
+        @Override
+        public CompletableFuture<AbortMultipartUploadResponse> abortMultipartUpload(
+                AbortMultipartUploadRequest request) {
+            return respond("AbortMultipartUpload", () -> {
+                multipartUploads.remove(request.uploadId());
+                multipartSizes.remove(request.uploadId());
+                return AbortMultipartUploadResponse.builder().build();
+            });
+        }
+
+        @Override
+        public CompletableFuture<HeadObjectResponse> headObject(HeadObjectRequest request) {
+            return respond("HeadObject", () -> {
+                StoredObject object = require(request.key());
+                return HeadObjectResponse.builder()
+                        .contentLength(object.size)
+                        .metadata(object.metadata)
+                        .lastModified(object.lastModified)
+                        .build();
+            });
+        }
+
+        // One page with every match; nothing in a load test run lists enough objects to need more
+        @Override
+        public CompletableFuture<ListObjectsV2Response> listObjectsV2(ListObjectsV2Request request) {
+            return respond("ListObjectsV2", () -> {
+                String prefix = Optional.ofNullable(request.prefix()).orElse("");
+                List<software.amazon.awssdk.services.s3.model.S3Object> contents = objects.entrySet().stream()
+                        .filter(entry -> entry.getKey().startsWith(prefix))
+                        .sorted(Map.Entry.comparingByKey())
+                        .map(entry -> software.amazon.awssdk.services.s3.model.S3Object.builder()
+                                .key(entry.getKey())
+                                .size(entry.getValue().size)
+                                .lastModified(entry.getValue().lastModified)
+                                .build())
+                        .collect(Collectors.toList());
+                return ListObjectsV2Response.builder().contents(contents).keyCount(contents.size())
+                        .isTruncated(false).build();
+            });
+        }
+
+        @Override
+        public CompletableFuture<DeleteObjectResponse> deleteObject(DeleteObjectRequest request) {
+            return respond("DeleteObject", () -> {
+                StoredObject removed = objects.remove(request.key());
+                if (removed != null) {
+                    bytesStored.addAndGet(-removed.size);
+                }
+                return DeleteObjectResponse.builder().build();
+            });
+        }
+
+        @Override
+        public String serviceName() {
+            return SERVICE_NAME;
+        }
+
+        @Override
+        public void close() {
+        }
+
+        private Map<Integer, byte[]> requireUpload(String uploadId) {
+            Map<Integer, byte[]> parts = multipartUploads.get(uploadId);
+            if (parts == null) {
+                throw NoSuchUploadException.builder().statusCode(404).message("No such upload: " + uploadId).build();
+            }
+            return parts;
+        }
+    }
+
+    // Drains a request body the way the HTTP client would before the call goes out
+    private static CompletableFuture<byte[]> read(AsyncRequestBody body) {
+        CompletableFuture<byte[]> content = new CompletableFuture<>();
+        body.subscribe(new Subscriber<ByteBuffer>() {
+            private final ByteArrayOutputStream buffer = new ByteArrayOutputStream();
+
+            @Override
+            public void onSubscribe(Subscription subscription) {
+                subscription.request(Long.MAX_VALUE);
+            }
+
+            @Override
+            public void onNext(ByteBuffer bytes) {
+                byte[] chunk = new byte[bytes.remaining()];
+                bytes.get(chunk);
+                buffer.writeBytes(chunk);
+            }
+
+            @Override
+            public void onError(Throwable error) {
+                content.completeExceptionally(error);
+            }
+
+            @Override
+            public void onComplete() {
+                content.complete(buffer.toByteArray());
+            }
+        });
+        return content;
+    }
+}
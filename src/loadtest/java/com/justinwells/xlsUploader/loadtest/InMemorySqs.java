@@ -0,0 +1,144 @@
+package com.justinwells.xlsUploader.loadtest;
+
+import software.amazon.awssdk.awscore.exception.AwsErrorDetails;
+import software.amazon.awssdk.services.sqs.SqsAsyncClient;
+import software.amazon.awssdk.services.sqs.model.DeleteMessageBatchRequest;
+import software.amazon.awssdk.services.sqs.model.DeleteMessageBatchResponse;
+import software.amazon.awssdk.services.sqs.model.DeleteMessageBatchResultEntry;
+import software.amazon.awssdk.services.sqs.model.GetQueueAttributesRequest;
+import software.amazon.awssdk.services.sqs.model.GetQueueAttributesResponse;
+import software.amazon.awssdk.services.sqs.model.GetQueueUrlRequest;
+import software.amazon.awssdk.services.sqs.model.GetQueueUrlResponse;
+import software.amazon.awssdk.services.sqs.model.ReceiveMessageRequest;
+import software.amazon.awssdk.services.sqs.model.ReceiveMessageResponse;
+import software.amazon.awssdk.services.sqs.model.SendMessageBatchRequest;
+import software.amazon.awssdk.services.sqs.model.SendMessageBatchResponse;
+import software.amazon.awssdk.services.sqs.model.SendMessageBatchResultEntry;
+import software.amazon.awssdk.services.sqs.model.SendMessageRequest;
+import software.amazon.awssdk.services.sqs.model.SendMessageResponse;
+import software.amazon.awssdk.services.sqs.model.SqsException;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.stream.Collectors;
+
+// SQS stand-in that accepts and counts messages per queue without delivering them. Listener polls get
+// an empty response once their wait time is up, as from an idle queue. Throttled calls fail with the
+// ThrottlingException error code the SDK reports as throttling.
+public class InMemorySqs extends SimulatedService implements SqsAsyncClient {
+    private static final String ACCOUNT_URL = "https://sqs.us-east-1.amazonaws.com/000000000000/";
+
+    private final Map<String, AtomicLong> messages = new ConcurrentHashMap<>();
+    private final AtomicLong bytes = new AtomicLong();
+
+    public InMemorySqs() {
+        super("in-memory-sqs");
+    }
+
+    // Queue URL to messages accepted, sorted by URL
+    public Map<String, Long> getMessageCounts() {
+        return messages.entrySet().stream().collect(Collectors.toMap(
+                Map.Entry::getKey, entry -> entry.getValue().get(), Long::sum, TreeMap::new));
+    }
+
+    public long getMessageCount() {
+        return messages.values().stream().mapToLong(AtomicLong::get).sum();
+    }
+
+    public long getBytes() {
+        return bytes.get();
+    }
+
+    @Override
+    public void reset() {
+        super.reset();
+        messages.clear();
+        bytes.set(0);
+    }
+
+    @Override
+    protected RuntimeException throttlingError(String operation) {
+        return SqsException.builder()
+                .statusCode(400)
+                .awsErrorDetails(AwsErrorDetails.builder()
+                        .errorCode("ThrottlingException")
+                        .errorMessage("Rate exceeded")
+                        .serviceName("Sqs")
+                        .build())
+                .message(operation + ": Rate exceeded")
+                .build();
+    }
+
+    @Override
+    public CompletableFuture<SendMessageBatchResponse> sendMessageBatch(SendMessageBatchRequest request) {
+        return respond("SendMessageBatch", () -> {
+            accept(request.queueUrl(), request.entries().size(), request.entries().stream()
+                    .mapToLong(entry -> entry.messageBody().getBytes(StandardCharsets.UTF_8).length)
+                    .sum());
+            return SendMessageBatchResponse.builder()
+                    .successful(request.entries().stream()
+                            .map(entry -> SendMessageBatchResultEntry.builder()
+                                    .id(entry.id())
+                                    .messageId(UUID.randomUUID().toString())
+                                    .build())
+                            .collect(Collectors.toList()))
+                    .build();
+        });
+    }
+
+    @Override
+    public CompletableFuture<SendMessageResponse> sendMessage(SendMessageRequest request) {
+        return respond("SendMessage", () -> {
+            accept(request.queueUrl(), 1, request.messageBody().getBytes(StandardCharsets.UTF_8).length);
+            return SendMessageResponse.builder().messageId(UUID.randomUUID().toString()).build();
+        });
+    }
+
+    @Override
+    public CompletableFuture<GetQueueUrlResponse> getQueueUrl(GetQueueUrlRequest request) {
+        return CompletableFuture.completedFuture(
+                GetQueueUrlResponse.builder().queueUrl(ACCOUNT_URL + request.queueName()).build());
+    }
+
+    @Override
+    public CompletableFuture<GetQueueAttributesResponse> getQueueAttributes(GetQueueAttributesRequest request) {
+        return CompletableFuture.completedFuture(GetQueueAttributesResponse.builder().build());
+    }
+
+    // Not timed: listeners long-poll all through a run and would drown out the calls that matter
+    @Override
+    public CompletableFuture<ReceiveMessageResponse> receiveMessage(ReceiveMessageRequest request) {
+        int waitSeconds = request.waitTimeSeconds() != null ? request.waitTimeSeconds() : 0;
+        return CompletableFuture.supplyAsync(() -> ReceiveMessageResponse.builder().build(),
+                CompletableFuture.delayedExecutor(waitSeconds, TimeUnit.SECONDS));
+    }
+
+    @Override
+    public CompletableFuture<DeleteMessageBatchResponse> deleteMessageBatch(DeleteMessageBatchRequest request) {
+        return CompletableFuture.completedFuture(DeleteMessageBatchResponse.builder()
+                .successful(request.entries().stream()
+                        .map(entry -> DeleteMessageBatchResultEntry.builder().id(entry.id()).build())
+                        .collect(Collectors.toList()))
+                .build());
+    }
+
+    @Override
+    public String serviceName() {
+        return SERVICE_NAME;
+    }
+
+    @Override
+    public void close() {
+    }
+
+    private void accept(String queueUrl, int count, long size) {
+        messages.computeIfAbsent(queueUrl, url -> new AtomicLong()).addAndGet(count);
+        bytes.addAndGet(size);
+    }
+}
@@ -0,0 +1,35 @@
+package com.justinwells.xlsUploader.loadtest;
+
+import java.util.Arrays;
+
+// Every sample is kept, so percentiles are exact; a run records at most a few million
+public class LatencyRecorder {
+    private long[] nanos = new long[1024];
+    private int count;
+
+    public synchronized void record(long elapsedNanos) {
+        if (count == nanos.length) {
+            nanos = Arrays.copyOf(nanos, count * 2);
+        }
+        nanos[count++] = elapsedNanos;
+    }
+
+    public synchronized int getCount() {
+        return count;
+    }
+
+    // Nearest-rank percentile in milliseconds, 0 when nothing was recorded
+    public synchronized double percentileMillis(double percentile) {
+        if (count == 0) {
+            return 0;
+        }
+        long[] sorted = Arrays.copyOf(nanos, count);
+        Arrays.sort(sorted);
+        int rank = (int) Math.ceil(percentile / 100 * count);
+        return sorted[Math.max(0, rank - 1)] / 1_000_000.0;
+    }
+
+    public synchronized void reset() {
+        count = 0;
+    }
+}
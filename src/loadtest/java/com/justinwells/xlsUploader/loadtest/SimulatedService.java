@@ -0,0 +1,138 @@
+package com.justinwells.xlsUploader.loadtest;
+
+import java.time.Duration;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Supplier;
+
+// Base of the in-memory AWS fakes. Each call is answered after latency plus up to jitter of random extra
+// delay, and the time the caller waited is recorded per operation. With a rate limit, calls beyond
+// callsPerSecond (across all operations, bursts up to one second's worth) get the service's throttling
+// error instead of a result.
+public abstract class SimulatedService {
+    private final ScheduledExecutorService timer;
+    private final Map<String, LatencyRecorder> latencies = new ConcurrentHashMap<>();
+    private final AtomicLong throttled = new AtomicLong();
+    private volatile long latencyNanos;
+    private volatile long jitterNanos;
+    private int callsPerSecond;
+    private double tokens;
+    private long refilledAt = System.nanoTime();
+
+    protected SimulatedService(String name) {
+        this.timer = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, name + "-timer");
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    public void setLatency(Duration latency, Duration jitter) {
+        this.latencyNanos = latency.toNanos();
+        this.jitterNanos = jitter.toNanos();
+    }
+
+    // 0 turns throttling off
+    public synchronized void setRateLimit(int callsPerSecond) {
+        this.callsPerSecond = callsPerSecond;
+        this.tokens = callsPerSecond;
+        this.refilledAt = System.nanoTime();
+    }
+
+    // Operation name to caller-observed latency, sorted by name
+    public Map<String, LatencyRecorder> getLatencies() {
+        return new TreeMap<>(latencies);
+    }
+
+    public long getThrottled() {
+        return throttled.get();
+    }
+
+    public void reset() {
+        latencies.values().forEach(LatencyRecorder::reset);
+        throttled.set(0);
+    }
+
+    // The error a throttled call of operation fails with
+    protected abstract RuntimeException throttlingError(String operation);
+
+    // For async clients: result is computed on the timer thread once the delay has passed, so a failure
+    // it throws fails the returned future
+    protected <T> CompletableFuture<T> respond(String operation, Supplier<T> result) {
+        long start = System.nanoTime();
+        boolean admitted = admit();
+        CompletableFuture<T> response = new CompletableFuture<>();
+        Runnable answer = () -> {
+            try {
+                response.complete(admitted ? result.get() : fail(operation));
+            } catch (RuntimeException e) {
+                response.completeExceptionally(e);
+            }
+            record(operation, start);
+        };
+        long delay = delay();
+        if (delay > 0) {
+            timer.schedule(answer, delay, TimeUnit.NANOSECONDS);
+        } else {
+            answer.run();
+        }
+        return response;
+    }
+
+    // For blocking clients: the calling thread sleeps for the delay
+    protected <T> T respondNow(String operation, Supplier<T> result) {
+        long start = System.nanoTime();
+        boolean admitted = admit();
+        try {
+            long delay = delay();
+            if (delay > 0) {
+                TimeUnit.NANOSECONDS.sleep(delay);
+            }
+            return admitted ? result.get() : fail(operation);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("Interrupted during " + operation, e);
+        } finally {
+            record(operation, start);
+        }
+    }
+
+    public void shutdown() {
+        timer.shutdownNow();
+    }
+
+    private synchronized boolean admit() {
+        if (callsPerSecond <= 0) {
+            return true;
+        }
+        long now = System.nanoTime();
+        tokens = Math.min(callsPerSecond, tokens + (now - refilledAt) * callsPerSecond / 1e9);
+        refilledAt = now;
+        if (tokens < 1) {
+            return false;
+        }
+        tokens--;
+        return true;
+    }
+
+    private <T> T fail(String operation) {
+        throttled.incrementAndGet();
+        throw throttlingError(operation);
+    }
+
+    private long delay() {
+        long jitter = jitterNanos;
+        return latencyNanos + (jitter > 0 ? ThreadLocalRandom.current().nextLong(jitter + 1) : 0);
+    }
+
+    private void record(String operation, long start) {
+        latencies.computeIfAbsent(operation, o -> new LatencyRecorder()).record(System.nanoTime() - start);
+    }
+}
@@ -0,0 +1,358 @@
+package com.justinwells.xlsUploader.loadtest;
+
+import com.amazonaws.services.s3.AmazonS3;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.SerializationFeature;
+import com.justinwells.xlsUploader.XlsUploaderApplication;
+import com.justinwells.xlsUploader.benchmark.WorkbookGenerator;
+import com.justinwells.xlsUploader.model.SpecDefinition;
+import com.justinwells.xlsUploader.model.XlsSpec;
+import com.justinwells.xlsUploader.service.KeyIndexService;
+import org.springframework.boot.builder.SpringApplicationBuilder;
+import org.springframework.context.ApplicationContextInitializer;
+import org.springframework.context.ConfigurableApplicationContext;
+import org.springframework.context.support.GenericApplicationContext;
+import software.amazon.awssdk.services.s3.S3AsyncClient;
+import software.amazon.awssdk.services.sqs.SqsAsyncClient;
+
+import java.io.File;
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryPoolMXBean;
+import java.lang.management.MemoryType;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+// Boots the application in-process on a random port with in-memory S3 and SQS, then posts generated
+// workbooks to /upload from concurrent clients and reports throughput, request latency, peak heap and
+// what the fakes saw. Nothing outside the JVM is needed, so runs are comparable between machines only
+// as far as the hardware is. Peak heap covers the whole JVM: the application, the fakes (which count
+// bodies instead of keeping them) and the driver.
+public final class UploadLoadTest {
+    private static final String USAGE = String.join("\n",
+            "mvn -Ploadtest verify -Dloadtest.args=\"--files=200 --rows=10000 --concurrency=8\"",
+            "",
+            "Options (all --name=value):",
+            "  --files=200            uploads to measure",
+            "  --rows=10000           data rows per workbook",
+            "  --concurrency=8        clients uploading at once",
+            "  --specs=a,b            specs to upload, in turn (default: every spec)",
+            "  --invalid-files=0      share of uploads, 0..1, that use a workbook with invalid rows",
+            "  --invalid-every=100    every n-th row of an invalid workbook breaks a rule",
+            "  --endpoint=upload      upload or upload/stream",
+            "  --warmup=10            uploads run and discarded before measuring",
+            "  --s3-latency-ms=0      added to every S3 call, plus up to --s3-jitter-ms=0",
+            "  --s3-rate-limit=0      S3 calls per second before Slow Down (0: unlimited)",
+            "  --sqs-latency-ms=0     added to every SQS call, plus up to --sqs-jitter-ms=0",
+            "  --sqs-rate-limit=0     SQS calls per second before throttling (0: unlimited)",
+            "  --set=property=value   application property for the run, repeatable",
+            "  --result=target/loadtest-result.json");
+
+    private final Map<String, String> options;
+    private final List<String> properties;
+    private final InMemoryS3 s3 = new InMemoryS3(false);
+    private final InMemorySqs sqs = new InMemorySqs();
+    private final LatencyRecorder requestLatency = new LatencyRecorder();
+    private final Map<String, AtomicLong> outcomes = new LinkedHashMap<>();
+    private final List<String> unexpected = new ArrayList<>();
+    private HttpClient httpClient;
+    private URI endpoint;
+
+    private UploadLoadTest(Map<String, String> options, List<String> properties) {
+        this.options = options;
+        this.properties = properties;
+    }
+
+    public static void main(String[] args) throws Exception {
+        Map<String, String> options = new LinkedHashMap<>();
+        List<String> properties = new ArrayList<>();
+        for (String arg : args) {
+            if (arg.equals("--help") || !arg.startsWith("--") || !arg.contains("=")) {
+                System.out.println(USAGE);
+                return;
+            }
+            String name = arg.substring(2, arg.indexOf('='));
+            String value = arg.substring(arg.indexOf('=') + 1);
+            if (name.equals("set")) {
+                properties.add("--" + value);
+            } else {
+                options.put(name, value);
+            }
+        }
+        new UploadLoadTest(options, properties).run();
+    }
+
+    private void run() throws Exception {
+        int files = intOption("files", 200);
+        int rows = intOption("rows", 10000);
+        int concurrency = intOption("concurrency", 8);
+        int warmup = intOption("warmup", 10);
+        int invalidEvery = intOption("invalid-every", 100);
+        double invalidFiles = Double.parseDouble(options.getOrDefault("invalid-files", "0"));
+        s3.setLatency(Duration.ofMillis(intOption("s3-latency-ms", 0)), Duration.ofMillis(intOption("s3-jitter-ms", 0)));
+        s3.setRateLimit(intOption("s3-rate-limit", 0));
+        sqs.setLatency(Duration.ofMillis(intOption("sqs-latency-ms", 0)),
+                Duration.ofMillis(intOption("sqs-jitter-ms", 0)));
+        sqs.setRateLimit(intOption("sqs-rate-limit", 0));
+
+        Path keyDir = Files.createTempDirectory("loadtest-keys");
+        try (ConfigurableApplicationContext context = start(keyDir)) {
+            XlsSpec xlsSpec = context.getBean(XlsSpec.class);
+            List<String> specs = options.containsKey("specs")
+                    ? Arrays.asList(options.get("specs").split(",")) : new ArrayList<>(xlsSpec.getSpecNames());
+
+            // Workbooks are generated, and the keys they reference indexed, before anything is timed
+            List<Upload> plan = new ArrayList<>();
+            KeyIndexService keyIndexService = context.getBean(KeyIndexService.class);
+            for (int i = 0; i < files; i++) {
+                SpecDefinition spec = xlsSpec.getDefinition(specs.get(i % specs.size()));
+                if (spec == null) {
+                    throw new IllegalArgumentException("Unknown spec: " + specs.get(i % specs.size()));
+                }
+                // Spreads the invalid uploads evenly through the run
+                boolean invalid = Math.floor((i + 1) * invalidFiles) > Math.floor(i * invalidFiles);
+                plan.add(new Upload(spec.getName() + "-" + i + ".xlsx", spec.getName(), invalid,
+                        WorkbookGenerator.workbook(spec, rows, invalid ? invalidEvery : 0)));
+            }
+            for (String specName : specs) {
+                for (XlsSpec.HeaderSpec header : xlsSpec.getDefinition(specName).getHeaders()) {
+                    if (header.getReferences() != null) {
+                        keyIndexService.addAll(header.getReferences(),
+                                WorkbookGenerator.referencedKeys(header.getReferences(), rows));
+                    }
+                }
+            }
+
+            int port = context.getEnvironment().getRequiredProperty("local.server.port", Integer.class);
+            endpoint = URI.create("http://localhost:" + port + "/" + options.getOrDefault("endpoint", "upload"));
+            httpClient = HttpClient.newBuilder().version(HttpClient.Version.HTTP_1_1).build();
+
+            if (warmup > 0) {
+                drive(plan.subList(0, Math.min(warmup, plan.size())), concurrency);
+                requestLatency.reset();
+                outcomes.clear();
+                unexpected.clear();
+                s3.reset();
+                sqs.reset();
+            }
+
+            List<MemoryPoolMXBean> heapPools = ManagementFactory.getMemoryPoolMXBeans().stream()
+                    .filter(pool -> pool.getType() == MemoryType.HEAP)
+                    .toList();
+            System.gc();
+            heapPools.forEach(MemoryPoolMXBean::resetPeakUsage);
+            long start = System.nanoTime();
+            drive(plan, concurrency);
+            double seconds = (System.nanoTime() - start) / 1e9;
+            // Pools peak at different moments, so their sum is an upper bound on the heap in use at once
+            long peakHeap = heapPools.stream().mapToLong(pool -> pool.getPeakUsage().getUsed()).sum();
+
+            Map<String, Object> result = report(specs, files, rows, concurrency, seconds, peakHeap);
+            File resultFile = new File(options.getOrDefault("result", "target/loadtest-result.json"));
+            if (resultFile.getParentFile() != null) {
+                resultFile.getParentFile().mkdirs();
+            }
+            new ObjectMapper().enable(SerializationFeature.INDENT_OUTPUT).writeValue(resultFile, result);
+            System.out.println("Results written to " + resultFile);
+        } finally {
+            s3.shutdown();
+            sqs.shutdown();
+            deleteRecursively(keyDir.toFile());
+        }
+    }
+
+    private ConfigurableApplicationContext start(Path keyDir) {
+        List<String> args = new ArrayList<>(List.of(
+                "--server.port=0",
+                "--spring.main.banner-mode=off",
+                "--logging.level.com.justinwells.xlsUploader=WARN",
+                "--xls.keys.dir=" + keyDir,
+                "--xls.specs.watch=false",
+                // Every upload of a spec sends the same generated file, which dedup would answer without parsing
+                "--xls.dedup.ttl=PT0S",
+                // Listener polls against the fake return after this, so shutdown does not wait on them
+                "--xls.consumer.poll-timeout=PT1S",
+                "--spring.servlet.multipart.max-file-size=2GB",
+                "--spring.servlet.multipart.max-request-size=2GB",
+                "--server.tomcat.max-swallow-size=-1"));
+        args.addAll(properties);
+        // The fakes win over the LocalStack clients of AwsConfig; SQS auto-configuration backs off entirely
+        ApplicationContextInitializer<GenericApplicationContext> fakes = context -> {
+            context.registerBean("loadTestAmazonS3", AmazonS3.class, s3::getAmazonS3,
+                    definition -> definition.setPrimary(true));
+            context.registerBean("loadTestS3AsyncClient", S3AsyncClient.class, s3::getS3AsyncClient,
+                    definition -> definition.setPrimary(true));
+            context.registerBean("loadTestSqsAsyncClient", SqsAsyncClient.class, () -> sqs,
+                    definition -> definition.setPrimary(true));
+        };
+        return new SpringApplicationBuilder(XlsUploaderApplication.class)
+                .initializers(fakes)
+                .run(args.toArray(new String[0]));
+    }
+
+    // Each client takes the next upload of the plan until none are left
+    private void drive(List<Upload> plan, int concurrency) throws InterruptedException {
+        AtomicInteger next = new AtomicInteger();
+        try (ExecutorService clients = Executors.newThreadPerTaskExecutor(
+                Thread.ofVirtual().name("loadtest-client-", 1).factory())) {
+            for (int i = 0; i < concurrency; i++) {
+                clients.execute(() -> {
+                    int index;
+                    while ((index = next.getAndIncrement()) < plan.size()) {
+                        send(plan.get(index));
+                    }
+                });
+            }
+        }
+    }
+
+    private void send(Upload upload) {
+        String boundary = "loadtest-" + UUID.randomUUID();
+        // The spec field comes first: /upload/stream only sees fields sent ahead of the file
+        String head = "--" + boundary + "\r\n"
+                + "Content-Disposition: form-data; name=\"specName\"\r\n\r\n" + upload.spec + "\r\n"
+                + "--" + boundary + "\r\n"
+                + "Content-Disposition: form-data; name=\"file\"; filename=\"" + upload.fileName + "\"\r\n"
+                + "Content-Type: application/vnd.openxmlformats-officedocument.spreadsheetml.sheet\r\n\r\n";
+        String tail = "\r\n--" + boundary + "--\r\n";
+        long start = System.nanoTime();
+        String outcome;
+        try {
+            HttpRequest request = HttpRequest.newBuilder(endpoint)
+                    .header("Content-Type", "multipart/form-data; boundary=" + boundary)
+                    .POST(HttpRequest.BodyPublishers.concat(
+                            HttpRequest.BodyPublishers.ofString(head, StandardCharsets.UTF_8),
+                            HttpRequest.BodyPublishers.ofFile(upload.workbook.toPath()),
+                            HttpRequest.BodyPublishers.ofString(tail, StandardCharsets.UTF_8)))
+                    .build();
+            HttpResponse<String> response = httpClient.send(request, HttpResponse.BodyHandlers.ofString());
+            requestLatency.record(System.nanoTime() - start);
+            // Processed files answer 200; files with invalid rows are quarantined with a 400 and an error report
+            boolean processed = response.statusCode() == 200;
+            boolean quarantined = response.statusCode() == 400 && response.body().contains("errorReport");
+            outcome = processed ? "processed" : quarantined ? "quarantined" : "failed (" + response.statusCode() + ")";
+            if (upload.invalid ? !quarantined : !processed) {
+                unexpected(upload.fileName + " (" + (upload.invalid ? "invalid" : "valid") + "): "
+                        + response.statusCode() + " " + response.body());
+            }
+        } catch (IOException e) {
+            requestLatency.record(System.nanoTime() - start);
+            outcome = "failed (I/O)";
+            unexpected(upload.fileName + ": " + e);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return;
+        }
+        synchronized (outcomes) {
+            outcomes.computeIfAbsent(outcome, o -> new AtomicLong()).incrementAndGet();
+        }
+    }
+
+    private void unexpected(String description) {
+        synchronized (unexpected) {
+            unexpected.add(description);
+        }
+    }
+
+    private Map<String, Object> report(List<String> specs, int files, int rows, int concurrency, double seconds,
+                                       long peakHeap) {
+        Map<String, Object> result = new LinkedHashMap<>();
+        result.put("files", files);
+        result.put("rowsPerFile", rows);
+        result.put("concurrency", concurrency);
+        result.put("specs", specs);
+        result.put("endpoint", endpoint.getPath());
+        result.put("seconds", seconds);
+        result.put("filesPerSecond", files / seconds);
+        result.put("rowsPerSecond", (double) files * rows / seconds);
+        result.put("latencyP50Millis", requestLatency.percentileMillis(50));
+        result.put("latencyP99Millis", requestLatency.percentileMillis(99));
+        result.put("latencyMaxMillis", requestLatency.percentileMillis(100));
+        result.put("peakHeapBytes", peakHeap);
+        result.put("maxHeapBytes", Runtime.getRuntime().maxMemory());
+        Map<String, Long> outcomeCounts = new LinkedHashMap<>();
+        outcomes.forEach((outcome, count) -> outcomeCounts.put(outcome, count.get()));
+        result.put("outcomes", outcomeCounts);
+        result.put("unexpectedOutcomes", unexpected.size());
+        result.put("sqsMessages", sqs.getMessageCount());
+        result.put("sqsBytes", sqs.getBytes());
+        result.put("sqsThrottled", sqs.getThrottled());
+        result.put("s3BytesStored", s3.getBytesStored());
+        result.put("s3Throttled", s3.getThrottled());
+        Map<String, Object> calls = new LinkedHashMap<>();
+        s3.getLatencies().forEach((operation, latency) -> calls.put("S3 " + operation, calls(latency)));
+        sqs.getLatencies().forEach((operation, latency) -> calls.put("SQS " + operation, calls(latency)));
+        result.put("calls", calls);
+
+        System.out.printf(Locale.ROOT, "%n%d uploads of %,d rows (%s) to %s from %d clients in %.2f s: %s%n",
+                files, rows, String.join(", ", specs), endpoint.getPath(), concurrency, seconds, outcomeCounts);
+        System.out.printf(Locale.ROOT, "Throughput     %.1f files/s, %,.0f rows/s%n",
+                result.get("filesPerSecond"), result.get("rowsPerSecond"));
+        System.out.printf(Locale.ROOT, "Latency        p50 %.1f ms, p99 %.1f ms, max %.1f ms%n",
+                result.get("latencyP50Millis"), result.get("latencyP99Millis"), result.get("latencyMaxMillis"));
+        System.out.printf(Locale.ROOT, "Peak heap      %,d MB of %,d MB%n", peakHeap >> 20,
+                Runtime.getRuntime().maxMemory() >> 20);
+        System.out.printf(Locale.ROOT, "SQS            %,d messages, %,d MB, %,d throttled calls%n",
+                sqs.getMessageCount(), sqs.getBytes() >> 20, sqs.getThrottled());
+        System.out.printf(Locale.ROOT, "S3             %,d MB stored, %,d throttled calls%n",
+                s3.getBytesStored() >> 20, s3.getThrottled());
+        calls.forEach((operation, stats) -> System.out.printf(Locale.ROOT, "  %-28s %s%n", operation, stats));
+        if (!unexpected.isEmpty()) {
+            System.out.printf("%d upload(s) did not end as expected, first: %s%n", unexpected.size(), unexpected.get(0));
+        }
+        return result;
+    }
+
+    private static Map<String, Object> calls(LatencyRecorder latency) {
+        Map<String, Object> stats = new LinkedHashMap<>();
+        stats.put("count", latency.getCount());
+        stats.put("p50Millis", latency.percentileMillis(50));
+        stats.put("p99Millis", latency.percentileMillis(99));
+        return stats;
+    }
+
+    private int intOption(String name, int defaultValue) {
+        return Integer.parseInt(options.getOrDefault(name, Integer.toString(defaultValue)));
+    }
+
+    private static void deleteRecursively(File file) {
+        File[] children = file.listFiles();
+        if (children != null) {
+            for (File child : children) {
+                deleteRecursively(child);
+            }
+        }
+        file.delete();
+    }
+
+    private static class Upload {
+        private final String fileName;
+        private final String spec;
+        private final boolean invalid;
+        private final File workbook;
+
+        private Upload(String fileName, String spec, boolean invalid, File workbook) {
+            this.fileName = fileName;
+            this.spec = spec;
+            this.invalid = invalid;
+            this.workbook = workbook;
+        }
+    }
+}
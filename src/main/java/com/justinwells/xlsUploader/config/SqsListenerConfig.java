@@ -0,0 +1,36 @@
+package com.justinwells.xlsUploader.config;
+
+import io.awspring.cloud.sqs.config.SqsMessageListenerContainerFactory;
+import io.awspring.cloud.sqs.listener.acknowledgement.handler.AcknowledgementMode;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import software.amazon.awssdk.services.sqs.SqsAsyncClient;
+
+import java.time.Duration;
+
+@Configuration
+public class SqsListenerConfig {
+
+    // Used by every @SqsListener. Batch listeners receive up to maxMessagesPerPoll messages at a time;
+    // acknowledgements are deleted from the queue in groups rather than one call per message.
+    @Bean
+    public SqsMessageListenerContainerFactory<Object> defaultSqsListenerContainerFactory(
+            SqsAsyncClient sqsAsyncClient,
+            @Value("${xls.consumer.max-concurrent-messages:100}") int maxConcurrentMessages,
+            @Value("${xls.consumer.max-messages-per-poll:10}") int maxMessagesPerPoll,
+            @Value("${xls.consumer.poll-timeout:PT10S}") Duration pollTimeout,
+            @Value("${xls.consumer.ack-interval:PT1S}") Duration ackInterval,
+            @Value("${xls.consumer.ack-threshold:10}") int ackThreshold) {
+        return SqsMessageListenerContainerFactory.builder()
+                .sqsAsyncClient(sqsAsyncClient)
+                .configure(options -> options
+                        .maxConcurrentMessages(maxConcurrentMessages)
+                        .maxMessagesPerPoll(maxMessagesPerPoll)
+                        .pollTimeout(pollTimeout)
+                        .acknowledgementMode(AcknowledgementMode.ON_SUCCESS)
+                        .acknowledgementInterval(ackInterval)
+                        .acknowledgementThreshold(ackThreshold))
+                .build();
+    }
+}
@@ -0,0 +1,77 @@
+package com.justinwells.xlsUploader.controller;
+
+import com.amazonaws.services.s3.model.AmazonS3Exception;
+import com.justinwells.xlsUploader.model.FileState;
+import com.justinwells.xlsUploader.model.UploadJob;
+import com.justinwells.xlsUploader.service.FileStateService;
+import com.justinwells.xlsUploader.service.UploadJobService;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.ResponseEntity;
+import org.springframework.web.bind.annotation.GetMapping;
+import org.springframework.web.bind.annotation.PathVariable;
+import org.springframework.web.bind.annotation.PostMapping;
+import org.springframework.web.bind.annotation.RequestParam;
+import org.springframework.web.bind.annotation.RestController;
+
+import java.io.IOException;
+import java.util.Map;
+import java.util.concurrent.RejectedExecutionException;
+
+@RestController
+public class JobController {
+
+    private final UploadJobService uploadJobService;
+    private final FileStateService fileStateService;
+
+    @Autowired
+    public JobController(UploadJobService uploadJobService, FileStateService fileStateService) {
+        this.uploadJobService = uploadJobService;
+        this.fileStateService = fileStateService;
+    }
+
+    @GetMapping("/jobs/{id}")
+    public ResponseEntity<UploadJob> getJob(@PathVariable("id") String id) {
+        UploadJob job = uploadJobService.getJob(id);
+        if (job == null) {
+            return ResponseEntity.notFound().build();
+        }
+        return ResponseEntity.ok(job);
+    }
+
+    // Answered from memory for files this node handled; only other nodes' files cost an S3 call
+    @GetMapping("/files/state")
+    public ResponseEntity<FileState> getFileState(@RequestParam("key") String key) {
+        FileState state = fileStateService.getState(key);
+        if (state == null) {
+            try {
+                state = fileStateService.readState(key);
+            } catch (AmazonS3Exception e) {
+                if (e.getStatusCode() != HttpStatus.NOT_FOUND.value()) {
+                    throw e;
+                }
+            }
+        }
+        if (state == null) {
+            return ResponseEntity.notFound().build();
+        }
+        return ResponseEntity.ok(state);
+    }
+
+    // Continues a partially published upload from its checkpoint
+    @PostMapping("/jobs/resume")
+    public ResponseEntity<?> resume(@RequestParam("key") String key) throws IOException {
+        UploadJob job;
+        try {
+            job = uploadJobService.resume(key);
+        } catch (IllegalStateException e) {
+            return ResponseEntity.status(HttpStatus.CONFLICT).body(Map.of("error", e.getMessage()));
+        } catch (RejectedExecutionException e) {
+            return ResponseEntity.status(HttpStatus.TOO_MANY_REQUESTS).body(Map.of("error", e.getMessage()));
+        }
+        if (job == null) {
+            return ResponseEntity.notFound().build();
+        }
+        return ResponseEntity.accepted().body(job);
+    }
+}
@@ -1,19 +1,33 @@
 package com.justinwells.xlsUploader.controller;
 
-import com.amazonaws.services.s3.AmazonS3;
-import com.amazonaws.services.s3.model.ObjectMetadata;
-import com.amazonaws.services.s3.model.ObjectTagging;
-import com.amazonaws.services.s3.model.PutObjectResult;
-import com.amazonaws.services.s3.model.SetObjectTaggingRequest;
-import com.amazonaws.services.s3.model.Tag;
+import com.justinwells.xlsUploader.model.FileOutcome;
+import com.justinwells.xlsUploader.model.ProcessedUpload;
+import com.justinwells.xlsUploader.model.RowErrors;
+import com.justinwells.xlsUploader.model.UploadFormat;
+import com.justinwells.xlsUploader.model.UploadJob;
 import com.justinwells.xlsUploader.model.XlsSpec;
+import com.justinwells.xlsUploader.service.BulkIngestService;
+import com.justinwells.xlsUploader.service.CheckpointService;
+import com.justinwells.xlsUploader.service.ErrorReportService;
+import com.justinwells.xlsUploader.service.FileStateService;
+import com.justinwells.xlsUploader.service.IngestQueue;
+import com.justinwells.xlsUploader.service.InspectedPackage;
+import com.justinwells.xlsUploader.service.MultipartStream;
+import com.justinwells.xlsUploader.service.PackageInspector;
+import com.justinwells.xlsUploader.service.ParseResult;
+import com.justinwells.xlsUploader.service.S3StreamingUploader;
 import com.justinwells.xlsUploader.service.SpreadsheetParser;
-import org.apache.poi.openxml4j.exceptions.InvalidFormatException;
-import org.apache.poi.xssf.usermodel.XSSFWorkbook;
-import org.openxmlformats.schemas.officeDocument.x2006.customProperties.CTProperty;
+import com.justinwells.xlsUploader.service.UploadDedupService;
+import com.justinwells.xlsUploader.service.UploadJobService;
+import com.justinwells.xlsUploader.service.UploadMetrics;
+import io.micrometer.core.instrument.Timer;
+import jakarta.servlet.http.HttpServletRequest;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.beans.factory.annotation.Value;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpStatus;
 import org.springframework.http.ResponseEntity;
+import org.springframework.util.unit.DataSize;
 import org.springframework.web.bind.annotation.PostMapping;
 import org.springframework.web.bind.annotation.RequestParam;
 import org.springframework.web.bind.annotation.RestController;
@@ -21,69 +35,281 @@ import org.springframework.web.multipart.MultipartFile;
 
 import java.io.File;
 import java.io.IOException;
-import java.util.Arrays;
+import java.io.InputStream;
+import java.net.URLDecoder;
+import java.nio.charset.StandardCharsets;
+import java.security.DigestInputStream;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.time.Instant;
+import java.util.HashMap;
+import java.util.HexFormat;
+import java.util.List;
 import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
 
 @RestController
 public class UploadController {
-    private final AmazonS3 s3Client;
+    private static final int MAX_ERRORS_IN_RESPONSE = 10;
+    private static final String INVALID_TYPE = "Invalid file type: must be .xlsx, .xls or .csv";
+    private static final int MAX_FIELD_BYTES = 4096;
+
+    private final S3StreamingUploader s3StreamingUploader;
     private final SpreadsheetParser spreadsheetParser;
+    private final PackageInspector packageInspector;
+    private final UploadJobService uploadJobService;
+    private final FileStateService fileStateService;
+    private final ErrorReportService errorReportService;
+    private final UploadDedupService uploadDedupService;
     private final XlsSpec xlsSpec;
-    private final String bucketName;
+    private final UploadMetrics uploadMetrics;
+    private final CheckpointService checkpointService;
+    private final IngestQueue ingestQueue;
+    private final BulkIngestService bulkIngestService;
+    private final DataSize maxFileSize;
 
     @Autowired
-    public UploadController(AmazonS3 s3Client, SpreadsheetParser spreadsheetParser, XlsSpec xlsSpec,
-                            @Value("${spring.cloud.aws.s3.bucket}") String bucketName) {
-        this.s3Client = s3Client;
+    public UploadController(S3StreamingUploader s3StreamingUploader, SpreadsheetParser spreadsheetParser,
+                            PackageInspector packageInspector, UploadJobService uploadJobService,
+                            FileStateService fileStateService, ErrorReportService errorReportService,
+                            UploadDedupService uploadDedupService, XlsSpec xlsSpec, UploadMetrics uploadMetrics,
+                            CheckpointService checkpointService, IngestQueue ingestQueue,
+                            BulkIngestService bulkIngestService,
+                            @Value("${spring.servlet.multipart.max-file-size:1MB}") DataSize maxFileSize) {
+        this.s3StreamingUploader = s3StreamingUploader;
         this.spreadsheetParser = spreadsheetParser;
+        this.packageInspector = packageInspector;
+        this.uploadJobService = uploadJobService;
+        this.fileStateService = fileStateService;
+        this.errorReportService = errorReportService;
+        this.uploadDedupService = uploadDedupService;
         this.xlsSpec = xlsSpec;
-        this.bucketName = bucketName;
+        this.uploadMetrics = uploadMetrics;
+        this.checkpointService = checkpointService;
+        this.ingestQueue = ingestQueue;
+        this.bulkIngestService = bulkIngestService;
+        this.maxFileSize = maxFileSize;
     }
 
     @PostMapping("/upload")
     public ResponseEntity<Map<String, String>> uploadFile(
             @RequestParam("file") MultipartFile file,
-            @RequestParam(value = "specName", required = false) String specNameParam) throws IOException {
+            @RequestParam(value = "specName", required = false) String specNameParam,
+            @RequestParam(value = "async", defaultValue = "false") boolean async,
+            @RequestParam(value = "validateOnly", defaultValue = "false") boolean validateOnly) throws IOException {
+        if (validateOnly) {
+            return validateFile(file, specNameParam);
+        }
+        try (InputStream in = file.getInputStream()) {
+            return ingest(file.getOriginalFilename(), in, specNameParam, async);
+        }
+    }
+
+    // Same as /upload, but the multipart body is read straight off the request instead of being buffered
+    // by the container first. Form fields must come before the file part; specName and async may also be
+    // given as query parameters.
+    @PostMapping("/upload/stream")
+    public ResponseEntity<Map<String, String>> uploadStream(HttpServletRequest request) throws IOException {
+        String boundary = MultipartStream.boundary(request.getContentType());
+        if (boundary == null) {
+            return ResponseEntity.badRequest().body(Map.of("error", "Expected a multipart/form-data request"));
+        }
+        Map<String, String> fields = queryParameters(request.getQueryString());
+        MultipartStream multipart = new MultipartStream(request.getInputStream(), boundary);
+        MultipartStream.Part part;
+        while ((part = multipart.next()) != null) {
+            if (part.getFileName() == null) {
+                fields.putIfAbsent(part.getName(), part.readString(MAX_FIELD_BYTES));
+            } else if ("file".equals(part.getName())) {
+                part.limitTo(maxFileSize.toBytes());
+                try {
+                    return ingest(part.getFileName(), part.getBody(), fields.get("specName"),
+                            Boolean.parseBoolean(fields.get("async")));
+                } catch (MultipartStream.PartTooLargeException e) {
+                    return ResponseEntity.status(HttpStatus.PAYLOAD_TOO_LARGE).body(Map.of("error", e.getMessage()));
+                }
+            }
+        }
+        return ResponseEntity.badRequest().body(Map.of("error", "Missing file part"));
+    }
+
+    // Any number of "file" parts, each a spreadsheet or a .zip of them, read straight off the request like
+    // /upload/stream. Files are processed as they arrive and the response lists every file's final state.
+    // Files are scheduled per uploader, taken from the X-Uploader header or the uploader field, falling
+    // back to the client address.
+    @PostMapping("/upload/bulk")
+    public ResponseEntity<Map<String, Object>> uploadBulk(HttpServletRequest request) throws IOException {
+        String boundary = MultipartStream.boundary(request.getContentType());
+        if (boundary == null) {
+            return ResponseEntity.badRequest().body(Map.of("error", "Expected a multipart/form-data request"));
+        }
+        Map<String, String> fields = queryParameters(request.getQueryString());
+        MultipartStream multipart = new MultipartStream(request.getInputStream(), boundary);
+        BulkIngestService.Batch batch = null;
+        MultipartStream.Part part;
+        while ((part = multipart.next()) != null) {
+            if (part.getFileName() == null) {
+                fields.putIfAbsent(part.getName(), part.readString(MAX_FIELD_BYTES));
+            } else if ("file".equals(part.getName())) {
+                if (batch == null) {
+                    String uploader = request.getHeader("X-Uploader");
+                    if (uploader == null || uploader.isBlank()) {
+                        uploader = fields.getOrDefault("uploader", request.getRemoteAddr());
+                    }
+                    batch = bulkIngestService.open(uploader, fields.get("specName"));
+                }
+                batch.add(part.getFileName(), part.getBody());
+            }
+        }
+        if (batch == null) {
+            return ResponseEntity.badRequest().body(Map.of("error", "Missing file part"));
+        }
+
+        List<FileOutcome> outcomes = batch.await();
+        Map<String, Long> states = new TreeMap<>();
+        for (FileOutcome outcome : outcomes) {
+            states.merge(outcome.getState(), 1L, Long::sum);
+        }
+        Map<String, Object> body = new HashMap<>();
+        body.put("fileCount", outcomes.size());
+        body.put("states", states);
+        body.put("files", outcomes);
+        return ResponseEntity.ok(body);
+    }
+
+    // content is read once: it is written to the spool file the parser opens while it streams to S3
+    private ResponseEntity<Map<String, String>> ingest(String fileName, InputStream content, String specNameParam,
+                                                       boolean async) throws IOException {
+        // Shed load before touching S3 when the job queue is full
+        if (async && !uploadJobService.isAcceptingJobs()) {
+            return tooManyUploads();
+        }
+
         // Validate file extension
-        if (!file.getOriginalFilename().toLowerCase().endsWith(".xlsx")) {
-            return rejectFile(file, null, "Invalid file type: must be .xlsx");
+        if (UploadFormat.fromFileName(fileName) == null) {
+            return rejectFile(fileName, content, null, INVALID_TYPE);
         }
 
         // Generate unique S3 key
-        String key = "uploads/" + System.currentTimeMillis() + "_" + file.getOriginalFilename();
-
-        // Upload to S3
-        ObjectMetadata metadata = new ObjectMetadata();
-        metadata.setContentLength(file.getSize());
-        s3Client.putObject(bucketName, key, file.getInputStream(), metadata);
-
-        // Create temp file and extract spec name
-        File tempFile = File.createTempFile("upload-", file.getOriginalFilename());
-        file.transferTo(tempFile);
-        String specName;
-        try (XSSFWorkbook workbook = new XSSFWorkbook(tempFile)) {
-            CTProperty specProperty = workbook.getProperties().getCustomProperties().getProperty("Spec");
-            specName = (specProperty != null && specProperty.getLpwstr() != null) ? specProperty.getLpwstr() : specNameParam;
-        } catch (InvalidFormatException e) {
+        String key = "uploads/" + System.currentTimeMillis() + "_" + fileName;
+
+        // Worker mode: store the file and leave parsing to whichever ingest worker picks it up
+        if (ingestQueue.isEnabled()) {
+            return enqueueFile(content, key, specNameParam);
+        }
+
+        // Read the upload once, writing it to a temp file while it streams to S3 and hashing it on the way
+        File tempFile = File.createTempFile("upload-", fileName);
+        CompletableFuture<Void> stored;
+        String contentHash;
+        long putStart = System.nanoTime();
+        try (DigestInputStream in = new DigestInputStream(content, sha256())) {
+            stored = s3StreamingUploader.upload(in, key, tempFile);
+            contentHash = HexFormat.of().formatHex(in.getMessageDigest().digest());
+        } catch (S3StreamingUploader.UploadFailedException e) {
+            // Only part of the file was read; nothing of it is parsed
+            tempFile.delete();
+            return ResponseEntity.status(500).body(Map.of("error", "Upload did not complete: " + e.getMessage()));
+        } catch (IOException e) {
+            tempFile.delete();
+            throw e;
+        }
+        fileStateService.trackUpload(key, stored);
+        CompletableFuture<Long> storedAt = stored.handle((result, error) -> System.nanoTime());
+
+        // Extract spec name
+        InspectedPackage upload;
+        long openStart = System.nanoTime();
+        try {
+            upload = packageInspector.inspect(tempFile);
+        } catch (IOException e) {
+            recordIntake(specNameParam, putStart, storedAt, System.nanoTime() - openStart);
             setTags(key, "Rejected", specNameParam);
             tempFile.delete();
             return ResponseEntity.badRequest().body(Map.of("error", "Invalid Excel format: " + e.getMessage()));
         }
+        long openNanos = System.nanoTime() - openStart;
+        String specName = upload.getSpecProperty() != null ? upload.getSpecProperty() : specNameParam;
 
         // Validate spec
         if (specName == null || specName.trim().isEmpty() || xlsSpec.getSpec(specName) == null) {
+            recordIntake(null, putStart, storedAt, openNanos);
             setTags(key, "Rejected", specName != null ? specName : "unknown");
+            closeQuietly(upload);
             tempFile.delete();
             return ResponseEntity.badRequest().body(
                     Map.of("error", "Unknown or missing spec: " + (specName != null ? specName : "none provided")));
         }
 
+        recordIntake(specName, putStart, storedAt, openNanos);
+
+        // An identical file was already processed against this spec; answer with that outcome
+        ProcessedUpload previous = uploadDedupService.find(contentHash, specName);
+        if (previous != null) {
+            fileStateService.setDuplicate(key, previous, specName);
+            closeQuietly(upload);
+            tempFile.delete();
+            Map<String, String> body = new HashMap<>();
+            body.put("message", "Identical file already processed as " + previous.getS3Key());
+            body.put("duplicateOf", previous.getS3Key());
+            body.put("state", previous.getState());
+            body.put("processedAt", previous.getProcessedAt().toString());
+            if (previous.getErrorReport() != null) {
+                body.put("errorCount", Long.toString(previous.getErrorCount()));
+                body.put("errorReport", previous.getErrorReport());
+            }
+            return ResponseEntity.ok(body);
+        }
+
         setTags(key, "New", specName);
 
+        // Hand the file to a background job and return immediately
+        if (async) {
+            try {
+                UploadJob job = uploadJobService.submit(upload, specName, key, contentHash, stored);
+                return ResponseEntity.accepted().body(Map.of(
+                        "message", "File uploaded to S3 and accepted for processing: " + key,
+                        "jobId", job.getId(),
+                        "status", "/jobs/" + job.getId()));
+            } catch (RejectedExecutionException e) {
+                setTags(key, "Rejected", specName);
+                closeQuietly(upload);
+                tempFile.delete();
+                return tooManyUploads();
+            }
+        }
+
         // Process the file
         try {
-            spreadsheetParser.parseAndQueue(tempFile, specName, key);
+            ParseResult result = checkpointService.run(key, specName, Map.of(), 0,
+                    checkpoints -> spreadsheetParser.parseAndQueue(upload, specName, key, count -> { }, checkpoints));
+            result.awaitPublished();
+            stored.join();
+            RowErrors errors = result.getErrors();
+            if (errors.hasErrors()) {
+                String reportKey = ErrorReportService.reportKey(key);
+                errorReportService.store(reportKey, errors).join();
+                setTags(key, "Quarantine", specName);
+                // Refused rows are a transient failure; an identical upload has to be processed again
+                if (!errors.hasUnpublished()) {
+                    uploadDedupService.record(contentHash, specName,
+                            new ProcessedUpload(key, "Quarantine", errors.getTotal(), reportKey, Instant.now()));
+                }
+                Map<String, String> body = errorSummary(errors, reportKey);
+                body.put("error", "Data outside spec range: " + errors.getTotal() + " error(s) in "
+                        + errors.getInvalidRows() + " row(s)");
+                return ResponseEntity.badRequest().body(body);
+            }
             setTags(key, "Processed", specName);
+            uploadDedupService.record(contentHash, specName,
+                    new ProcessedUpload(key, "Processed", 0, null, Instant.now()));
+        } catch (CompletionException e) {
+            setTags(key, "Quarantine", specName);
+            return ResponseEntity.status(500).body(Map.of("error", "Upload did not complete: " + e.getCause().getMessage()));
         } catch (IOException e) {
             setTags(key, "Quarantine", specName);
             return ResponseEntity.badRequest().body(Map.of("error", "I/O error during processing: " + e.getMessage()));
@@ -94,30 +320,134 @@ public class UploadController {
             setTags(key, "Quarantine", specName);
             return ResponseEntity.status(500).body(Map.of("error", "Processing failed: " + e.getMessage()));
         } finally {
+            closeQuietly(upload);
             tempFile.delete();
         }
 
         return ResponseEntity.ok(Map.of("message", "File uploaded to S3 and queued: " + key));
     }
 
-    private ResponseEntity<Map<String, String>> rejectFile(MultipartFile file, String specName, String reason)
+    // Runs the spec validation over the whole file without storing or publishing anything. Errors go to
+    // a report under validations/ so they can be fixed in one round.
+    private ResponseEntity<Map<String, String>> validateFile(MultipartFile file, String specNameParam)
+            throws IOException {
+        if (UploadFormat.fromFileName(file.getOriginalFilename()) == null) {
+            return ResponseEntity.badRequest().body(Map.of("error", INVALID_TYPE));
+        }
+        File tempFile = File.createTempFile("validate-", file.getOriginalFilename());
+        try {
+            file.transferTo(tempFile);
+            try (InspectedPackage upload = packageInspector.inspect(tempFile)) {
+                String specName = upload.getSpecProperty() != null ? upload.getSpecProperty() : specNameParam;
+                if (specName == null || specName.trim().isEmpty() || xlsSpec.getSpec(specName) == null) {
+                    return ResponseEntity.badRequest().body(
+                            Map.of("error", "Unknown or missing spec: " + (specName != null ? specName : "none provided")));
+                }
+                ParseResult result = spreadsheetParser.validate(upload, specName);
+                RowErrors errors = result.getErrors();
+                Map<String, String> body = new HashMap<>();
+                if (errors.hasErrors()) {
+                    String reportKey = ErrorReportService.reportKey(
+                            "validations/" + System.currentTimeMillis() + "_" + file.getOriginalFilename());
+                    errorReportService.store(reportKey, errors).join();
+                    body = errorSummary(errors, reportKey);
+                }
+                body.put("valid", Boolean.toString(!errors.hasErrors()));
+                body.put("spec", specName);
+                body.put("rows", Long.toString(result.getRowsRead()));
+                return ResponseEntity.ok(body);
+            } catch (IOException e) {
+                return ResponseEntity.badRequest().body(Map.of("error", "Invalid Excel format: " + e.getMessage()));
+            }
+        } finally {
+            tempFile.delete();
+        }
+    }
+
+    // The object has to be complete before the message goes out, since a worker may receive it at once
+    private ResponseEntity<Map<String, String>> enqueueFile(InputStream content, String key, String specName)
             throws IOException {
-        String key = "uploads/" + System.currentTimeMillis() + "_" + file.getOriginalFilename();
-        ObjectMetadata metadata = new ObjectMetadata();
-        metadata.setContentLength(file.getSize());
-        s3Client.putObject(bucketName, key, file.getInputStream(), metadata);
+        String contentHash;
+        long putStart = System.nanoTime();
+        try (DigestInputStream in = new DigestInputStream(content, sha256())) {
+            CompletableFuture<Void> stored = s3StreamingUploader.upload(in, key, null);
+            contentHash = HexFormat.of().formatHex(in.getMessageDigest().digest());
+            stored.join();
+            uploadMetrics.s3Put(specName).record(System.nanoTime() - putStart, TimeUnit.NANOSECONDS);
+            fileStateService.setStateNow(key, "New", specName != null ? specName : "unknown");
+            ingestQueue.fileReady(key, specName, contentHash).join();
+        } catch (CompletionException e) {
+            return ResponseEntity.status(500).body(Map.of("error", "Upload did not complete: " + e.getCause().getMessage()));
+        } catch (S3StreamingUploader.UploadFailedException e) {
+            return ResponseEntity.status(500).body(Map.of("error", "Upload did not complete: " + e.getMessage()));
+        }
+        return ResponseEntity.accepted().body(Map.of(
+                "message", "File uploaded to S3 and queued for an ingest worker: " + key,
+                "key", key));
+    }
+
+    private Map<String, String> errorSummary(RowErrors errors, String reportKey) {
+        Map<String, String> body = new HashMap<>();
+        body.put("errorCount", Long.toString(errors.getTotal()));
+        body.put("invalidRows", Long.toString(errors.getInvalidRows()));
+        body.put("errorReport", reportKey);
+        body.put("errors", String.join("; ", errors.describe(MAX_ERRORS_IN_RESPONSE)));
+        return body;
+    }
+
+    private ResponseEntity<Map<String, String>> rejectFile(String fileName, InputStream content, String specName,
+                                                           String reason) throws IOException {
+        String key = "uploads/" + System.currentTimeMillis() + "_" + fileName;
+        fileStateService.trackUpload(key, s3StreamingUploader.upload(content, key, null));
         setTags(key, "Rejected", specName != null ? specName : "unknown");
         return ResponseEntity.badRequest().body(Map.of("error", reason));
     }
 
+    private static Map<String, String> queryParameters(String query) {
+        Map<String, String> parameters = new HashMap<>();
+        if (query == null) {
+            return parameters;
+        }
+        for (String pair : query.split("&")) {
+            int eq = pair.indexOf('=');
+            String name = URLDecoder.decode(eq < 0 ? pair : pair.substring(0, eq), StandardCharsets.UTF_8);
+            String value = eq < 0 ? "" : URLDecoder.decode(pair.substring(eq + 1), StandardCharsets.UTF_8);
+            parameters.putIfAbsent(name, value);
+        }
+        return parameters;
+    }
+
+    private static MessageDigest sha256() {
+        try {
+            return MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException("SHA-256 is not available", e);
+        }
+    }
+
+    private void closeQuietly(InspectedPackage upload) {
+        try {
+            upload.close();
+        } catch (IOException e) {
+            // The temp file is deleted right after, nothing else holds on to it
+        }
+    }
+
+    private ResponseEntity<Map<String, String>> tooManyUploads() {
+        return ResponseEntity.status(HttpStatus.TOO_MANY_REQUESTS)
+                .header(HttpHeaders.RETRY_AFTER, "30")
+                .body(Map.of("error", "Too many uploads in progress, retry later"));
+    }
+
+    // The S3 put and the open both start before the spec is known, so they are recorded once it is.
+    // spec is null when the upload names no known spec.
+    private void recordIntake(String spec, long putStart, CompletableFuture<Long> storedAt, long openNanos) {
+        uploadMetrics.workbookOpen(spec).record(openNanos, TimeUnit.NANOSECONDS);
+        Timer s3Put = uploadMetrics.s3Put(spec);
+        storedAt.thenAccept(storedNanos -> s3Put.record(storedNanos - putStart, TimeUnit.NANOSECONDS));
+    }
+
     private void setTags(String key, String state, String spec) {
-        ObjectTagging tagging = new ObjectTagging(
-                Arrays.asList(
-                        new Tag("fileProcessingState", state),
-                        new Tag("spec", spec)
-                )
-        );
-        SetObjectTaggingRequest taggingRequest = new SetObjectTaggingRequest(bucketName, key, tagging);
-        s3Client.setObjectTagging(taggingRequest);
+        fileStateService.setState(key, state, spec);
     }
-}
\ No newline at end of file
+}
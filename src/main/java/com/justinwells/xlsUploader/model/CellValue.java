@@ -0,0 +1,153 @@
+package com.justinwells.xlsUploader.model;
+
+import org.apache.poi.hssf.usermodel.HSSFWorkbook;
+import org.apache.poi.ss.usermodel.Cell;
+import org.apache.poi.ss.usermodel.CellType;
+import org.apache.poi.ss.usermodel.DateUtil;
+import org.apache.poi.ss.usermodel.Workbook;
+import org.apache.poi.util.LocaleUtil;
+import org.apache.poi.xssf.usermodel.XSSFWorkbook;
+
+import java.text.DateFormat;
+import java.text.SimpleDateFormat;
+import java.time.LocalDate;
+import java.util.Objects;
+
+// Detached copy of a single cell, rendered the same way as Cell.toString() so the
+// streaming and workbook read paths feed identical values into validation. Text cells may be
+// lazy: readers that can hand out a reference into their input (CSV) only decode it on first use.
+// Numeric cells are only rendered to text when asked; typed fields read getNumericValue() instead.
+public final class CellValue {
+    @FunctionalInterface
+    public interface LazyText {
+        String decode();
+    }
+
+    public static final CellValue BLANK = new CellValue(CellType.BLANK, "", 0d, false, false);
+    private static final CellValue TRUE = new CellValue(CellType.BOOLEAN, "TRUE", 1d, false, false);
+    private static final CellValue FALSE = new CellValue(CellType.BOOLEAN, "FALSE", 0d, false, false);
+
+    private final CellType type;
+    // Null until a lazy or numeric cell is first read as text
+    private String text;
+    private final LazyText lazyText;
+    private final double numericValue;
+    private final boolean dateFormatted;
+    private final boolean date1904;
+
+    private CellValue(CellType type, String text, double numericValue, boolean dateFormatted, boolean date1904) {
+        this.type = type;
+        this.text = text;
+        this.lazyText = null;
+        this.numericValue = numericValue;
+        this.dateFormatted = dateFormatted;
+        this.date1904 = date1904;
+    }
+
+    private CellValue(LazyText lazyText) {
+        this.type = CellType.STRING;
+        this.lazyText = lazyText;
+        this.numericValue = 0d;
+        this.dateFormatted = false;
+        this.date1904 = false;
+    }
+
+    public static CellValue string(String text) {
+        return new CellValue(CellType.STRING, text, 0d, false, false);
+    }
+
+    public static CellValue lazyString(LazyText text) {
+        return new CellValue(text);
+    }
+
+    public static CellValue bool(boolean value) {
+        return value ? TRUE : FALSE;
+    }
+
+    public static CellValue error(String text) {
+        return new CellValue(CellType.ERROR, text, 0d, false, false);
+    }
+
+    public static CellValue formula(String formula) {
+        return new CellValue(CellType.FORMULA, formula, 0d, false, false);
+    }
+
+    public static CellValue numeric(double value, boolean dateFormatted, boolean date1904) {
+        return new CellValue(CellType.NUMERIC, null, value, dateFormatted, date1904);
+    }
+
+    public static CellValue of(Cell cell) {
+        if (cell == null) {
+            return null;
+        }
+        switch (cell.getCellType()) {
+            case NUMERIC:
+                Workbook workbook = cell.getSheet().getWorkbook();
+                boolean date1904 = workbook instanceof XSSFWorkbook
+                        ? ((XSSFWorkbook) workbook).isDate1904()
+                        : workbook instanceof HSSFWorkbook
+                        && ((HSSFWorkbook) workbook).getInternalWorkbook().isUsing1904DateWindowing();
+                return numeric(cell.getNumericCellValue(), DateUtil.isCellDateFormatted(cell), date1904);
+            case STRING:
+                return string(cell.toString());
+            case BOOLEAN:
+                return bool(cell.getBooleanCellValue());
+            case FORMULA:
+                return formula(cell.toString());
+            case ERROR:
+                return error(cell.toString());
+            default:
+                return BLANK;
+        }
+    }
+
+    public CellType getType() { return type; }
+    // A racing second decode of a lazy cell yields an equal string, so no locking is needed
+    public String getText() {
+        String decoded = text;
+        if (decoded == null) {
+            decoded = lazyText != null ? lazyText.decode() : renderNumber();
+            text = decoded;
+        }
+        return decoded;
+    }
+
+    private String renderNumber() {
+        if (dateFormatted) {
+            DateFormat sdf = new SimpleDateFormat("dd-MMM-yyyy", LocaleUtil.getUserLocale());
+            sdf.setTimeZone(LocaleUtil.getUserTimeZone());
+            return sdf.format(DateUtil.getJavaDate(numericValue, date1904));
+        }
+        return Double.toString(numericValue);
+    }
+
+    public double getNumericValue() { return numericValue; }
+    public boolean getBooleanValue() { return type == CellType.BOOLEAN && numericValue != 0d; }
+    public boolean isDateFormatted() { return dateFormatted; }
+
+    public LocalDate toLocalDate() {
+        return DateUtil.getLocalDateTime(numericValue, date1904).toLocalDate();
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) return true;
+        if (o == null || getClass() != o.getClass()) return false;
+        CellValue that = (CellValue) o;
+        return Double.compare(that.numericValue, numericValue) == 0 &&
+               dateFormatted == that.dateFormatted &&
+               date1904 == that.date1904 &&
+               type == that.type &&
+               Objects.equals(getText(), that.getText());
+    }
+
+    @Override
+    public int hashCode() {
+        return Objects.hash(type, getText(), numericValue, dateFormatted, date1904);
+    }
+
+    @Override
+    public String toString() {
+        return getText();
+    }
+}
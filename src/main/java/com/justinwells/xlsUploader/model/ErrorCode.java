@@ -0,0 +1,21 @@
+package com.justinwells.xlsUploader.model;
+
+// Reasons a cell can fail validation; FieldValidator.describe() turns them into messages
+public enum ErrorCode {
+    REQUIRED,
+    INVALID_EMAIL,
+    INVALID_DATE,
+    NOT_PAST_DATE,
+    NOT_FUTURE_DATE,
+    INVALID_CONSTRAINT,
+    UNSUPPORTED_TYPE,
+    DUPLICATE_KEY,
+    UNKNOWN_REFERENCE,
+    INVALID_INTEGER,
+    INVALID_DECIMAL,
+    INVALID_BOOLEAN,
+    OUT_OF_RANGE,
+    TOO_MANY_DECIMALS,
+    // Not a cell error: the row was valid but SQS did not acknowledge it
+    NOT_PUBLISHED
+}
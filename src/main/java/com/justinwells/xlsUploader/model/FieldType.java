@@ -0,0 +1,23 @@
+package com.justinwells.xlsUploader.model;
+
+import java.util.Locale;
+
+public enum FieldType {
+    STRING,
+    DATE,
+    INTEGER,
+    DECIMAL,
+    BOOLEAN,
+    UNSUPPORTED;
+
+    public static FieldType from(String type) {
+        if (type == null) {
+            return UNSUPPORTED;
+        }
+        try {
+            return valueOf(type.toUpperCase(Locale.ROOT));
+        } catch (IllegalArgumentException e) {
+            return UNSUPPORTED;
+        }
+    }
+}
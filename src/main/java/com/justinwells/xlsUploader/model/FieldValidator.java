@@ -0,0 +1,292 @@
+package com.justinwells.xlsUploader.model;
+
+import com.justinwells.xlsUploader.model.XlsSpec.HeaderSpec;
+import org.apache.poi.ss.usermodel.CellType;
+import org.apache.poi.ss.usermodel.DateUtil;
+
+import java.math.BigDecimal;
+import java.math.RoundingMode;
+import java.time.LocalDate;
+import java.time.format.DateTimeFormatter;
+import java.time.format.DateTimeParseException;
+import java.util.Locale;
+import java.util.regex.Pattern;
+
+// Immutable, compiled form of a HeaderSpec. Everything that does not depend on the cell
+// (type, constraint, patterns, bounds, error messages) is resolved once when the spec is loaded.
+// INTEGER, DECIMAL and BOOLEAN fields are decoded from the cell's stored number or boolean without
+// rendering it as text, and come out as Long, BigDecimal and Boolean so they serialize as JSON
+// numbers and booleans. DATE fields read a numeric cell's date serial the same way.
+public final class FieldValidator {
+    private static final Pattern EMAIL_PATTERN = Pattern.compile("^[\\w-\\.]+@([\\w-]+\\.)+[a-zA-Z]{2,}$");
+    private static final DateTimeFormatter EXCEL_DATE_FORMAT = DateTimeFormatter.ofPattern("dd-MMM-yyyy");
+    private static final BigDecimal LONG_MIN = BigDecimal.valueOf(Long.MIN_VALUE);
+    private static final BigDecimal LONG_MAX = BigDecimal.valueOf(Long.MAX_VALUE);
+    // Doubles at or beyond 2^63 do not fit a long
+    private static final double LONG_LIMIT = 0x1p63;
+
+    private enum Constraint { ANY, EMAIL, PAST, FUTURE, OTHER }
+
+    private final String field;
+    private final FieldType type;
+    private final boolean required;
+    private final Constraint constraint;
+    private final boolean unique;
+    private final String references;
+    private final BigDecimal min;
+    private final BigDecimal max;
+    // Integer bounds, checked without boxing; Long.MIN_VALUE/MAX_VALUE when open
+    private final long minLong;
+    private final long maxLong;
+    private final int scale;
+
+    private final String requiredError;
+    private final String emailError;
+    private final String dateError;
+    private final String pastError;
+    private final String futureError;
+    private final String constraintError;
+    private final String typeError;
+    private final String duplicateError;
+    private final String referenceError;
+    private final String integerError;
+    private final String decimalError;
+    private final String booleanError;
+    private final String rangeError;
+    private final String scaleError;
+
+    public FieldValidator(HeaderSpec spec) {
+        this.field = spec.getField();
+        this.type = FieldType.from(spec.getType());
+        this.required = spec.isRequired();
+        this.constraint = parseConstraint(spec.getConstraint());
+        this.unique = spec.isUnique();
+        this.references = spec.getReferences();
+        this.min = spec.getMin();
+        this.max = spec.getMax();
+        this.minLong = min != null
+                ? min.setScale(0, RoundingMode.CEILING).max(LONG_MIN).longValue() : Long.MIN_VALUE;
+        this.maxLong = max != null
+                ? max.setScale(0, RoundingMode.FLOOR).min(LONG_MAX).longValue() : Long.MAX_VALUE;
+        this.scale = spec.getScale() != null ? spec.getScale() : -1;
+
+        this.requiredError = field + " is required";
+        this.emailError = field + " must be a valid email address (e.g., user@domain.com)";
+        this.dateError = field + " must be a valid date (e.g., 2025-03-01 or 01-Mar-2025)";
+        this.pastError = field + " must be a past date";
+        this.futureError = field + " must be a future date";
+        this.constraintError = field + " has invalid constraint for " + type + ": " + spec.getConstraint();
+        this.typeError = field + " has unsupported type " + spec.getType();
+        this.duplicateError = field + " must be unique within the file";
+        this.referenceError = field + " does not match any processed " + spec.getReferences();
+        this.integerError = field + " must be a whole number";
+        this.decimalError = field + " must be a number";
+        this.booleanError = field + " must be TRUE or FALSE";
+        this.rangeError = field + " must be " + describeRange(min, max);
+        this.scaleError = field + " must have at most " + scale + " decimal place(s)";
+    }
+
+    private static String describeRange(BigDecimal min, BigDecimal max) {
+        if (min != null && max != null) {
+            return "between " + min.toPlainString() + " and " + max.toPlainString();
+        }
+        return min != null ? "at least " + min.toPlainString() : "at most " + (max != null ? max.toPlainString() : "");
+    }
+
+    private static Constraint parseConstraint(String constraint) {
+        switch (constraint) {
+            case "any": return Constraint.ANY;
+            case "email": return Constraint.EMAIL;
+            case "past": return Constraint.PAST;
+            case "future": return Constraint.FUTURE;
+            default: return Constraint.OTHER;
+        }
+    }
+
+    public String getField() { return field; }
+    public FieldType getType() { return type; }
+    public boolean isRequired() { return required; }
+    public boolean isUnique() { return unique; }
+    public String getReferences() { return references; }
+
+    public String describe(ErrorCode code) {
+        switch (code) {
+            case REQUIRED: return requiredError;
+            case INVALID_EMAIL: return emailError;
+            case INVALID_DATE: return dateError;
+            case NOT_PAST_DATE: return pastError;
+            case NOT_FUTURE_DATE: return futureError;
+            case INVALID_CONSTRAINT: return constraintError;
+            case DUPLICATE_KEY: return duplicateError;
+            case UNKNOWN_REFERENCE: return referenceError;
+            case INVALID_INTEGER: return integerError;
+            case INVALID_DECIMAL: return decimalError;
+            case INVALID_BOOLEAN: return booleanError;
+            case OUT_OF_RANGE: return rangeError;
+            case TOO_MANY_DECIMALS: return scaleError;
+            default: return typeError;
+        }
+    }
+
+    // Returns the converted value, or the ErrorCode explaining why the cell is invalid. today is
+    // captured once per file by the ValidationPlan.
+    public Object validate(CellValue cell, LocalDate today) {
+        switch (type) {
+            case INTEGER:
+            case DECIMAL:
+            case BOOLEAN:
+                if (isBlank(cell)) {
+                    return required ? ErrorCode.REQUIRED : null;
+                }
+                if (constraint != Constraint.ANY) {
+                    return ErrorCode.INVALID_CONSTRAINT;
+                }
+                return type == FieldType.INTEGER ? decodeInteger(cell)
+                        : type == FieldType.DECIMAL ? decodeDecimal(cell) : decodeBoolean(cell);
+            case DATE:
+                if (isBlank(cell)) {
+                    return required ? ErrorCode.REQUIRED : null;
+                }
+                return validateDate(cell, today);
+            default:
+                break;
+        }
+
+        String rawValue = cell != null ? cell.getText().trim() : null;
+        if (rawValue == null || rawValue.isEmpty()) {
+            return required ? ErrorCode.REQUIRED : null;
+        }
+
+        switch (type) {
+            case STRING:
+                if (constraint == Constraint.EMAIL && !EMAIL_PATTERN.matcher(rawValue).matches()) {
+                    return ErrorCode.INVALID_EMAIL;
+                }
+                return rawValue;
+
+            default:
+                return ErrorCode.UNSUPPORTED_TYPE;
+        }
+    }
+
+    private Object validateDate(CellValue cell, LocalDate today) {
+        LocalDate date = parseDate(cell);
+        if (date == null) {
+            return ErrorCode.INVALID_DATE;
+        }
+        if (constraint == Constraint.PAST && !date.isBefore(today)) {
+            return ErrorCode.NOT_PAST_DATE;
+        } else if (constraint == Constraint.FUTURE && !date.isAfter(today)) {
+            return ErrorCode.NOT_FUTURE_DATE;
+        } else if (constraint == Constraint.OTHER || constraint == Constraint.EMAIL) {
+            return ErrorCode.INVALID_CONSTRAINT;
+        }
+        return date.toString();
+    }
+
+    // Numbers and booleans are never blank, so only text cells are looked at as text
+    private static boolean isBlank(CellValue cell) {
+        if (cell == null || cell.getType() == CellType.BLANK) {
+            return true;
+        }
+        if (cell.getType() == CellType.NUMERIC || cell.getType() == CellType.BOOLEAN) {
+            return false;
+        }
+        return cell.getText().isBlank();
+    }
+
+    private Object decodeInteger(CellValue cell) {
+        long value;
+        if (cell.getType() == CellType.NUMERIC) {
+            double number = cell.getNumericValue();
+            if (number != Math.rint(number) || number >= LONG_LIMIT || number < -LONG_LIMIT) {
+                return ErrorCode.INVALID_INTEGER;
+            }
+            value = (long) number;
+        } else if (cell.getType() == CellType.STRING) {
+            String text = cell.getText().trim();
+            try {
+                value = Long.parseLong(text);
+            } catch (NumberFormatException e) {
+                // "12.0" or "1E3" from text cells and CSV
+                try {
+                    value = new BigDecimal(text).longValueExact();
+                } catch (NumberFormatException | ArithmeticException e2) {
+                    return ErrorCode.INVALID_INTEGER;
+                }
+            }
+        } else {
+            return ErrorCode.INVALID_INTEGER;
+        }
+        if (value < minLong || value > maxLong) {
+            return ErrorCode.OUT_OF_RANGE;
+        }
+        return value;
+    }
+
+    private Object decodeDecimal(CellValue cell) {
+        BigDecimal value;
+        if (cell.getType() == CellType.NUMERIC) {
+            double number = cell.getNumericValue();
+            if (Double.isNaN(number) || Double.isInfinite(number)) {
+                return ErrorCode.INVALID_DECIMAL;
+            }
+            // Shortest decimal that round-trips to the stored double, i.e. what Excel displays
+            value = BigDecimal.valueOf(number);
+        } else if (cell.getType() == CellType.STRING) {
+            try {
+                value = new BigDecimal(cell.getText().trim());
+            } catch (NumberFormatException e) {
+                return ErrorCode.INVALID_DECIMAL;
+            }
+        } else {
+            return ErrorCode.INVALID_DECIMAL;
+        }
+        if ((min != null && value.compareTo(min) < 0) || (max != null && value.compareTo(max) > 0)) {
+            return ErrorCode.OUT_OF_RANGE;
+        }
+        if (scale >= 0 && value.scale() > scale && value.stripTrailingZeros().scale() > scale) {
+            return ErrorCode.TOO_MANY_DECIMALS;
+        }
+        return value;
+    }
+
+    private Object decodeBoolean(CellValue cell) {
+        switch (cell.getType()) {
+            case BOOLEAN:
+                return cell.getBooleanValue();
+            case NUMERIC:
+                double number = cell.getNumericValue();
+                return number == 1d ? Boolean.TRUE : number == 0d ? Boolean.FALSE : ErrorCode.INVALID_BOOLEAN;
+            case STRING:
+                switch (cell.getText().trim().toLowerCase(Locale.ROOT)) {
+                    case "true": case "yes": case "y": case "1":
+                        return Boolean.TRUE;
+                    case "false": case "no": case "n": case "0":
+                        return Boolean.FALSE;
+                    default:
+                        return ErrorCode.INVALID_BOOLEAN;
+                }
+            default:
+                return ErrorCode.INVALID_BOOLEAN;
+        }
+    }
+
+    // A numeric cell is a date serial and is never rendered as text
+    private static LocalDate parseDate(CellValue cell) {
+        if (cell.getType() == CellType.NUMERIC) {
+            return DateUtil.isValidExcelDate(cell.getNumericValue()) ? cell.toLocalDate() : null;
+        }
+        String rawValue = cell.getText().trim();
+        try {
+            return LocalDate.parse(rawValue); // ISO format (yyyy-MM-dd)
+        } catch (DateTimeParseException e) {
+            // Excel's default format (dd-MMM-yyyy)
+            try {
+                return LocalDate.parse(rawValue, EXCEL_DATE_FORMAT);
+            } catch (DateTimeParseException e2) {
+                return null;
+            }
+        }
+    }
+}
@@ -0,0 +1,48 @@
+package com.justinwells.xlsUploader.model;
+
+// What became of one file of a bulk upload. state uses the same values as the fileProcessingState tag;
+// s3Key is null for files that were never stored, such as ones over the size limit.
+public class FileOutcome {
+    private final String fileName;
+    private final String s3Key;
+    private final String state;
+    private final String spec;
+    private final String jobId;
+    private final long rowsPublished;
+    private final long errorCount;
+    private final String errorReport;
+    private final String message;
+
+    public FileOutcome(String fileName, String s3Key, String state, String spec, String jobId, long rowsPublished,
+                       long errorCount, String errorReport, String message) {
+        this.fileName = fileName;
+        this.s3Key = s3Key;
+        this.state = state;
+        this.spec = spec;
+        this.jobId = jobId;
+        this.rowsPublished = rowsPublished;
+        this.errorCount = errorCount;
+        this.errorReport = errorReport;
+        this.message = message;
+    }
+
+    public static FileOutcome of(String fileName, String s3Key, String state, String spec, String message) {
+        return new FileOutcome(fileName, s3Key, state, spec, null, 0, 0, null, message);
+    }
+
+    public static FileOutcome of(String fileName, UploadJob job) {
+        String message = job.getErrors().isEmpty() ? null : job.getErrors().get(0);
+        return new FileOutcome(fileName, job.getS3Key(), job.getState(), job.getSpecName(), job.getId(),
+                job.getRowsPublished(), job.getErrorCount(), job.getErrorReport(), message);
+    }
+
+    public String getFileName() { return fileName; }
+    public String getS3Key() { return s3Key; }
+    public String getState() { return state; }
+    public String getSpec() { return spec; }
+    public String getJobId() { return jobId; }
+    public long getRowsPublished() { return rowsPublished; }
+    public long getErrorCount() { return errorCount; }
+    public String getErrorReport() { return errorReport; }
+    public String getMessage() { return message; }
+}
@@ -0,0 +1,25 @@
+package com.justinwells.xlsUploader.model;
+
+import com.fasterxml.jackson.annotation.JsonCreator;
+import com.fasterxml.jackson.annotation.JsonProperty;
+
+// Sent on the ingest queue once an upload is stored in S3. specName is the spec named on the request,
+// null when the file is expected to carry its own; contentHash is the SHA-256 computed while storing it.
+public class FileReadyMessage {
+    private final String s3Key;
+    private final String specName;
+    private final String contentHash;
+
+    @JsonCreator
+    public FileReadyMessage(@JsonProperty("s3Key") String s3Key,
+                            @JsonProperty("specName") String specName,
+                            @JsonProperty("contentHash") String contentHash) {
+        this.s3Key = s3Key;
+        this.specName = specName;
+        this.contentHash = contentHash;
+    }
+
+    public String getS3Key() { return s3Key; }
+    public String getSpecName() { return specName; }
+    public String getContentHash() { return contentHash; }
+}
@@ -0,0 +1,32 @@
+package com.justinwells.xlsUploader.model;
+
+import java.time.Instant;
+
+// Last known processing state of an uploaded file. flushed is false while the state has not reached
+// the object's S3 tags yet. duplicateOf is set for an identical copy of an earlier upload, whose final
+// state it carries.
+public class FileState {
+    private final String s3Key;
+    private final String state;
+    private final String spec;
+    private final Instant updatedAt;
+    private final boolean flushed;
+    private final String duplicateOf;
+
+    public FileState(String s3Key, String state, String spec, Instant updatedAt, boolean flushed,
+                     String duplicateOf) {
+        this.s3Key = s3Key;
+        this.state = state;
+        this.spec = spec;
+        this.updatedAt = updatedAt;
+        this.flushed = flushed;
+        this.duplicateOf = duplicateOf;
+    }
+
+    public String getS3Key() { return s3Key; }
+    public String getState() { return state; }
+    public String getSpec() { return spec; }
+    public Instant getUpdatedAt() { return updatedAt; }
+    public boolean isFlushed() { return flushed; }
+    public String getDuplicateOf() { return duplicateOf; }
+}
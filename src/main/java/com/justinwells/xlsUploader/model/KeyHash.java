@@ -0,0 +1,28 @@
+package com.justinwells.xlsUploader.model;
+
+// 64-bit hash of a key value. Key sets store only these hashes; at 64 bits a collision among a few
+// hundred million keys is still unlikely. Never returns 0, which the hash tables use as the empty slot.
+public final class KeyHash {
+    private KeyHash() {
+    }
+
+    public static long of(String value) {
+        // FNV-1a over the UTF-16 chars, then a final mix so nearby keys spread across the table
+        long h = 0xcbf29ce484222325L;
+        for (int i = 0; i < value.length(); i++) {
+            h ^= value.charAt(i);
+            h *= 0x100000001b3L;
+        }
+        h = mix(h);
+        return h != 0 ? h : 1;
+    }
+
+    static long mix(long h) {
+        h ^= h >>> 33;
+        h *= 0xff51afd7ed558ccdL;
+        h ^= h >>> 33;
+        h *= 0xc4ceb9fe1a85ec53L;
+        h ^= h >>> 33;
+        return h;
+    }
+}
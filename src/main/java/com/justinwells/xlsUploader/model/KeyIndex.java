@@ -0,0 +1,6 @@
+package com.justinwells.xlsUploader.model;
+
+// Set of key hashes (see KeyHash) that a "references" constraint checks against
+public interface KeyIndex {
+    boolean contains(long keyHash);
+}
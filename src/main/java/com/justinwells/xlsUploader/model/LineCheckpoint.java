@@ -0,0 +1,59 @@
+package com.justinwells.xlsUploader.model;
+
+import java.util.BitSet;
+
+// Highest sheet line L such that every line up to L is settled: acknowledged by SQS, rejected by
+// validation, or absent from the sheet. Lines settle in any order; only the window above L is kept.
+public final class LineCheckpoint {
+    // Bits are dropped once the window start is this far behind the watermark
+    private static final int COMPACT_AFTER = 1 << 16;
+
+    private BitSet settled = new BitSet();
+    // Line number of bit 0
+    private int base;
+    private int contiguous;
+
+    // Lines up to and including startLine count as settled
+    public LineCheckpoint(int startLine) {
+        this.contiguous = startLine;
+        this.base = startLine + 1;
+    }
+
+    public synchronized int getContiguous() {
+        return contiguous;
+    }
+
+    public synchronized void settle(int line) {
+        if (line > contiguous) {
+            settled.set(line - base);
+            advance();
+        }
+    }
+
+    public synchronized void settle(int[] lines) {
+        for (int line : lines) {
+            if (line > contiguous) {
+                settled.set(line - base);
+            }
+        }
+        advance();
+    }
+
+    // Both ends inclusive
+    public synchronized void settleRange(int from, int to) {
+        int start = Math.max(from, contiguous + 1);
+        if (start <= to) {
+            settled.set(start - base, to - base + 1);
+            advance();
+        }
+    }
+
+    private void advance() {
+        int next = settled.nextClearBit(contiguous + 1 - base);
+        contiguous = base + next - 1;
+        if (contiguous + 1 - base >= COMPACT_AFTER) {
+            settled = settled.get(contiguous + 1 - base, Math.max(settled.length(), contiguous + 1 - base));
+            base = contiguous + 1;
+        }
+    }
+}
@@ -0,0 +1,64 @@
+package com.justinwells.xlsUploader.model;
+
+import java.util.Arrays;
+
+// Open-addressing set of non-zero longs in a single long[] (about 16 bytes per key at the maximum
+// load of one half). Used for key hashes, so pipeline workers add concurrently.
+public final class LongHashSet implements KeyIndex {
+    private long[] slots = new long[1024];
+    private int size;
+
+    // Returns false when the hash was already present
+    public synchronized boolean add(long hash) {
+        if ((size + 1) * 2 > slots.length) {
+            grow();
+        }
+        if (insert(slots, hash)) {
+            size++;
+            return true;
+        }
+        return false;
+    }
+
+    @Override
+    public synchronized boolean contains(long hash) {
+        int mask = slots.length - 1;
+        for (int i = (int) hash & mask; slots[i] != 0; i = (i + 1) & mask) {
+            if (slots[i] == hash) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    public synchronized int size() {
+        return size;
+    }
+
+    public synchronized long[] toArray() {
+        return Arrays.stream(slots).filter(slot -> slot != 0).toArray();
+    }
+
+    private static boolean insert(long[] table, long hash) {
+        int mask = table.length - 1;
+        int i = (int) hash & mask;
+        while (table[i] != 0) {
+            if (table[i] == hash) {
+                return false;
+            }
+            i = (i + 1) & mask;
+        }
+        table[i] = hash;
+        return true;
+    }
+
+    private void grow() {
+        long[] grown = new long[slots.length * 2];
+        for (long slot : slots) {
+            if (slot != 0) {
+                insert(grown, slot);
+            }
+        }
+        slots = grown;
+    }
+}
@@ -0,0 +1,26 @@
+package com.justinwells.xlsUploader.model;
+
+import java.time.Instant;
+
+// Final outcome of a file, remembered so an identical re-upload can be answered without reprocessing
+public class ProcessedUpload {
+    private final String s3Key;
+    private final String state;
+    private final long errorCount;
+    private final String errorReport;
+    private final Instant processedAt;
+
+    public ProcessedUpload(String s3Key, String state, long errorCount, String errorReport, Instant processedAt) {
+        this.s3Key = s3Key;
+        this.state = state;
+        this.errorCount = errorCount;
+        this.errorReport = errorReport;
+        this.processedAt = processedAt;
+    }
+
+    public String getS3Key() { return s3Key; }
+    public String getState() { return state; }
+    public long getErrorCount() { return errorCount; }
+    public String getErrorReport() { return errorReport; }
+    public Instant getProcessedAt() { return processedAt; }
+}
@@ -0,0 +1,131 @@
+package com.justinwells.xlsUploader.model;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+// Validation errors of one file, kept as parallel arrays of (line, field, code). Only the first
+// maxRecorded errors are stored; the totals keep counting past the cap. Pipeline workers add
+// concurrently. Once failFastRows rows have been rejected (0 disables), shouldStop() turns true.
+// The errors of a multi-sheet workbook are merged from one RowErrors per sheet with addAll, which
+// labels each error with its sheet.
+public final class RowErrors {
+    private static final ErrorCode[] CODES = ErrorCode.values();
+    private static final String NOT_PUBLISHED_MESSAGE = "could not be published to SQS";
+
+    private final int maxRecorded;
+    private final int failFastRows;
+    private int[] lines = new int[16];
+    private FieldValidator[] fields = new FieldValidator[16];
+    private byte[] codes = new byte[16];
+    private int[] sheets = new int[16];
+    private final List<String> sheetNames = new ArrayList<>();
+    private int recorded;
+    private long total;
+    private long invalidRows;
+    private long unpublished;
+    private volatile boolean stop;
+
+    public RowErrors(int maxRecorded, int failFastRows) {
+        this.maxRecorded = maxRecorded;
+        this.failFastRows = failFastRows;
+    }
+
+    public synchronized void add(int lineNumber, FieldValidator field, ErrorCode code) {
+        total++;
+        append(lineNumber, field, (byte) code.ordinal(), 0);
+    }
+
+    // A valid row SQS did not take; it has no field and counts as an invalid row of its own
+    public synchronized void addUnpublished(int lineNumber) {
+        total++;
+        invalidRows++;
+        unpublished++;
+        append(lineNumber, null, (byte) ErrorCode.NOT_PUBLISHED.ordinal(), 0);
+    }
+
+    // Takes over the errors and totals of one sheet; other must no longer be added to
+    public synchronized void addAll(String sheet, RowErrors other) {
+        int sheetId = sheetNames.size();
+        sheetNames.add(sheet);
+        synchronized (other) {
+            for (int i : other.sortedByLine()) {
+                append(other.lines[i], other.fields[i], other.codes[i], sheetId);
+            }
+            total += other.total;
+            invalidRows += other.invalidRows;
+            unpublished += other.unpublished;
+        }
+    }
+
+    private void append(int lineNumber, FieldValidator field, byte code, int sheetId) {
+        if (recorded == maxRecorded) {
+            return;
+        }
+        if (recorded == lines.length) {
+            int capacity = Math.min(lines.length * 2, maxRecorded);
+            lines = Arrays.copyOf(lines, capacity);
+            fields = Arrays.copyOf(fields, capacity);
+            codes = Arrays.copyOf(codes, capacity);
+            sheets = Arrays.copyOf(sheets, capacity);
+        }
+        lines[recorded] = lineNumber;
+        fields[recorded] = field;
+        codes[recorded] = code;
+        sheets[recorded] = sheetId;
+        recorded++;
+    }
+
+    public synchronized void rowRejected() {
+        invalidRows++;
+        if (failFastRows > 0 && invalidRows >= failFastRows) {
+            stop = true;
+        }
+    }
+
+    public boolean shouldStop() {
+        return stop;
+    }
+
+    public synchronized boolean hasErrors() { return total > 0; }
+    public synchronized long getTotal() { return total; }
+    public synchronized long getInvalidRows() { return invalidRows; }
+    public synchronized int getRecorded() { return recorded; }
+    public synchronized boolean isTruncated() { return total > recorded; }
+    // True when rows were left out because SQS refused them rather than because they were invalid
+    public synchronized boolean hasUnpublished() { return unpublished > 0; }
+    public synchronized boolean hasSheets() { return !sheetNames.isEmpty(); }
+
+    // Null unless the errors were merged from several sheets
+    public synchronized String getSheet(int i) { return sheetNames.isEmpty() ? null : sheetNames.get(sheets[i]); }
+    public synchronized int getLine(int i) { return lines[i]; }
+    public synchronized String getField(int i) { return fields[i] != null ? fields[i].getField() : ""; }
+    public synchronized ErrorCode getCode(int i) { return CODES[codes[i]]; }
+
+    public synchronized String getMessage(int i) {
+        return fields[i] != null ? fields[i].describe(CODES[codes[i]]) : NOT_PUBLISHED_MESSAGE;
+    }
+
+    // Recorded errors ordered by line, as "Row N: message", or "Sheet S row N: message" once merged
+    public synchronized List<String> describe(int limit) {
+        Integer[] order = sortedByLine();
+        List<String> messages = new ArrayList<>(Math.min(limit, recorded));
+        for (int i = 0; i < order.length && messages.size() < limit; i++) {
+            String sheet = getSheet(order[i]);
+            messages.add((sheet != null ? "Sheet " + sheet + " row " : "Row ") + lines[order[i]] + ": "
+                    + getMessage(order[i]));
+        }
+        return messages;
+    }
+
+    // Indexes of the recorded errors ordered by sheet, then line; rows may be validated out of order
+    public synchronized Integer[] sortedByLine() {
+        Integer[] order = new Integer[recorded];
+        for (int i = 0; i < recorded; i++) {
+            order[i] = i;
+        }
+        Arrays.sort(order, (a, b) -> sheets[a] != sheets[b]
+                ? Integer.compare(sheets[a], sheets[b]) : Integer.compare(lines[a], lines[b]));
+        return order;
+    }
+}
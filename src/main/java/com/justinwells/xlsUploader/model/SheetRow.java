@@ -0,0 +1,51 @@
+package com.justinwells.xlsUploader.model;
+
+import org.apache.poi.ss.usermodel.Row;
+
+import java.util.Arrays;
+
+public final class SheetRow {
+    private final int rowIndex;
+    private final CellValue[] cells;
+
+    public SheetRow(int rowIndex, CellValue[] cells) {
+        this.rowIndex = rowIndex;
+        this.cells = cells;
+    }
+
+    public static SheetRow of(Row row) {
+        int lastCellNum = Math.max(row.getLastCellNum(), 0);
+        CellValue[] cells = new CellValue[lastCellNum];
+        for (int i = 0; i < lastCellNum; i++) {
+            cells[i] = CellValue.of(row.getCell(i));
+        }
+        return new SheetRow(row.getRowNum(), cells);
+    }
+
+    // Zero-based, matching Row.getRowNum()
+    public int getRowIndex() { return rowIndex; }
+
+    public int getLastCellNum() { return cells.length; }
+
+    public CellValue getCell(int column) {
+        return column < cells.length ? cells[column] : null;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) return true;
+        if (o == null || getClass() != o.getClass()) return false;
+        SheetRow that = (SheetRow) o;
+        return rowIndex == that.rowIndex && Arrays.equals(cells, that.cells);
+    }
+
+    @Override
+    public int hashCode() {
+        return 31 * rowIndex + Arrays.hashCode(cells);
+    }
+
+    @Override
+    public String toString() {
+        return "Row " + (rowIndex + 1) + " " + Arrays.toString(cells);
+    }
+}
@@ -0,0 +1,105 @@
+package com.justinwells.xlsUploader.model;
+
+import com.justinwells.xlsUploader.model.XlsSpec.HeaderSpec;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.function.Function;
+
+// Immutable, loaded form of one spec file. A parse holds on to the definition it started with, so a
+// reload swapping in a new version never changes a file halfway through.
+public final class SpecDefinition {
+    private final String name;
+    private final List<HeaderSpec> headers;
+    private final List<FieldValidator> validators;
+    private final boolean ordered;
+    private final String idField;
+    // Normalized header text -> spec header
+    private final Map<String, HeaderSpec> headerIndex;
+
+    public SpecDefinition(String name, List<HeaderSpec> headers, boolean ordered, String idField) {
+        this.name = name;
+        this.headers = List.copyOf(headers);
+        List<FieldValidator> compiled = new ArrayList<>(headers.size());
+        Map<String, HeaderSpec> index = new HashMap<>();
+        for (HeaderSpec header : headers) {
+            compiled.add(new FieldValidator(header));
+            index.putIfAbsent(normalize(header.getHeader()), header);
+        }
+        this.validators = List.copyOf(compiled);
+        this.headerIndex = Map.copyOf(index);
+        this.ordered = ordered;
+        // Rows are keyed by idField, or by the first column when the spec does not name one
+        this.idField = idField != null ? idField : headers.get(0).getField();
+    }
+
+    public String getName() { return name; }
+    public List<HeaderSpec> getHeaders() { return headers; }
+    public List<FieldValidator> getValidators() { return validators; }
+    // Ordered specs must reach the queue in lineNumber order
+    public boolean isOrdered() { return ordered; }
+    public String getIdField() { return idField; }
+
+    public List<String> getFieldNames() {
+        List<String> fields = new ArrayList<>(headers.size());
+        for (HeaderSpec header : headers) {
+            fields.add(header.getField());
+        }
+        return fields;
+    }
+
+    public ValidationPlan getValidationPlan(Map<String, Integer> headerMap) {
+        return new ValidationPlan(validators, headerMap);
+    }
+
+    public ValidationPlan getValidationPlan(Map<String, Integer> headerMap, Function<String, KeyIndex> referenceIndexes,
+                                            Map<String, LongHashSet> indexedKeys) {
+        return new ValidationPlan(validators, headerMap, referenceIndexes, indexedKeys);
+    }
+
+    // Maps each spec field to its column with one hash lookup per header cell
+    public Map<String, Integer> getHeaderMap(SheetRow headerRow) {
+        Map<String, Integer> headerMap = new HashMap<>();
+        for (int i = 0; i < headerRow.getLastCellNum(); i++) {
+            CellValue cell = headerRow.getCell(i);
+            if (cell == null) {
+                continue;
+            }
+            HeaderSpec header = headerIndex.get(normalize(cell.getText()));
+            if (header != null) {
+                headerMap.put(header.getField(), i);
+            }
+        }
+        List<String> missingHeaders = new ArrayList<>();
+        for (HeaderSpec h : headers) {
+            if (h.isRequired() && !headerMap.containsKey(h.getField())) {
+                missingHeaders.add(h.getHeader());
+            }
+        }
+        if (!missingHeaders.isEmpty()) {
+            throw new IllegalArgumentException("Missing required headers: " + missingHeaders);
+        }
+        return headerMap;
+    }
+
+    // Case-insensitive, ignoring leading, trailing and repeated whitespace
+    static String normalize(String header) {
+        StringBuilder normalized = new StringBuilder(header.length());
+        boolean space = false;
+        for (int i = 0; i < header.length(); i++) {
+            char c = header.charAt(i);
+            if (Character.isWhitespace(c)) {
+                space = normalized.length() > 0;
+            } else {
+                if (space) {
+                    normalized.append(' ');
+                    space = false;
+                }
+                normalized.append(Character.toLowerCase(c));
+            }
+        }
+        return normalized.toString();
+    }
+}
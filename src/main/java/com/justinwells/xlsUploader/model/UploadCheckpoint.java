@@ -0,0 +1,34 @@
+package com.justinwells.xlsUploader.model;
+
+import java.time.Instant;
+import java.util.Map;
+
+// Progress of a partially published upload: in each sheet, by sheet index, every row up to its line
+// has been acknowledged or rejected. A sheet without a line has not been started.
+// attempts counts the resumes that have already been started from it. eTag identifies the version of
+// the marker it was read from.
+public class UploadCheckpoint {
+    private final String s3Key;
+    private final String specName;
+    private final Map<Integer, Integer> lines;
+    private final int attempts;
+    private final Instant updatedAt;
+    private final String eTag;
+
+    public UploadCheckpoint(String s3Key, String specName, Map<Integer, Integer> lines, int attempts,
+                            Instant updatedAt, String eTag) {
+        this.s3Key = s3Key;
+        this.specName = specName;
+        this.lines = Map.copyOf(lines);
+        this.attempts = attempts;
+        this.updatedAt = updatedAt;
+        this.eTag = eTag;
+    }
+
+    public String getS3Key() { return s3Key; }
+    public String getSpecName() { return specName; }
+    public Map<Integer, Integer> getLines() { return lines; }
+    public int getAttempts() { return attempts; }
+    public Instant getUpdatedAt() { return updatedAt; }
+    public String getETag() { return eTag; }
+}
@@ -0,0 +1,31 @@
+package com.justinwells.xlsUploader.model;
+
+import java.util.Locale;
+
+public enum UploadFormat {
+    XLSX(".xlsx"),
+    XLS(".xls"),
+    CSV(".csv");
+
+    private final String extension;
+
+    UploadFormat(String extension) {
+        this.extension = extension;
+    }
+
+    public String getExtension() { return extension; }
+
+    // Returns null when the file name has none of the supported extensions
+    public static UploadFormat fromFileName(String fileName) {
+        if (fileName == null) {
+            return null;
+        }
+        String name = fileName.toLowerCase(Locale.ROOT);
+        for (UploadFormat format : values()) {
+            if (name.endsWith(format.extension)) {
+                return format;
+            }
+        }
+        return null;
+    }
+}
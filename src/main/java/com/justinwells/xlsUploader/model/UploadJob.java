@@ -0,0 +1,70 @@
+package com.justinwells.xlsUploader.model;
+
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.atomic.AtomicLong;
+
+// Status of an asynchronous upload. state uses the same values as the fileProcessingState tag.
+public class UploadJob {
+    public static final int MAX_ERRORS = 100;
+
+    private final String id;
+    private final String s3Key;
+    private final String specName;
+    private final Instant submittedAt;
+    private final AtomicLong rowsPublished = new AtomicLong();
+    private final List<String> errors = new ArrayList<>();
+    private volatile long errorCount;
+    private volatile String errorReport;
+    private volatile String state = "New";
+    private volatile Instant completedAt;
+
+    public UploadJob(String s3Key, String specName) {
+        this.id = UUID.randomUUID().toString();
+        this.s3Key = s3Key;
+        this.specName = specName;
+        this.submittedAt = Instant.now();
+    }
+
+    public String getId() { return id; }
+    public String getS3Key() { return s3Key; }
+    public String getSpecName() { return specName; }
+    public Instant getSubmittedAt() { return submittedAt; }
+    public Instant getCompletedAt() { return completedAt; }
+    public String getState() { return state; }
+    public long getRowsPublished() { return rowsPublished.get(); }
+    public long getErrorCount() { return errorCount; }
+    public String getErrorReport() { return errorReport; }
+
+    public synchronized List<String> getErrors() {
+        return List.copyOf(errors);
+    }
+
+    public boolean isDone() {
+        return completedAt != null;
+    }
+
+    public void addPublished(long count) {
+        rowsPublished.addAndGet(count);
+    }
+
+    public synchronized void addError(String error) {
+        if (errors.size() < MAX_ERRORS) {
+            errors.add(error);
+        }
+    }
+
+    // The full list is in the S3 report; only the first MAX_ERRORS messages are kept on the job
+    public void recordRowErrors(long count, String reportKey, List<String> messages) {
+        this.errorCount = count;
+        this.errorReport = reportKey;
+        messages.forEach(this::addError);
+    }
+
+    public void complete(String finalState) {
+        this.state = finalState;
+        this.completedAt = Instant.now();
+    }
+}
@@ -0,0 +1,194 @@
+package com.justinwells.xlsUploader.model;
+
+import java.time.LocalDate;
+import java.time.ZoneId;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.function.Function;
+
+// Per-file validation plan: the spec's validators laid out by sheet column, with the
+// reference date fixed for the whole file. Positional output follows the spec's field order.
+// validateRow runs on concurrent pipeline workers and only checks references, against a persistent
+// index. Which of two rows repeats a unique key depends on line order, so a valid row's key hashes
+// are handed back to the caller for checkKeys, which also collects the values of indexed fields for
+// the caller to commit. hashUniqueFields lets the reader tell which rows can share a key at all.
+public final class ValidationPlan {
+    private final FieldValidator[] validators;
+    private final int[] columns;
+    private final int[] positions;
+    private final int fieldCount;
+    private final LocalDate today;
+    private final LongHashSet[] uniqueKeys;
+    private final KeyIndex[] referenceIndexes;
+    private final LongHashSet[] collectedKeys;
+    private final boolean hasUniqueFields;
+    private final boolean hasCheckedKeys;
+
+    public ValidationPlan(List<FieldValidator> specValidators, Map<String, Integer> headerMap) {
+        this(specValidators, headerMap, reference -> null, Map.of());
+    }
+
+    // referenceIndexes resolves a "<spec>.<field>" reference; indexedKeys receives, per field, the keys
+    // of rows that passed validation
+    public ValidationPlan(List<FieldValidator> specValidators, Map<String, Integer> headerMap,
+                          Function<String, KeyIndex> referenceIndexes, Map<String, LongHashSet> indexedKeys) {
+        List<FieldValidator> mapped = new ArrayList<>(specValidators.size());
+        List<Integer> mappedColumns = new ArrayList<>(specValidators.size());
+        List<Integer> mappedPositions = new ArrayList<>(specValidators.size());
+        for (int position = 0; position < specValidators.size(); position++) {
+            FieldValidator validator = specValidators.get(position);
+            Integer column = headerMap.get(validator.getField());
+            if (column != null) {
+                mapped.add(validator);
+                mappedColumns.add(column);
+                mappedPositions.add(position);
+            }
+        }
+        this.validators = mapped.toArray(new FieldValidator[0]);
+        this.columns = mappedColumns.stream().mapToInt(Integer::intValue).toArray();
+        this.positions = mappedPositions.stream().mapToInt(Integer::intValue).toArray();
+        this.fieldCount = specValidators.size();
+        this.today = LocalDate.now(ZoneId.systemDefault());
+
+        this.uniqueKeys = new LongHashSet[validators.length];
+        this.referenceIndexes = new KeyIndex[validators.length];
+        this.collectedKeys = new LongHashSet[validators.length];
+        for (int i = 0; i < validators.length; i++) {
+            FieldValidator validator = validators[i];
+            if (validator.isUnique()) {
+                uniqueKeys[i] = new LongHashSet();
+            }
+            if (validator.getReferences() != null) {
+                KeyIndex index = referenceIndexes.apply(validator.getReferences());
+                this.referenceIndexes[i] = index != null ? index : hash -> false;
+            }
+            collectedKeys[i] = indexedKeys.get(validator.getField());
+        }
+        this.hasUniqueFields = Arrays.stream(uniqueKeys).anyMatch(Objects::nonNull);
+        this.hasCheckedKeys = hasUniqueFields || Arrays.stream(collectedKeys).anyMatch(Objects::nonNull);
+    }
+
+    public int size() { return validators.length; }
+    public FieldValidator getValidator(int i) { return validators[i]; }
+    public int getColumn(int i) { return columns[i]; }
+    public LocalDate getToday() { return today; }
+    public int getFieldCount() { return fieldCount; }
+    public boolean hasUniqueFields() { return hasUniqueFields; }
+
+    // Key array for one row's validateRow and checkKeys, or null when no field is unique or indexed
+    public long[] newKeys() {
+        return hasCheckedKeys ? new long[validators.length] : null;
+    }
+
+    // Fills rowData and returns true, or records every failing field in errors and returns false.
+    // Unique and indexed keys are not checked.
+    public boolean validateRow(SheetRow row, int lineNumber, Map<String, Object> rowData, RowErrors errors) {
+        return validateRow(row, lineNumber, rowData, null, errors);
+    }
+
+    // Same as above, also filling keys (from newKeys) with the hashes of the row's key fields
+    public boolean validateRow(SheetRow row, int lineNumber, Map<String, Object> rowData, long[] keys,
+                               RowErrors errors) {
+        Object[] mapped = check(row, lineNumber, keys, errors);
+        if (mapped == null) {
+            return false;
+        }
+        for (int i = 0; i < validators.length; i++) {
+            rowData.put(validators[i].getField(), mapped[i]);
+        }
+        return true;
+    }
+
+    // Same as above, writing into a getFieldCount() array in spec field order. Fields missing from the
+    // sheet stay null.
+    public boolean validateRow(SheetRow row, int lineNumber, Object[] values, RowErrors errors) {
+        return validateRow(row, lineNumber, values, null, errors);
+    }
+
+    public boolean validateRow(SheetRow row, int lineNumber, Object[] values, long[] keys, RowErrors errors) {
+        Object[] mapped = check(row, lineNumber, keys, errors);
+        if (mapped == null) {
+            return false;
+        }
+        for (int i = 0; i < validators.length; i++) {
+            values[positions[i]] = mapped[i];
+        }
+        return true;
+    }
+
+    // Called with the keys of each row validateRow accepted. Records the unique keys an earlier row
+    // already has and returns false, or takes the row's keys and returns true. Rows that share a unique
+    // key have to be checked one at a time in line order; any other row can be checked at any time.
+    public boolean checkKeys(int lineNumber, long[] keys, RowErrors errors) {
+        boolean unique = true;
+        for (int i = 0; i < validators.length; i++) {
+            if (uniqueKeys[i] != null && keys[i] != 0 && uniqueKeys[i].contains(keys[i])) {
+                errors.add(lineNumber, validators[i], ErrorCode.DUPLICATE_KEY);
+                unique = false;
+            }
+        }
+        if (!unique) {
+            errors.rowRejected();
+            return false;
+        }
+        for (int i = 0; i < validators.length; i++) {
+            if (keys[i] != 0) {
+                if (uniqueKeys[i] != null) {
+                    uniqueKeys[i].add(keys[i]);
+                }
+                if (collectedKeys[i] != null) {
+                    collectedKeys[i].add(keys[i]);
+                }
+            }
+        }
+        return true;
+    }
+
+    // Hashes of the row's unique fields by mapped field, 0 where the field is not unique, blank or
+    // invalid. Only the unique fields are validated, so the reader can run it on every row.
+    public long[] hashUniqueFields(SheetRow row) {
+        long[] hashes = new long[validators.length];
+        for (int i = 0; i < validators.length; i++) {
+            if (uniqueKeys[i] != null) {
+                Object value = validators[i].validate(row.getCell(columns[i]), today);
+                if (value != null && !(value instanceof ErrorCode)) {
+                    hashes[i] = KeyHash.of(value.toString());
+                }
+            }
+        }
+        return hashes;
+    }
+
+    // Values of the mapped fields, or null when the row is invalid
+    private Object[] check(SheetRow row, int lineNumber, long[] keys, RowErrors errors) {
+        Object[] mapped = new Object[validators.length];
+        boolean valid = true;
+        for (int i = 0; i < validators.length; i++) {
+            FieldValidator validator = validators[i];
+            Object value = validator.validate(row.getCell(columns[i]), today);
+            boolean checkedKey = keys != null && (uniqueKeys[i] != null || collectedKeys[i] != null);
+            if (value != null && !(value instanceof ErrorCode) && (referenceIndexes[i] != null || checkedKey)) {
+                long hash = KeyHash.of(value.toString());
+                if (referenceIndexes[i] != null && !referenceIndexes[i].contains(hash)) {
+                    value = ErrorCode.UNKNOWN_REFERENCE;
+                } else if (checkedKey) {
+                    keys[i] = hash;
+                }
+            }
+            if (value instanceof ErrorCode) {
+                errors.add(lineNumber, validator, (ErrorCode) value);
+                valid = false;
+            } else {
+                mapped[i] = value;
+            }
+        }
+        if (!valid) {
+            errors.rowRejected();
+            return null;
+        }
+        return mapped;
+    }
+}
@@ -2,72 +2,224 @@ package com.justinwells.xlsUploader.model;
 
 import com.fasterxml.jackson.core.type.TypeReference; // Added for TypeReference
 import com.fasterxml.jackson.databind.ObjectMapper;
+import jakarta.annotation.PreDestroy;
 import org.apache.poi.ss.usermodel.Row; // Added for Row
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.core.io.Resource;
+import org.springframework.core.io.support.PathMatchingResourcePatternResolver;
 import org.springframework.stereotype.Component;
 
-import java.io.File;
 import java.io.IOException;
+import java.io.InputStream;
+import java.math.BigDecimal;
+import java.nio.file.ClosedWatchServiceException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardWatchEventKinds;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
 import java.util.ArrayList;
 import java.util.HashMap;
+import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
 import java.util.Objects;
+import java.util.Set;
 
+// Registry of the upload specs. Specs are read from classpath:xlsSpecs/*.json and, when xls.specs.dir
+// is set, from that directory, whose files override classpath specs of the same name. The directory is
+// watched and reloaded on change; each reload builds a new map that replaces the old one in a single
+// write, so lookups never block and parses keep the SpecDefinition they started with.
 @Component
 public class XlsSpec {
+    private static final Logger logger = LoggerFactory.getLogger(XlsSpec.class);
+    private static final String CLASSPATH_SPECS = "classpath*:xlsSpecs/*.json";
+
     private final ObjectMapper objectMapper;
-    private final Map<String, List<HeaderSpec>> specs = new HashMap<>();
+    private final Path specDir;
+    private volatile Map<String, SpecDefinition> specs;
+    private WatchService watchService;
 
-    @Autowired
     public XlsSpec(ObjectMapper objectMapper) throws IOException {
+        this(objectMapper, "", false);
+    }
+
+    @Autowired
+    public XlsSpec(ObjectMapper objectMapper,
+                   @Value("${xls.specs.dir:}") String specDir,
+                   @Value("${xls.specs.watch:true}") boolean watch) throws IOException {
         this.objectMapper = objectMapper;
-        File specDir = new File("src/main/resources/xlsSpecs");
-        File[] specFiles = specDir.listFiles((dir, name) -> name.endsWith(".json"));
-        for (File specFile : specFiles) {
-            String specName = specFile.getName().replace(".json", "");
-            Map<String, Object> specData = objectMapper.readValue(specFile, new TypeReference<Map<String, Object>>() {});
-            List<Map<String, Object>> headersData = (List<Map<String, Object>>) specData.get("headers");
-            List<HeaderSpec> headers = new ArrayList<>();
-            for (Map<String, Object> data : headersData) {
-                headers.add(new HeaderSpec(
-                    (String) data.get("header"),
-                    (String) data.get("field"),
-                    (String) data.get("type"),
-                    (Boolean) data.get("required"),
-                    (String) data.get("constraint")
-                ));
+        this.specDir = specDir.isEmpty() ? null : Paths.get(specDir);
+        this.specs = load();
+        if (this.specDir != null && watch) {
+            if (Files.isDirectory(this.specDir)) {
+                startWatching();
+            } else {
+                logger.warn("Spec directory {} does not exist; not watching it for changes", this.specDir);
             }
-            specs.put(specName, headers);
         }
     }
 
-    public List<HeaderSpec> getSpec(String specName) {
-        return specs.get(specName);
+    private Map<String, SpecDefinition> load() throws IOException {
+        Map<String, SpecDefinition> loaded = new HashMap<>();
+        for (Resource resource : new PathMatchingResourcePatternResolver().getResources(CLASSPATH_SPECS)) {
+            try (InputStream in = resource.getInputStream()) {
+                String specName = resource.getFilename().replace(".json", "");
+                loaded.put(specName, parse(specName, in));
+            }
+        }
+        if (specDir != null && Files.isDirectory(specDir)) {
+            try (DirectoryStream<Path> files = Files.newDirectoryStream(specDir, "*.json")) {
+                for (Path file : files) {
+                    try (InputStream in = Files.newInputStream(file)) {
+                        String specName = file.getFileName().toString().replace(".json", "");
+                        loaded.put(specName, parse(specName, in));
+                    }
+                }
+            }
+        }
+        return Map.copyOf(loaded);
     }
 
-    public Map<String, Integer> getHeaderMap(String specName, Row headerRow) {
-        List<HeaderSpec> expectedHeaders = getSpec(specName);
-        Map<String, Integer> headerMap = new HashMap<>();
-        for (int i = 0; i < headerRow.getLastCellNum(); i++) {
-            String header = headerRow.getCell(i) != null ? headerRow.getCell(i).toString().trim() : "";
-            for (HeaderSpec h : expectedHeaders) {
-                if (h.getHeader().equals(header)) {
-                    headerMap.put(h.getField(), i);
-                    break;
-                }
+    private SpecDefinition parse(String specName, InputStream in) throws IOException {
+        Map<String, Object> specData = objectMapper.readValue(in, new TypeReference<Map<String, Object>>() {});
+        List<Map<String, Object>> headersData = (List<Map<String, Object>>) specData.get("headers");
+        if (headersData == null || headersData.isEmpty()) {
+            throw new IOException("Spec " + specName + " has no headers");
+        }
+        List<HeaderSpec> headers = new ArrayList<>();
+        for (Map<String, Object> data : headersData) {
+            headers.add(new HeaderSpec(
+                (String) data.get("header"),
+                (String) data.get("field"),
+                (String) data.get("type"),
+                (Boolean) data.get("required"),
+                (String) data.get("constraint"),
+                (Boolean) data.get("unique"),
+                (String) data.get("references"),
+                decimal(data.get("min")),
+                decimal(data.get("max")),
+                (Integer) data.get("scale")
+            ));
+        }
+        for (HeaderSpec header : headers) {
+            if (header.getReferences() != null && header.getReferences().indexOf('.') <= 0) {
+                throw new IOException("Spec " + specName + ": references must be <spec>.<field>, got "
+                        + header.getReferences());
+            }
+            if (header.getMin() != null && header.getMax() != null && header.getMin().compareTo(header.getMax()) > 0) {
+                throw new IOException("Spec " + specName + ": " + header.getField() + " has min above max");
+            }
+            if (header.getScale() != null && header.getScale() < 0) {
+                throw new IOException("Spec " + specName + ": " + header.getField() + " has a negative scale");
             }
         }
-        List<String> missingHeaders = new ArrayList<>();
-        for (HeaderSpec h : expectedHeaders) {
-            if (h.isRequired() && !headerMap.containsKey(h.getField())) {
-                missingHeaders.add(h.getHeader());
+        return new SpecDefinition(specName, headers,
+                Boolean.TRUE.equals(specData.get("ordered")), (String) specData.get("idField"));
+    }
+
+    // JSON numbers arrive as Integer, Long, BigInteger or Double; their text is exact for all of them
+    private static BigDecimal decimal(Object value) {
+        return value != null ? new BigDecimal(value.toString()) : null;
+    }
+
+    private void startWatching() throws IOException {
+        watchService = specDir.getFileSystem().newWatchService();
+        specDir.register(watchService, StandardWatchEventKinds.ENTRY_CREATE,
+                StandardWatchEventKinds.ENTRY_MODIFY, StandardWatchEventKinds.ENTRY_DELETE);
+        Thread watcher = new Thread(this::watch, "spec-watcher");
+        watcher.setDaemon(true);
+        watcher.start();
+    }
+
+    private void watch() {
+        try {
+            while (true) {
+                WatchKey key = watchService.take();
+                // Editors often write a file in several steps; one reload covers the whole burst
+                key.pollEvents();
+                key.reset();
+                reload();
             }
+        } catch (InterruptedException | ClosedWatchServiceException e) {
+            // Shutting down
         }
-        if (!missingHeaders.isEmpty()) {
-            throw new IllegalArgumentException("Missing required headers: " + missingHeaders);
+    }
+
+    // Keeps the current specs if any file fails to load
+    public void reload() {
+        try {
+            specs = load();
+            logger.info("Loaded specs {}", specs.keySet());
+        } catch (IOException | RuntimeException e) {
+            logger.error("Failed to reload specs from {}, keeping the previous version: {}", specDir, e.getMessage());
         }
-        return headerMap;
+    }
+
+    @PreDestroy
+    public void shutdown() throws IOException {
+        if (watchService != null) {
+            watchService.close();
+        }
+    }
+
+    // Null for unknown specs
+    public SpecDefinition getDefinition(String specName) {
+        return specs.get(specName);
+    }
+
+    public List<HeaderSpec> getSpec(String specName) {
+        SpecDefinition spec = specs.get(specName);
+        return spec != null ? spec.getHeaders() : null;
+    }
+
+    public List<FieldValidator> getValidators(String specName) {
+        SpecDefinition spec = specs.get(specName);
+        return spec != null ? spec.getValidators() : null;
+    }
+
+    public boolean isOrdered(String specName) {
+        SpecDefinition spec = specs.get(specName);
+        return spec != null && spec.isOrdered();
+    }
+
+    public String getIdField(String specName) {
+        SpecDefinition spec = specs.get(specName);
+        return spec != null ? spec.getIdField() : null;
+    }
+
+    public Set<String> getSpecNames() {
+        return specs.keySet();
+    }
+
+    // Every "<spec>.<field>" named by a references constraint; these fields are indexed as files are processed
+    public Set<String> getReferenceTargets() {
+        Set<String> targets = new HashSet<>();
+        for (SpecDefinition spec : specs.values()) {
+            for (HeaderSpec header : spec.getHeaders()) {
+                if (header.getReferences() != null) {
+                    targets.add(header.getReferences());
+                }
+            }
+        }
+        return targets;
+    }
+
+    public ValidationPlan getValidationPlan(String specName, Map<String, Integer> headerMap) {
+        return specs.get(specName).getValidationPlan(headerMap);
+    }
+
+    public Map<String, Integer> getHeaderMap(String specName, Row headerRow) {
+        return getHeaderMap(specName, SheetRow.of(headerRow));
+    }
+
+    public Map<String, Integer> getHeaderMap(String specName, SheetRow headerRow) {
+        return specs.get(specName).getHeaderMap(headerRow);
     }
 
     public static class HeaderSpec {
@@ -76,13 +228,33 @@ public class XlsSpec {
         private final String type;
         private final boolean required;
         private final String constraint;
+        private final boolean unique;
+        private final String references;
+        private final BigDecimal min;
+        private final BigDecimal max;
+        private final Integer scale;
 
         public HeaderSpec(String header, String field, String type, Boolean required, String constraint) {
+            this(header, field, type, required, constraint, false, null);
+        }
+
+        public HeaderSpec(String header, String field, String type, Boolean required, String constraint,
+                          Boolean unique, String references) {
+            this(header, field, type, required, constraint, unique, references, null, null, null);
+        }
+
+        public HeaderSpec(String header, String field, String type, Boolean required, String constraint,
+                          Boolean unique, String references, BigDecimal min, BigDecimal max, Integer scale) {
             this.header = header;
             this.field = field;
             this.type = type;
             this.required = required != null ? required : false;
             this.constraint = constraint != null ? constraint.toLowerCase() : "any";
+            this.unique = unique != null ? unique : false;
+            this.references = references;
+            this.min = min;
+            this.max = max;
+            this.scale = scale;
         }
 
         public String getHeader() { return header; }
@@ -90,6 +262,15 @@ public class XlsSpec {
         public String getType() { return type; }
         public boolean isRequired() { return required; }
         public String getConstraint() { return constraint; }
+        // No two rows of a file may share a value
+        public boolean isUnique() { return unique; }
+        // "<spec>.<field>" whose already processed values this field must match, or null
+        public String getReferences() { return references; }
+        // Inclusive bounds for INTEGER and DECIMAL fields, or null
+        public BigDecimal getMin() { return min; }
+        public BigDecimal getMax() { return max; }
+        // Most digits allowed after the decimal point of a DECIMAL field, or null
+        public Integer getScale() { return scale; }
 
         @Override
         public boolean equals(Object o) {
@@ -97,15 +278,20 @@ public class XlsSpec {
             if (o == null || getClass() != o.getClass()) return false;
             HeaderSpec that = (HeaderSpec) o;
             return required == that.required &&
+                   unique == that.unique &&
                    Objects.equals(header, that.header) &&
                    Objects.equals(field, that.field) &&
                    Objects.equals(type, that.type) &&
-                   Objects.equals(constraint, that.constraint);
+                   Objects.equals(constraint, that.constraint) &&
+                   Objects.equals(references, that.references) &&
+                   Objects.equals(min, that.min) &&
+                   Objects.equals(max, that.max) &&
+                   Objects.equals(scale, that.scale);
         }
 
         @Override
         public int hashCode() {
-            return Objects.hash(header, field, type, required, constraint);
+            return Objects.hash(header, field, type, required, constraint, unique, references, min, max, scale);
         }
     }
 }
\ No newline at end of file
@@ -0,0 +1,336 @@
+package com.justinwells.xlsUploader.service;
+
+import com.justinwells.xlsUploader.model.FileOutcome;
+import com.justinwells.xlsUploader.model.ProcessedUpload;
+import com.justinwells.xlsUploader.model.UploadFormat;
+import com.justinwells.xlsUploader.model.UploadJob;
+import com.justinwells.xlsUploader.model.XlsSpec;
+import jakarta.annotation.PreDestroy;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+import org.springframework.util.unit.DataSize;
+
+import java.io.File;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.security.DigestInputStream;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.HexFormat;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipInputStream;
+
+// Ingests many files from one request: plain file parts and the entries of .zip parts, read in a single
+// pass off the request. Each file is written to a spool file while it streams to S3 and then parsed on
+// the shared FairScheduler, so at most maxConcurrent files are parsed at once across all bulk requests and
+// uploaders take turns. A request stops reading once maxSpooled of its files wait on disk, so an archive is
+// never extracted ahead of its processing.
+@Service
+public class BulkIngestService {
+    private static final Logger logger = LoggerFactory.getLogger(BulkIngestService.class);
+    private static final String INVALID_TYPE = "Invalid file type: must be .xlsx, .xls or .csv";
+
+    private final S3StreamingUploader s3StreamingUploader;
+    private final PackageInspector packageInspector;
+    private final UploadJobService uploadJobService;
+    private final FileStateService fileStateService;
+    private final UploadDedupService uploadDedupService;
+    private final IngestQueue ingestQueue;
+    private final XlsSpec xlsSpec;
+    private final FairScheduler scheduler;
+    private final int maxSpooled;
+    private final int maxFiles;
+    private final long maxFileBytes;
+    private final AtomicInteger sequence = new AtomicInteger();
+
+    @Autowired
+    public BulkIngestService(S3StreamingUploader s3StreamingUploader, PackageInspector packageInspector,
+                             UploadJobService uploadJobService, FileStateService fileStateService,
+                             UploadDedupService uploadDedupService, IngestQueue ingestQueue, XlsSpec xlsSpec,
+                             @Value("${xls.bulk.max-concurrent:8}") int maxConcurrent,
+                             @Value("${xls.bulk.max-spooled-per-request:4}") int maxSpooled,
+                             @Value("${xls.bulk.max-files:1000}") int maxFiles,
+                             @Value("${spring.servlet.multipart.max-file-size:1MB}") DataSize maxFileSize) {
+        this.s3StreamingUploader = s3StreamingUploader;
+        this.packageInspector = packageInspector;
+        this.uploadJobService = uploadJobService;
+        this.fileStateService = fileStateService;
+        this.uploadDedupService = uploadDedupService;
+        this.ingestQueue = ingestQueue;
+        this.xlsSpec = xlsSpec;
+        this.scheduler = new FairScheduler("bulk-ingest", maxConcurrent);
+        this.maxSpooled = maxSpooled;
+        this.maxFiles = maxFiles;
+        this.maxFileBytes = maxFileSize.toBytes();
+    }
+
+    // uploader is the tenant the request's files are scheduled under; specName applies to files that
+    // name no spec of their own
+    public Batch open(String uploader, String specName) {
+        return new Batch(uploader, specName);
+    }
+
+    // The files of one request. add() is called from the request thread, in order.
+    public class Batch {
+        private final String uploader;
+        private final String specName;
+        private final Semaphore spooled = new Semaphore(maxSpooled);
+        private final List<CompletableFuture<FileOutcome>> outcomes = new ArrayList<>();
+
+        private Batch(String uploader, String specName) {
+            this.uploader = uploader;
+            this.specName = specName;
+        }
+
+        // Reads one file part off the request; the entries of a .zip are added one by one instead
+        public void add(String fileName, InputStream content) throws IOException {
+            if (!fileName.toLowerCase(Locale.ROOT).endsWith(".zip")) {
+                addFile(fileName, content);
+                return;
+            }
+            // Not closed: that would close the request body, which the caller still reads
+            ZipInputStream zip = new ZipInputStream(content);
+            ZipEntry entry;
+            while ((entry = zip.getNextEntry()) != null) {
+                String name = baseName(entry.getName());
+                // Folders and the metadata archivers add (__MACOSX/, .DS_Store, ...) are not uploads
+                if (entry.isDirectory() || name.isEmpty() || name.startsWith(".")
+                        || entry.getName().startsWith("__MACOSX/")) {
+                    continue;
+                }
+                addFile(name, zip);
+            }
+        }
+
+        public int size() {
+            return outcomes.size();
+        }
+
+        // Waits for every file to reach its final state; outcomes are in request order
+        public List<FileOutcome> await() {
+            List<FileOutcome> results = new ArrayList<>(outcomes.size());
+            for (CompletableFuture<FileOutcome> outcome : outcomes) {
+                results.add(outcome.join());
+            }
+            return results;
+        }
+
+        private void addFile(String fileName, InputStream content) throws IOException {
+            if (outcomes.size() >= maxFiles) {
+                outcomes.add(CompletableFuture.completedFuture(FileOutcome.of(fileName, null, "Rejected", specName,
+                        "More than " + maxFiles + " files in one request")));
+                return;
+            }
+            // Not stored: there is nothing in it this service could ever parse
+            if (UploadFormat.fromFileName(fileName) == null) {
+                outcomes.add(CompletableFuture.completedFuture(
+                        FileOutcome.of(fileName, null, "Rejected", specName, INVALID_TYPE)));
+                return;
+            }
+            // Same-named files of one archive can arrive within the same millisecond
+            String key = "uploads/" + System.currentTimeMillis() + "_" + sequence.incrementAndGet() + "_" + fileName;
+            InputStream bounded = new BoundedInputStream(content, maxFileBytes);
+            try {
+                if (ingestQueue.isEnabled()) {
+                    outcomes.add(CompletableFuture.completedFuture(enqueue(fileName, bounded, key)));
+                } else {
+                    outcomes.add(spoolAndSchedule(fileName, bounded, key));
+                }
+            } catch (MultipartStream.PartTooLargeException e) {
+                // Nothing was stored: the S3 upload fails along with the read
+                outcomes.add(CompletableFuture.completedFuture(
+                        FileOutcome.of(fileName, null, "Rejected", specName, e.getMessage())));
+            } catch (S3StreamingUploader.UploadFailedException e) {
+                // S3 failed before the file was read to the end, so it is neither stored nor parsed
+                outcomes.add(CompletableFuture.completedFuture(FileOutcome.of(fileName, null, "Quarantine", specName,
+                        "Upload did not complete: " + e.getMessage())));
+            }
+        }
+
+        // Worker mode: the file is stored and announced, an ingest worker takes it from there
+        private FileOutcome enqueue(String fileName, InputStream content, String key) throws IOException {
+            try (DigestInputStream in = new DigestInputStream(content, sha256())) {
+                s3StreamingUploader.upload(in, key, null).join();
+                String contentHash = HexFormat.of().formatHex(in.getMessageDigest().digest());
+                fileStateService.setStateNow(key, "New", specOrUnknown(specName));
+                ingestQueue.fileReady(key, specName, contentHash).join();
+                return FileOutcome.of(fileName, key, "New", specName, "Queued for an ingest worker");
+            } catch (CompletionException e) {
+                return FileOutcome.of(fileName, key, "Quarantine", specName,
+                        "Upload did not complete: " + e.getCause().getMessage());
+            }
+        }
+
+        private CompletableFuture<FileOutcome> spoolAndSchedule(String fileName, InputStream content, String key)
+                throws IOException {
+            try {
+                spooled.acquire();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new IOException("Interrupted while waiting to spool " + fileName, e);
+            }
+            File tempFile;
+            CompletableFuture<Void> stored;
+            String contentHash;
+            try {
+                tempFile = File.createTempFile("bulk-", S3Downloader.suffix(key));
+                try (DigestInputStream in = new DigestInputStream(content, sha256())) {
+                    stored = s3StreamingUploader.upload(in, key, tempFile);
+                    contentHash = HexFormat.of().formatHex(in.getMessageDigest().digest());
+                } catch (IOException | RuntimeException e) {
+                    tempFile.delete();
+                    throw e;
+                }
+            } catch (IOException | RuntimeException e) {
+                spooled.release();
+                throw e;
+            }
+            fileStateService.trackUpload(key, stored);
+
+            CompletableFuture<FileOutcome> outcome = new CompletableFuture<>();
+            scheduler.submit(uploader, () -> {
+                try {
+                    outcome.complete(process(fileName, key, tempFile, contentHash, stored, specName));
+                } catch (RuntimeException e) {
+                    logger.error("Bulk upload of {} failed: {}", key, e.getMessage());
+                    fileStateService.setState(key, "Quarantine", specOrUnknown(specName));
+                    outcome.complete(FileOutcome.of(fileName, key, "Quarantine", specName, e.getMessage()));
+                } finally {
+                    tempFile.delete();
+                    spooled.release();
+                }
+            });
+            return outcome;
+        }
+    }
+
+    // Same checks as a single /upload, then the file is parsed on this thread
+    private FileOutcome process(String fileName, String key, File tempFile, String contentHash,
+                                CompletableFuture<Void> stored, String specNameParam) {
+        // The last parts can fail after the file was read; its rows are not queued without the S3 copy
+        if (stored.isCompletedExceptionally()) {
+            fileStateService.setState(key, "Quarantine", specOrUnknown(specNameParam));
+            return FileOutcome.of(fileName, key, "Quarantine", specNameParam,
+                    "Upload did not complete: " + failureOf(stored).getMessage());
+        }
+        InspectedPackage upload;
+        try {
+            upload = packageInspector.inspect(tempFile);
+        } catch (IOException e) {
+            fileStateService.setState(key, "Rejected", specOrUnknown(specNameParam));
+            return FileOutcome.of(fileName, key, "Rejected", specNameParam, "Invalid Excel format: " + e.getMessage());
+        }
+        String specName = upload.getSpecProperty() != null ? upload.getSpecProperty() : specNameParam;
+        if (specName == null || specName.trim().isEmpty() || xlsSpec.getSpec(specName) == null) {
+            closeQuietly(upload);
+            fileStateService.setState(key, "Rejected", specOrUnknown(specName));
+            return FileOutcome.of(fileName, key, "Rejected", specName,
+                    "Unknown or missing spec: " + (specName != null ? specName : "none provided"));
+        }
+
+        ProcessedUpload previous = uploadDedupService.find(contentHash, specName);
+        if (previous != null) {
+            closeQuietly(upload);
+            fileStateService.setDuplicate(key, previous, specName);
+            return new FileOutcome(fileName, key, previous.getState(), specName, null, 0,
+                    previous.getErrorCount(), previous.getErrorReport(),
+                    "Identical file already processed as " + previous.getS3Key());
+        }
+
+        fileStateService.setState(key, "New", specName);
+        UploadJob job = uploadJobService.process(upload, specName, key, contentHash, stored);
+        return FileOutcome.of(fileName, job);
+    }
+
+    private void closeQuietly(InspectedPackage upload) {
+        try {
+            upload.close();
+        } catch (IOException e) {
+            logger.warn("Failed to close {}: {}", upload.getFile(), e.getMessage());
+        }
+    }
+
+    private static Throwable failureOf(CompletableFuture<Void> stored) {
+        try {
+            stored.join();
+            return null;
+        } catch (CompletionException e) {
+            return e.getCause() != null ? e.getCause() : e;
+        }
+    }
+
+    private static String specOrUnknown(String specName) {
+        return specName != null ? specName : "unknown";
+    }
+
+    // Archives carry their folder structure in entry names
+    private static String baseName(String name) {
+        return name.substring(Math.max(name.lastIndexOf('/'), name.lastIndexOf('\\')) + 1);
+    }
+
+    private static MessageDigest sha256() {
+        try {
+            return MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException("SHA-256 is not available", e);
+        }
+    }
+
+    // Caps what one file may expand to, which also stops a zip bomb at the first oversized entry. Closing
+    // it leaves the underlying stream open for the next file.
+    private static class BoundedInputStream extends FilterInputStream {
+        private final long limit;
+        private long count;
+
+        private BoundedInputStream(InputStream in, long limit) {
+            super(in);
+            this.limit = limit;
+        }
+
+        @Override
+        public int read() throws IOException {
+            int b = super.read();
+            if (b >= 0) {
+                count(1);
+            }
+            return b;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            int read = super.read(b, off, len);
+            if (read > 0) {
+                count(read);
+            }
+            return read;
+        }
+
+        @Override
+        public void close() {
+            // The request body and the archive stay open
+        }
+
+        private void count(int read) throws IOException {
+            count += read;
+            if (count > limit) {
+                throw new MultipartStream.PartTooLargeException("File is larger than " + limit + " bytes");
+            }
+        }
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        scheduler.shutdown();
+    }
+}
@@ -0,0 +1,279 @@
+package com.justinwells.xlsUploader.service;
+
+import com.justinwells.xlsUploader.model.LineCheckpoint;
+import com.justinwells.xlsUploader.model.UploadCheckpoint;
+import jakarta.annotation.PreDestroy;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+import software.amazon.awssdk.core.async.AsyncRequestBody;
+import software.amazon.awssdk.services.s3.S3AsyncClient;
+import software.amazon.awssdk.services.s3.model.HeadObjectResponse;
+import software.amazon.awssdk.services.s3.model.ListObjectsV2Response;
+import software.amazon.awssdk.services.s3.model.NoSuchKeyException;
+import software.amazon.awssdk.services.s3.model.S3Exception;
+import software.amazon.awssdk.services.s3.model.S3Object;
+
+import java.io.IOException;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.function.IntFunction;
+import java.util.stream.Collectors;
+
+// Keeps the checkpoint of each upload being published in a marker object checkpoints/<s3Key>, whose
+// metadata holds, per sheet index, the highest contiguous settled line of that sheet. The marker is
+// rewritten every interval while the upload runs, removed once every row is acknowledged, and left
+// behind when publishing fails, so the upload can be resumed from it. A marker not rewritten for
+// staleAfter belongs to a dead run. Every write has a fresh body and so a fresh ETag, which claim()
+// uses to let a single node resume it.
+@Service
+public class CheckpointService {
+    private static final Logger logger = LoggerFactory.getLogger(CheckpointService.class);
+    private static final String PREFIX = "checkpoints/";
+
+    @FunctionalInterface
+    public interface ParseCall {
+        // checkpoints gives the checkpoint of a sheet by its index
+        ParseResult parse(IntFunction<LineCheckpoint> checkpoints) throws IOException;
+    }
+
+    private final S3AsyncClient s3AsyncClient;
+    private final String bucketName;
+    private final Duration interval;
+    private final Duration staleAfter;
+    private final int maxResumes;
+    private final ScheduledExecutorService scheduler = Executors.newSingleThreadScheduledExecutor(runnable -> {
+        Thread thread = new Thread(runnable, "checkpoint-writer");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    @Autowired
+    public CheckpointService(S3AsyncClient s3AsyncClient,
+                             @Value("${spring.cloud.aws.s3.bucket}") String bucketName,
+                             @Value("${xls.checkpoint.interval:PT5S}") Duration interval,
+                             @Value("${xls.checkpoint.stale-after:PT1M}") Duration staleAfter,
+                             @Value("${xls.checkpoint.max-resumes:3}") int maxResumes) {
+        this.s3AsyncClient = s3AsyncClient;
+        this.bucketName = bucketName;
+        this.interval = interval;
+        this.staleAfter = staleAfter;
+        this.maxResumes = maxResumes;
+    }
+
+    // Runs call with one checkpoint per sheet, starting after the sheet's line in resumeLines (the header
+    // for a sheet that has none), persisted until the result's rows are all acknowledged. attempt is 0
+    // for a fresh upload and counts resumes after that.
+    public ParseResult run(String s3Key, String specName, Map<Integer, Integer> resumeLines, int attempt,
+                           ParseCall call) throws IOException {
+        Tracker tracker = new Tracker(s3Key, specName, resumeLines, attempt);
+        try {
+            ParseResult result = call.parse(tracker::checkpoint);
+            result.getPublished().whenComplete((v, error) -> tracker.finish(error == null));
+            return result;
+        } catch (IOException | RuntimeException e) {
+            tracker.finish(false);
+            throw e;
+        }
+    }
+
+    // Null when the upload has no checkpoint
+    public UploadCheckpoint find(String s3Key) {
+        String key = PREFIX + s3Key;
+        try {
+            HeadObjectResponse head = s3AsyncClient.headObject(b -> b.bucket(bucketName).key(key)).join();
+            return fromMetadata(s3Key, head.eTag(), head.metadata());
+        } catch (CompletionException e) {
+            if (!isNotFound(e.getCause())) {
+                logger.warn("Checkpoint lookup of {} failed: {}", s3Key, e.getCause().getMessage());
+            }
+            return null;
+        }
+    }
+
+    // Checkpoints left by runs that stopped rewriting them. Ones already resumed maxResumes times are
+    // removed instead; those uploads have to be sent again.
+    public List<UploadCheckpoint> findInterrupted() {
+        Instant cutoff = Instant.now().minus(staleAfter);
+        List<UploadCheckpoint> interrupted = new ArrayList<>();
+        String continuationToken = null;
+        do {
+            String token = continuationToken;
+            ListObjectsV2Response page = s3AsyncClient.listObjectsV2(b -> b
+                    .bucket(bucketName).prefix(PREFIX).continuationToken(token)).join();
+            for (S3Object object : page.contents()) {
+                if (object.lastModified().isAfter(cutoff)) {
+                    continue;
+                }
+                UploadCheckpoint checkpoint = find(object.key().substring(PREFIX.length()));
+                if (checkpoint == null) {
+                    continue;
+                }
+                if (checkpoint.getAttempts() >= maxResumes) {
+                    logger.warn("Giving up on {} after {} resume(s) at lines {}",
+                            checkpoint.getS3Key(), checkpoint.getAttempts(), checkpoint.getLines());
+                    delete(checkpoint.getS3Key());
+                } else {
+                    interrupted.add(checkpoint);
+                }
+            }
+            continuationToken = page.isTruncated() ? page.nextContinuationToken() : null;
+        } while (continuationToken != null);
+        return interrupted;
+    }
+
+    // Takes a checkpoint for resuming by rewriting its marker with If-Match on the ETag find() read, so
+    // of several nodes resuming it only one succeeds. The marker then counts the resume and looks fresh to
+    // findInterrupted. False when another node rewrote or removed the marker first.
+    public boolean claim(UploadCheckpoint checkpoint) {
+        try {
+            s3AsyncClient.putObject(b -> b.bucket(bucketName).key(PREFIX + checkpoint.getS3Key())
+                            .metadata(metadata(checkpoint.getSpecName(), checkpoint.getLines(),
+                                    checkpoint.getAttempts() + 1))
+                            .overrideConfiguration(o -> o.putHeader("If-Match", checkpoint.getETag())),
+                    body()).join();
+            return true;
+        } catch (CompletionException e) {
+            // 412 when the ETag changed, 409 when a concurrent conditional write is in flight
+            int status = e.getCause() instanceof S3Exception ? ((S3Exception) e.getCause()).statusCode() : 0;
+            if (isNotFound(e.getCause()) || status == 412 || status == 409) {
+                return false;
+            }
+            throw e;
+        }
+    }
+
+    public CompletableFuture<Void> delete(String s3Key) {
+        return s3AsyncClient.deleteObject(b -> b.bucket(bucketName).key(PREFIX + s3Key))
+                .handle((response, error) -> {
+                    if (error != null) {
+                        logger.warn("Failed to remove checkpoint of {}: {}", s3Key, error.getMessage());
+                    }
+                    return null;
+                });
+    }
+
+    private CompletableFuture<Void> save(String s3Key, String specName, Map<Integer, Integer> lines,
+                                         int attempts) {
+        return s3AsyncClient.putObject(b -> b.bucket(bucketName).key(PREFIX + s3Key)
+                        .metadata(metadata(specName, lines, attempts)), body())
+                .handle((response, error) -> {
+                    if (error != null) {
+                        logger.warn("Failed to store checkpoint of {} at lines {}: {}", s3Key, lines,
+                                error.getMessage());
+                    }
+                    return null;
+                });
+    }
+
+    // lines is written as <sheetIndex>:<line>,...
+    private static Map<String, String> metadata(String specName, Map<Integer, Integer> lines, int attempts) {
+        Map<String, String> metadata = new HashMap<>();
+        metadata.put("spec", specName);
+        metadata.put("lines", lines.entrySet().stream().map(entry -> entry.getKey() + ":" + entry.getValue())
+                .collect(Collectors.joining(",")));
+        metadata.put("attempts", Integer.toString(attempts));
+        metadata.put("updated-at", Instant.now().toString());
+        return metadata;
+    }
+
+    // Markers are otherwise empty, and every empty object has the same ETag
+    private static AsyncRequestBody body() {
+        return AsyncRequestBody.fromString(UUID.randomUUID().toString());
+    }
+
+    private static UploadCheckpoint fromMetadata(String s3Key, String eTag, Map<String, String> metadata) {
+        if (!metadata.containsKey("lines") || !metadata.containsKey("spec")) {
+            return null;
+        }
+        Map<Integer, Integer> lines = new TreeMap<>();
+        for (String sheet : metadata.get("lines").split(",")) {
+            int separator = sheet.indexOf(':');
+            if (separator > 0) {
+                lines.put(Integer.parseInt(sheet.substring(0, separator)),
+                        Integer.parseInt(sheet.substring(separator + 1)));
+            }
+        }
+        return new UploadCheckpoint(s3Key, metadata.get("spec"), lines,
+                Integer.parseInt(metadata.getOrDefault("attempts", "0")),
+                Instant.parse(metadata.getOrDefault("updated-at", Instant.EPOCH.toString())), eTag);
+    }
+
+    private static boolean isNotFound(Throwable error) {
+        return error instanceof NoSuchKeyException
+                || error instanceof S3Exception && ((S3Exception) error).statusCode() == 404;
+    }
+
+    // Writes are chained so a late heartbeat can never land after the final write or the removal
+    private class Tracker {
+        private final String s3Key;
+        private final String specName;
+        private final Map<Integer, Integer> resumeLines;
+        // Sheets are read on their own threads and ask for their checkpoint when they start
+        private final Map<Integer, LineCheckpoint> checkpoints = new ConcurrentHashMap<>();
+        private final int attempt;
+        private final ScheduledFuture<?> heartbeat;
+        private CompletableFuture<Void> lastWrite;
+        private boolean finished;
+
+        private Tracker(String s3Key, String specName, Map<Integer, Integer> resumeLines, int attempt) {
+            this.s3Key = s3Key;
+            this.specName = specName;
+            this.resumeLines = resumeLines;
+            this.attempt = attempt;
+            this.lastWrite = save(s3Key, specName, lines(), attempt);
+            long millis = interval.toMillis();
+            this.heartbeat = scheduler.scheduleAtFixedRate(this::write, millis, millis, TimeUnit.MILLISECONDS);
+        }
+
+        private LineCheckpoint checkpoint(int sheetIndex) {
+            return checkpoints.computeIfAbsent(sheetIndex, index ->
+                    new LineCheckpoint(resumeLines.getOrDefault(index, SpreadsheetParser.HEADER_LINE)));
+        }
+
+        // Sheets that have not started yet keep the line they are resumed from
+        private Map<Integer, Integer> lines() {
+            Map<Integer, Integer> lines = new TreeMap<>(resumeLines);
+            checkpoints.forEach((sheetIndex, checkpoint) -> lines.put(sheetIndex, checkpoint.getContiguous()));
+            return lines;
+        }
+
+        private synchronized void write() {
+            // Skip a beat rather than queue writes behind a slow one
+            if (!finished && lastWrite.isDone()) {
+                lastWrite = save(s3Key, specName, lines(), attempt);
+            }
+        }
+
+        private synchronized void finish(boolean completed) {
+            if (finished) {
+                return;
+            }
+            finished = true;
+            heartbeat.cancel(false);
+            lastWrite = lastWrite.thenCompose(v -> completed
+                    ? delete(s3Key)
+                    : save(s3Key, specName, lines(), attempt));
+        }
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        scheduler.shutdown();
+    }
+}
@@ -0,0 +1,156 @@
+package com.justinwells.xlsUploader.service;
+
+import com.justinwells.xlsUploader.model.CellValue;
+import com.justinwells.xlsUploader.model.SheetRow;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+
+// RFC 4180 reader over a memory-mapped UTF-8 CSV file. Fields are scanned as bytes and handed out as
+// lazy cells pointing into the mapping, so a String is only built for the columns validation reads.
+// Every record becomes one row: the header is row 0 and quoted fields may span lines.
+public class CsvRowSource implements RowSource {
+    private static final byte QUOTE = '"';
+    private static final byte COMMA = ',';
+    private static final byte CR = '\r';
+    private static final byte LF = '\n';
+
+    private final MappedByteBuffer buffer;
+    private final int limit;
+    private int position;
+    private int rowIndex;
+
+    private CsvRowSource(MappedByteBuffer buffer) {
+        this.buffer = buffer;
+        this.limit = buffer.limit();
+        this.position = hasBom(buffer) ? 3 : 0;
+    }
+
+    // The mapping outlives the channel, so cells stay readable after the source is closed
+    public static CsvRowSource open(File file) throws IOException {
+        try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+            long size = channel.size();
+            if (size > Integer.MAX_VALUE) {
+                throw new IOException("CSV file is too large: " + size + " bytes");
+            }
+            return new CsvRowSource(channel.map(FileChannel.MapMode.READ_ONLY, 0, size));
+        }
+    }
+
+    @Override
+    public SheetRow next() throws IOException {
+        // Blank lines between records are skipped, the same way an empty sheet row has no <row> element
+        while (position < limit && isLineBreak(buffer.get(position))) {
+            position++;
+        }
+        if (position >= limit) {
+            return null;
+        }
+        List<CellValue> cells = new ArrayList<>();
+        while (true) {
+            cells.add(position < limit && buffer.get(position) == QUOTE ? readQuoted() : readPlain());
+            if (position >= limit) {
+                break;
+            }
+            byte delimiter = buffer.get(position++);
+            if (delimiter == CR) {
+                if (position < limit && buffer.get(position) == LF) {
+                    position++;
+                }
+                break;
+            }
+            if (delimiter == LF) {
+                break;
+            }
+        }
+        return new SheetRow(rowIndex++, cells.toArray(new CellValue[0]));
+    }
+
+    // Leaves position on the delimiter that ends the field; empty fields become missing cells
+    private CellValue readPlain() {
+        int start = position;
+        while (position < limit) {
+            byte b = buffer.get(position);
+            if (b == COMMA || isLineBreak(b)) {
+                break;
+            }
+            position++;
+        }
+        return position > start ? CellValue.lazyString(new Field(buffer, start, position, false)) : null;
+    }
+
+    private CellValue readQuoted() throws IOException {
+        int start = position + 1;
+        boolean escaped = false;
+        int i = start;
+        while (true) {
+            if (i >= limit) {
+                throw new IOException("Unterminated quoted field in record " + (rowIndex + 1));
+            }
+            if (buffer.get(i) == QUOTE) {
+                if (i + 1 < limit && buffer.get(i + 1) == QUOTE) {
+                    escaped = true;
+                    i += 2;
+                    continue;
+                }
+                break;
+            }
+            i++;
+        }
+        position = i + 1;
+        // Anything between the closing quote and the delimiter is kept, as most spreadsheet tools do
+        int trailing = position;
+        while (position < limit && buffer.get(position) != COMMA && !isLineBreak(buffer.get(position))) {
+            position++;
+        }
+        if (position > trailing) {
+            String text = new Field(buffer, start, i, escaped).decode()
+                    + new Field(buffer, trailing, position, false).decode();
+            return CellValue.string(text);
+        }
+        return i > start ? CellValue.lazyString(new Field(buffer, start, i, escaped)) : CellValue.string("");
+    }
+
+    private static boolean isLineBreak(byte b) {
+        return b == CR || b == LF;
+    }
+
+    private static boolean hasBom(MappedByteBuffer buffer) {
+        return buffer.limit() >= 3
+                && buffer.get(0) == (byte) 0xEF && buffer.get(1) == (byte) 0xBB && buffer.get(2) == (byte) 0xBF;
+    }
+
+    // Absolute reads only, so fields can be decoded on pipeline workers while the reader moves on
+    private static final class Field implements CellValue.LazyText {
+        private final MappedByteBuffer buffer;
+        private final int start;
+        private final int end;
+        private final boolean escaped;
+
+        private Field(MappedByteBuffer buffer, int start, int end, boolean escaped) {
+            this.buffer = buffer;
+            this.start = start;
+            this.end = end;
+            this.escaped = escaped;
+        }
+
+        @Override
+        public String decode() {
+            byte[] bytes = new byte[end - start];
+            buffer.get(start, bytes);
+            String text = new String(bytes, StandardCharsets.UTF_8);
+            return escaped ? text.replace("\"\"", "\"") : text;
+        }
+    }
+
+    @Override
+    public void close() {
+        // The channel is closed once mapped; the mapping is released when it is collected
+    }
+}
@@ -0,0 +1,120 @@
+package com.justinwells.xlsUploader.service;
+
+import com.justinwells.xlsUploader.model.RowErrors;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Service;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.CompletableFuture;
+
+// Writes a file's validation errors as CSV next to the upload in S3. The report is rendered line by
+// line while it streams out, so it is never built up in memory.
+@Service
+public class ErrorReportService {
+    private static final Logger logger = LoggerFactory.getLogger(ErrorReportService.class);
+
+    private final S3StreamingUploader s3StreamingUploader;
+
+    @Autowired
+    public ErrorReportService(S3StreamingUploader s3StreamingUploader) {
+        this.s3StreamingUploader = s3StreamingUploader;
+    }
+
+    public static String reportKey(String uploadKey) {
+        return uploadKey + ".errors.csv";
+    }
+
+    // Failures are logged; the returned future always completes normally
+    public CompletableFuture<Void> store(String reportKey, RowErrors errors) {
+        try (InputStream report = new ReportStream(errors)) {
+            return s3StreamingUploader.upload(report, reportKey, null)
+                    .whenComplete((v, error) -> {
+                        if (error != null) {
+                            logger.error("Failed to store error report {}: {}", reportKey, error.getMessage());
+                        }
+                    })
+                    .exceptionally(error -> null);
+        } catch (IOException e) {
+            logger.error("Failed to store error report {}: {}", reportKey, e.getMessage());
+            return CompletableFuture.completedFuture(null);
+        }
+    }
+
+    private static class ReportStream extends InputStream {
+        private final RowErrors errors;
+        private final Integer[] order;
+        private int next = -1;
+        private byte[] line = new byte[0];
+        private int position;
+
+        private ReportStream(RowErrors errors) {
+            this.errors = errors;
+            this.order = errors.sortedByLine();
+        }
+
+        @Override
+        public int read() {
+            if (!fill()) {
+                return -1;
+            }
+            return line[position++] & 0xff;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) {
+            if (len == 0) {
+                return 0;
+            }
+            if (!fill()) {
+                return -1;
+            }
+            int count = Math.min(len, line.length - position);
+            System.arraycopy(line, position, b, off, count);
+            position += count;
+            return count;
+        }
+
+        private boolean fill() {
+            while (position == line.length) {
+                if (next == order.length + 1) {
+                    return false;
+                }
+                line = render(next++).getBytes(StandardCharsets.UTF_8);
+                position = 0;
+            }
+            return true;
+        }
+
+        private String render(int i) {
+            // Errors merged from several sheets get a leading sheet column
+            String sheetColumn = errors.hasSheets() ? "," : "";
+            if (i < 0) {
+                return (errors.hasSheets() ? "sheet," : "") + "row,field,code,message\n";
+            }
+            if (i == order.length) {
+                // Trailer only when the cap cut the report short
+                return errors.isTruncated()
+                        ? sheetColumn + ",,TRUNCATED,"
+                                + csv(errors.getTotal() + " errors in total, " + order.length + " listed") + "\n"
+                        : "";
+            }
+            int e = order[i];
+            if (errors.hasSheets()) {
+                sheetColumn = csv(errors.getSheet(e)) + ",";
+            }
+            return sheetColumn + errors.getLine(e) + "," + csv(errors.getField(e)) + "," + errors.getCode(e) + ","
+                    + csv(errors.getMessage(e)) + "\n";
+        }
+
+        private static String csv(String value) {
+            if (value.indexOf(',') < 0 && value.indexOf('"') < 0 && value.indexOf('\n') < 0) {
+                return value;
+            }
+            return '"' + value.replace("\"", "\"\"") + '"';
+        }
+    }
+}
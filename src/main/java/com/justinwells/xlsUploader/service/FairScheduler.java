@@ -0,0 +1,91 @@
+package com.justinwells.xlsUploader.service;
+
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+// Runs tasks on virtual threads, at most budget at a time across all tenants. A freed slot goes to the
+// waiting tenant with the fewest tasks running, the one served longest ago on ties, so a tenant with
+// hundreds of files queued ends up with an equal share of the slots instead of all of them. A tenant
+// alone gets every slot.
+public class FairScheduler {
+    private final int budget;
+    private final ExecutorService executor;
+    private final Map<String, Deque<Runnable>> waiting = new LinkedHashMap<>();
+    private final Map<String, Integer> runningByTenant = new HashMap<>();
+    // Turn at which each active tenant last got a slot
+    private final Map<String, Long> lastServed = new HashMap<>();
+    private long turn;
+    private int running;
+
+    public FairScheduler(String name, int budget) {
+        if (budget < 1) {
+            throw new IllegalArgumentException("Budget of " + name + " must be at least 1");
+        }
+        this.budget = budget;
+        this.executor = Executors.newThreadPerTaskExecutor(Thread.ofVirtual().name(name + "-", 1).factory());
+    }
+
+    public synchronized void submit(String tenant, Runnable task) {
+        waiting.computeIfAbsent(tenant, t -> new ArrayDeque<>()).add(task);
+        dispatch();
+    }
+
+    public synchronized int getRunning() {
+        return running;
+    }
+
+    public synchronized int getWaiting() {
+        return waiting.values().stream().mapToInt(Deque::size).sum();
+    }
+
+    private void dispatch() {
+        while (running < budget && !waiting.isEmpty()) {
+            String tenant = null;
+            int fewest = Integer.MAX_VALUE;
+            long oldest = Long.MAX_VALUE;
+            for (String candidate : waiting.keySet()) {
+                int tenantRunning = runningByTenant.getOrDefault(candidate, 0);
+                long served = lastServed.getOrDefault(candidate, -1L);
+                if (tenantRunning < fewest || (tenantRunning == fewest && served < oldest)) {
+                    tenant = candidate;
+                    fewest = tenantRunning;
+                    oldest = served;
+                }
+            }
+            Deque<Runnable> tasks = waiting.get(tenant);
+            Runnable task = tasks.poll();
+            if (tasks.isEmpty()) {
+                waiting.remove(tenant);
+            }
+            running++;
+            runningByTenant.merge(tenant, 1, Integer::sum);
+            lastServed.put(tenant, turn++);
+            String served = tenant;
+            executor.execute(() -> {
+                try {
+                    task.run();
+                } finally {
+                    done(served);
+                }
+            });
+        }
+    }
+
+    private synchronized void done(String tenant) {
+        running--;
+        runningByTenant.computeIfPresent(tenant, (t, count) -> count > 1 ? count - 1 : null);
+        if (!runningByTenant.containsKey(tenant) && !waiting.containsKey(tenant)) {
+            lastServed.remove(tenant);
+        }
+        dispatch();
+    }
+
+    public void shutdown() {
+        executor.shutdown();
+    }
+}
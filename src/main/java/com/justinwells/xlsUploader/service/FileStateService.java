@@ -0,0 +1,353 @@
+package com.justinwells.xlsUploader.service;
+
+import com.amazonaws.services.s3.AmazonS3;
+import com.amazonaws.services.s3.model.AmazonS3Exception;
+import com.amazonaws.services.s3.model.GetObjectTaggingRequest;
+import com.amazonaws.services.s3.model.ObjectMetadata;
+import com.amazonaws.services.s3.model.ObjectTagging;
+import com.amazonaws.services.s3.model.PutObjectRequest;
+import com.amazonaws.services.s3.model.SetObjectTaggingRequest;
+import com.amazonaws.services.s3.model.Tag;
+import com.justinwells.xlsUploader.model.FileState;
+import com.justinwells.xlsUploader.model.ProcessedUpload;
+import jakarta.annotation.PreDestroy;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+
+import java.io.ByteArrayInputStream;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+// Records an upload's processing state (New, Processing, Processed, Quarantine, Rejected) as tags on
+// its S3 object. States are kept in memory and written behind the request: every flushInterval
+// the changed files are tagged with their latest state, so New followed by Processed before a flush is
+// a single tagging call. Status queries are answered from memory.
+@Service
+public class FileStateService {
+    private static final Logger logger = LoggerFactory.getLogger(FileStateService.class);
+    private static final String CLAIM_PREFIX = "claims/";
+    private static final String CLAIMED_BY = "claimed-by";
+    private static final String CLAIMED_AT = "claimed-at";
+
+    private final AmazonS3 s3Client;
+    private final String bucketName;
+    private final S3TagWriter tagWriter;
+    private final Duration claimTimeout;
+    private final Duration retention;
+    private final Map<String, Entry> entries = new ConcurrentHashMap<>();
+    // Keys whose latest state has not been written yet
+    private final Set<String> dirty = ConcurrentHashMap.newKeySet();
+    private final ScheduledExecutorService flusher;
+
+    @Autowired
+    public FileStateService(AmazonS3 s3Client, @Value("${spring.cloud.aws.s3.bucket}") String bucketName,
+                            S3TagWriter tagWriter,
+                            @Value("${xls.ingest.claim-timeout:PT15M}") Duration claimTimeout,
+                            @Value("${xls.state.flush-interval:PT0.2S}") Duration flushInterval,
+                            @Value("${xls.state.flush-threads:4}") int flushThreads,
+                            @Value("${xls.state.retention:PT1H}") Duration retention) {
+        this.s3Client = s3Client;
+        this.bucketName = bucketName;
+        this.tagWriter = tagWriter;
+        this.claimTimeout = claimTimeout;
+        this.retention = retention;
+        AtomicInteger threadNumber = new AtomicInteger();
+        this.flusher = Executors.newScheduledThreadPool(flushThreads, runnable -> {
+            Thread thread = new Thread(runnable, "file-state-flusher-" + threadNumber.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        });
+        flusher.scheduleWithFixedDelay(this::flushDirty, flushInterval.toMillis(), flushInterval.toMillis(),
+                TimeUnit.MILLISECONDS);
+    }
+
+    // Tags of an object still being uploaded are held back until the upload completes, and dropped if it fails
+    public void trackUpload(String key, CompletableFuture<Void> stored) {
+        Entry entry = entries.computeIfAbsent(key, Entry::new);
+        synchronized (entry) {
+            entry.stored = stored;
+        }
+        stored.whenComplete((result, error) -> {
+            if (error != null) {
+                logger.error("Upload of {} to S3 failed, its state tags are not applied: {}", key, error.getMessage());
+            }
+            dirty.add(key);
+        });
+    }
+
+    public void setState(String key, String state, String spec) {
+        Entry entry = entries.computeIfAbsent(key, Entry::new);
+        synchronized (entry) {
+            entry.update(state, spec);
+        }
+        dirty.add(key);
+    }
+
+    // An identical copy of an upload already processed as previous: the file gets that upload's final
+    // state, and the original key in a duplicateOf tag
+    public void setDuplicate(String key, ProcessedUpload previous, String spec) {
+        Entry entry = entries.computeIfAbsent(key, Entry::new);
+        synchronized (entry) {
+            entry.update(previous.getState(), spec);
+            entry.duplicateOf = previous.getS3Key();
+        }
+        dirty.add(key);
+    }
+
+    // For states other nodes act on (a worker only claims a New file), so the tags are in S3 on return.
+    // Throws once the tag writer's retries are used up.
+    public void setStateNow(String key, String state, String spec) {
+        setState(key, state, spec);
+        Entry entry = entries.get(key);
+        if (entry != null) {
+            CompletableFuture<Void> stored;
+            synchronized (entry) {
+                stored = entry.stored;
+            }
+            if (stored != null) {
+                stored.join();
+            }
+            write(entry, true);
+        }
+    }
+
+    // The state this node last recorded for key, or null when it has not seen the file
+    public FileState getState(String key) {
+        Entry entry = entries.get(key);
+        if (entry == null) {
+            return null;
+        }
+        synchronized (entry) {
+            return entry.state != null ? entry.snapshot() : null;
+        }
+    }
+
+    // Reads the state from the object's tags, for files this node does not track
+    public FileState readState(String key) {
+        Map<String, String> tags = readTags(key);
+        String state = tags.get("fileProcessingState");
+        return state != null ? new FileState(key, state, tags.get("spec"), null, true, tags.get("duplicateOf"))
+                : null;
+    }
+
+    // Takes an uploaded file for workerId. Tags have no compare-and-set, so the claim itself is a
+    // claims/<key> object written with If-None-Match: S3 lets exactly one of several racing workers create
+    // it. A claim older than claimTimeout is taken over, since its worker is assumed gone; the takeover
+    // overwrites it with If-Match on the ETag that was read, so again only one worker wins. The winner
+    // then tags the file as Processing for status readers. Claims of finished files stay behind; a bucket
+    // lifecycle rule on claims/ can expire them.
+    public boolean claim(String key, String workerId) {
+        Map<String, String> tags = readTags(key);
+        String state = tags.get("fileProcessingState");
+        if (state != null && !"New".equals(state)
+                && (!"Processing".equals(state) || !isExpired(tags.get("claimedAt")))) {
+            return false;
+        }
+        String claimKey = CLAIM_PREFIX + key;
+        if (!putClaim(claimKey, workerId, "If-None-Match", "*")) {
+            ObjectMetadata current;
+            try {
+                current = s3Client.getObjectMetadata(bucketName, claimKey);
+            } catch (AmazonS3Exception e) {
+                if (e.getStatusCode() == 404) {
+                    // Released meanwhile; the message comes back and is claimed then
+                    return false;
+                }
+                throw e;
+            }
+            if (!isExpired(current.getUserMetaDataOf(CLAIMED_AT))) {
+                return false;
+            }
+            if (!putClaim(claimKey, workerId, "If-Match", current.getETag())) {
+                return false;
+            }
+            logger.warn("Took over stale claim on {} from {}", key, current.getUserMetaDataOf(CLAIMED_BY));
+        }
+
+        String spec = tags.getOrDefault("spec", "unknown");
+        s3Client.setObjectTagging(new SetObjectTaggingRequest(bucketName, key, new ObjectTagging(Arrays.asList(
+                new Tag("fileProcessingState", "Processing"),
+                new Tag("spec", spec),
+                new Tag("claimedBy", workerId),
+                new Tag("claimedAt", Long.toString(System.currentTimeMillis()))))));
+        Entry entry = entries.computeIfAbsent(key, Entry::new);
+        synchronized (entry) {
+            entry.update("Processing", spec);
+            entry.flushedVersion = entry.version;
+        }
+        return true;
+    }
+
+    // Hands a claimed file back as New and deletes its claim, so the redelivered message can be claimed
+    // again. Throws once the tag writer's retries are used up.
+    public void release(String key, String spec) {
+        setStateNow(key, "New", spec);
+        s3Client.deleteObject(bucketName, CLAIM_PREFIX + key);
+    }
+
+    // Writes every pending state now; used on shutdown and by tests
+    public void flush() {
+        for (String key : new ArrayList<>(dirty)) {
+            Entry entry = entries.get(key);
+            if (dirty.remove(key) && entry != null) {
+                write(entry, false);
+            }
+        }
+    }
+
+    private void flushDirty() {
+        try {
+            List<String> keys = new ArrayList<>(dirty);
+            for (String key : keys) {
+                Entry entry = entries.get(key);
+                if (dirty.remove(key) && entry != null) {
+                    flusher.execute(() -> write(entry, false));
+                }
+            }
+            evictExpired();
+        } catch (RuntimeException e) {
+            // A failed tick must not cancel the schedule
+            logger.error("Failed to flush file states: {}", e.getMessage());
+        }
+    }
+
+    // Writes happen under the entry's write lock and always send the latest state, so a slow write can
+    // never overwrite a newer one
+    private void write(Entry entry, boolean rethrow) {
+        synchronized (entry.writeLock) {
+            String state;
+            String spec;
+            String duplicateOf;
+            long version;
+            synchronized (entry) {
+                if (entry.version == entry.flushedVersion) {
+                    return;
+                }
+                if (entry.stored != null && !entry.stored.isDone()) {
+                    // Flushed when the upload completes
+                    return;
+                }
+                if (entry.stored != null && entry.stored.isCompletedExceptionally()) {
+                    entry.flushedVersion = entry.version;
+                    return;
+                }
+                state = entry.state;
+                spec = entry.spec;
+                duplicateOf = entry.duplicateOf;
+                version = entry.version;
+            }
+            try {
+                tagWriter.write(entry.key, state, spec, duplicateOf);
+            } catch (RuntimeException e) {
+                logger.error("Failed to tag {} as {}: {}", entry.key, state, e.getMessage());
+                if (rethrow) {
+                    throw e;
+                }
+            }
+            synchronized (entry) {
+                entry.flushedVersion = Math.max(entry.flushedVersion, version);
+            }
+        }
+    }
+
+    private void evictExpired() {
+        Instant cutoff = Instant.now().minus(retention);
+        entries.values().removeIf(entry -> {
+            synchronized (entry) {
+                return entry.version == entry.flushedVersion && entry.updatedAt.isBefore(cutoff);
+            }
+        });
+    }
+
+    private boolean isExpired(String claimedAt) {
+        try {
+            return claimedAt == null
+                    || Long.parseLong(claimedAt) < System.currentTimeMillis() - claimTimeout.toMillis();
+        } catch (NumberFormatException e) {
+            return true;
+        }
+    }
+
+    // False when the condition failed: another worker created or replaced the claim first. The body is
+    // random because every empty object has the same ETag, which would let two takeovers both match it.
+    private boolean putClaim(String claimKey, String workerId, String conditionHeader, String conditionValue) {
+        byte[] body = UUID.randomUUID().toString().getBytes(StandardCharsets.UTF_8);
+        ObjectMetadata metadata = new ObjectMetadata();
+        metadata.setContentLength(body.length);
+        metadata.addUserMetadata(CLAIMED_BY, workerId);
+        metadata.addUserMetadata(CLAIMED_AT, Long.toString(System.currentTimeMillis()));
+        PutObjectRequest request = new PutObjectRequest(bucketName, claimKey, new ByteArrayInputStream(body),
+                metadata);
+        request.putCustomRequestHeader(conditionHeader, conditionValue);
+        try {
+            s3Client.putObject(request);
+            return true;
+        } catch (AmazonS3Exception e) {
+            // 412 when the condition does not hold, 409 when a concurrent conditional write is in flight
+            if (e.getStatusCode() == 412 || e.getStatusCode() == 409) {
+                return false;
+            }
+            throw e;
+        }
+    }
+
+    private Map<String, String> readTags(String key) {
+        Map<String, String> tags = new HashMap<>();
+        for (Tag tag : s3Client.getObjectTagging(new GetObjectTaggingRequest(bucketName, key)).getTagSet()) {
+            tags.put(tag.getKey(), tag.getValue());
+        }
+        return tags;
+    }
+
+    private static final class Entry {
+        private final String key;
+        private final Object writeLock = new Object();
+        private String state;
+        private String spec;
+        private String duplicateOf;
+        private Instant updatedAt = Instant.now();
+        private long version;
+        private long flushedVersion;
+        // Null once the object is known to be in S3
+        private CompletableFuture<Void> stored;
+
+        private Entry(String key) {
+            this.key = key;
+        }
+
+        private void update(String state, String spec) {
+            this.state = state;
+            this.spec = spec;
+            this.duplicateOf = null;
+            this.updatedAt = Instant.now();
+            this.version++;
+        }
+
+        private FileState snapshot() {
+            return new FileState(key, state, spec, updatedAt, version == flushedVersion, duplicateOf);
+        }
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        flusher.shutdown();
+        flush();
+    }
+}
@@ -0,0 +1,88 @@
+package com.justinwells.xlsUploader.service;
+
+import com.justinwells.xlsUploader.model.SheetRow;
+import org.apache.poi.hpsf.CustomProperties;
+import org.apache.poi.hpsf.DocumentSummaryInformation;
+import org.apache.poi.hssf.usermodel.HSSFWorkbook;
+import org.apache.poi.poifs.filesystem.POIFSFileSystem;
+import org.apache.poi.ss.usermodel.Row;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+// Reader over one sheet of a legacy .xls workbook, the first unless another is asked for. The BIFF
+// format caps a sheet at 65,536 rows, so the usermodel is loaded whole; rows are converted to SheetRows
+// one at a time.
+public class HssfRowSource implements RowSource {
+    private final HSSFWorkbook workbook;
+    private final Iterator<Row> rows;
+
+    private HssfRowSource(HSSFWorkbook workbook, int sheetIndex) throws IOException {
+        this.workbook = workbook;
+        if (workbook.getNumberOfSheets() == 0) {
+            throw new IOException("Workbook contains no sheets");
+        }
+        if (sheetIndex >= workbook.getNumberOfSheets()) {
+            throw new IOException("Workbook has no sheet " + (sheetIndex + 1));
+        }
+        this.rows = workbook.getSheetAt(sheetIndex).rowIterator();
+    }
+
+    public static HssfRowSource open(File file) throws IOException {
+        return open(file, 0);
+    }
+
+    public static HssfRowSource open(File file, int sheetIndex) throws IOException {
+        HSSFWorkbook workbook;
+        try {
+            workbook = new HSSFWorkbook(new POIFSFileSystem(file, true));
+        } catch (IOException | RuntimeException e) {
+            throw new IOException("Invalid Excel format: " + e.getMessage(), e);
+        }
+        try {
+            return new HssfRowSource(workbook, sheetIndex);
+        } catch (IOException | RuntimeException e) {
+            workbook.close();
+            throw e;
+        }
+    }
+
+    public List<String> getSheetNames() {
+        List<String> names = new ArrayList<>();
+        for (int i = 0; i < workbook.getNumberOfSheets(); i++) {
+            names.add(workbook.getSheetName(i));
+        }
+        return names;
+    }
+
+    // Custom properties live in the \005DocumentSummaryInformation stream of .xls files
+    public Map<String, String> readCustomProperties() {
+        Map<String, String> properties = new LinkedHashMap<>();
+        DocumentSummaryInformation summary = workbook.getDocumentSummaryInformation();
+        CustomProperties custom = summary != null ? summary.getCustomProperties() : null;
+        if (custom != null) {
+            for (String name : custom.keySet()) {
+                Object value = custom.get(name);
+                if (value != null) {
+                    properties.putIfAbsent(name, value.toString());
+                }
+            }
+        }
+        return properties;
+    }
+
+    @Override
+    public SheetRow next() {
+        return rows.hasNext() ? SheetRow.of(rows.next()) : null;
+    }
+
+    @Override
+    public void close() throws IOException {
+        workbook.close();
+    }
+}
@@ -0,0 +1,51 @@
+package com.justinwells.xlsUploader.service;
+
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.justinwells.xlsUploader.model.FileReadyMessage;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+import software.amazon.awssdk.services.sqs.SqsAsyncClient;
+
+import java.io.UncheckedIOException;
+import java.util.concurrent.CompletableFuture;
+
+// Producer side of worker mode. With xls.ingest.mode=queue the upload node only stores the file and
+// announces it here; whichever IngestWorker receives the message parses and publishes it.
+@Service
+public class IngestQueue {
+    private final SqsAsyncClient sqsClient;
+    private final ObjectMapper objectMapper;
+    private final String queueUrl;
+    private final boolean enabled;
+
+    @Autowired
+    public IngestQueue(SqsAsyncClient sqsClient, ObjectMapper objectMapper,
+                       @Value("${xls.ingest.queue-url:http://localhost:4566/000000000000/file-ready-queue}") String queueUrl,
+                       @Value("${xls.ingest.mode:inline}") String mode) {
+        this.sqsClient = sqsClient;
+        this.objectMapper = objectMapper;
+        this.queueUrl = queueUrl;
+        if (!"inline".equals(mode) && !"queue".equals(mode)) {
+            throw new IllegalArgumentException("xls.ingest.mode must be inline or queue, not " + mode);
+        }
+        this.enabled = "queue".equals(mode);
+    }
+
+    // True when uploads are handed to workers instead of being parsed by the node that received them
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    public CompletableFuture<Void> fileReady(String s3Key, String specName, String contentHash) {
+        String body;
+        try {
+            body = objectMapper.writeValueAsString(new FileReadyMessage(s3Key, specName, contentHash));
+        } catch (JsonProcessingException e) {
+            throw new UncheckedIOException(e);
+        }
+        return sqsClient.sendMessage(b -> b.queueUrl(queueUrl).messageBody(body))
+                .thenApply(response -> null);
+    }
+}
@@ -0,0 +1,147 @@
+package com.justinwells.xlsUploader.service;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.justinwells.xlsUploader.model.FileReadyMessage;
+import com.justinwells.xlsUploader.model.ProcessedUpload;
+import com.justinwells.xlsUploader.model.UploadJob;
+import com.justinwells.xlsUploader.model.XlsSpec;
+import io.awspring.cloud.sqs.annotation.SqsListener;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.stereotype.Service;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.RejectedExecutionException;
+
+// Consumer side of worker mode: any number of instances with xls.ingest.worker.enabled=true share the
+// ingest queue. A worker claims the file with a conditional write to S3, downloads it and runs it as an
+// ordinary upload job. The message is acknowledged once the job is started; a worker that dies before
+// that leaves a claim that goes stale and is taken over on redelivery, one that dies after it leaves a
+// checkpoint for auto-resume.
+@Service
+@ConditionalOnProperty(name = "xls.ingest.worker.enabled", havingValue = "true")
+public class IngestWorker {
+    private static final Logger logger = LoggerFactory.getLogger(IngestWorker.class);
+
+    private final FileStateService fileStateService;
+    private final S3Downloader s3Downloader;
+    private final PackageInspector packageInspector;
+    private final UploadJobService uploadJobService;
+    private final UploadDedupService uploadDedupService;
+    private final XlsSpec xlsSpec;
+    private final ObjectMapper objectMapper;
+    private final String workerId;
+
+    @Autowired
+    public IngestWorker(FileStateService fileStateService, S3Downloader s3Downloader,
+                        PackageInspector packageInspector, UploadJobService uploadJobService,
+                        UploadDedupService uploadDedupService, XlsSpec xlsSpec, ObjectMapper objectMapper,
+                        @Value("${xls.ingest.worker.id:}") String workerId) {
+        this.fileStateService = fileStateService;
+        this.s3Downloader = s3Downloader;
+        this.packageInspector = packageInspector;
+        this.uploadJobService = uploadJobService;
+        this.uploadDedupService = uploadDedupService;
+        this.xlsSpec = xlsSpec;
+        this.objectMapper = objectMapper;
+        this.workerId = workerId.isEmpty() ? UUID.randomUUID().toString() : workerId;
+    }
+
+    // Throwing leaves the message on the queue, so it is redelivered after the visibility timeout
+    @SqsListener(value = "${xls.ingest.queue:file-ready-queue}",
+            maxConcurrentMessages = "${xls.ingest.worker.max-concurrent:4}")
+    public void onFileReady(String body) throws IOException {
+        handle(objectMapper.readValue(body, FileReadyMessage.class));
+    }
+
+    // Returns the started job, or null when the file is taken by another worker or cannot be processed
+    UploadJob handle(FileReadyMessage message) throws IOException {
+        // A busy worker does not claim anything, leaving the file to the others
+        if (!uploadJobService.isAcceptingJobs()) {
+            throw new RejectedExecutionException("Too many uploads in progress on worker " + workerId);
+        }
+        String key = message.getS3Key();
+        if (!fileStateService.claim(key, workerId)) {
+            logger.info("{} is already claimed, skipping", key);
+            return null;
+        }
+
+        File file = File.createTempFile("ingest-", S3Downloader.suffix(key));
+        String contentHash;
+        try {
+            contentHash = s3Downloader.download(key, file);
+        } catch (IOException | RuntimeException e) {
+            file.delete();
+            release(key, message.getSpecName());
+            throw e;
+        }
+
+        InspectedPackage upload;
+        try {
+            upload = packageInspector.inspect(file);
+        } catch (IOException e) {
+            logger.warn("Rejected {}: invalid file: {}", key, e.getMessage());
+            file.delete();
+            fileStateService.setState(key, "Rejected", specOrUnknown(message.getSpecName()));
+            return null;
+        }
+        String specName = upload.getSpecProperty() != null ? upload.getSpecProperty() : message.getSpecName();
+        if (specName == null || specName.trim().isEmpty() || xlsSpec.getSpec(specName) == null) {
+            logger.warn("Rejected {}: unknown or missing spec {}", key, specName);
+            discard(upload);
+            fileStateService.setState(key, "Rejected", specOrUnknown(specName));
+            return null;
+        }
+
+        ProcessedUpload previous = uploadDedupService.find(contentHash, specName);
+        if (previous != null) {
+            logger.info("{} is identical to {}, not processing it again", key, previous.getS3Key());
+            discard(upload);
+            fileStateService.setDuplicate(key, previous, specName);
+            return null;
+        }
+
+        try {
+            UploadJob job = uploadJobService.submit(upload, specName, key, contentHash,
+                    CompletableFuture.completedFuture(null));
+            logger.info("Worker {} processing {} as job {}", workerId, key, job.getId());
+            return job;
+        } catch (RejectedExecutionException e) {
+            discard(upload);
+            release(key, specName);
+            throw e;
+        }
+    }
+
+    public String getWorkerId() {
+        return workerId;
+    }
+
+    // Hands the file back so the redelivered message can be claimed again, by this worker or another
+    private void release(String key, String specName) {
+        try {
+            fileStateService.release(key, specOrUnknown(specName));
+        } catch (RuntimeException e) {
+            logger.error("Failed to release claim on {}; it is taken over after the claim timeout", key);
+        }
+    }
+
+    private void discard(InspectedPackage upload) {
+        try {
+            upload.close();
+        } catch (IOException e) {
+            logger.warn("Failed to close {}: {}", upload.getFile(), e.getMessage());
+        }
+        upload.getFile().delete();
+    }
+
+    private static String specOrUnknown(String specName) {
+        return specName != null ? specName : "unknown";
+    }
+}
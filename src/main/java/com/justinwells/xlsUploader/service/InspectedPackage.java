@@ -0,0 +1,77 @@
+package com.justinwells.xlsUploader.service;
+
+import com.justinwells.xlsUploader.model.SheetRow;
+import com.justinwells.xlsUploader.model.UploadFormat;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+// An upload opened once by PackageInspector. The row source is positioned just after the header row,
+// so the parser continues from the first data row instead of opening the file again. A workbook is
+// opened on one sheet at a time; the other sheets are listed and can be opened the same way.
+public class InspectedPackage implements Closeable {
+    private final File file;
+    private final UploadFormat format;
+    private final Map<String, String> customProperties;
+    private final int sheetIndex;
+    private final List<String> sheetNames;
+    private final SheetRow headerRow;
+    private final RowSource rows;
+
+    InspectedPackage(File file, UploadFormat format, Map<String, String> customProperties, int sheetIndex,
+                     List<String> sheetNames, SheetRow headerRow, RowSource rows) {
+        this.file = file;
+        this.format = format;
+        this.customProperties = customProperties;
+        this.sheetIndex = sheetIndex;
+        this.sheetNames = sheetNames;
+        this.headerRow = headerRow;
+        this.rows = rows;
+    }
+
+    public File getFile() { return file; }
+    public UploadFormat getFormat() { return format; }
+    public Map<String, String> getCustomProperties() { return customProperties; }
+    public int getSheetIndex() { return sheetIndex; }
+    // Empty for CSV files
+    public List<String> getSheetNames() { return sheetNames; }
+    public SheetRow getHeaderRow() { return headerRow; }
+    public RowSource getRows() { return rows; }
+
+    public String getSpecProperty() {
+        return customProperties.get("Spec");
+    }
+
+    // Spec of each sheet to read, by sheet index in tab order. A "Spec.<sheet name>" custom property names
+    // a sheet's spec. Otherwise the first sheet is read as specName, the spec the upload was accepted
+    // under, and any later sheet named like a spec (ignoring case) as that spec. Other sheets are skipped.
+    public Map<Integer, String> getSheetSpecs(String specName, Set<String> specNames) {
+        Map<Integer, String> sheetSpecs = new LinkedHashMap<>();
+        sheetSpecs.put(0, specName);
+        for (int i = 0; i < sheetNames.size(); i++) {
+            String sheetName = sheetNames.get(i);
+            String property = customProperties.get("Spec." + sheetName);
+            if (property != null && !property.trim().isEmpty()) {
+                sheetSpecs.put(i, property.trim());
+            } else if (i > 0) {
+                for (String name : specNames) {
+                    if (name.equalsIgnoreCase(sheetName.trim())) {
+                        sheetSpecs.put(i, name);
+                        break;
+                    }
+                }
+            }
+        }
+        return sheetSpecs;
+    }
+
+    @Override
+    public void close() throws IOException {
+        rows.close();
+    }
+}
@@ -0,0 +1,112 @@
+package com.justinwells.xlsUploader.service;
+
+import org.springframework.jdbc.core.BatchPreparedStatementSetter;
+import org.springframework.jdbc.core.JdbcTemplate;
+
+import javax.sql.DataSource;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.stream.Collectors;
+
+// Upserts rows into one table with a single JDBC batch per write. Columns are the row's fields in
+// snake_case; the key column makes redelivered messages overwrite instead of duplicating.
+public class JdbcRowSink implements RowSink {
+    private final JdbcTemplate jdbcTemplate;
+    private final List<String> fields;
+    private final String sql;
+
+    public JdbcRowSink(DataSource dataSource, String table, List<String> fields, String keyField) {
+        this.jdbcTemplate = new JdbcTemplate(dataSource);
+        this.fields = List.copyOf(fields);
+        if (!fields.contains(keyField)) {
+            throw new IllegalArgumentException("Key field " + keyField + " is not one of " + fields);
+        }
+        this.sql = upsertSql(databaseProduct(dataSource), table, fields, keyField);
+    }
+
+    @Override
+    public void write(List<Map<String, Object>> rows) {
+        if (rows.isEmpty()) {
+            return;
+        }
+        jdbcTemplate.batchUpdate(sql, new BatchPreparedStatementSetter() {
+            @Override
+            public void setValues(PreparedStatement ps, int i) throws SQLException {
+                Map<String, Object> row = rows.get(i);
+                for (int f = 0; f < fields.size(); f++) {
+                    ps.setObject(f + 1, row.get(fields.get(f)));
+                }
+            }
+
+            @Override
+            public int getBatchSize() {
+                return rows.size();
+            }
+        });
+    }
+
+    String getSql() {
+        return sql;
+    }
+
+    private static String databaseProduct(DataSource dataSource) {
+        try (Connection connection = dataSource.getConnection()) {
+            return connection.getMetaData().getDatabaseProductName();
+        } catch (SQLException e) {
+            throw new IllegalStateException("Could not determine database type: " + e.getMessage(), e);
+        }
+    }
+
+    static String upsertSql(String product, String table, List<String> fields, String keyField) {
+        List<String> columns = fields.stream().map(JdbcRowSink::column).collect(Collectors.toList());
+        String key = column(keyField);
+        String columnList = String.join(", ", columns);
+        String placeholders = columns.stream().map(c -> "?").collect(Collectors.joining(", "));
+        switch (product) {
+            case "H2":
+                return "MERGE INTO " + table + " (" + columnList + ") KEY (" + key + ") VALUES (" + placeholders + ")";
+            case "PostgreSQL":
+                List<String> updates = new ArrayList<>();
+                for (String column : columns) {
+                    if (!column.equals(key)) {
+                        updates.add(column + " = EXCLUDED." + column);
+                    }
+                }
+                return "INSERT INTO " + table + " (" + columnList + ") VALUES (" + placeholders + ")"
+                        + " ON CONFLICT (" + key + ") DO UPDATE SET " + String.join(", ", updates);
+            case "MySQL":
+            case "MariaDB":
+                List<String> assignments = new ArrayList<>();
+                for (String column : columns) {
+                    if (!column.equals(key)) {
+                        assignments.add(column + " = VALUES(" + column + ")");
+                    }
+                }
+                return "INSERT INTO " + table + " (" + columnList + ") VALUES (" + placeholders + ")"
+                        + " ON DUPLICATE KEY UPDATE " + String.join(", ", assignments);
+            default:
+                throw new IllegalArgumentException("Upsert is not supported for " + product);
+        }
+    }
+
+    // participantId -> participant_id
+    static String column(String field) {
+        StringBuilder column = new StringBuilder(field.length() + 4);
+        for (int i = 0; i < field.length(); i++) {
+            char c = field.charAt(i);
+            if (Character.isUpperCase(c)) {
+                if (i > 0) {
+                    column.append('_');
+                }
+                column.append(Character.toLowerCase(c));
+            } else {
+                column.append(c);
+            }
+        }
+        return column.toString();
+    }
+}
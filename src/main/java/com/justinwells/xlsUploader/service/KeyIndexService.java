@@ -0,0 +1,67 @@
+package com.justinwells.xlsUploader.service;
+
+import com.justinwells.xlsUploader.model.KeyIndex;
+import com.justinwells.xlsUploader.model.LongHashSet;
+import jakarta.annotation.PreDestroy;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+// Persistent key indexes for "references" constraints, one memory-mapped file per "<spec>.<field>"
+// under xls.keys.dir. Keys are added once a file's rows have all been published. Each node has its own
+// index, so a file only sees references to files processed on the same node.
+@Service
+public class KeyIndexService {
+    private static final Logger logger = LoggerFactory.getLogger(KeyIndexService.class);
+
+    private final Path directory;
+    private final Map<String, MappedKeyIndex> indexes = new ConcurrentHashMap<>();
+
+    @Autowired
+    public KeyIndexService(@Value("${xls.keys.dir:${java.io.tmpdir}/xls-keys}") String directory) throws IOException {
+        this.directory = Paths.get(directory);
+        Files.createDirectories(this.directory);
+    }
+
+    public KeyIndex get(String reference) {
+        return open(reference);
+    }
+
+    public void addAll(String reference, LongHashSet keys) throws IOException {
+        if (keys.size() > 0) {
+            open(reference).addAll(keys.toArray());
+            logger.debug("Indexed {} key(s) of {}", keys.size(), reference);
+        }
+    }
+
+    private MappedKeyIndex open(String reference) {
+        return indexes.computeIfAbsent(reference, name -> {
+            try {
+                return new MappedKeyIndex(directory.resolve(name + ".idx"));
+            } catch (IOException e) {
+                throw new UncheckedIOException("Failed to open key index " + name, e);
+            }
+        });
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        for (MappedKeyIndex index : indexes.values()) {
+            try {
+                index.close();
+            } catch (IOException e) {
+                logger.warn("Failed to close key index: {}", e.getMessage());
+            }
+        }
+    }
+}
@@ -0,0 +1,154 @@
+package com.justinwells.xlsUploader.service;
+
+import com.justinwells.xlsUploader.model.KeyIndex;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+// Persistent set of key hashes in a memory-mapped file: a 16-byte header (capacity, size) followed by an
+// open-addressing table of longs, kept at most half full. Lookups read the mapping directly, so the
+// heap cost does not grow with the number of keys. When the table fills up it is rebuilt at twice the
+// size in a new file, which then replaces the old one.
+class MappedKeyIndex implements KeyIndex, Closeable {
+    private static final int HEADER_BYTES = 16;
+    private static final int INITIAL_CAPACITY = 1 << 16;
+    // Keeps the mapping under the 2GB MappedByteBuffer limit
+    private static final int MAX_CAPACITY = 1 << 27;
+
+    private final Path file;
+    private final ReadWriteLock lock = new ReentrantReadWriteLock();
+    private FileChannel channel;
+    private MappedByteBuffer table;
+    private int capacity;
+    private long size;
+
+    MappedKeyIndex(Path file) throws IOException {
+        this.file = file;
+        if (Files.exists(file)) {
+            map();
+        } else {
+            create(file, INITIAL_CAPACITY).close();
+            map();
+        }
+    }
+
+    @Override
+    public boolean contains(long hash) {
+        lock.readLock().lock();
+        try {
+            int mask = capacity - 1;
+            for (int i = (int) hash & mask; ; i = (i + 1) & mask) {
+                long slot = table.getLong(HEADER_BYTES + i * 8);
+                if (slot == 0) {
+                    return false;
+                }
+                if (slot == hash) {
+                    return true;
+                }
+            }
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    void addAll(long[] hashes) throws IOException {
+        lock.writeLock().lock();
+        try {
+            for (long hash : hashes) {
+                if ((size + 1) * 2 > capacity) {
+                    grow();
+                }
+                if (insert(table, capacity, hash)) {
+                    size++;
+                }
+            }
+            table.putLong(8, size);
+            table.force();
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    long size() {
+        lock.readLock().lock();
+        try {
+            return size;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    private void grow() throws IOException {
+        if (capacity >= MAX_CAPACITY) {
+            throw new IOException("Key index " + file + " is full");
+        }
+        int grownCapacity = capacity * 2;
+        Path grownFile = file.resolveSibling(file.getFileName() + ".grow");
+        try (FileChannel grownChannel = create(grownFile, grownCapacity)) {
+            MappedByteBuffer grown = grownChannel.map(FileChannel.MapMode.READ_WRITE, 0,
+                    HEADER_BYTES + grownCapacity * 8L);
+            for (int i = 0; i < capacity; i++) {
+                long slot = table.getLong(HEADER_BYTES + i * 8);
+                if (slot != 0) {
+                    insert(grown, grownCapacity, slot);
+                }
+            }
+            grown.putLong(8, size);
+            grown.force();
+        }
+        channel.close();
+        Files.move(grownFile, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        map();
+    }
+
+    private static boolean insert(MappedByteBuffer table, int capacity, long hash) {
+        int mask = capacity - 1;
+        int i = (int) hash & mask;
+        while (true) {
+            long slot = table.getLong(HEADER_BYTES + i * 8);
+            if (slot == hash) {
+                return false;
+            }
+            if (slot == 0) {
+                table.putLong(HEADER_BYTES + i * 8, hash);
+                return true;
+            }
+            i = (i + 1) & mask;
+        }
+    }
+
+    private static FileChannel create(Path file, int capacity) throws IOException {
+        FileChannel created = FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING,
+                StandardOpenOption.READ, StandardOpenOption.WRITE);
+        MappedByteBuffer header = created.map(FileChannel.MapMode.READ_WRITE, 0, HEADER_BYTES + capacity * 8L);
+        header.putLong(0, capacity);
+        header.putLong(8, 0);
+        return created;
+    }
+
+    private void map() throws IOException {
+        channel = FileChannel.open(file, StandardOpenOption.READ, StandardOpenOption.WRITE);
+        MappedByteBuffer header = channel.map(FileChannel.MapMode.READ_WRITE, 0, HEADER_BYTES);
+        capacity = (int) header.getLong(0);
+        size = header.getLong(8);
+        table = channel.map(FileChannel.MapMode.READ_WRITE, 0, HEADER_BYTES + capacity * 8L);
+    }
+
+    @Override
+    public void close() throws IOException {
+        lock.writeLock().lock();
+        try {
+            channel.close();
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+}
@@ -0,0 +1,180 @@
+package com.justinwells.xlsUploader.service;
+
+import com.fasterxml.jackson.core.type.TypeReference;
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Base64;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+
+// Message formats on the row queues. "row" sends one JSON object per row. "envelope" packs many rows
+// into one message: the per-file values appear once and each row is a positional array
+// [lineNumber, field1, field2, ...] in spec field order, e.g.
+//   {"v":1,"spec":"participant","s3Key":"...","createdAt":"...","fields":["participantId",...],"rows":[[2,"P001",...]]}
+// "envelope-gzip" sends the same document gzipped and base64 encoded. The decoder accepts all three.
+@Component
+public class MessageCodec {
+    private static final TypeReference<Map<String, Object>> ROW_TYPE = new TypeReference<>() {};
+    // Base64 of the gzip magic bytes; JSON bodies always start with '{'
+    private static final String GZIP_PREFIX = "H4sI";
+
+    public enum Encoding { ROW, ENVELOPE, ENVELOPE_GZIP }
+
+    private final ObjectMapper objectMapper;
+    private final Encoding encoding;
+    private final int maxMessageBytes;
+
+    @Autowired
+    public MessageCodec(ObjectMapper objectMapper,
+                        @Value("${xls.sqs.encoding:row}") String encoding,
+                        @Value("${xls.sqs.envelope.max-bytes:262144}") int maxMessageBytes) {
+        this.objectMapper = objectMapper;
+        this.encoding = Encoding.valueOf(encoding.toUpperCase().replace('-', '_'));
+        this.maxMessageBytes = Math.min(maxMessageBytes, SqsBatchPublisher.MAX_BATCH_BYTES);
+    }
+
+    public Encoding getEncoding() {
+        return encoding;
+    }
+
+    public String encodeRow(Map<String, Object> rowData) throws IOException {
+        return objectMapper.writeValueAsString(rowData);
+    }
+
+    // One envelope row; values are in spec field order
+    public String encodeValues(int lineNumber, Object[] values) throws IOException {
+        Object[] row = new Object[values.length + 1];
+        row[0] = lineNumber;
+        System.arraycopy(values, 0, row, 1, values.length);
+        return objectMapper.writeValueAsString(row);
+    }
+
+    public EnvelopeWriter openEnvelope(String specName, String s3Key, String createdAt, List<String> fields,
+                                       SqsBatchPublisher.PublishSession session) throws IOException {
+        Map<String, Object> header = new HashMap<>();
+        header.put("v", 1);
+        header.put("spec", specName);
+        header.put("s3Key", s3Key);
+        header.put("createdAt", createdAt);
+        header.put("fields", fields);
+        String json = objectMapper.writeValueAsString(header);
+        // Reopen the object so "rows" can be appended as rows arrive
+        return new EnvelopeWriter(json.substring(0, json.length() - 1) + ",\"rows\":[", session);
+    }
+
+    // Accepts any of the formats and expands envelopes into one map per row
+    public List<Map<String, Object>> decode(String body) throws IOException {
+        String json = body.startsWith(GZIP_PREFIX) ? gunzip(body) : body;
+        JsonNode root = objectMapper.readTree(json);
+        if (!root.has("rows")) {
+            return List.of(objectMapper.convertValue(root, ROW_TYPE));
+        }
+        List<String> fields = new ArrayList<>();
+        root.get("fields").forEach(field -> fields.add(field.asText()));
+        String s3Key = root.path("s3Key").asText(null);
+        String createdAt = root.path("createdAt").asText(null);
+        List<Map<String, Object>> rows = new ArrayList<>(root.get("rows").size());
+        for (JsonNode values : root.get("rows")) {
+            Map<String, Object> row = new HashMap<>();
+            for (int i = 0; i < fields.size(); i++) {
+                row.put(fields.get(i), objectMapper.treeToValue(values.get(i + 1), Object.class));
+            }
+            row.put("s3Key", s3Key);
+            row.put("lineNumber", values.get(0).asInt());
+            row.put("createdAt", createdAt);
+            rows.add(row);
+        }
+        return rows;
+    }
+
+    private static String gzip(String json) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream(json.length() / 4);
+        try (GZIPOutputStream out = new GZIPOutputStream(bytes)) {
+            out.write(json.getBytes(StandardCharsets.UTF_8));
+        }
+        return Base64.getEncoder().encodeToString(bytes.toByteArray());
+    }
+
+    private static String gunzip(String body) throws IOException {
+        byte[] compressed = Base64.getDecoder().decode(body);
+        try (InputStream in = new GZIPInputStream(new ByteArrayInputStream(compressed))) {
+            return new String(in.readAllBytes(), StandardCharsets.UTF_8);
+        }
+    }
+
+    // Collects encoded rows of one file and publishes them as envelopes no larger than maxMessageBytes.
+    // Used from the single publishing thread.
+    public class EnvelopeWriter implements RowPipeline.BodySink {
+        // Compressed rows of typical sheets are several times smaller, so gather more before encoding
+        private static final int GZIP_RATIO = 4;
+
+        private final String header;
+        private final SqsBatchPublisher.PublishSession session;
+        private final int headerBytes;
+        private final int rawLimit;
+        private final List<String> rows = new ArrayList<>();
+        private int[] lines = new int[64];
+        private int rowBytes;
+
+        private EnvelopeWriter(String header, SqsBatchPublisher.PublishSession session) {
+            this.header = header;
+            this.session = session;
+            this.headerBytes = SqsBatchPublisher.utf8Length(header) + 2;
+            this.rawLimit = encoding == Encoding.ENVELOPE_GZIP ? maxMessageBytes * GZIP_RATIO : maxMessageBytes;
+        }
+
+        @Override
+        public void accept(String row, int lineNumber) throws IOException {
+            int size = SqsBatchPublisher.utf8Length(row) + 1;
+            if (headerBytes + size > maxMessageBytes && encoding != Encoding.ENVELOPE_GZIP) {
+                throw new IllegalArgumentException("Row of " + size + " bytes does not fit in a message");
+            }
+            if (!rows.isEmpty() && headerBytes + rowBytes + size > rawLimit) {
+                flush();
+            }
+            if (rows.size() == lines.length) {
+                lines = Arrays.copyOf(lines, lines.length * 2);
+            }
+            lines[rows.size()] = lineNumber;
+            rows.add(row);
+            rowBytes += size;
+        }
+
+        public void flush() throws IOException {
+            if (!rows.isEmpty()) {
+                send(0, rows.size());
+                rows.clear();
+                rowBytes = 0;
+            }
+        }
+
+        // Sends rows [from, to). A compressed envelope can still come out too large; split it until every part fits
+        private void send(int from, int to) throws IOException {
+            String body = header + String.join(",", rows.subList(from, to)) + "]}";
+            if (encoding == Encoding.ENVELOPE_GZIP) {
+                body = gzip(body);
+            }
+            if (SqsBatchPublisher.utf8Length(body) > maxMessageBytes && to - from > 1) {
+                int half = from + (to - from) / 2;
+                send(from, half);
+                send(half, to);
+                return;
+            }
+            session.publish(body, Arrays.copyOfRange(lines, from, to));
+        }
+    }
+}
@@ -0,0 +1,252 @@
+package com.justinwells.xlsUploader.service;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.Locale;
+
+// Pull reader for multipart/form-data bodies (RFC 7578). Parts are read strictly in order straight off
+// the underlying stream; at most one buffer of the body is held, and nothing is written to disk.
+public class MultipartStream {
+    private static final int BUFFER_SIZE = 64 * 1024;
+    private static final int MAX_HEADER_LINE = 8 * 1024;
+
+    private final InputStream in;
+    // CRLF "--" boundary; the first delimiter is matched too since the buffer starts with a CRLF
+    private final byte[] delimiter;
+    private final byte[] buf;
+    private int head;
+    private int tail;
+    private boolean eof;
+    private PartInputStream current;
+    private boolean closed;
+
+    public MultipartStream(InputStream in, String boundary) {
+        this.in = in;
+        this.delimiter = ("\r\n--" + boundary).getBytes(StandardCharsets.ISO_8859_1);
+        this.buf = new byte[BUFFER_SIZE + delimiter.length];
+        buf[0] = '\r';
+        buf[1] = '\n';
+        tail = 2;
+        // The preamble before the first boundary is read as a part and discarded
+        current = new PartInputStream();
+    }
+
+    // Returns the boundary parameter of a multipart/form-data content type, or null for any other type
+    public static String boundary(String contentType) {
+        if (contentType == null || !contentType.toLowerCase(Locale.ROOT).startsWith("multipart/form-data")) {
+            return null;
+        }
+        for (String param : contentType.split(";")) {
+            param = param.trim();
+            if (param.toLowerCase(Locale.ROOT).startsWith("boundary=")) {
+                String boundary = unquote(param.substring("boundary=".length()));
+                return boundary.isEmpty() ? null : boundary;
+            }
+        }
+        return null;
+    }
+
+    public static class PartTooLargeException extends IOException {
+        public PartTooLargeException(String message) {
+            super(message);
+        }
+    }
+
+    public static class Part {
+        private final String name;
+        private final String fileName;
+        private final PartInputStream body;
+
+        private Part(String name, String fileName, PartInputStream body) {
+            this.name = name;
+            this.fileName = fileName;
+            this.body = body;
+        }
+
+        public String getName() { return name; }
+        // Null for plain form fields
+        public String getFileName() { return fileName; }
+        // Valid until next() is called
+        public InputStream getBody() { return body; }
+
+        // Reading more than maxBytes of the body throws PartTooLargeException
+        public void limitTo(long maxBytes) {
+            body.limit = maxBytes;
+        }
+
+        public String readString(int maxBytes) throws IOException {
+            byte[] bytes = body.readNBytes(maxBytes + 1);
+            if (bytes.length > maxBytes) {
+                throw new IOException("Form field " + name + " is longer than " + maxBytes + " bytes");
+            }
+            return new String(bytes, StandardCharsets.UTF_8);
+        }
+    }
+
+    // Skips whatever is left of the previous part. Returns null after the closing boundary.
+    public Part next() throws IOException {
+        if (closed) {
+            return null;
+        }
+        current.skipRest();
+        if (ensure(2) < 2) {
+            throw new IOException("Unexpected end of multipart body");
+        }
+        if (buf[head] == '-' && buf[head + 1] == '-') {
+            closed = true;
+            return null;
+        }
+        // Transport padding may follow the boundary before its CRLF
+        readLine();
+
+        String name = null;
+        String fileName = null;
+        String line;
+        while (!(line = readLine()).isEmpty()) {
+            int colon = line.indexOf(':');
+            if (colon > 0 && line.substring(0, colon).trim().equalsIgnoreCase("Content-Disposition")) {
+                for (String param : line.substring(colon + 1).split(";")) {
+                    param = param.trim();
+                    int eq = param.indexOf('=');
+                    if (eq < 0) {
+                        continue;
+                    }
+                    String key = param.substring(0, eq).trim().toLowerCase(Locale.ROOT);
+                    String value = unquote(param.substring(eq + 1).trim());
+                    if ("name".equals(key)) {
+                        name = value;
+                    } else if ("filename".equals(key)) {
+                        fileName = baseName(value);
+                    }
+                }
+            }
+        }
+        current = new PartInputStream();
+        return new Part(name, fileName, current);
+    }
+
+    // Decoded as UTF-8, which is what browsers send non-ASCII file names in
+    private String readLine() throws IOException {
+        ByteArrayOutputStream line = new ByteArrayOutputStream();
+        while (true) {
+            if (ensure(1) < 1) {
+                throw new IOException("Unexpected end of multipart headers");
+            }
+            byte b = buf[head++];
+            if (b == '\n') {
+                break;
+            }
+            if (line.size() >= MAX_HEADER_LINE) {
+                throw new IOException("Multipart header line is too long");
+            }
+            line.write(b);
+        }
+        byte[] bytes = line.toByteArray();
+        int length = bytes.length > 0 && bytes[bytes.length - 1] == '\r' ? bytes.length - 1 : bytes.length;
+        return new String(bytes, 0, length, StandardCharsets.UTF_8);
+    }
+
+    // Reads until at least wanted bytes are buffered or the stream ends; returns the bytes available
+    private int ensure(int wanted) throws IOException {
+        while (tail - head < wanted && !eof) {
+            if (head > 0) {
+                System.arraycopy(buf, head, buf, 0, tail - head);
+                tail -= head;
+                head = 0;
+            }
+            int read = in.read(buf, tail, buf.length - tail);
+            if (read < 0) {
+                eof = true;
+            } else {
+                tail += read;
+            }
+        }
+        return tail - head;
+    }
+
+    private int indexOfDelimiter() {
+        byte first = delimiter[0];
+        int last = tail - delimiter.length;
+        outer:
+        for (int i = head; i <= last; i++) {
+            if (buf[i] != first) {
+                continue;
+            }
+            for (int j = 1; j < delimiter.length; j++) {
+                if (buf[i + j] != delimiter[j]) {
+                    continue outer;
+                }
+            }
+            return i;
+        }
+        return -1;
+    }
+
+    private class PartInputStream extends InputStream {
+        private boolean done;
+        private long limit = Long.MAX_VALUE;
+        private long count;
+
+        @Override
+        public int read() throws IOException {
+            byte[] one = new byte[1];
+            return read(one, 0, 1) < 0 ? -1 : one[0] & 0xff;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            if (done) {
+                return -1;
+            }
+            if (len == 0) {
+                return 0;
+            }
+            ensure(delimiter.length);
+            int found = indexOfDelimiter();
+            if (found == head) {
+                done = true;
+                head += delimiter.length;
+                return -1;
+            }
+            // Without a match, the last delimiter.length - 1 bytes may be the start of one
+            int safe = found >= 0 ? found - head : tail - head - (delimiter.length - 1);
+            if (safe <= 0) {
+                if (eof) {
+                    throw new IOException("Unexpected end of multipart body");
+                }
+                ensure(tail - head + 1);
+                return read(b, off, len);
+            }
+            int n = Math.min(len, safe);
+            count += n;
+            if (count > limit) {
+                throw new PartTooLargeException("File is larger than " + limit + " bytes");
+            }
+            System.arraycopy(buf, head, b, off, n);
+            head += n;
+            return n;
+        }
+
+        private void skipRest() throws IOException {
+            limit = Long.MAX_VALUE;
+            byte[] scratch = new byte[8192];
+            while (read(scratch, 0, scratch.length) >= 0) {
+                // Discarded
+            }
+        }
+    }
+
+    private static String unquote(String value) {
+        if (value.length() >= 2 && value.startsWith("\"") && value.endsWith("\"")) {
+            return value.substring(1, value.length() - 1).replace("\\\"", "\"").replace("\\\\", "\\");
+        }
+        return value;
+    }
+
+    // Some clients send the full client-side path
+    private static String baseName(String fileName) {
+        return fileName.substring(Math.max(fileName.lastIndexOf('/'), fileName.lastIndexOf('\\')) + 1);
+    }
+}
@@ -0,0 +1,61 @@
+package com.justinwells.xlsUploader.service;
+
+import com.justinwells.xlsUploader.model.SheetRow;
+import com.justinwells.xlsUploader.model.UploadFormat;
+import org.springframework.stereotype.Component;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.List;
+import java.util.Map;
+
+// Opens an upload with the row source for its extension and reads its custom properties and header
+// row. CSV files carry no properties, so their spec must be named on the request.
+@Component
+public class PackageInspector {
+
+    public InspectedPackage inspect(File file) throws IOException {
+        return inspect(file, 0);
+    }
+
+    // Opens the sheet at sheetIndex; a CSV file is a single sheet
+    public InspectedPackage inspect(File file, int sheetIndex) throws IOException {
+        UploadFormat format = UploadFormat.fromFileName(file.getName());
+        if (format == null) {
+            throw new IOException("Unsupported file type: " + file.getName());
+        }
+        switch (format) {
+            case XLS: {
+                HssfRowSource rows = HssfRowSource.open(file, sheetIndex);
+                return inspect(file, format, sheetIndex, rows.getSheetNames(), rows, rows::readCustomProperties);
+            }
+            case CSV:
+                if (sheetIndex != 0) {
+                    throw new IOException("CSV files have a single sheet");
+                }
+                return inspect(file, format, 0, List.of(), CsvRowSource.open(file), Map::of);
+            default: {
+                XlsxStreamReader rows = XlsxStreamReader.open(file, sheetIndex);
+                return inspect(file, format, sheetIndex, rows.getSheetNames(), rows, rows::readCustomProperties);
+            }
+        }
+    }
+
+    @FunctionalInterface
+    private interface PropertyReader {
+        Map<String, String> read() throws IOException;
+    }
+
+    private InspectedPackage inspect(File file, UploadFormat format, int sheetIndex, List<String> sheetNames,
+                                     RowSource rows, PropertyReader properties) throws IOException {
+        try {
+            Map<String, String> customProperties = properties.read();
+            SheetRow headerRow = rows.next();
+            return new InspectedPackage(file, format, customProperties, sheetIndex, sheetNames, headerRow,
+                    rows);
+        } catch (IOException | RuntimeException e) {
+            rows.close();
+            throw e;
+        }
+    }
+}
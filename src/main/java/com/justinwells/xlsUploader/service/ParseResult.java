@@ -0,0 +1,37 @@
+package com.justinwells.xlsUploader.service;
+
+import com.justinwells.xlsUploader.model.RowErrors;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+
+// Outcome of reading one file. Rows with errors are not published; published completes once SQS
+// has acknowledged the rest. Rows SQS still refused after every retry are added to the errors as
+// NOT_PUBLISHED while publishing runs, and published then completes with UnpublishedRowsException.
+public class ParseResult {
+    private final long rowsRead;
+    private final RowErrors errors;
+    private final CompletableFuture<Void> published;
+
+    ParseResult(long rowsRead, RowErrors errors, CompletableFuture<Void> published) {
+        this.rowsRead = rowsRead;
+        this.errors = errors;
+        this.published = published;
+    }
+
+    public long getRowsRead() { return rowsRead; }
+    public RowErrors getErrors() { return errors; }
+    public CompletableFuture<Void> getPublished() { return published; }
+
+    // Waits for publishing to finish. Refused rows are left to the errors; any other failure is thrown
+    // as a CompletionException.
+    public void awaitPublished() {
+        try {
+            published.join();
+        } catch (CompletionException e) {
+            if (!(e.getCause() instanceof SqsBatchPublisher.UnpublishedRowsException)) {
+                throw e;
+            }
+        }
+    }
+}
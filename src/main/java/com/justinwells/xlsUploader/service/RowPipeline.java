@@ -0,0 +1,233 @@
+package com.justinwells.xlsUploader.service;
+
+import com.justinwells.xlsUploader.model.SheetRow;
+import jakarta.annotation.PreDestroy;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.atomic.AtomicInteger;
+
+// Three-stage row pipeline: one reader thread cuts the sheet into chunks, a shared worker pool validates
+// and serializes them, and the calling thread publishes the results. A per-file permit count bounds the
+// chunks between the reader and the publisher, so a slow stage back-pressures the reader.
+@Component
+public class RowPipeline {
+
+    @FunctionalInterface
+    public interface RowSupplier {
+        // Returns null once there are no more rows
+        SheetRow next() throws IOException;
+    }
+
+    @FunctionalInterface
+    public interface RowProcessor {
+        // Returns the message body for the row, or null when the row is not to be published
+        String process(SheetRow row) throws IOException;
+    }
+
+    @FunctionalInterface
+    public interface BodySink {
+        // lineNumber is the sheet line the body was produced from
+        void accept(String body, int lineNumber) throws IOException;
+    }
+
+    private final int workerCount;
+    private final int chunkSize;
+    private final int maxChunksInFlight;
+    private final ExecutorService workers;
+
+    @Autowired
+    public RowPipeline(@Value("${xls.pipeline.workers:0}") int workers,
+                       @Value("${xls.pipeline.chunk-size:256}") int chunkSize,
+                       @Value("${xls.pipeline.max-chunks-in-flight:0}") int maxChunksInFlight) {
+        this.workerCount = workers > 0 ? workers : Runtime.getRuntime().availableProcessors();
+        this.chunkSize = chunkSize;
+        this.maxChunksInFlight = maxChunksInFlight > 0 ? maxChunksInFlight : workerCount * 2;
+        AtomicInteger threadNumber = new AtomicInteger();
+        this.workers = Executors.newFixedThreadPool(workerCount, runnable -> {
+            Thread thread = new Thread(runnable, "row-worker-" + threadNumber.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    // When ordered is set, rows reach the publisher in sheet order; otherwise chunks are published as
+    // soon as a worker finishes them.
+    public void run(RowSupplier rows, RowProcessor processor, BodySink sink, boolean ordered) throws IOException {
+        if (workerCount <= 1) {
+            runInline(rows, processor, sink);
+            return;
+        }
+        FileRun run = new FileRun(processor, ordered);
+        Thread reader = Thread.ofVirtual().name("row-reader").start(() -> run.read(rows));
+        try {
+            run.publish(sink);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted while publishing rows", e);
+        } finally {
+            run.cancelled = true;
+            reader.interrupt();
+            try {
+                reader.join();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+    }
+
+    private void runInline(RowSupplier rows, RowProcessor processor, BodySink sink) throws IOException {
+        SheetRow row;
+        while ((row = rows.next()) != null) {
+            String body = processor.process(row);
+            if (body != null) {
+                sink.accept(body, row.getRowIndex() + 1);
+            }
+        }
+    }
+
+    private static final class Chunk {
+        private final long seq;
+        private final List<String> bodies;
+        // Line number of each body
+        private final int[] lines;
+        private final Throwable error;
+        private final boolean end;
+
+        private Chunk(long seq, List<String> bodies, int[] lines, Throwable error, boolean end) {
+            this.seq = seq;
+            this.bodies = bodies;
+            this.lines = lines;
+            this.error = error;
+            this.end = end;
+        }
+    }
+
+    private class FileRun {
+        private final RowProcessor processor;
+        private final boolean ordered;
+        private final Semaphore inFlight = new Semaphore(maxChunksInFlight);
+        private final BlockingQueue<Chunk> completed = new LinkedBlockingQueue<>();
+        private volatile boolean cancelled;
+
+        private FileRun(RowProcessor processor, boolean ordered) {
+            this.processor = processor;
+            this.ordered = ordered;
+        }
+
+        private void read(RowSupplier rows) {
+            long seq = 0;
+            try {
+                List<SheetRow> batch = new ArrayList<>(chunkSize);
+                SheetRow row;
+                while (!cancelled && (row = rows.next()) != null) {
+                    batch.add(row);
+                    if (batch.size() == chunkSize) {
+                        submit(seq, batch);
+                        seq++;
+                        batch = new ArrayList<>(chunkSize);
+                    }
+                }
+                if (!batch.isEmpty() && !cancelled) {
+                    submit(seq, batch);
+                    seq++;
+                }
+                completed.add(new Chunk(seq, null, null, null, true));
+            } catch (Throwable e) {
+                completed.add(new Chunk(seq, null, null, e, true));
+            }
+        }
+
+        private void submit(long seq, List<SheetRow> batch) throws InterruptedException {
+            inFlight.acquire();
+            workers.execute(() -> completed.add(process(seq, batch)));
+        }
+
+        private Chunk process(long seq, List<SheetRow> batch) {
+            List<String> bodies = new ArrayList<>(batch.size());
+            int[] lines = new int[batch.size()];
+            try {
+                for (SheetRow row : batch) {
+                    if (cancelled) {
+                        break;
+                    }
+                    String body = processor.process(row);
+                    if (body != null) {
+                        lines[bodies.size()] = row.getRowIndex() + 1;
+                        bodies.add(body);
+                    }
+                }
+                return new Chunk(seq, bodies, lines, null, false);
+            } catch (Throwable e) {
+                return new Chunk(seq, bodies, lines, e, false);
+            }
+        }
+
+        private void publish(BodySink sink) throws IOException, InterruptedException {
+            Map<Long, Chunk> waiting = new HashMap<>();
+            long published = 0;
+            long total = -1;
+            Throwable readError = null;
+            while (total < 0 || published < total) {
+                Chunk chunk = completed.take();
+                if (chunk.end) {
+                    total = chunk.seq;
+                    readError = chunk.error;
+                    continue;
+                }
+                if (!ordered) {
+                    publishChunk(chunk, sink);
+                    published++;
+                    continue;
+                }
+                waiting.put(chunk.seq, chunk);
+                while ((chunk = waiting.remove(published)) != null) {
+                    publishChunk(chunk, sink);
+                    published++;
+                }
+            }
+            if (readError != null) {
+                rethrow(readError);
+            }
+        }
+
+        private void publishChunk(Chunk chunk, BodySink sink) throws IOException {
+            inFlight.release();
+            for (int i = 0; i < chunk.bodies.size(); i++) {
+                sink.accept(chunk.bodies.get(i), chunk.lines[i]);
+            }
+            if (chunk.error != null) {
+                rethrow(chunk.error);
+            }
+        }
+    }
+
+    private static void rethrow(Throwable error) throws IOException {
+        if (error instanceof IOException) {
+            throw (IOException) error;
+        }
+        if (error instanceof RuntimeException) {
+            throw (RuntimeException) error;
+        }
+        if (error instanceof Error) {
+            throw (Error) error;
+        }
+        throw new IOException(error.getMessage(), error);
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        workers.shutdown();
+    }
+}
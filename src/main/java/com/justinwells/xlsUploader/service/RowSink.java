@@ -0,0 +1,10 @@
+package com.justinwells.xlsUploader.service;
+
+import java.util.List;
+import java.util.Map;
+
+// Destination for the rows of one spec, as decoded from the queue. A batch is written as a whole;
+// an exception leaves the messages unacknowledged so SQS redelivers them.
+public interface RowSink {
+    void write(List<Map<String, Object>> rows);
+}
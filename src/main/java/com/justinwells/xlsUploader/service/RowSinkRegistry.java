@@ -0,0 +1,79 @@
+package com.justinwells.xlsUploader.service;
+
+import com.justinwells.xlsUploader.model.SpecDefinition;
+import com.justinwells.xlsUploader.model.XlsSpec;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.ObjectProvider;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import javax.sql.DataSource;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+// One sink per spec. When a DataSource is configured every spec gets a JdbcRowSink writing to the
+// table named after the spec; otherwise consumers only count what they receive. A sink is built from the
+// spec's current SpecDefinition and rebuilt once a reload replaces that definition, so added fields and
+// a changed idField reach the upsert.
+@Component
+public class RowSinkRegistry {
+    private static final Logger logger = LoggerFactory.getLogger(RowSinkRegistry.class);
+
+    // Added to every message by SpreadsheetParser
+    static final List<String> ROW_FIELDS = List.of("s3Key", "lineNumber", "createdAt");
+
+    private final XlsSpec xlsSpec;
+    private final DataSource dataSource;
+    private final Map<String, SpecSink> sinks = new ConcurrentHashMap<>();
+
+    @Autowired
+    public RowSinkRegistry(XlsSpec xlsSpec, ObjectProvider<DataSource> dataSource,
+                           @Value("${xls.sink.jdbc.enabled:true}") boolean jdbcEnabled) {
+        this.xlsSpec = xlsSpec;
+        this.dataSource = jdbcEnabled ? dataSource.getIfAvailable() : null;
+        if (this.dataSource == null) {
+            logger.info("No DataSource configured, consumed rows are not stored");
+            return;
+        }
+        // Built up front so a spec whose idField is not one of its fields fails at startup
+        for (String specName : xlsSpec.getSpecNames()) {
+            getSink(specName);
+        }
+    }
+
+    // Null when rows of this spec are not stored
+    public RowSink getSink(String specName) {
+        SpecDefinition spec = xlsSpec.getDefinition(specName);
+        if (dataSource == null || spec == null) {
+            return null;
+        }
+        SpecSink current = sinks.get(specName);
+        if (current != null && current.spec == spec) {
+            return current.sink;
+        }
+        return sinks.compute(specName, (name, existing) ->
+                existing != null && existing.spec == spec ? existing : new SpecSink(spec, createSink(spec))).sink;
+    }
+
+    private RowSink createSink(SpecDefinition spec) {
+        List<String> fields = new ArrayList<>(spec.getFieldNames());
+        fields.addAll(ROW_FIELDS);
+        logger.info("Storing {} rows as {}", spec.getName(), fields);
+        return new JdbcRowSink(dataSource, spec.getName(), fields, spec.getIdField());
+    }
+
+    // A sink and the definition it was built from
+    private static final class SpecSink {
+        private final SpecDefinition spec;
+        private final RowSink sink;
+
+        private SpecSink(SpecDefinition spec, RowSink sink) {
+            this.spec = spec;
+            this.sink = sink;
+        }
+    }
+}
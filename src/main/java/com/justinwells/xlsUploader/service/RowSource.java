@@ -0,0 +1,14 @@
+package com.justinwells.xlsUploader.service;
+
+import com.justinwells.xlsUploader.model.SheetRow;
+
+import java.io.Closeable;
+import java.io.IOException;
+
+// Sequential reader over the rows of one sheet of an upload, header row included. One
+// implementation per file format; PackageInspector picks it from the file extension.
+public interface RowSource extends Closeable {
+
+    // Returns the next row, or null once the source is exhausted
+    SheetRow next() throws IOException;
+}
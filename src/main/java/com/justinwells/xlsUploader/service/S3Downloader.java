@@ -0,0 +1,60 @@
+package com.justinwells.xlsUploader.service;
+
+import com.amazonaws.SdkClientException;
+import com.amazonaws.services.s3.AmazonS3;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.security.DigestInputStream;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.HexFormat;
+
+// Copies stored uploads back out of S3 for processing that does not start from an HTTP request (resumes
+// and ingest workers)
+@Service
+public class S3Downloader {
+    private final AmazonS3 s3Client;
+    private final String bucketName;
+
+    @Autowired
+    public S3Downloader(AmazonS3 s3Client, @Value("${spring.cloud.aws.s3.bucket}") String bucketName) {
+        this.s3Client = s3Client;
+        this.bucketName = bucketName;
+    }
+
+    // Streams the object into target and returns the SHA-256 of its content
+    public String download(String key, File target) throws IOException {
+        MessageDigest sha256;
+        try {
+            sha256 = MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException("SHA-256 is not available", e);
+        }
+        try (InputStream in = new DigestInputStream(open(key), sha256);
+             OutputStream out = new FileOutputStream(target)) {
+            in.transferTo(out);
+        }
+        return HexFormat.of().formatHex(sha256.digest());
+    }
+
+    public InputStream open(String key) throws IOException {
+        try {
+            return s3Client.getObject(bucketName, key).getObjectContent();
+        } catch (SdkClientException e) {
+            throw new IOException("Failed to read " + key + " from S3: " + e.getMessage(), e);
+        }
+    }
+
+    // Temp file suffix that keeps the extension PackageInspector picks the reader by
+    public static String suffix(String key) {
+        int slash = key.lastIndexOf('/');
+        return "-" + key.substring(slash + 1);
+    }
+}
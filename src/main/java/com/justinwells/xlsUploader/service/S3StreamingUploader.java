@@ -0,0 +1,179 @@
+package com.justinwells.xlsUploader.service;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+import org.springframework.util.unit.DataSize;
+import software.amazon.awssdk.core.async.AsyncRequestBody;
+import software.amazon.awssdk.services.s3.S3AsyncClient;
+import software.amazon.awssdk.services.s3.model.CompletedPart;
+import software.amazon.awssdk.services.s3.model.CreateMultipartUploadResponse;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.Semaphore;
+import java.util.stream.Collectors;
+
+// Reads an upload once and tees it to a local spool file and to S3. Files larger than one part go
+// through a multipart upload with several parts in flight. upload() returns as soon as the spool file
+// is complete, so parsing can start while the remaining parts are still being sent. When a part fails
+// while the input is still being read, upload() stops reading and throws UploadFailedException: the
+// spool file is incomplete and must not be parsed.
+@Service
+public class S3StreamingUploader {
+    private static final Logger logger = LoggerFactory.getLogger(S3StreamingUploader.class);
+    private static final int MIN_PART_SIZE = 5 * 1024 * 1024;
+    private static final int READ_CHUNK = 64 * 1024;
+
+    private final S3AsyncClient s3AsyncClient;
+    private final String bucketName;
+    private final int partSize;
+    private final int maxConcurrentParts;
+
+    public static class UploadFailedException extends IOException {
+        public UploadFailedException(String message, Throwable cause) {
+            super(message, cause);
+        }
+    }
+
+    @Autowired
+    public S3StreamingUploader(S3AsyncClient s3AsyncClient,
+                               @Value("${spring.cloud.aws.s3.bucket}") String bucketName,
+                               @Value("${xls.s3.part-size:8MB}") DataSize partSize,
+                               @Value("${xls.s3.max-concurrent-parts:4}") int maxConcurrentParts) {
+        this.s3AsyncClient = s3AsyncClient;
+        this.bucketName = bucketName;
+        this.partSize = (int) Math.max(partSize.toBytes(), MIN_PART_SIZE);
+        this.maxConcurrentParts = maxConcurrentParts;
+    }
+
+    // spoolFile may be null when no local copy is needed. The returned future completes once S3 has the object.
+    public CompletableFuture<Void> upload(InputStream in, String key, File spoolFile) throws IOException {
+        try (OutputStream spool = spoolFile != null ? new FileOutputStream(spoolFile) : OutputStream.nullOutputStream()) {
+            // Most uploads are far smaller than a part, so the first buffer grows as needed
+            byte[] first = readPart(in, spool, READ_CHUNK);
+            if (first.length < partSize) {
+                return s3AsyncClient.putObject(b -> b.bucket(bucketName).key(key), AsyncRequestBody.fromBytes(first))
+                        .thenApply(response -> null);
+            }
+
+            MultipartUpload upload = new MultipartUpload(key);
+            try {
+                byte[] part = first;
+                while (part.length > 0 && !upload.hasFailed()) {
+                    upload.sendPart(part);
+                    part = readPart(in, spool, partSize);
+                }
+                if (upload.hasFailed()) {
+                    throw new UploadFailedException("Upload of " + key + " to S3 failed: "
+                            + upload.getFailure().getMessage(), upload.getFailure());
+                }
+            } catch (IOException | RuntimeException e) {
+                upload.abort();
+                throw e;
+            }
+            return upload.complete();
+        }
+    }
+
+    private byte[] readPart(InputStream in, OutputStream spool, int initialCapacity) throws IOException {
+        byte[] buffer = new byte[Math.min(initialCapacity, partSize)];
+        int filled = 0;
+        while (filled < partSize) {
+            if (filled == buffer.length) {
+                buffer = Arrays.copyOf(buffer, (int) Math.min(buffer.length * 2L, partSize));
+            }
+            int read = in.read(buffer, filled, Math.min(READ_CHUNK, buffer.length - filled));
+            if (read < 0) {
+                break;
+            }
+            spool.write(buffer, filled, read);
+            filled += read;
+        }
+        return filled == buffer.length ? buffer : Arrays.copyOf(buffer, filled);
+    }
+
+    private class MultipartUpload {
+        private final String key;
+        private final CompletableFuture<String> uploadId;
+        private final Semaphore partPermits = new Semaphore(maxConcurrentParts);
+        private final List<CompletableFuture<CompletedPart>> parts = new ArrayList<>();
+        private volatile Throwable failure;
+
+        private MultipartUpload(String key) {
+            this.key = key;
+            this.uploadId = s3AsyncClient.createMultipartUpload(b -> b.bucket(bucketName).key(key))
+                    .thenApply(CreateMultipartUploadResponse::uploadId);
+        }
+
+        private boolean hasFailed() {
+            return failure != null;
+        }
+
+        private Throwable getFailure() {
+            return failure instanceof CompletionException && failure.getCause() != null ? failure.getCause() : failure;
+        }
+
+        // Blocks the reading thread once maxConcurrentParts parts are in flight
+        private void sendPart(byte[] bytes) throws IOException {
+            try {
+                partPermits.acquire();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new IOException("Interrupted while uploading " + key, e);
+            }
+            int partNumber = parts.size() + 1;
+            CompletableFuture<CompletedPart> part = uploadId
+                    .thenCompose(id -> s3AsyncClient.uploadPart(
+                            b -> b.bucket(bucketName).key(key).uploadId(id).partNumber(partNumber),
+                            AsyncRequestBody.fromBytes(bytes)))
+                    .thenApply(response -> CompletedPart.builder().partNumber(partNumber).eTag(response.eTag()).build())
+                    .whenComplete((completed, error) -> {
+                        if (error != null) {
+                            failure = error;
+                        }
+                        partPermits.release();
+                    });
+            parts.add(part);
+        }
+
+        private CompletableFuture<Void> complete() {
+            return CompletableFuture.allOf(parts.toArray(new CompletableFuture[0]))
+                    .thenCompose(v -> uploadId)
+                    .thenCompose(id -> s3AsyncClient.completeMultipartUpload(b -> b
+                            .bucket(bucketName)
+                            .key(key)
+                            .uploadId(id)
+                            .multipartUpload(m -> m.parts(parts.stream()
+                                    .map(CompletableFuture::join)
+                                    .collect(Collectors.toList())))))
+                    .handle((response, error) -> {
+                        if (error != null) {
+                            abort();
+                            throw error instanceof CompletionException
+                                    ? (CompletionException) error : new CompletionException(error);
+                        }
+                        return null;
+                    });
+        }
+
+        private void abort() {
+            uploadId.thenCompose(id -> s3AsyncClient.abortMultipartUpload(b -> b.bucket(bucketName).key(key).uploadId(id)))
+                    .whenComplete((response, error) -> {
+                        if (error != null) {
+                            logger.warn("Failed to abort multipart upload of {}: {}", key, error.getMessage());
+                        }
+                    });
+        }
+    }
+}
@@ -0,0 +1,53 @@
+package com.justinwells.xlsUploader.service;
+
+import com.amazonaws.SdkClientException;
+import com.amazonaws.services.s3.AmazonS3;
+import com.amazonaws.services.s3.model.ObjectTagging;
+import com.amazonaws.services.s3.model.SetObjectTaggingRequest;
+import com.amazonaws.services.s3.model.Tag;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.retry.annotation.Backoff;
+import org.springframework.retry.annotation.Retryable;
+import org.springframework.stereotype.Component;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+// Writes an upload's state tags, plus duplicateOf when it is not null. Throttling and other S3 errors
+// are retried with jittered exponential backoff; the last error is thrown once the attempts are used up.
+@Component
+public class S3TagWriter {
+    private final AmazonS3 s3Client;
+    private final String bucketName;
+    private final UploadMetrics uploadMetrics;
+
+    @Autowired
+    public S3TagWriter(AmazonS3 s3Client, @Value("${spring.cloud.aws.s3.bucket}") String bucketName,
+                       UploadMetrics uploadMetrics) {
+        this.s3Client = s3Client;
+        this.bucketName = bucketName;
+        this.uploadMetrics = uploadMetrics;
+    }
+
+    @Retryable(retryFor = SdkClientException.class,
+            maxAttemptsExpression = "${xls.state.max-attempts:5}",
+            backoff = @Backoff(delayExpression = "${xls.state.retry-delay-ms:200}",
+                    maxDelayExpression = "${xls.state.retry-max-delay-ms:5000}",
+                    multiplier = 2, random = true))
+    public void write(String key, String state, String spec, String duplicateOf) {
+        List<Tag> tags = new ArrayList<>(Arrays.asList(
+                new Tag("fileProcessingState", state),
+                new Tag("spec", spec)
+        ));
+        if (duplicateOf != null) {
+            tags.add(new Tag("duplicateOf", duplicateOf));
+        }
+        ObjectTagging tagging = new ObjectTagging(tags);
+        long start = System.nanoTime();
+        s3Client.setObjectTagging(new SetObjectTaggingRequest(bucketName, key, tagging));
+        uploadMetrics.tagging(spec).record(System.nanoTime() - start, TimeUnit.NANOSECONDS);
+    }
+}
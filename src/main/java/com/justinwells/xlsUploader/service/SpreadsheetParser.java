@@ -1,169 +1,615 @@
 package com.justinwells.xlsUploader.service;
 
-import com.fasterxml.jackson.databind.ObjectMapper;
+import com.justinwells.xlsUploader.model.LineCheckpoint;
+import com.justinwells.xlsUploader.model.LongHashSet;
+import com.justinwells.xlsUploader.model.RowErrors;
+import com.justinwells.xlsUploader.model.SheetRow;
+import com.justinwells.xlsUploader.model.SpecDefinition;
+import com.justinwells.xlsUploader.model.UploadFormat;
+import com.justinwells.xlsUploader.model.ValidationPlan;
 import com.justinwells.xlsUploader.model.XlsSpec;
-import com.justinwells.xlsUploader.model.XlsSpec.HeaderSpec;
-import org.apache.poi.ss.usermodel.Cell;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Timer;
 import org.apache.poi.ss.usermodel.Row;
 import org.apache.poi.ss.usermodel.Sheet;
 import org.apache.poi.ss.usermodel.Workbook;
-import org.apache.poi.ss.usermodel.DateUtil;
-import org.apache.poi.ss.usermodel.CellType;
 import org.apache.poi.xssf.usermodel.XSSFWorkbook;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.core.env.Environment;
 import org.springframework.stereotype.Service;
-import software.amazon.awssdk.services.sqs.SqsAsyncClient;
-import software.amazon.awssdk.services.sqs.model.SendMessageRequest;
 
 import java.io.File;
 import java.io.IOException;
 import java.time.Instant;
-import java.time.LocalDate;
-import java.time.ZoneId;
-import java.time.format.DateTimeFormatter;
-import java.time.format.DateTimeParseException;
-import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CancellationException;
 import java.util.concurrent.CompletableFuture;
-import java.util.regex.Pattern;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.IntFunction;
+import java.util.function.LongConsumer;
 
 @Service
 public class SpreadsheetParser {
+    // Line of the header row; a checkpoint at this line means no data row has been settled yet
+    public static final int HEADER_LINE = 1;
+    private static final Logger logger = LoggerFactory.getLogger(SpreadsheetParser.class);
 
-    private final SqsAsyncClient sqsClient;
+    private final SqsBatchPublisher publisher;
+    private final PackageInspector packageInspector;
+    private final RowPipeline rowPipeline;
     private final XlsSpec xlsSpec;
-    private final ObjectMapper objectMapper;
-    private final Map<String, String> queueUrls = new HashMap<>();
+    private final MessageCodec messageCodec;
+    private final KeyIndexService keyIndexService;
+    private final UploadMetrics uploadMetrics;
+    private final boolean streamingEnabled;
+    private final int maxRecordedErrors;
+    private final int failFastRows;
+    private final int rowSampleRate;
+    private final Environment environment;
 
     @Autowired
-    public SpreadsheetParser(SqsAsyncClient sqsClient, XlsSpec xlsSpec, ObjectMapper objectMapper) {
-        this.sqsClient = sqsClient;
+    public SpreadsheetParser(SqsBatchPublisher publisher, PackageInspector packageInspector, RowPipeline rowPipeline,
+                             XlsSpec xlsSpec, MessageCodec messageCodec, KeyIndexService keyIndexService,
+                             UploadMetrics uploadMetrics, Environment environment,
+                             @Value("${xls.parser.streaming:true}") boolean streamingEnabled,
+                             @Value("${xls.errors.max-recorded:1000}") int maxRecordedErrors,
+                             @Value("${xls.errors.fail-fast-rows:0}") int failFastRows,
+                             @Value("${xls.logging.row-sample-rate:1000}") int rowSampleRate) {
+        this.publisher = publisher;
+        this.packageInspector = packageInspector;
+        this.rowPipeline = rowPipeline;
         this.xlsSpec = xlsSpec;
-        this.objectMapper = objectMapper;
-        queueUrls.put("participant", "participant-queue");
+        this.messageCodec = messageCodec;
+        this.keyIndexService = keyIndexService;
+        this.uploadMetrics = uploadMetrics;
+        this.streamingEnabled = streamingEnabled;
+        this.maxRecordedErrors = maxRecordedErrors;
+        this.failFastRows = failFastRows;
+        this.rowSampleRate = rowSampleRate;
+        this.environment = environment;
     }
 
-    public void parseAndQueue(File file, String specName, String s3Key) throws IOException {
-        String queueUrl = queueUrls.get(specName);
-        if (queueUrl == null) {
-            throw new IllegalArgumentException("No queue configured for spec: " + specName);
+    // Returns once every row has been read and handed to the publisher; the result's future completes
+    // when SQS has acknowledged all of them.
+    public ParseResult parseAndQueue(File file, String specName, String s3Key) throws IOException {
+        return parseAndQueue(file, specName, s3Key, count -> { });
+    }
+
+    public ParseResult parseAndQueue(File file, String specName, String s3Key,
+                                     LongConsumer publishedListener) throws IOException {
+        long start = System.nanoTime();
+        try (InspectedPackage upload = packageInspector.inspect(file)) {
+            uploadMetrics.workbookOpen(specName).record(System.nanoTime() - start, TimeUnit.NANOSECONDS);
+            return parseAndQueue(upload, specName, s3Key, publishedListener);
         }
-        List<HeaderSpec> specHeaders = xlsSpec.getSpec(specName);
-        if (specHeaders == null) {
-            throw new IllegalArgumentException("Unknown spec: " + specName);
+    }
+
+    // Continues reading an upload that PackageInspector has already opened; the caller closes it.
+    // Rows that fail validation are recorded in the result instead of being published.
+    public ParseResult parseAndQueue(InspectedPackage upload, String specName, String s3Key,
+                                     LongConsumer publishedListener) throws IOException {
+        return parseAndQueue(upload, specName, s3Key, publishedListener, null);
+    }
+
+    // checkpoints, when set, gives each sheet's checkpoint by sheet index; it is settled as the sheet's
+    // rows are acknowledged or rejected. Rows at or below its starting line were published by an earlier
+    // run: they are validated again, so key constraints and the error report still cover the whole
+    // sheet, but not sent.
+    // Further sheets of a workbook mapped to a spec (see InspectedPackage.getSheetSpecs) are read at the
+    // same time, each to its own spec's queue.
+    public ParseResult parseAndQueue(InspectedPackage upload, String specName, String s3Key,
+                                     LongConsumer publishedListener, IntFunction<LineCheckpoint> checkpoints)
+            throws IOException {
+        return acrossSheets(upload, specName, (sheet, sheetSpec) -> publishSheet(sheet, sheetSpec, s3Key,
+                publishedListener, checkpoints != null ? checkpoints.apply(sheet.getSheetIndex()) : null));
+    }
+
+    // Runs the full validation of every mapped sheet without publishing anything
+    public ParseResult validate(InspectedPackage upload, String specName) throws IOException {
+        return acrossSheets(upload, specName, this::validateSheet);
+    }
+
+    // Queue of a spec: aws.sqs.<spec>-queue-url, or the queue named <spec>-queue
+    public String queueUrl(String specName) {
+        return environment.getProperty("aws.sqs." + specName + "-queue-url", specName + "-queue");
+    }
+
+    @FunctionalInterface
+    private interface SheetCall {
+        ParseResult parse(InspectedPackage sheet, String specName) throws IOException;
+    }
+
+    // The first sheet is read on the calling thread from the already opened upload. Every other mapped
+    // sheet is opened separately and read on its own thread meanwhile, so a workbook takes about as long
+    // as its largest sheet. The results are merged, with each error labelled by its sheet. If the first
+    // sheet fails the others are cancelled, but rows they have already sent stay on their queues.
+    private ParseResult acrossSheets(InspectedPackage upload, String specName, SheetCall call) throws IOException {
+        Map<Integer, String> sheetSpecs = upload.getSheetSpecs(specName, xlsSpec.getSpecNames());
+        if (sheetSpecs.size() == 1) {
+            return call.parse(upload, sheetSpecs.get(upload.getSheetIndex()));
+        }
+        for (String sheetSpec : sheetSpecs.values()) {
+            // An unknown spec fails the upload before any sheet is read
+            requireSpec(sheetSpec);
         }
 
-        try (Workbook workbook = new XSSFWorkbook(file)) {
-            Sheet sheet = workbook.getSheetAt(0);
-            Row headerRow = sheet.getRow(0);
-            Map<String, Integer> headerMap = xlsSpec.getHeaderMap(specName, headerRow);
-            for (int i = 1; i <= sheet.getLastRowNum(); i++) {
-                Row row = sheet.getRow(i);
-                if (row == null) continue;
-                Map<String, Object> rowData = new HashMap<>();
-                List<String> errors = new ArrayList<>();
-
-                for (HeaderSpec spec : specHeaders) {
-                    Integer column = headerMap.get(spec.getField());
-                    if (column == null) continue;
-                    Cell cell = row.getCell(column);
-                    Object value = validateCell(spec, cell, i + 1, errors);
-                    rowData.put(spec.getField(), value);
+        Map<Integer, Future<ParseResult>> results = new LinkedHashMap<>();
+        ParseResult first;
+        try (ExecutorService sheetReaders = Executors.newThreadPerTaskExecutor(
+                Thread.ofVirtual().name("sheet-reader-", 1).factory())) {
+            for (Map.Entry<Integer, String> entry : sheetSpecs.entrySet()) {
+                int index = entry.getKey();
+                if (index != upload.getSheetIndex()) {
+                    results.put(index, sheetReaders.submit(() -> {
+                        try (InspectedPackage sheet = packageInspector.inspect(upload.getFile(), index)) {
+                            return call.parse(sheet, entry.getValue());
+                        }
+                    }));
                 }
+            }
+            try {
+                first = call.parse(upload, sheetSpecs.get(upload.getSheetIndex()));
+            } catch (IOException | RuntimeException e) {
+                results.values().forEach(result -> result.cancel(true));
+                throw e;
+            }
+        }
+
+        List<String> sheetNames = upload.getSheetNames();
+        Map<String, ParseResult> bySheet = new LinkedHashMap<>();
+        bySheet.put(sheetNames.get(upload.getSheetIndex()), first);
+        long rowsRead = first.getRowsRead();
+        for (Map.Entry<Integer, Future<ParseResult>> entry : results.entrySet()) {
+            String sheetName = sheetNames.get(entry.getKey());
+            ParseResult result = sheetResult(sheetName, entry.getValue());
+            bySheet.put(sheetName, result);
+            rowsRead += result.getRowsRead();
+        }
 
-                if (!errors.isEmpty()) {
-                    throw new IllegalArgumentException("Row " + (i + 1) + " errors: " + String.join(", ", errors));
+        // Rows SQS turns down are added to a sheet's errors while it publishes, so the errors are merged
+        // once every sheet is done. A failure the errors do not cover wins over one they do.
+        RowErrors errors = newRowErrors();
+        CompletableFuture<Void> published = new CompletableFuture<>();
+        CompletableFuture.allOf(bySheet.values().stream().map(ParseResult::getPublished)
+                .toArray(CompletableFuture[]::new)).whenComplete((v, error) -> {
+            Throwable failure = null;
+            for (Map.Entry<String, ParseResult> sheet : bySheet.entrySet()) {
+                errors.addAll(sheet.getKey(), sheet.getValue().getErrors());
+                Throwable sheetFailure = failureOf(sheet.getValue().getPublished());
+                if (sheetFailure != null
+                        && (failure == null || failure instanceof SqsBatchPublisher.UnpublishedRowsException)) {
+                    failure = sheetFailure;
                 }
+            }
+            if (failure != null) {
+                published.completeExceptionally(failure);
+            } else {
+                published.complete(null);
+            }
+        });
+        return new ParseResult(rowsRead, errors, published);
+    }
 
-                rowData.put("s3Key", s3Key);
-                rowData.put("lineNumber", i + 1);
-                rowData.put("createdAt", Instant.now().toString());
+    private static Throwable failureOf(CompletableFuture<Void> future) {
+        try {
+            future.join();
+            return null;
+        } catch (CompletionException e) {
+            return e.getCause() != null ? e.getCause() : e;
+        } catch (CancellationException e) {
+            return e;
+        }
+    }
 
-                String messageBody = objectMapper.writeValueAsString(rowData);
-                sendMessage(queueUrl, messageBody);
+    private static ParseResult sheetResult(String sheetName, Future<ParseResult> result) throws IOException {
+        try {
+            return result.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted while reading sheet " + sheetName, e);
+        } catch (ExecutionException e) {
+            throw new IOException("Sheet " + sheetName + ": " + e.getCause().getMessage(), e.getCause());
+        }
+    }
+
+    private ParseResult publishSheet(InspectedPackage upload, String specName, String s3Key,
+                                     LongConsumer publishedListener, LineCheckpoint checkpoint) throws IOException {
+        SpecDefinition spec = requireSpec(specName);
+        String queueUrl = queueUrl(specName);
+
+        Counter rowsPublished = uploadMetrics.rowsPublished(specName);
+        RowErrors errors = newRowErrors();
+        // Sheets mapped to the same spec share its queue, so the dedup scope tells their lines apart
+        SqsBatchPublisher.PublishSession session = publisher.open(queueUrl, count -> {
+            rowsPublished.increment(count);
+            publishedListener.accept(count);
+        }, uploadMetrics.sqsSend(specName), checkpoint, s3Key + "#" + upload.getSheetIndex(), errors);
+        boolean envelope = messageCodec.getEncoding() != MessageCodec.Encoding.ROW;
+        FileContext context = new FileContext(spec, s3Key, errors, indexedKeys(spec), true, envelope, checkpoint);
+        if (envelope) {
+            MessageCodec.EnvelopeWriter writer = messageCodec.openEnvelope(
+                    specName, s3Key, context.createdAt, spec.getFieldNames(), session);
+            readRows(upload, spec, context, writer);
+            writer.flush();
+        } else {
+            readRows(upload, spec, context, (body, lineNumber) -> session.publish(body, new int[] {lineNumber}));
+        }
+        CompletableFuture<Void> published = session.complete();
+        if (!context.indexedKeys.isEmpty()) {
+            // Rows are only referenceable once they are on the queue
+            published = published.thenRun(() -> indexKeys(spec, context.indexedKeys));
+        }
+        return new ParseResult(context.rowsRead.get(), context.errors, published);
+    }
+
+    private ParseResult validateSheet(InspectedPackage upload, String specName) throws IOException {
+        SpecDefinition spec = requireSpec(specName);
+        FileContext context = new FileContext(spec, null, newRowErrors(), indexedKeys(spec), false, false, null);
+        readRows(upload, spec, context, (body, lineNumber) -> { });
+        return new ParseResult(context.rowsRead.get(), context.errors, CompletableFuture.completedFuture(null));
+    }
+
+    // The whole file is read against this one version of the spec, even if it is reloaded meanwhile
+    private SpecDefinition requireSpec(String specName) {
+        SpecDefinition spec = xlsSpec.getDefinition(specName);
+        if (spec == null) {
+            throw new IllegalArgumentException("Unknown spec: " + specName);
+        }
+        return spec;
+    }
+
+    // One set per field of this spec that another spec references
+    private Map<String, LongHashSet> indexedKeys(SpecDefinition spec) {
+        Set<String> targets = xlsSpec.getReferenceTargets();
+        Map<String, LongHashSet> keys = new HashMap<>();
+        for (String field : spec.getFieldNames()) {
+            if (targets.contains(spec.getName() + "." + field)) {
+                keys.put(field, new LongHashSet());
+            }
+        }
+        return keys;
+    }
+
+    private void indexKeys(SpecDefinition spec, Map<String, LongHashSet> keys) {
+        for (Map.Entry<String, LongHashSet> entry : keys.entrySet()) {
+            String reference = spec.getName() + "." + entry.getKey();
+            try {
+                keyIndexService.addAll(reference, entry.getValue());
+            } catch (IOException | RuntimeException e) {
+                logger.error("Failed to index keys of {}: {}", reference, e.getMessage());
+            }
+        }
+    }
+
+    private RowErrors newRowErrors() {
+        return new RowErrors(maxRecordedErrors, failFastRows);
+    }
+
+    private void readRows(InspectedPackage upload, SpecDefinition spec, FileContext context, RowPipeline.BodySink sink)
+            throws IOException {
+        long start = System.nanoTime();
+        try {
+            // The workbook fallback only exists for .xlsx; the other formats always use their row source
+            if (streamingEnabled || upload.getFormat() != UploadFormat.XLSX) {
+                SheetRow headerRow = upload.getHeaderRow();
+                if (headerRow == null || headerRow.getRowIndex() != 0) {
+                    throw new IllegalArgumentException("Missing header row");
+                }
+                ValidationPlan plan = spec.getValidationPlan(
+                        mapHeader(spec, headerRow), keyIndexService::get, context.indexedKeys);
+                RowSource source = upload.getRows();
+                RowPipeline.RowSupplier dataRows = context.track(
+                        () -> context.errors.shouldStop() ? null : source.next());
+                runPipeline(dataRows, plan, context, sink);
+            } else {
+                try (Workbook workbook = new XSSFWorkbook(upload.getFile())) {
+                    Sheet sheet = workbook.getSheetAt(upload.getSheetIndex());
+                    Row headerRow = sheet.getRow(0);
+                    ValidationPlan plan = spec.getValidationPlan(
+                            mapHeader(spec, SheetRow.of(headerRow)), keyIndexService::get, context.indexedKeys);
+                    Iterator<Row> rows = sheet.rowIterator();
+                    RowPipeline.RowSupplier dataRows = context.track(() -> {
+                        while (!context.errors.shouldStop() && rows.hasNext()) {
+                            Row row = rows.next();
+                            if (row.getRowNum() > 0) {
+                                return SheetRow.of(row);
+                            }
+                        }
+                        return null;
+                    });
+                    runPipeline(dataRows, plan, context, sink);
+                }
             }
         } catch (Exception e) {
             throw new IOException("Failed to parse and queue file: " + e.getMessage(), e);
+        } finally {
+            context.meters.parse.record(System.nanoTime() - start, TimeUnit.NANOSECONDS);
+            context.meters.rowsRejected.increment(context.errors.getInvalidRows());
+            context.meters.rowErrors.increment(context.errors.getTotal());
+        }
+    }
+
+    // Rows sharing a unique key are checked in line order, so the first valid one is kept however the
+    // workers interleave. An ordered spec checks each row as it reaches the publisher. Otherwise chunks
+    // are published as they complete: the reader marks the rows that repeat a key it has already seen,
+    // and only those are held back until every line before them has been validated.
+    private void runPipeline(RowPipeline.RowSupplier rows, ValidationPlan plan, FileContext context,
+                             RowPipeline.BodySink sink) throws IOException {
+        RowPipeline.RowProcessor processor = row -> {
+            try {
+                return toMessageBody(row, plan, context);
+            } finally {
+                context.validated.settle(row.getRowIndex() + 1);
+            }
+        };
+        if (context.ordered) {
+            rowPipeline.run(rows, processor, (body, lineNumber) -> {
+                if (context.checkKeys(plan, lineNumber, sink)) {
+                    sink.accept(body, lineNumber);
+                }
+            }, true);
+        } else {
+            rowPipeline.run(context.markRepeats(plan, rows), processor, (body, lineNumber) -> {
+                sink.accept(body, lineNumber);
+                context.checkKeys(plan, context.validated.getContiguous(), sink);
+            }, false);
+        }
+        context.checkKeys(plan, Integer.MAX_VALUE, sink);
+    }
+
+    private Map<String, Integer> mapHeader(SpecDefinition spec, SheetRow headerRow) {
+        long start = System.nanoTime();
+        Map<String, Integer> headerMap = spec.getHeaderMap(headerRow);
+        uploadMetrics.headerMap(spec.getName()).record(System.nanoTime() - start, TimeUnit.NANOSECONDS);
+        return headerMap;
+    }
+
+    // Runs on pipeline workers; everything it touches is immutable, per-call or thread-safe
+    private String toMessageBody(SheetRow row, ValidationPlan plan, FileContext context) throws IOException {
+        context.rowsRead.incrementAndGet();
+        context.meters.rowsRead.increment();
+        int lineNumber = row.getRowIndex() + 1;
+        long start = System.nanoTime();
+        if (context.envelope) {
+            Object[] values = new Object[plan.getFieldCount()];
+            long[] keys = plan.newKeys();
+            boolean valid = plan.validateRow(row, lineNumber, values, keys, context.errors);
+            long validated = System.nanoTime();
+            context.meters.validation.record(validated - start, TimeUnit.NANOSECONDS);
+            if (!valid) {
+                context.settle(lineNumber);
+                return null;
+            }
+            String body = null;
+            if (!context.isPublished(lineNumber)) {
+                logSampled(context, lineNumber, values);
+                body = messageCodec.encodeValues(lineNumber, values);
+                context.meters.serialization.record(System.nanoTime() - validated, TimeUnit.NANOSECONDS);
+            }
+            return context.admit(plan, lineNumber, keys, body);
+        }
+
+        Map<String, Object> rowData = new HashMap<>();
+        long[] keys = plan.newKeys();
+        boolean valid = plan.validateRow(row, lineNumber, rowData, keys, context.errors);
+        long validated = System.nanoTime();
+        context.meters.validation.record(validated - start, TimeUnit.NANOSECONDS);
+        if (!valid) {
+            context.settle(lineNumber);
+            return null;
+        }
+        String body = null;
+        if (context.publish && !context.isPublished(lineNumber)) {
+            logSampled(context, lineNumber, rowData);
+
+            rowData.put("s3Key", context.s3Key);
+            rowData.put("lineNumber", lineNumber);
+            rowData.put("createdAt", context.createdAt);
+
+            body = messageCodec.encodeRow(rowData);
+            context.meters.serialization.record(System.nanoTime() - validated, TimeUnit.NANOSECONDS);
+        }
+        return context.admit(plan, lineNumber, keys, body);
+    }
+
+    // Row values can be personal data and a file can have millions of rows, so only every
+    // rowSampleRate-th row is logged, and only at DEBUG
+    private void logSampled(FileContext context, int lineNumber, Object values) {
+        if (rowSampleRate > 0 && lineNumber % rowSampleRate == 0 && logger.isDebugEnabled()) {
+            logger.debug("{} line {}: {}", context.specName, lineNumber,
+                    values instanceof Object[] ? Arrays.toString((Object[]) values) : values);
         }
     }
 
-    private void sendMessage(String queueUrl, String messageBody) {
-        SendMessageRequest request = SendMessageRequest.builder()
-                .queueUrl(queueUrl)
-                .messageBody(messageBody)
-                .build();
+    // Meters of one spec, looked up once per file
+    private static class FileMeters {
+        private final Timer parse;
+        private final Timer validation;
+        private final Timer serialization;
+        private final Counter rowsRead;
+        private final Counter rowsRejected;
+        private final Counter rowErrors;
 
-        CompletableFuture<Void> future = sqsClient.sendMessage(request)
-                .thenAccept(response -> {
-                    System.out.println("Message sent successfully. Message ID: " + response.messageId());
-                })
-                .exceptionally(error -> {
-                    System.err.println("Failed to send message: " + error.getMessage());
-                    return null;
-                });
+        private FileMeters(UploadMetrics metrics, String specName) {
+            this.parse = metrics.parse(specName);
+            this.validation = metrics.rowValidation(specName);
+            this.serialization = metrics.rowSerialization(specName);
+            this.rowsRead = metrics.rowsRead(specName);
+            this.rowsRejected = metrics.rowsRejected(specName);
+            this.rowErrors = metrics.rowErrors(specName);
+        }
+    }
 
-        future.join();
+    // A valid row waiting for its keys to be checked; body is null when the row is not to be sent
+    private static final class PendingRow {
+        private final long[] keys;
+        private final String body;
+
+        private PendingRow(long[] keys, String body) {
+            this.keys = keys;
+            this.body = body;
+        }
     }
 
-    private Object validateCell(HeaderSpec spec, Cell cell, int rowNum, List<String> errors) {
-        String rawValue = cell != null ? cell.toString().trim() : null;
-        System.out.println("Validating row " + rowNum + ", field " + spec.getField() + ": '" + rawValue + "'");
+    // Values shared by every row of one file
+    private class FileContext {
+        private final String specName;
+        private final boolean ordered;
+        private final FileMeters meters;
+        private final String s3Key;
+        private final String createdAt = Instant.now().toString();
+        private final RowErrors errors;
+        private final Map<String, LongHashSet> indexedKeys;
+        private final boolean publish;
+        private final boolean envelope;
+        private final AtomicLong rowsRead = new AtomicLong();
+        // Valid rows, by line, until checkKeys reaches them
+        private final ConcurrentSkipListMap<Integer, PendingRow> pendingRows = new ConcurrentSkipListMap<>();
+        // Lines the reader found repeating a unique key of an earlier line
+        private final Set<Integer> repeats = ConcurrentHashMap.newKeySet();
+        // Lines that have been through validation, or that the sheet skips
+        private final LineCheckpoint validated = new LineCheckpoint(HEADER_LINE);
+        private final LineCheckpoint checkpoint;
+        private final int resumeAfterLine;
 
-        if (rawValue == null || rawValue.isEmpty()) {
-            if (spec.isRequired()) {
-                errors.add(spec.getField() + " is required");
+        private FileContext(SpecDefinition spec, String s3Key, RowErrors errors, Map<String, LongHashSet> indexedKeys,
+                            boolean publish, boolean envelope, LineCheckpoint checkpoint) {
+            this.specName = spec.getName();
+            this.ordered = spec.isOrdered();
+            this.meters = new FileMeters(uploadMetrics, specName);
+            this.s3Key = s3Key;
+            this.errors = errors;
+            this.indexedKeys = indexedKeys;
+            this.publish = publish;
+            this.envelope = envelope;
+            this.checkpoint = checkpoint;
+            this.resumeAfterLine = checkpoint != null ? checkpoint.getContiguous() : 0;
+        }
+
+        private boolean isPublished(int lineNumber) {
+            return lineNumber <= resumeAfterLine;
+        }
+
+        private void settle(int lineNumber) {
+            if (checkpoint != null) {
+                checkpoint.settle(lineNumber);
             }
-            return null;
         }
 
-        String constraint = spec.getConstraint();
+        private void reject(int lineNumber) {
+            if (!isPublished(lineNumber)) {
+                settle(lineNumber);
+            }
+        }
 
-        switch (spec.getType().toUpperCase()) {
-            case "STRING":
-                if ("email".equals(constraint)) {
-                    Pattern emailPattern = Pattern.compile("^[\\w-\\.]+@([\\w-]+\\.)+[a-zA-Z]{2,}$");
-                    if (!emailPattern.matcher(rawValue).matches()) {
-                        errors.add(spec.getField() + " must be a valid email address (e.g., user@domain.com)");
-                        return null;
+        // Runs on the workers with a valid row. Returns the body to publish now, or null when the row
+        // waits for its keys to be checked in line order or repeats a unique key.
+        private String admit(ValidationPlan plan, int lineNumber, long[] keys, String body) {
+            if (keys == null) {
+                return body;
+            }
+            if (ordered) {
+                pendingRows.put(lineNumber, new PendingRow(keys, null));
+                return body;
+            }
+            if (repeats.contains(lineNumber)) {
+                pendingRows.put(lineNumber, new PendingRow(keys, body));
+                return null;
+            }
+            // No earlier line has any of this row's unique keys
+            if (plan.checkKeys(lineNumber, keys, errors)) {
+                return body;
+            }
+            reject(lineNumber);
+            return null;
+        }
+
+        // Checks the keys of every pending row up to lineNumber, in line order, publishes the held bodies
+        // that pass and returns whether lineNumber itself passed. A rejected row is settled unless an
+        // earlier run already published it.
+        private boolean checkKeys(ValidationPlan plan, int lineNumber, RowPipeline.BodySink sink)
+                throws IOException {
+            boolean passed = true;
+            Iterator<Map.Entry<Integer, PendingRow>> pending =
+                    pendingRows.headMap(lineNumber, true).entrySet().iterator();
+            while (pending.hasNext()) {
+                Map.Entry<Integer, PendingRow> entry = pending.next();
+                pending.remove();
+                int line = entry.getKey();
+                PendingRow row = entry.getValue();
+                if (plan.checkKeys(line, row.keys, errors)) {
+                    if (row.body != null) {
+                        sink.accept(row.body, line);
                     }
+                } else {
+                    reject(line);
+                    passed &= line != lineNumber;
                 }
-                return rawValue;
+            }
+            return passed;
+        }
 
-            case "DATE":
-                LocalDate date = null;
-                if (cell != null && cell.getCellType() == CellType.NUMERIC && DateUtil.isValidExcelDate(cell.getNumericCellValue())) {
-                    date = cell.getDateCellValue().toInstant().atZone(ZoneId.systemDefault()).toLocalDate();
-                } else {
-                    try {
-                        date = LocalDate.parse(rawValue); // Try ISO format (yyyy-MM-dd)
-                    } catch (DateTimeParseException e) {
-                        // Try Excel's default format (dd-MMM-yyyy)
-                        try {
-                            DateTimeFormatter formatter = DateTimeFormatter.ofPattern("dd-MMM-yyyy");
-                            date = LocalDate.parse(rawValue, formatter);
-                        } catch (DateTimeParseException e2) {
-                            errors.add(spec.getField() + " must be a valid date (e.g., 2025-03-01 or 01-Mar-2025)");
-                            return null;
+        // Runs on the reader thread, which sees the rows in line order, before a row reaches a worker
+        private RowPipeline.RowSupplier markRepeats(ValidationPlan plan, RowPipeline.RowSupplier rows) {
+            if (!plan.hasUniqueFields()) {
+                return rows;
+            }
+            LongHashSet[] seen = new LongHashSet[plan.size()];
+            return () -> {
+                SheetRow row = rows.next();
+                if (row != null) {
+                    long[] hashes = plan.hashUniqueFields(row);
+                    for (int i = 0; i < hashes.length; i++) {
+                        if (hashes[i] == 0) {
+                            continue;
+                        }
+                        if (seen[i] == null) {
+                            seen[i] = new LongHashSet();
+                        }
+                        if (!seen[i].add(hashes[i])) {
+                            repeats.add(row.getRowIndex() + 1);
                         }
                     }
                 }
+                return row;
+            };
+        }
 
-                LocalDate now = LocalDate.now(ZoneId.systemDefault());
-                System.out.println("Current date: " + now + ", Parsed date: " + date);
-                if ("past".equals(constraint) && !date.isBefore(now)) {
-                    errors.add(spec.getField() + " must be a past date");
-                } else if ("future".equals(constraint) && !date.isAfter(now)) {
-                    errors.add(spec.getField() + " must be a future date");
-                } else if (!"any".equals(constraint) && !"past".equals(constraint) && !"future".equals(constraint)) {
-                    errors.add(spec.getField() + " has invalid constraint for DATE: " + constraint);
+        // Lines the sheet skips (empty rows) have nothing to validate or publish; they are settled as the
+        // reader passes them, on the single reader thread
+        private RowPipeline.RowSupplier track(RowPipeline.RowSupplier rows) {
+            int[] lastLine = {HEADER_LINE};
+            return () -> {
+                SheetRow row = rows.next();
+                if (row != null) {
+                    int lineNumber = row.getRowIndex() + 1;
+                    if (lineNumber > lastLine[0] + 1) {
+                        validated.settleRange(lastLine[0] + 1, lineNumber - 1);
+                        if (checkpoint != null) {
+                            checkpoint.settleRange(lastLine[0] + 1, lineNumber - 1);
+                        }
+                    }
+                    lastLine[0] = lineNumber;
                 }
-                return date != null ? date.toString() : null;
-
-            default:
-                errors.add(spec.getField() + " has unsupported type " + spec.getType());
-                return null;
+                return row;
+            };
         }
     }
-}
\ No newline at end of file
+}
@@ -3,34 +3,65 @@ package com.justinwells.xlsUploader.service;
 import io.awspring.cloud.sqs.annotation.SqsListener;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.messaging.Message;
 import org.springframework.stereotype.Service;
 
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+// Batch consumers: each call gets up to xls.consumer.max-messages-per-poll messages, which are written
+// to the spec's sink in one go and acknowledged together when the method returns.
 @Service
 public class SpreadsheetProcessor {
     private static final Logger logger = LoggerFactory.getLogger(SpreadsheetProcessor.class);
 
+    private final MessageCodec messageCodec;
+    private final RowSinkRegistry rowSinkRegistry;
+
+    @Autowired
+    public SpreadsheetProcessor(MessageCodec messageCodec, RowSinkRegistry rowSinkRegistry) {
+        this.messageCodec = messageCodec;
+        this.rowSinkRegistry = rowSinkRegistry;
+    }
+
     @SqsListener("participant-queue")
-    public void processParticipant(String message) {
-        logger.info("Received participant message: {}", message);
+    public void processParticipant(List<Message<String>> messages) throws IOException {
+        consume("participant", messages);
     }
 
     @SqsListener("payment-queue")
-    public void processPayment(String message) {
-        logger.info("Received payment message: {}", message);
+    public void processPayment(List<Message<String>> messages) throws IOException {
+        consume("payment", messages);
     }
 
     @SqsListener("properties-queue")
-    public void processProperties(String message) {
-        logger.info("Received properties message: {}", message);
+    public void processProperties(List<Message<String>> messages) throws IOException {
+        consume("properties", messages);
     }
 
     @SqsListener("assignments-queue")
-    public void processAssignments(String message) {
-        logger.info("Received assignments message: {}", message);
+    public void processAssignments(List<Message<String>> messages) throws IOException {
+        consume("assignments", messages);
     }
 
     @SqsListener("events-queue")
-    public void processEvents(String message) {
-        logger.info("Received events message: {}", message);
+    public void processEvents(List<Message<String>> messages) throws IOException {
+        consume("events", messages);
+    }
+
+    // Throwing leaves the whole batch unacknowledged, so SQS redelivers it after the visibility timeout
+    void consume(String specName, List<Message<String>> messages) throws IOException {
+        List<Map<String, Object>> rows = new ArrayList<>(messages.size());
+        for (Message<String> message : messages) {
+            rows.addAll(messageCodec.decode(message.getPayload()));
+        }
+        RowSink sink = rowSinkRegistry.getSink(specName);
+        if (sink != null) {
+            sink.write(rows);
+        }
+        logger.debug("Consumed {} {} row(s)", rows.size(), specName);
     }
-}
\ No newline at end of file
+}
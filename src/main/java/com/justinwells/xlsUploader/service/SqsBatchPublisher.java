@@ -0,0 +1,395 @@
+package com.justinwells.xlsUploader.service;
+
+import com.justinwells.xlsUploader.model.LineCheckpoint;
+import com.justinwells.xlsUploader.model.RowErrors;
+import io.micrometer.core.instrument.Timer;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+import software.amazon.awssdk.core.exception.SdkClientException;
+import software.amazon.awssdk.core.exception.SdkServiceException;
+import software.amazon.awssdk.services.sqs.SqsAsyncClient;
+import software.amazon.awssdk.services.sqs.model.BatchResultErrorEntry;
+import software.amazon.awssdk.services.sqs.model.SendMessageBatchRequest;
+import software.amazon.awssdk.services.sqs.model.SendMessageBatchRequestEntry;
+import software.amazon.awssdk.services.sqs.model.SendMessageBatchResponse;
+import software.amazon.awssdk.services.sqs.model.SendMessageBatchResultEntry;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.HexFormat;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.Function;
+import java.util.function.LongConsumer;
+import java.util.stream.Collectors;
+
+// Sends rows to SQS in batches of up to ten. The batches in flight to each queue are capped by that queue's
+// SqsSendController, which adapts to how fast SQS acknowledges them. Failed sends are retried with
+// exponential backoff and full jitter; rows still failing after maxSendAttempts are reported per line.
+@Service
+public class SqsBatchPublisher {
+    private static final Logger logger = LoggerFactory.getLogger(SqsBatchPublisher.class);
+
+    static final int MAX_BATCH_ENTRIES = 10;
+    static final int MAX_BATCH_BYTES = 256 * 1024;
+
+    private final SqsAsyncClient sqsClient;
+    private final int initialInFlightBatches;
+    private final int maxInFlightBatches;
+    private final int maxSendAttempts;
+    private final long retryBackoffMillis;
+    private final long retryMaxBackoffMillis;
+    private final Map<String, SqsSendController> controllers = new ConcurrentHashMap<>();
+
+    @Autowired
+    public SqsBatchPublisher(SqsAsyncClient sqsClient,
+                             @Value("${xls.sqs.initial-in-flight-batches:8}") int initialInFlightBatches,
+                             @Value("${xls.sqs.max-in-flight-batches:64}") int maxInFlightBatches,
+                             @Value("${xls.sqs.max-send-attempts:6}") int maxSendAttempts,
+                             @Value("${xls.sqs.retry-backoff-ms:100}") long retryBackoffMillis,
+                             @Value("${xls.sqs.retry-max-backoff-ms:5000}") long retryMaxBackoffMillis) {
+        this.sqsClient = sqsClient;
+        this.initialInFlightBatches = initialInFlightBatches;
+        this.maxInFlightBatches = maxInFlightBatches;
+        this.maxSendAttempts = maxSendAttempts;
+        this.retryBackoffMillis = retryBackoffMillis;
+        this.retryMaxBackoffMillis = retryMaxBackoffMillis;
+    }
+
+    // Thrown by a session whose only failures are rows it has recorded in the file's RowErrors
+    public static class UnpublishedRowsException extends IOException {
+        public UnpublishedRowsException(String message) {
+            super(message);
+        }
+    }
+
+    public SqsSendController controller(String queueUrl) {
+        return controllers.computeIfAbsent(queueUrl,
+                url -> new SqsSendController(url, initialInFlightBatches, 1, maxInFlightBatches));
+    }
+
+    public PublishSession open(String queueUrl) {
+        return new PublishSession(queueUrl, count -> { }, null, null, null, null);
+    }
+
+    // publishedListener is called from SDK threads with the number of newly acknowledged messages
+    public PublishSession open(String queueUrl, LongConsumer publishedListener) {
+        return new PublishSession(queueUrl, publishedListener, null, null, null, null);
+    }
+
+    // sendTimer, when set, records the round trip of every SendMessageBatch attempt
+    public PublishSession open(String queueUrl, LongConsumer publishedListener, Timer sendTimer) {
+        return new PublishSession(queueUrl, publishedListener, sendTimer, null, null, null);
+    }
+
+    // checkpoint, when set, settles the lines of each entry published with publish(String, int[]) once SQS
+    // acknowledges it. On FIFO queues those entries also get a deduplication ID derived from dedupScope
+    // and their lines, so rows sent again by a resumed upload are dropped by SQS. Standard queues have no
+    // deduplication: those rows arrive twice, and only a consumer that upserts on the spec's idField
+    // (JdbcRowSink) makes the second copy overwrite the first. errors, when set, gets the lines of
+    // entries that could not be published.
+    public PublishSession open(String queueUrl, LongConsumer publishedListener, Timer sendTimer,
+                               LineCheckpoint checkpoint, String dedupScope, RowErrors errors) {
+        return new PublishSession(queueUrl, publishedListener, sendTimer, checkpoint, dedupScope, errors);
+    }
+
+    // One session per file. publish() is called from a single thread; batch completions run on SDK threads.
+    public class PublishSession {
+        private final String queueUrl;
+        private final LongConsumer publishedListener;
+        private final Timer sendTimer;
+        private final LineCheckpoint checkpoint;
+        private final String dedupScope;
+        private final String messageGroupId;
+        private final RowErrors errors;
+        private final SqsSendController controller;
+        // Starts at 1 so the session cannot complete before complete() is called
+        private final AtomicInteger pendingBatches = new AtomicInteger(1);
+        private final AtomicLong published = new AtomicLong();
+        private final AtomicLong failed = new AtomicLong();
+        // Failed rows that could not be recorded in errors
+        private final AtomicLong unrecorded = new AtomicLong();
+        private final AtomicReference<String> firstError = new AtomicReference<>();
+        // Rows carried by entries that hold more than one; see publish(String, int)
+        private final Map<String, Integer> rowCounts = new ConcurrentHashMap<>();
+        // Lines of entries published with publish(String, int[])
+        private final Map<String, int[]> entryLines = new ConcurrentHashMap<>();
+        private final CompletableFuture<Void> completion = new CompletableFuture<>();
+        private List<SendMessageBatchRequestEntry> entries = new ArrayList<>(MAX_BATCH_ENTRIES);
+        private int batchBytes;
+        private long nextId;
+
+        private PublishSession(String queueUrl, LongConsumer publishedListener, Timer sendTimer,
+                               LineCheckpoint checkpoint, String dedupScope, RowErrors errors) {
+            this.queueUrl = queueUrl;
+            this.errors = errors;
+            this.controller = controller(queueUrl);
+            this.publishedListener = publishedListener;
+            this.sendTimer = sendTimer;
+            this.checkpoint = checkpoint;
+            this.dedupScope = queueUrl.endsWith(".fifo") ? dedupScope : null;
+            // Group IDs only allow a limited character set, so the scope is hashed like the dedup IDs
+            this.messageGroupId = this.dedupScope != null ? sha256(this.dedupScope) : null;
+        }
+
+        public void publish(String messageBody) throws IOException {
+            publish(messageBody, 1);
+        }
+
+        // rows is what the message counts for in the published/failed totals and the listener
+        public void publish(String messageBody, int rows) throws IOException {
+            publish(messageBody, rows, null);
+        }
+
+        // lines are the sheet lines the message carries; they are settled on the checkpoint once it is acknowledged
+        public void publish(String messageBody, int[] lines) throws IOException {
+            publish(messageBody, lines.length, lines);
+        }
+
+        private void publish(String messageBody, int rows, int[] lines) throws IOException {
+            int size = utf8Length(messageBody);
+            if (size > MAX_BATCH_BYTES) {
+                throw new IllegalArgumentException("Message of " + size + " bytes exceeds the SQS limit of " + MAX_BATCH_BYTES);
+            }
+            if (entries.size() == MAX_BATCH_ENTRIES || batchBytes + size > MAX_BATCH_BYTES) {
+                flush();
+            }
+            String id = Long.toString(nextId++);
+            SendMessageBatchRequestEntry.Builder entry = SendMessageBatchRequestEntry.builder()
+                    .id(id)
+                    .messageBody(messageBody);
+            if (lines != null) {
+                entryLines.put(id, lines);
+                if (dedupScope != null) {
+                    entry.messageGroupId(messageGroupId).messageDeduplicationId(deduplicationId(lines));
+                }
+            } else if (rows != 1) {
+                rowCounts.put(id, rows);
+            }
+            entries.add(entry.build());
+            batchBytes += size;
+        }
+
+        // Flushes the last partial batch; the future completes once every batch is acknowledged
+        public CompletableFuture<Void> complete() throws IOException {
+            flush();
+            batchDone();
+            return completion;
+        }
+
+        public long getPublishedCount() {
+            return published.get();
+        }
+
+        private void flush() throws IOException {
+            if (entries.isEmpty()) {
+                return;
+            }
+            List<SendMessageBatchRequestEntry> batch = entries;
+            entries = new ArrayList<>(MAX_BATCH_ENTRIES);
+            batchBytes = 0;
+            try {
+                controller.acquire();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new IOException("Interrupted while waiting to publish to " + queueUrl, e);
+            }
+            pendingBatches.incrementAndGet();
+            send(batch, 1);
+        }
+
+        private void send(List<SendMessageBatchRequestEntry> batch, int attempt) {
+            SendMessageBatchRequest request = SendMessageBatchRequest.builder()
+                    .queueUrl(queueUrl)
+                    .entries(batch)
+                    .build();
+            long start = System.nanoTime();
+            CompletableFuture<SendMessageBatchResponse> response;
+            try {
+                response = sqsClient.sendMessageBatch(request);
+            } catch (RuntimeException e) {
+                response = CompletableFuture.failedFuture(e);
+            }
+            response.whenComplete((result, error) -> {
+                if (sendTimer != null) {
+                    sendTimer.record(System.nanoTime() - start, TimeUnit.NANOSECONDS);
+                }
+                if (error == null) {
+                    handleResponse(batch, result, attempt, start);
+                    return;
+                }
+                Throwable cause = error instanceof CompletionException && error.getCause() != null
+                        ? error.getCause() : error;
+                if (isOverload(cause)) {
+                    controller.onOverload(start);
+                    retryOrFail(batch, attempt, cause.getMessage());
+                } else {
+                    // A rejected request (missing queue, access denied, ...) fails the same way every time
+                    failAll(batch, cause.getMessage());
+                    releaseBatch();
+                }
+            });
+        }
+
+        private void handleResponse(List<SendMessageBatchRequestEntry> batch, SendMessageBatchResponse response,
+                                    int attempt, long sentAt) {
+            long acknowledged = 0;
+            for (SendMessageBatchResultEntry success : response.successful()) {
+                acknowledged += settle(success.id(), true);
+            }
+            if (acknowledged > 0) {
+                published.addAndGet(acknowledged);
+                publishedListener.accept(acknowledged);
+            }
+            if (!response.hasFailed() || response.failed().isEmpty()) {
+                controller.onSuccess();
+                releaseBatch();
+                return;
+            }
+            Map<String, SendMessageBatchRequestEntry> byId = batch.stream()
+                    .collect(Collectors.toMap(SendMessageBatchRequestEntry::id, Function.identity()));
+            List<SendMessageBatchRequestEntry> retryable = new ArrayList<>();
+            for (BatchResultErrorEntry failure : response.failed()) {
+                SendMessageBatchRequestEntry entry = byId.get(failure.id());
+                if (entry == null) {
+                    continue;
+                }
+                if (Boolean.TRUE.equals(failure.senderFault())) {
+                    failAll(List.of(entry), failure.code() + ": " + failure.message());
+                } else {
+                    retryable.add(entry);
+                }
+            }
+            if (retryable.isEmpty()) {
+                controller.onSuccess();
+                releaseBatch();
+            } else {
+                // Entries failing on the SQS side are the batch form of a 5xx
+                controller.onOverload(sentAt);
+                retryOrFail(retryable, attempt, "partial batch failure");
+            }
+        }
+
+        private void retryOrFail(List<SendMessageBatchRequestEntry> batch, int attempt, String reason) {
+            if (attempt >= maxSendAttempts) {
+                failAll(batch, reason);
+                releaseBatch();
+                return;
+            }
+            logger.warn("Retrying {} message(s) to {} (attempt {}): {}", batch.size(), queueUrl, attempt + 1, reason);
+            // Full jitter: uploads throttled together spread their retries instead of returning in step
+            long ceiling = Math.min(retryMaxBackoffMillis, retryBackoffMillis << Math.min(attempt - 1, 20));
+            long delay = ThreadLocalRandom.current().nextLong(ceiling + 1);
+            CompletableFuture.runAsync(() -> send(batch, attempt + 1),
+                    CompletableFuture.delayedExecutor(delay, TimeUnit.MILLISECONDS));
+        }
+
+        private void failAll(List<SendMessageBatchRequestEntry> batch, String reason) {
+            long rows = 0;
+            for (SendMessageBatchRequestEntry entry : batch) {
+                int[] lines = entryLines.get(entry.id());
+                int count = settle(entry.id(), false);
+                rows += count;
+                if (lines != null && errors != null) {
+                    for (int line : lines) {
+                        errors.addUnpublished(line);
+                    }
+                } else {
+                    unrecorded.addAndGet(count);
+                }
+            }
+            failed.addAndGet(rows);
+            firstError.compareAndSet(null, reason);
+            logger.error("Failed to publish {} row(s) to {}: {}", rows, queueUrl, reason);
+        }
+
+        // Returns the rows the entry carries. Each entry is settled exactly once, so its bookkeeping can be
+        // dropped when read; lines of failed entries stay unsettled so a resume sends them again.
+        private int settle(String id, boolean acknowledged) {
+            int[] lines = entryLines.remove(id);
+            if (lines != null) {
+                if (acknowledged && checkpoint != null) {
+                    checkpoint.settle(lines);
+                }
+                return lines.length;
+            }
+            Integer rows = rowCounts.remove(id);
+            return rows != null ? rows : 1;
+        }
+
+        // Same lines of the same upload give the same ID, however often they are sent
+        private String deduplicationId(int[] lines) {
+            return sha256(dedupScope + "#" + lines[0] + "-" + lines[lines.length - 1] + "#" + lines.length);
+        }
+
+        private void releaseBatch() {
+            controller.release();
+            batchDone();
+        }
+
+        private void batchDone() {
+            if (pendingBatches.decrementAndGet() != 0) {
+                return;
+            }
+            if (failed.get() > 0) {
+                String message = failed.get() + " row(s) could not be published to " + queueUrl + ": "
+                        + firstError.get();
+                completion.completeExceptionally(unrecorded.get() == 0
+                        ? new UnpublishedRowsException(message) : new IOException(message));
+            } else {
+                completion.complete(null);
+            }
+        }
+    }
+
+    // Throttling, server errors and client-side failures (timeouts, dropped connections) all mean SQS or
+    // the path to it is overloaded; any other service error is a rejected request
+    static boolean isOverload(Throwable error) {
+        if (error instanceof SdkServiceException) {
+            SdkServiceException service = (SdkServiceException) error;
+            return service.isThrottlingException() || service.statusCode() >= 500;
+        }
+        return error instanceof SdkClientException;
+    }
+
+    private static String sha256(String value) {
+        try {
+            MessageDigest digest = MessageDigest.getInstance("SHA-256");
+            return HexFormat.of().formatHex(digest.digest(value.getBytes(StandardCharsets.UTF_8)));
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException("SHA-256 is not available", e);
+        }
+    }
+
+    static int utf8Length(String s) {
+        int length = 0;
+        for (int i = 0; i < s.length(); i++) {
+            char c = s.charAt(i);
+            if (c < 0x80) {
+                length++;
+            } else if (c < 0x800) {
+                length += 2;
+            } else if (Character.isHighSurrogate(c)) {
+                length += 4;
+                i++;
+            } else {
+                length += 3;
+            }
+        }
+        return length;
+    }
+}
@@ -0,0 +1,104 @@
+package com.justinwells.xlsUploader.service;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+// AIMD limit on the SendMessageBatch calls in flight to one queue, shared by every upload publishing to
+// it. Each acknowledged batch raises the limit by 1/limit, so about one batch per round trip; throttling
+// or a server error halves it. The batches already out when SQS pushed back report the same overload, so
+// the limit is only cut again for batches sent after the last cut.
+public class SqsSendController {
+    private static final Logger logger = LoggerFactory.getLogger(SqsSendController.class);
+
+    private final String queueUrl;
+    private final int minLimit;
+    private final int maxLimit;
+    private final ReentrantLock lock = new ReentrantLock(true);
+    private final Condition slotFreed = lock.newCondition();
+    private double limit;
+    private int inFlight;
+    private long lastDecrease = Long.MIN_VALUE;
+
+    public SqsSendController(String queueUrl, int initialLimit, int minLimit, int maxLimit) {
+        if (minLimit < 1 || maxLimit < minLimit) {
+            throw new IllegalArgumentException("Invalid in-flight limits for " + queueUrl + ": " + minLimit
+                    + ".." + maxLimit);
+        }
+        this.queueUrl = queueUrl;
+        this.minLimit = minLimit;
+        this.maxLimit = maxLimit;
+        this.limit = Math.max(minLimit, Math.min(maxLimit, initialLimit));
+    }
+
+    // Blocks until a batch may be sent. The slot is held, across retries, until release().
+    public void acquire() throws InterruptedException {
+        lock.lockInterruptibly();
+        try {
+            while (inFlight >= (int) limit) {
+                slotFreed.await();
+            }
+            inFlight++;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    public void release() {
+        lock.lock();
+        try {
+            inFlight--;
+            slotFreed.signal();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    public void onSuccess() {
+        lock.lock();
+        try {
+            int before = (int) limit;
+            limit = Math.min(maxLimit, limit + 1 / limit);
+            if ((int) limit > before) {
+                slotFreed.signal();
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    // sentAt is the System.nanoTime() the overloaded attempt was sent at
+    public void onOverload(long sentAt) {
+        lock.lock();
+        try {
+            if (sentAt - lastDecrease <= 0 && lastDecrease != Long.MIN_VALUE) {
+                return;
+            }
+            limit = Math.max(minLimit, limit / 2);
+            lastDecrease = System.nanoTime();
+            logger.debug("SQS pushed back on {}, in-flight batch limit now {}", queueUrl, (int) limit);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    public int getLimit() {
+        lock.lock();
+        try {
+            return (int) limit;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    public int getInFlight() {
+        lock.lock();
+        try {
+            return inFlight;
+        } finally {
+            lock.unlock();
+        }
+    }
+}
@@ -0,0 +1,121 @@
+package com.justinwells.xlsUploader.service;
+
+import com.justinwells.xlsUploader.model.ProcessedUpload;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+import software.amazon.awssdk.core.async.AsyncRequestBody;
+import software.amazon.awssdk.services.s3.S3AsyncClient;
+import software.amazon.awssdk.services.s3.model.HeadObjectResponse;
+import software.amazon.awssdk.services.s3.model.NoSuchKeyException;
+import software.amazon.awssdk.services.s3.model.S3Exception;
+
+import java.time.Duration;
+import java.time.Instant;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.CompletionException;
+
+// Remembers the outcome of each (content SHA-256, spec) pair. Lookups hit a bounded LRU map first and
+// fall back to a marker object dedup/<spec>/<sha256> whose metadata holds the outcome, so results
+// survive restarts and are shared between instances. Entries older than the TTL are ignored.
+@Service
+public class UploadDedupService {
+    private static final Logger logger = LoggerFactory.getLogger(UploadDedupService.class);
+
+    private final S3AsyncClient s3AsyncClient;
+    private final String bucketName;
+    private final Duration ttl;
+    private final Map<String, ProcessedUpload> cache;
+
+    @Autowired
+    public UploadDedupService(S3AsyncClient s3AsyncClient,
+                              @Value("${spring.cloud.aws.s3.bucket}") String bucketName,
+                              @Value("${xls.dedup.max-entries:10000}") int maxEntries,
+                              @Value("${xls.dedup.ttl:PT24H}") Duration ttl) {
+        this.s3AsyncClient = s3AsyncClient;
+        this.bucketName = bucketName;
+        this.ttl = ttl;
+        this.cache = new LinkedHashMap<>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, ProcessedUpload> eldest) {
+                return size() > maxEntries;
+            }
+        };
+    }
+
+    // Null when this content has not been processed against this spec within the TTL
+    public ProcessedUpload find(String sha256, String specName) {
+        String key = markerKey(sha256, specName);
+        ProcessedUpload cached;
+        synchronized (cache) {
+            cached = cache.get(key);
+        }
+        if (cached != null) {
+            return isFresh(cached) ? cached : null;
+        }
+        ProcessedUpload stored = readMarker(key);
+        if (stored != null && isFresh(stored)) {
+            synchronized (cache) {
+                cache.put(key, stored);
+            }
+            return stored;
+        }
+        return null;
+    }
+
+    public void record(String sha256, String specName, ProcessedUpload outcome) {
+        String key = markerKey(sha256, specName);
+        synchronized (cache) {
+            cache.put(key, outcome);
+        }
+        Map<String, String> metadata = new HashMap<>();
+        metadata.put("source-key", outcome.getS3Key());
+        metadata.put("state", outcome.getState());
+        metadata.put("error-count", Long.toString(outcome.getErrorCount()));
+        metadata.put("processed-at", outcome.getProcessedAt().toString());
+        if (outcome.getErrorReport() != null) {
+            metadata.put("error-report", outcome.getErrorReport());
+        }
+        s3AsyncClient.putObject(b -> b.bucket(bucketName).key(key).metadata(metadata), AsyncRequestBody.empty())
+                .whenComplete((response, error) -> {
+                    if (error != null) {
+                        logger.warn("Failed to store dedup marker {}: {}", key, error.getMessage());
+                    }
+                });
+    }
+
+    private ProcessedUpload readMarker(String key) {
+        try {
+            HeadObjectResponse head = s3AsyncClient.headObject(b -> b.bucket(bucketName).key(key)).join();
+            Map<String, String> metadata = head.metadata();
+            if (!metadata.containsKey("source-key")) {
+                return null;
+            }
+            return new ProcessedUpload(metadata.get("source-key"), metadata.get("state"),
+                    Long.parseLong(metadata.getOrDefault("error-count", "0")), metadata.get("error-report"),
+                    Instant.parse(metadata.get("processed-at")));
+        } catch (CompletionException e) {
+            if (!(e.getCause() instanceof NoSuchKeyException)
+                    && !(e.getCause() instanceof S3Exception && ((S3Exception) e.getCause()).statusCode() == 404)) {
+                // Treat as a miss; the file is simply processed again
+                logger.warn("Dedup lookup of {} failed: {}", key, e.getCause().getMessage());
+            }
+            return null;
+        } catch (RuntimeException e) {
+            logger.warn("Unreadable dedup marker {}: {}", key, e.getMessage());
+            return null;
+        }
+    }
+
+    private boolean isFresh(ProcessedUpload outcome) {
+        return outcome.getProcessedAt().isAfter(Instant.now().minus(ttl));
+    }
+
+    private static String markerKey(String sha256, String specName) {
+        return "dedup/" + specName + "/" + sha256;
+    }
+}
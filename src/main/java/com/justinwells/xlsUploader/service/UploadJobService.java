@@ -0,0 +1,260 @@
+package com.justinwells.xlsUploader.service;
+
+import com.justinwells.xlsUploader.model.ProcessedUpload;
+import com.justinwells.xlsUploader.model.RowErrors;
+import com.justinwells.xlsUploader.model.UploadCheckpoint;
+import com.justinwells.xlsUploader.model.UploadJob;
+import jakarta.annotation.PreDestroy;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.stereotype.Service;
+
+import java.io.File;
+import java.io.IOException;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.atomic.AtomicInteger;
+
+// Runs uploads in the background on virtual threads. At most maxConcurrentJobs files are parsed at
+// once, and no more than maxPendingJobs (running + waiting) are admitted.
+@Service
+public class UploadJobService {
+    private static final Logger logger = LoggerFactory.getLogger(UploadJobService.class);
+
+    private final SpreadsheetParser spreadsheetParser;
+    private final FileStateService fileStateService;
+    private final ErrorReportService errorReportService;
+    private final UploadDedupService uploadDedupService;
+    private final CheckpointService checkpointService;
+    private final PackageInspector packageInspector;
+    private final S3Downloader s3Downloader;
+    private final boolean autoResume;
+    private final ExecutorService executor = Executors.newVirtualThreadPerTaskExecutor();
+    private final Semaphore running;
+    private final int maxPendingJobs;
+    private final Duration retention;
+    private final AtomicInteger pendingJobs = new AtomicInteger();
+    private final Map<String, UploadJob> jobs = new ConcurrentHashMap<>();
+
+    @Autowired
+    public UploadJobService(SpreadsheetParser spreadsheetParser, FileStateService fileStateService,
+                            ErrorReportService errorReportService, UploadDedupService uploadDedupService,
+                            CheckpointService checkpointService, PackageInspector packageInspector,
+                            S3Downloader s3Downloader,
+                            @Value("${xls.jobs.max-concurrent:4}") int maxConcurrentJobs,
+                            @Value("${xls.jobs.max-pending:32}") int maxPendingJobs,
+                            @Value("${xls.jobs.retention:PT1H}") Duration retention,
+                            @Value("${xls.checkpoint.auto-resume:true}") boolean autoResume) {
+        this.spreadsheetParser = spreadsheetParser;
+        this.fileStateService = fileStateService;
+        this.errorReportService = errorReportService;
+        this.uploadDedupService = uploadDedupService;
+        this.checkpointService = checkpointService;
+        this.packageInspector = packageInspector;
+        this.s3Downloader = s3Downloader;
+        this.autoResume = autoResume;
+        this.running = new Semaphore(maxConcurrentJobs, true);
+        this.maxPendingJobs = maxPendingJobs;
+        this.retention = retention;
+    }
+
+    public boolean isAcceptingJobs() {
+        return pendingJobs.get() < maxPendingJobs;
+    }
+
+    // Takes ownership of the upload; it is closed and its file deleted when the job finishes.
+    // stored completes when the S3 copy of the file is in place; contentHash is its SHA-256.
+    public UploadJob submit(InspectedPackage upload, String specName, String s3Key, String contentHash,
+                            CompletableFuture<Void> stored) {
+        return submit(upload, specName, s3Key, contentHash, stored, null);
+    }
+
+    // Continues an upload from its checkpoint. The stored object is read back from S3; rows up to each
+    // sheet's checkpoint line are validated again but not sent. Returns null when the upload has no checkpoint.
+    // The checkpoint is claimed first, so when several nodes resume an upload only one of them runs it.
+    public UploadJob resume(String s3Key) throws IOException {
+        if (jobs.values().stream().anyMatch(job -> !job.isDone() && job.getS3Key().equals(s3Key))) {
+            throw new IllegalStateException("Upload is still being processed: " + s3Key);
+        }
+        UploadCheckpoint checkpoint = checkpointService.find(s3Key);
+        if (checkpoint == null) {
+            return null;
+        }
+        if (!checkpointService.claim(checkpoint)) {
+            throw new IllegalStateException("Upload is being resumed elsewhere: " + s3Key);
+        }
+        File file = File.createTempFile("resume-", S3Downloader.suffix(s3Key));
+        InspectedPackage upload;
+        String contentHash;
+        try {
+            contentHash = s3Downloader.download(s3Key, file);
+            upload = packageInspector.inspect(file);
+        } catch (IOException | RuntimeException e) {
+            file.delete();
+            throw e;
+        }
+        try {
+            UploadJob job = submit(upload, checkpoint.getSpecName(), s3Key, contentHash,
+                    CompletableFuture.completedFuture(null), checkpoint);
+            logger.info("Resuming {} after lines {}", s3Key, checkpoint.getLines());
+            return job;
+        } catch (RuntimeException e) {
+            closeQuietly(upload);
+            throw e;
+        }
+    }
+
+    // Picks up uploads whose node stopped before they were fully published
+    @EventListener(ApplicationReadyEvent.class)
+    public void resumeInterrupted() {
+        if (!autoResume) {
+            return;
+        }
+        executor.execute(() -> {
+            try {
+                for (UploadCheckpoint checkpoint : checkpointService.findInterrupted()) {
+                    try {
+                        resume(checkpoint.getS3Key());
+                    } catch (IllegalStateException e) {
+                        logger.info("Not resuming {}: {}", checkpoint.getS3Key(), e.getMessage());
+                    } catch (IOException | RuntimeException e) {
+                        logger.error("Failed to resume {}: {}", checkpoint.getS3Key(), e.getMessage());
+                    }
+                }
+            } catch (RuntimeException e) {
+                logger.error("Failed to look for interrupted uploads: {}", e.getMessage());
+            }
+        });
+    }
+
+    private UploadJob submit(InspectedPackage upload, String specName, String s3Key, String contentHash,
+                             CompletableFuture<Void> stored, UploadCheckpoint resumeFrom) {
+        if (pendingJobs.incrementAndGet() > maxPendingJobs) {
+            pendingJobs.decrementAndGet();
+            throw new RejectedExecutionException("Too many uploads in progress");
+        }
+        evictExpired();
+        UploadJob job = new UploadJob(s3Key, specName);
+        jobs.put(job.getId(), job);
+        try {
+            executor.execute(() -> run(job, upload, contentHash, stored, resumeFrom));
+        } catch (RejectedExecutionException e) {
+            jobs.remove(job.getId());
+            pendingJobs.decrementAndGet();
+            throw e;
+        }
+        return job;
+    }
+
+    public UploadJob getJob(String id) {
+        return jobs.get(id);
+    }
+
+    // Runs an upload to completion on the calling thread, outside the job limits, for callers that schedule
+    // uploads themselves. Takes ownership of the upload like submit(); the job is listed under /jobs too.
+    public UploadJob process(InspectedPackage upload, String specName, String s3Key, String contentHash,
+                             CompletableFuture<Void> stored) {
+        evictExpired();
+        UploadJob job = new UploadJob(s3Key, specName);
+        jobs.put(job.getId(), job);
+        try {
+            execute(job, upload, contentHash, stored, null);
+        } finally {
+            closeQuietly(upload);
+        }
+        return job;
+    }
+
+    private void run(UploadJob job, InspectedPackage upload, String contentHash, CompletableFuture<Void> stored,
+                     UploadCheckpoint resumeFrom) {
+        try {
+            running.acquire();
+            try {
+                execute(job, upload, contentHash, stored, resumeFrom);
+            } finally {
+                running.release();
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            job.addError("Processing interrupted");
+            finish(job, "Quarantine");
+        } finally {
+            pendingJobs.decrementAndGet();
+            closeQuietly(upload);
+        }
+    }
+
+    private void execute(UploadJob job, InspectedPackage upload, String contentHash, CompletableFuture<Void> stored,
+                         UploadCheckpoint resumeFrom) {
+        try {
+            Map<Integer, Integer> resumeLines = resumeFrom != null ? resumeFrom.getLines() : Map.of();
+            int attempt = resumeFrom != null ? resumeFrom.getAttempts() + 1 : 0;
+            ParseResult result = checkpointService.run(job.getS3Key(), job.getSpecName(), resumeLines, attempt,
+                    checkpoints -> spreadsheetParser.parseAndQueue(
+                            upload, job.getSpecName(), job.getS3Key(), job::addPublished, checkpoints));
+            // Rows SQS refused end up in the errors; their checkpoint is kept, so a resume can send them
+            result.awaitPublished();
+            stored.join();
+            RowErrors errors = result.getErrors();
+            if (errors.hasErrors()) {
+                String reportKey = ErrorReportService.reportKey(job.getS3Key());
+                errorReportService.store(reportKey, errors).join();
+                job.recordRowErrors(errors.getTotal(), reportKey, errors.describe(UploadJob.MAX_ERRORS));
+                finish(job, "Quarantine");
+            } else {
+                finish(job, "Processed");
+            }
+            // Refused rows are a transient failure; an identical upload has to be processed again
+            if (!errors.hasUnpublished()) {
+                uploadDedupService.record(contentHash, job.getSpecName(), new ProcessedUpload(job.getS3Key(),
+                        job.getState(), job.getErrorCount(), job.getErrorReport(), job.getCompletedAt()));
+            }
+        } catch (CompletionException e) {
+            job.addError("Upload did not complete: " + e.getCause().getMessage());
+            finish(job, "Quarantine");
+        } catch (Exception e) {
+            job.addError(e.getMessage());
+            finish(job, "Quarantine");
+        }
+    }
+
+    private void finish(UploadJob job, String state) {
+        try {
+            fileStateService.setState(job.getS3Key(), state, job.getSpecName());
+        } catch (RuntimeException e) {
+            logger.error("Failed to tag {} as {}: {}", job.getS3Key(), state, e.getMessage());
+        }
+        job.complete(state);
+    }
+
+    private void closeQuietly(InspectedPackage upload) {
+        try {
+            upload.close();
+        } catch (IOException e) {
+            logger.warn("Failed to close {}: {}", upload.getFile(), e.getMessage());
+        }
+        upload.getFile().delete();
+    }
+
+    private void evictExpired() {
+        Instant cutoff = Instant.now().minus(retention);
+        jobs.values().removeIf(job -> job.isDone() && job.getCompletedAt().isBefore(cutoff));
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        executor.shutdown();
+    }
+}
@@ -0,0 +1,85 @@
+package com.justinwells.xlsUploader.service;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Component;
+
+// Micrometer meters for each upload stage, all tagged by spec. Callers look meters up once per file
+// and reuse them for its rows; per-row timers skip the histogram to stay cheap on the hot path.
+@Component
+public class UploadMetrics {
+    static final String UNKNOWN_SPEC = "unknown";
+
+    private final MeterRegistry registry;
+
+    @Autowired
+    public UploadMetrics(MeterRegistry registry) {
+        this.registry = registry;
+    }
+
+    public Timer s3Put(String spec) {
+        return timer("xls.s3.put", "Upload of the file to S3, first byte to acknowledgement", spec, true);
+    }
+
+    public Timer tagging(String spec) {
+        return timer("xls.s3.tagging", "S3 object tag update", spec, true);
+    }
+
+    public Timer workbookOpen(String spec) {
+        return timer("xls.workbook.open", "Opening an upload and reading its properties and header row", spec, true);
+    }
+
+    public Timer headerMap(String spec) {
+        return timer("xls.header.map", "Mapping the header row to spec fields", spec, false);
+    }
+
+    public Timer rowValidation(String spec) {
+        return timer("xls.row.validation", "Validating one row", spec, false);
+    }
+
+    public Timer rowSerialization(String spec) {
+        return timer("xls.row.serialization", "Encoding one valid row", spec, false);
+    }
+
+    public Timer sqsSend(String spec) {
+        return timer("xls.sqs.send", "SQS SendMessageBatch round trip, per attempt", spec, true);
+    }
+
+    public Timer parse(String spec) {
+        return timer("xls.parse", "Reading, validating and handing off a whole file", spec, true);
+    }
+
+    // Rate of this counter is rows/sec
+    public Counter rowsRead(String spec) {
+        return counter("xls.rows.read", "Data rows read", spec);
+    }
+
+    public Counter rowsPublished(String spec) {
+        return counter("xls.rows.published", "Rows acknowledged by SQS", spec);
+    }
+
+    public Counter rowsRejected(String spec) {
+        return counter("xls.rows.rejected", "Rows that failed validation", spec);
+    }
+
+    public Counter rowErrors(String spec) {
+        return counter("xls.row.errors", "Field validation errors", spec);
+    }
+
+    private Timer timer(String name, String description, String spec, boolean histogram) {
+        return Timer.builder(name)
+                .description(description)
+                .tag("spec", spec != null ? spec : UNKNOWN_SPEC)
+                .publishPercentileHistogram(histogram)
+                .register(registry);
+    }
+
+    private Counter counter(String name, String description, String spec) {
+        return Counter.builder(name)
+                .description(description)
+                .tag("spec", spec != null ? spec : UNKNOWN_SPEC)
+                .register(registry);
+    }
+}
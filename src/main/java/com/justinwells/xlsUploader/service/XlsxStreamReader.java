@@ -0,0 +1,306 @@
+package com.justinwells.xlsUploader.service;
+
+import com.justinwells.xlsUploader.model.CellValue;
+import com.justinwells.xlsUploader.model.SheetRow;
+import org.apache.poi.openxml4j.exceptions.OpenXML4JException;
+import org.apache.poi.openxml4j.opc.OPCPackage;
+import org.apache.poi.openxml4j.opc.PackageAccess;
+import org.apache.poi.openxml4j.opc.PackagePart;
+import org.apache.poi.openxml4j.opc.PackageRelationshipTypes;
+import org.apache.poi.ss.usermodel.DateUtil;
+import org.apache.poi.util.XMLHelper;
+import org.apache.poi.xssf.eventusermodel.ReadOnlySharedStringsTable;
+import org.apache.poi.xssf.eventusermodel.XSSFReader;
+import org.apache.poi.xssf.model.SharedStrings;
+import org.apache.poi.xssf.model.StylesTable;
+import org.apache.poi.xssf.usermodel.XSSFCellStyle;
+import org.xml.sax.SAXException;
+
+import javax.xml.stream.XMLStreamConstants;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamReader;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+// Pull-based reader over one worksheet of an .xlsx package, the first unless another is asked for.
+// Rows are read straight from the sheet XML with StAX, so only the current row is held in memory.
+public class XlsxStreamReader implements RowSource {
+    private final OPCPackage pkg;
+    private final SharedStrings sharedStrings;
+    private final StylesTable styles;
+    private final boolean date1904;
+    private final InputStream sheetStream;
+    private final XMLStreamReader xml;
+    private final List<String> sheetNames = new ArrayList<>();
+    private final Map<Integer, Boolean> dateStyles = new HashMap<>();
+    private int lastRowIndex = -1;
+
+    private XlsxStreamReader(OPCPackage pkg, int sheetIndex) throws IOException {
+        this.pkg = pkg;
+        try {
+            XSSFReader reader = new XSSFReader(pkg);
+            this.sharedStrings = new ReadOnlySharedStringsTable(pkg, false);
+            this.styles = reader.getStylesTable();
+            this.date1904 = readDate1904(reader);
+            this.sheetStream = openSheet(reader, sheetIndex);
+            this.xml = XMLHelper.newXMLInputFactory().createXMLStreamReader(sheetStream);
+        } catch (OpenXML4JException | SAXException | XMLStreamException e) {
+            throw new IOException("Failed to open workbook: " + e.getMessage(), e);
+        }
+    }
+
+    public static XlsxStreamReader open(File file) throws IOException {
+        return open(file, 0);
+    }
+
+    public static XlsxStreamReader open(File file, int sheetIndex) throws IOException {
+        OPCPackage pkg;
+        try {
+            pkg = OPCPackage.open(file, PackageAccess.READ);
+        } catch (OpenXML4JException | RuntimeException e) {
+            throw new IOException("Invalid Excel format: " + e.getMessage(), e);
+        }
+        try {
+            return new XlsxStreamReader(pkg, sheetIndex);
+        } catch (IOException | RuntimeException e) {
+            pkg.revert();
+            throw e;
+        }
+    }
+
+    // Every sheet of the workbook in tab order, not just the one being read
+    public List<String> getSheetNames() {
+        return sheetNames;
+    }
+
+    // Reads docProps/custom.xml without loading the package's XmlBeans model. Values are the text of
+    // each property's variant element (vt:lpwstr, vt:i4, ...).
+    public Map<String, String> readCustomProperties() throws IOException {
+        Map<String, String> properties = new LinkedHashMap<>();
+        for (PackagePart part : pkg.getPartsByRelationshipType(PackageRelationshipTypes.CUSTOM_PROPERTIES)) {
+            try (InputStream in = part.getInputStream()) {
+                XMLStreamReader propsXml = XMLHelper.newXMLInputFactory().createXMLStreamReader(in);
+                try {
+                    String name = null;
+                    while (propsXml.hasNext()) {
+                        int event = propsXml.next();
+                        if (event != XMLStreamConstants.START_ELEMENT) {
+                            continue;
+                        }
+                        if ("property".equals(propsXml.getLocalName())) {
+                            name = propsXml.getAttributeValue(null, "name");
+                        } else if (name != null) {
+                            properties.putIfAbsent(name, propsXml.getElementText());
+                            name = null;
+                        }
+                    }
+                } finally {
+                    propsXml.close();
+                }
+            } catch (XMLStreamException e) {
+                throw new IOException("Failed to read custom properties: " + e.getMessage(), e);
+            }
+        }
+        return properties;
+    }
+
+    // Returns the next <row> of the sheet, or null once the sheet is exhausted
+    @Override
+    public SheetRow next() throws IOException {
+        try {
+            while (xml.hasNext()) {
+                if (xml.next() == XMLStreamConstants.START_ELEMENT && "row".equals(xml.getLocalName())) {
+                    return readRow();
+                }
+            }
+            return null;
+        } catch (XMLStreamException | RuntimeException e) {
+            throw new IOException("Failed to read sheet: " + e.getMessage(), e);
+        }
+    }
+
+    private SheetRow readRow() throws XMLStreamException {
+        String rowRef = xml.getAttributeValue(null, "r");
+        int rowIndex = rowRef != null ? Integer.parseInt(rowRef) - 1 : lastRowIndex + 1;
+        lastRowIndex = rowIndex;
+
+        List<CellValue> cells = new ArrayList<>();
+        int column = -1;
+        while (xml.hasNext()) {
+            int event = xml.next();
+            if (event == XMLStreamConstants.START_ELEMENT && "c".equals(xml.getLocalName())) {
+                String cellRef = xml.getAttributeValue(null, "r");
+                column = cellRef != null ? columnIndex(cellRef) : column + 1;
+                CellValue value = readCell();
+                while (cells.size() < column) {
+                    cells.add(null);
+                }
+                if (column < cells.size()) {
+                    cells.set(column, value);
+                } else {
+                    cells.add(value);
+                }
+            } else if (event == XMLStreamConstants.END_ELEMENT && "row".equals(xml.getLocalName())) {
+                break;
+            }
+        }
+        return new SheetRow(rowIndex, cells.toArray(new CellValue[0]));
+    }
+
+    private CellValue readCell() throws XMLStreamException {
+        String type = xml.getAttributeValue(null, "t");
+        String style = xml.getAttributeValue(null, "s");
+        String value = null;
+        String formula = null;
+        StringBuilder inline = null;
+        while (xml.hasNext()) {
+            int event = xml.next();
+            if (event == XMLStreamConstants.START_ELEMENT) {
+                String name = xml.getLocalName();
+                if ("v".equals(name)) {
+                    value = xml.getElementText();
+                } else if ("f".equals(name)) {
+                    formula = xml.getElementText();
+                } else if ("is".equals(name)) {
+                    inline = new StringBuilder();
+                } else if ("t".equals(name) && inline != null) {
+                    inline.append(xml.getElementText());
+                } else if ("rPh".equals(name)) {
+                    skipElement();
+                }
+            } else if (event == XMLStreamConstants.END_ELEMENT && "c".equals(xml.getLocalName())) {
+                break;
+            }
+        }
+
+        // Cell.toString() renders formula cells as their formula text
+        if (formula != null) {
+            return CellValue.formula(formula);
+        }
+        if (type == null || "n".equals(type)) {
+            if (value == null || value.isEmpty()) {
+                return CellValue.BLANK;
+            }
+            double number = Double.parseDouble(value);
+            int styleIndex = style != null ? Integer.parseInt(style) : 0;
+            boolean dateFormatted = DateUtil.isValidExcelDate(number) && isDateStyle(styleIndex);
+            return CellValue.numeric(number, dateFormatted, date1904);
+        }
+        switch (type) {
+            case "s":
+                return CellValue.string(value != null
+                        ? sharedStrings.getItemAt(Integer.parseInt(value)).getString() : "");
+            case "inlineStr":
+                return CellValue.string(inline != null ? inline.toString() : "");
+            case "b":
+                return CellValue.bool("1".equals(value) || "true".equalsIgnoreCase(value));
+            case "e":
+                return CellValue.error(value != null ? value : "");
+            default:
+                return CellValue.string(value != null ? value : "");
+        }
+    }
+
+    private boolean isDateStyle(int styleIndex) {
+        if (styles == null) {
+            return false;
+        }
+        return dateStyles.computeIfAbsent(styleIndex, idx -> {
+            XSSFCellStyle cellStyle = styles.getStyleAt(idx);
+            return cellStyle != null && DateUtil.isADateFormat(cellStyle.getDataFormat(), cellStyle.getDataFormatString());
+        });
+    }
+
+    private void skipElement() throws XMLStreamException {
+        int depth = 1;
+        while (depth > 0 && xml.hasNext()) {
+            int event = xml.next();
+            if (event == XMLStreamConstants.START_ELEMENT) {
+                depth++;
+            } else if (event == XMLStreamConstants.END_ELEMENT) {
+                depth--;
+            }
+        }
+    }
+
+    static int columnIndex(String cellRef) {
+        int column = 0;
+        for (int i = 0; i < cellRef.length(); i++) {
+            char c = cellRef.charAt(i);
+            if (c < 'A' || c > 'Z') {
+                break;
+            }
+            column = column * 26 + (c - 'A' + 1);
+        }
+        return column - 1;
+    }
+
+    // Walks the sheets in workbook order, collecting their names; only the wanted sheet's stream is kept open
+    private InputStream openSheet(XSSFReader reader, int sheetIndex)
+            throws IOException, OpenXML4JException {
+        XSSFReader.SheetIterator sheets = (XSSFReader.SheetIterator) reader.getSheetsData();
+        InputStream wanted = null;
+        try {
+            while (sheets.hasNext()) {
+                InputStream sheet = sheets.next();
+                if (sheetNames.size() == sheetIndex) {
+                    wanted = sheet;
+                } else {
+                    sheet.close();
+                }
+                sheetNames.add(sheets.getSheetName());
+            }
+        } catch (IOException | RuntimeException e) {
+            if (wanted != null) {
+                wanted.close();
+            }
+            throw e;
+        }
+        if (wanted == null) {
+            throw new IOException(sheetNames.isEmpty()
+                    ? "Workbook contains no sheets" : "Workbook has no sheet " + (sheetIndex + 1));
+        }
+        return wanted;
+    }
+
+    private static boolean readDate1904(XSSFReader reader) throws IOException, OpenXML4JException, XMLStreamException {
+        try (InputStream workbookData = reader.getWorkbookData()) {
+            XMLStreamReader workbookXml = XMLHelper.newXMLInputFactory().createXMLStreamReader(workbookData);
+            try {
+                while (workbookXml.hasNext()) {
+                    if (workbookXml.next() == XMLStreamConstants.START_ELEMENT) {
+                        String name = workbookXml.getLocalName();
+                        if ("workbookPr".equals(name)) {
+                            String date1904 = workbookXml.getAttributeValue(null, "date1904");
+                            return "1".equals(date1904) || "true".equalsIgnoreCase(date1904);
+                        }
+                        if ("sheets".equals(name)) {
+                            return false;
+                        }
+                    }
+                }
+                return false;
+            } finally {
+                workbookXml.close();
+            }
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        try {
+            xml.close();
+        } catch (XMLStreamException e) {
+            // Nothing useful to do, the underlying stream is closed below
+        } finally {
+            sheetStream.close();
+            pkg.revert();
+        }
+    }
+}
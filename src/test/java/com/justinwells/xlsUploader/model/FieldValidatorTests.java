@@ -0,0 +1,107 @@
+package com.justinwells.xlsUploader.model;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.justinwells.xlsUploader.model.XlsSpec.HeaderSpec;
+import org.junit.jupiter.api.Test;
+
+import java.math.BigDecimal;
+import java.time.LocalDate;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class FieldValidatorTests {
+    private static final LocalDate TODAY = LocalDate.of(2025, 3, 1);
+
+    @Test
+    void integersComeFromStoredNumbersAndText() {
+        FieldValidator amount = validator("INTEGER", new BigDecimal("0"), new BigDecimal("1000"), null);
+
+        assertThat(amount.validate(CellValue.numeric(50d, false, false), TODAY)).isEqualTo(50L);
+        assertThat(amount.validate(CellValue.string(" 75 "), TODAY)).isEqualTo(75L);
+        assertThat(amount.validate(CellValue.string("12.0"), TODAY)).isEqualTo(12L);
+        assertThat(amount.validate(CellValue.numeric(12.5d, false, false), TODAY)).isEqualTo(ErrorCode.INVALID_INTEGER);
+        assertThat(amount.validate(CellValue.string("abc"), TODAY)).isEqualTo(ErrorCode.INVALID_INTEGER);
+        assertThat(amount.validate(CellValue.numeric(-1d, false, false), TODAY)).isEqualTo(ErrorCode.OUT_OF_RANGE);
+        assertThat(amount.validate(CellValue.numeric(1001d, false, false), TODAY)).isEqualTo(ErrorCode.OUT_OF_RANGE);
+        assertThat(amount.validate(CellValue.BLANK, TODAY)).isEqualTo(ErrorCode.REQUIRED);
+        assertThat(amount.describe(ErrorCode.OUT_OF_RANGE)).isEqualTo("amount must be between 0 and 1000");
+    }
+
+    @Test
+    void decimalsKeepTheirDigitsAndHonourScale() {
+        FieldValidator price = validator("DECIMAL", null, null, 2);
+
+        assertThat(price.validate(CellValue.numeric(19.99d, false, false), TODAY)).isEqualTo(new BigDecimal("19.99"));
+        assertThat(price.validate(CellValue.string("3.10"), TODAY)).isEqualTo(new BigDecimal("3.10"));
+        assertThat(price.validate(CellValue.string("3.100"), TODAY)).isEqualTo(new BigDecimal("3.100"));
+        assertThat(price.validate(CellValue.numeric(0.125d, false, false), TODAY)).isEqualTo(ErrorCode.TOO_MANY_DECIMALS);
+        assertThat(price.validate(CellValue.bool(true), TODAY)).isEqualTo(ErrorCode.INVALID_DECIMAL);
+    }
+
+    @Test
+    void booleansAcceptCellsNumbersAndCommonWords() {
+        FieldValidator active = validator("BOOLEAN", null, null, null);
+
+        assertThat(active.validate(CellValue.bool(true), TODAY)).isEqualTo(true);
+        assertThat(active.validate(CellValue.numeric(0d, false, false), TODAY)).isEqualTo(false);
+        assertThat(active.validate(CellValue.string("Yes"), TODAY)).isEqualTo(true);
+        assertThat(active.validate(CellValue.string("maybe"), TODAY)).isEqualTo(ErrorCode.INVALID_BOOLEAN);
+    }
+
+    @Test
+    void typedValuesSerializeAsJsonNumbers() throws Exception {
+        FieldValidator amount = validator("INTEGER", null, null, null);
+        FieldValidator price = validator("DECIMAL", null, null, null);
+
+        Object[] row = {amount.validate(CellValue.numeric(50d, false, false), TODAY),
+                price.validate(CellValue.string("2.50"), TODAY)};
+
+        assertThat(new ObjectMapper().writeValueAsString(row)).isEqualTo("[50,2.50]");
+    }
+
+    @Test
+    void stringsAreTrimmedAndEmailsChecked() {
+        FieldValidator email = new FieldValidator(new HeaderSpec("Email", "email", "STRING", true, "email"));
+        FieldValidator note = new FieldValidator(new HeaderSpec("Note", "note", "STRING", false, "any"));
+
+        assertThat(email.validate(CellValue.string(" ada@example.com "), TODAY)).isEqualTo("ada@example.com");
+        assertThat(email.validate(CellValue.string("ada@example"), TODAY)).isEqualTo(ErrorCode.INVALID_EMAIL);
+        assertThat(email.validate(CellValue.string("   "), TODAY)).isEqualTo(ErrorCode.REQUIRED);
+        assertThat(email.validate(null, TODAY)).isEqualTo(ErrorCode.REQUIRED);
+        assertThat(note.validate(CellValue.BLANK, TODAY)).isNull();
+        assertThat(email.describe(ErrorCode.REQUIRED)).isEqualTo("email is required");
+    }
+
+    @Test
+    void datesAreParsedInEitherFormatAndCheckedAgainstToday() {
+        FieldValidator past = new FieldValidator(new HeaderSpec("Born", "born", "DATE", true, "past"));
+        FieldValidator future = new FieldValidator(new HeaderSpec("Due", "due", "DATE", true, "future"));
+        FieldValidator misnamed = new FieldValidator(new HeaderSpec("When", "when", "DATE", true, "soon"));
+
+        assertThat(past.validate(CellValue.string("2025-02-28"), TODAY)).isEqualTo("2025-02-28");
+        assertThat(past.validate(CellValue.string("28-Feb-2025"), TODAY)).isEqualTo("2025-02-28");
+        assertThat(past.validate(CellValue.string("2025-03-01"), TODAY)).isEqualTo(ErrorCode.NOT_PAST_DATE);
+        assertThat(future.validate(CellValue.string("2025-03-02"), TODAY)).isEqualTo("2025-03-02");
+        assertThat(future.validate(CellValue.string("2025-03-01"), TODAY)).isEqualTo(ErrorCode.NOT_FUTURE_DATE);
+        assertThat(past.validate(CellValue.string("yesterday"), TODAY)).isEqualTo(ErrorCode.INVALID_DATE);
+        assertThat(misnamed.validate(CellValue.string("2025-03-02"), TODAY)).isEqualTo(ErrorCode.INVALID_CONSTRAINT);
+        assertThat(misnamed.describe(ErrorCode.INVALID_CONSTRAINT))
+                .isEqualTo("when has invalid constraint for DATE: soon");
+    }
+
+    @Test
+    void numericDatesAreReadFromTheirSerial() {
+        FieldValidator past = new FieldValidator(new HeaderSpec("Born", "born", "DATE", true, "past"));
+
+        assertThat(past.validate(CellValue.numeric(45000d, true, false), TODAY)).isEqualTo("2023-03-15");
+        assertThat(past.validate(CellValue.numeric(45000d, false, false), TODAY)).isEqualTo("2023-03-15");
+        // Rendering this one as text would fail
+        assertThat(past.validate(CellValue.numeric(-1d, true, false), TODAY)).isEqualTo(ErrorCode.INVALID_DATE);
+        assertThat(past.validate(CellValue.string("  "), TODAY)).isEqualTo(ErrorCode.REQUIRED);
+    }
+
+    private static FieldValidator validator(String type, BigDecimal min, BigDecimal max, Integer scale) {
+        String field = "INTEGER".equals(type) ? "amount" : "DECIMAL".equals(type) ? "price" : "active";
+        return new FieldValidator(new HeaderSpec(field, field, type, true, null, false, null, min, max, scale));
+    }
+}
@@ -0,0 +1,40 @@
+package com.justinwells.xlsUploader.model;
+
+import org.junit.jupiter.api.Test;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class LineCheckpointTests {
+
+    @Test
+    void advancesOnlyOverContiguousSettledLines() {
+        LineCheckpoint checkpoint = new LineCheckpoint(1);
+
+        checkpoint.settle(new int[] {4, 5});
+        assertThat(checkpoint.getContiguous()).isEqualTo(1);
+
+        checkpoint.settle(2);
+        assertThat(checkpoint.getContiguous()).isEqualTo(2);
+
+        checkpoint.settleRange(3, 3);
+        assertThat(checkpoint.getContiguous()).isEqualTo(5);
+
+        // Lines at or below the watermark are ignored
+        checkpoint.settle(3);
+        assertThat(checkpoint.getContiguous()).isEqualTo(5);
+    }
+
+    @Test
+    void keepsCountingAcrossCompaction() {
+        LineCheckpoint checkpoint = new LineCheckpoint(100);
+        int last = 100 + 3 * (1 << 16);
+        checkpoint.settle(last + 2);
+        for (int line = last; line > 100; line--) {
+            checkpoint.settle(line);
+        }
+        assertThat(checkpoint.getContiguous()).isEqualTo(last);
+
+        checkpoint.settle(last + 1);
+        assertThat(checkpoint.getContiguous()).isEqualTo(last + 2);
+    }
+}
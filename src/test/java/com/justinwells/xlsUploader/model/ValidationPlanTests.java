@@ -0,0 +1,108 @@
+package com.justinwells.xlsUploader.model;
+
+import com.justinwells.xlsUploader.model.XlsSpec.HeaderSpec;
+import org.junit.jupiter.api.Test;
+
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.entry;
+
+class ValidationPlanTests {
+    private static final List<FieldValidator> PARTICIPANT = List.of(
+            new FieldValidator(new HeaderSpec("Participant ID", "participantId", "STRING", true, "any")),
+            new FieldValidator(new HeaderSpec("First Name", "firstName", "STRING", true, "any")),
+            new FieldValidator(new HeaderSpec("Email", "email", "STRING", false, "email")),
+            new FieldValidator(new HeaderSpec("Registration Date", "registrationDate", "DATE", false, "past")));
+
+    @Test
+    void columnsComeFromTheHeaderAndValuesFollowSpecOrder() {
+        // The sheet has the columns in another order and no Registration Date
+        ValidationPlan plan = new ValidationPlan(PARTICIPANT, Map.of("email", 0, "participantId", 1, "firstName", 2));
+        RowErrors errors = new RowErrors(100, 0);
+
+        assertThat(plan.size()).isEqualTo(3);
+        assertThat(plan.getFieldCount()).isEqualTo(4);
+        assertThat(plan.getValidator(0).getField()).isEqualTo("participantId");
+        assertThat(plan.getColumn(0)).isEqualTo(1);
+
+        Object[] values = new Object[plan.getFieldCount()];
+        assertThat(plan.validateRow(row(1, "ada@example.com", " P1 ", "Ada"), 2, values, errors)).isTrue();
+        assertThat(values).containsExactly("P1", "Ada", "ada@example.com", null);
+
+        Map<String, Object> rowData = new HashMap<>();
+        assertThat(plan.validateRow(row(2, "", "P2", "Alan"), 3, rowData, errors)).isTrue();
+        assertThat(rowData).containsOnly(
+                entry("participantId", "P2"), entry("firstName", "Alan"), entry("email", null));
+        assertThat(errors.hasErrors()).isFalse();
+    }
+
+    @Test
+    void everyFailingFieldIsRecordedAndTheRowCountedOnce() {
+        ValidationPlan plan = new ValidationPlan(PARTICIPANT,
+                Map.of("participantId", 0, "firstName", 1, "email", 2, "registrationDate", 3));
+        RowErrors errors = new RowErrors(100, 0);
+        Map<String, Object> rowData = new HashMap<>();
+        String tomorrow = plan.getToday().plusDays(1).toString();
+
+        assertThat(plan.validateRow(row(4, "", "Ada", "not-an-email", tomorrow), 5, rowData, errors)).isFalse();
+
+        assertThat(rowData).isEmpty();
+        assertThat(errors.describe(100)).containsExactlyInAnyOrder(
+                "Row 5: participantId is required",
+                "Row 5: email must be a valid email address (e.g., user@domain.com)",
+                "Row 5: registrationDate must be a past date");
+        assertThat(errors.getInvalidRows()).isEqualTo(1);
+    }
+
+    @Test
+    void referencesAreCheckedAgainstTheirIndex() {
+        LongHashSet participants = new LongHashSet();
+        participants.add(KeyHash.of("P1"));
+        ValidationPlan plan = new ValidationPlan(List.of(
+                new FieldValidator(new HeaderSpec("Participant ID", "participantId", "STRING", true, null, false,
+                        "participant.participantId"))),
+                Map.of("participantId", 0),
+                reference -> "participant.participantId".equals(reference) ? participants : null, Map.of());
+        RowErrors errors = new RowErrors(100, 0);
+
+        assertThat(plan.validateRow(row(1, "P1"), 2, new Object[1], errors)).isTrue();
+        assertThat(plan.validateRow(row(2, "P9"), 3, new Object[1], errors)).isFalse();
+        assertThat(errors.describe(100)).containsExactly(
+                "Row 3: participantId does not match any processed participant.participantId");
+    }
+
+    @Test
+    void repeatedKeyIsRejectedOnTheLaterLineWhateverOrderRowsAreValidatedIn() {
+        ValidationPlan plan = new ValidationPlan(List.of(
+                new FieldValidator(new HeaderSpec("ID", "id", "STRING", true, null, true, null)),
+                new FieldValidator(new HeaderSpec("Name", "name", "STRING", true, null))),
+                Map.of("id", 0, "name", 1));
+        RowErrors errors = new RowErrors(100, 0);
+
+        long[] line4 = plan.newKeys();
+        long[] line3 = plan.newKeys();
+        long[] line2 = plan.newKeys();
+        // Workers can finish the rows in any order
+        assertThat(plan.validateRow(row(3, "A", "Grace"), 4, new Object[2], line4, errors)).isTrue();
+        assertThat(plan.validateRow(row(2, "A", "Alan"), 3, new Object[2], line3, errors)).isTrue();
+        assertThat(plan.validateRow(row(1, "A", ""), 2, new Object[2], line2, errors)).isFalse();
+
+        assertThat(plan.checkKeys(3, line3, errors)).isTrue();
+        assertThat(plan.checkKeys(4, line4, errors)).isFalse();
+        assertThat(errors.describe(100)).containsExactly(
+                "Row 2: name is required",
+                "Row 4: id must be unique within the file");
+        assertThat(errors.getInvalidRows()).isEqualTo(2);
+    }
+
+    private static SheetRow row(int rowIndex, String... values) {
+        CellValue[] cells = new CellValue[values.length];
+        for (int i = 0; i < values.length; i++) {
+            cells[i] = values[i].isEmpty() ? CellValue.BLANK : CellValue.string(values[i]);
+        }
+        return new SheetRow(rowIndex, cells);
+    }
+}
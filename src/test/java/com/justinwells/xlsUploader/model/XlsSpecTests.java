@@ -0,0 +1,44 @@
+package com.justinwells.xlsUploader.model;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class XlsSpecTests {
+
+    @TempDir
+    Path specDir;
+
+    @Test
+    void externalSpecsOverrideClasspathAndReloadWithoutDisturbingHeldDefinitions() throws Exception {
+        Path spec = specDir.resolve("participant.json");
+        Files.writeString(spec, "{\"headers\": [{\"header\": \"Participant ID\", \"field\": \"participantId\", "
+                + "\"type\": \"STRING\", \"required\": true}]}");
+        XlsSpec xlsSpec = new XlsSpec(new ObjectMapper(), specDir.toString(), false);
+
+        SpecDefinition before = xlsSpec.getDefinition("participant");
+        assertThat(before.getFieldNames()).containsExactly("participantId");
+        assertThat(xlsSpec.getDefinition("payment")).isNotNull();
+        assertThat(before.getHeaderMap(new SheetRow(0, new CellValue[] {CellValue.string("  participant   ID ")})))
+                .containsEntry("participantId", 0);
+
+        Files.writeString(spec, "{\"headers\": [{\"header\": \"ID\", \"field\": \"id\", "
+                + "\"type\": \"STRING\", \"required\": true}]}");
+        xlsSpec.reload();
+
+        assertThat(xlsSpec.getDefinition("participant").getFieldNames()).containsExactly("id");
+        assertThat(before.getFieldNames()).containsExactly("participantId");
+    }
+
+    @Test
+    void missingSpecDirectoryLeavesTheClasspathSpecsUnwatched() throws Exception {
+        XlsSpec xlsSpec = new XlsSpec(new ObjectMapper(), specDir.resolve("missing").toString(), true);
+
+        assertThat(xlsSpec.getDefinition("participant")).isNotNull();
+    }
+}
@@ -0,0 +1,105 @@
+package com.justinwells.xlsUploader.service;
+
+import com.justinwells.xlsUploader.model.FileOutcome;
+import com.justinwells.xlsUploader.model.XlsSpec;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.util.unit.DataSize;
+import software.amazon.awssdk.core.async.AsyncRequestBody;
+import software.amazon.awssdk.services.s3.S3AsyncClient;
+import software.amazon.awssdk.services.s3.model.AbortMultipartUploadResponse;
+import software.amazon.awssdk.services.s3.model.CreateMultipartUploadResponse;
+import software.amazon.awssdk.services.s3.model.S3Exception;
+import software.amazon.awssdk.services.s3.model.UploadPartResponse;
+
+import java.io.ByteArrayInputStream;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Consumer;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.verifyNoInteractions;
+import static org.mockito.Mockito.when;
+
+class BulkIngestServiceTests {
+    private final S3AsyncClient s3AsyncClient = mock(S3AsyncClient.class);
+    private final PackageInspector packageInspector = mock(PackageInspector.class);
+    private final UploadJobService uploadJobService = mock(UploadJobService.class);
+    private final FileStateService fileStateService = mock(FileStateService.class);
+    private final UploadDedupService uploadDedupService = mock(UploadDedupService.class);
+    private final BulkIngestService service = new BulkIngestService(
+            new S3StreamingUploader(s3AsyncClient, "bucket", DataSize.ofMegabytes(5), 2), packageInspector,
+            uploadJobService, fileStateService, uploadDedupService, mock(IngestQueue.class), mock(XlsSpec.class),
+            1, 1, 10, DataSize.ofMegabytes(20));
+
+    @AfterEach
+    void shutdown() {
+        service.shutdown();
+    }
+
+    @Test
+    @SuppressWarnings("unchecked")
+    void fileWithAFailedPartIsQuarantinedWithoutBeingParsed() throws Exception {
+        AtomicInteger parts = new AtomicInteger();
+        when(s3AsyncClient.createMultipartUpload(any(Consumer.class))).thenReturn(CompletableFuture.completedFuture(
+                CreateMultipartUploadResponse.builder().uploadId("upload-1").build()));
+        when(s3AsyncClient.uploadPart(any(Consumer.class), any(AsyncRequestBody.class))).thenAnswer(call ->
+                parts.incrementAndGet() == 2 ? CompletableFuture.failedFuture(internalError())
+                        : CompletableFuture.completedFuture(UploadPartResponse.builder().eTag("etag").build()));
+        when(s3AsyncClient.abortMultipartUpload(any(Consumer.class)))
+                .thenReturn(CompletableFuture.completedFuture(AbortMultipartUploadResponse.builder().build()));
+
+        BulkIngestService.Batch batch = service.open("tenant", "participant");
+        batch.add("large.csv", new ByteArrayInputStream(new byte[12 * 1024 * 1024]));
+        List<FileOutcome> outcomes = batch.await();
+
+        assertThat(outcomes).hasSize(1);
+        assertThat(outcomes.get(0).getState()).isEqualTo("Quarantine");
+        assertThat(outcomes.get(0).getS3Key()).isNull();
+        verify(s3AsyncClient).abortMultipartUpload(any(Consumer.class));
+        verifyNoInteractions(packageInspector, uploadJobService, uploadDedupService);
+    }
+
+    @Test
+    @SuppressWarnings("unchecked")
+    void fileWhoseUploadFailsAfterItWasReadIsQuarantinedWithoutBeingParsed() throws Exception {
+        when(s3AsyncClient.createMultipartUpload(any(Consumer.class))).thenReturn(CompletableFuture.completedFuture(
+                CreateMultipartUploadResponse.builder().uploadId("upload-1").build()));
+        when(s3AsyncClient.uploadPart(any(Consumer.class), any(AsyncRequestBody.class)))
+                .thenReturn(CompletableFuture.completedFuture(UploadPartResponse.builder().eTag("etag").build()));
+        when(s3AsyncClient.completeMultipartUpload(any(Consumer.class)))
+                .thenReturn(CompletableFuture.failedFuture(internalError()));
+        when(s3AsyncClient.abortMultipartUpload(any(Consumer.class)))
+                .thenReturn(CompletableFuture.completedFuture(AbortMultipartUploadResponse.builder().build()));
+
+        BulkIngestService.Batch batch = service.open("tenant", "participant");
+        batch.add("large.csv", new ByteArrayInputStream(new byte[12 * 1024 * 1024]));
+        List<FileOutcome> outcomes = batch.await();
+
+        assertThat(outcomes.get(0).getState()).isEqualTo("Quarantine");
+        verify(fileStateService).setState(eq(outcomes.get(0).getS3Key()), eq("Quarantine"), anyString());
+        verifyNoInteractions(packageInspector, uploadJobService, uploadDedupService);
+    }
+
+    @Test
+    void unsupportedFileIsRejectedWithoutBeingStored() throws Exception {
+        BulkIngestService.Batch batch = service.open("tenant", "participant");
+        batch.add("notes.txt", new ByteArrayInputStream("not a spreadsheet".getBytes()));
+        List<FileOutcome> outcomes = batch.await();
+
+        assertThat(outcomes).hasSize(1);
+        assertThat(outcomes.get(0).getState()).isEqualTo("Rejected");
+        assertThat(outcomes.get(0).getS3Key()).isNull();
+        verifyNoInteractions(s3AsyncClient, fileStateService, packageInspector, uploadJobService, uploadDedupService);
+    }
+
+    private static S3Exception internalError() {
+        return S3Exception.builder().statusCode(500).message("Internal Error").build();
+    }
+}
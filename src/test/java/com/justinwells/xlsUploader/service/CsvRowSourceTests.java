@@ -0,0 +1,65 @@
+package com.justinwells.xlsUploader.service;
+
+import com.justinwells.xlsUploader.model.SheetRow;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.File;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+class CsvRowSourceTests {
+
+    @TempDir
+    Path dir;
+
+    @Test
+    void readsQuotedFieldsAcrossLineEndings() throws Exception {
+        File file = write("\uFEFFid,name,notes\r\n"
+                + "1,\"Smith, Jo\",\"said \"\"hi\"\"\"\r\n"
+                + "\n"
+                + "2,,\"two\nlines\"\n"
+                + "3,é");
+
+        try (CsvRowSource source = CsvRowSource.open(file)) {
+            SheetRow header = source.next();
+            assertThat(header.getRowIndex()).isZero();
+            assertThat(header.getCell(0).getText()).isEqualTo("id");
+            assertThat(header.getLastCellNum()).isEqualTo(3);
+
+            SheetRow first = source.next();
+            assertThat(first.getRowIndex()).isEqualTo(1);
+            assertThat(first.getCell(1).getText()).isEqualTo("Smith, Jo");
+            assertThat(first.getCell(2).getText()).isEqualTo("said \"hi\"");
+
+            SheetRow second = source.next();
+            assertThat(second.getRowIndex()).isEqualTo(2);
+            assertThat(second.getCell(1)).isNull();
+            assertThat(second.getCell(2).getText()).isEqualTo("two\nlines");
+
+            SheetRow third = source.next();
+            assertThat(third.getCell(1).getText()).isEqualTo("é");
+            assertThat(source.next()).isNull();
+        }
+    }
+
+    @Test
+    void rejectsUnterminatedQuote() throws Exception {
+        File file = write("id,name\n1,\"open\n");
+
+        try (CsvRowSource source = CsvRowSource.open(file)) {
+            source.next();
+            assertThatThrownBy(source::next).hasMessageContaining("Unterminated");
+        }
+    }
+
+    private File write(String content) throws Exception {
+        Path path = dir.resolve("rows.csv");
+        Files.write(path, content.getBytes(StandardCharsets.UTF_8));
+        return path.toFile();
+    }
+}
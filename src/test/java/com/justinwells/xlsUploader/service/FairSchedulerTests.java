@@ -0,0 +1,47 @@
+package com.justinwells.xlsUploader.service;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class FairSchedulerTests {
+
+    @Test
+    void tenantsTakeTurnsForFreedSlots() throws Exception {
+        FairScheduler scheduler = new FairScheduler("test-scheduler", 1);
+        List<String> order = Collections.synchronizedList(new ArrayList<>());
+        CountDownLatch gate = new CountDownLatch(1);
+        CountDownLatch done = new CountDownLatch(5);
+        try {
+            scheduler.submit("a", () -> {
+                try {
+                    gate.await();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+                order.add("a1");
+                done.countDown();
+            });
+            for (String task : List.of("a2", "a3")) {
+                scheduler.submit("a", () -> { order.add(task); done.countDown(); });
+            }
+            scheduler.submit("b", () -> { order.add("b1"); done.countDown(); });
+            scheduler.submit("c", () -> { order.add("c1"); done.countDown(); });
+            assertThat(scheduler.getRunning()).isEqualTo(1);
+            assertThat(scheduler.getWaiting()).isEqualTo(4);
+
+            gate.countDown();
+
+            assertThat(done.await(5, TimeUnit.SECONDS)).isTrue();
+            assertThat(order).containsExactly("a1", "b1", "c1", "a2", "a3");
+        } finally {
+            scheduler.shutdown();
+        }
+    }
+}
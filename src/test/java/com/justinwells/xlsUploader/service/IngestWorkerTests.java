@@ -0,0 +1,265 @@
+package com.justinwells.xlsUploader.service;
+
+import com.amazonaws.services.s3.AbstractAmazonS3;
+import com.amazonaws.services.s3.model.AmazonS3Exception;
+import com.amazonaws.services.s3.model.GetObjectTaggingRequest;
+import com.amazonaws.services.s3.model.GetObjectTaggingResult;
+import com.amazonaws.services.s3.model.ObjectMetadata;
+import com.amazonaws.services.s3.model.PutObjectRequest;
+import com.amazonaws.services.s3.model.PutObjectResult;
+import com.amazonaws.services.s3.model.S3Object;
+import com.amazonaws.services.s3.model.SetObjectTaggingRequest;
+import com.amazonaws.services.s3.model.SetObjectTaggingResult;
+import com.amazonaws.services.s3.model.Tag;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.justinwells.xlsUploader.model.FileReadyMessage;
+import com.justinwells.xlsUploader.model.ProcessedUpload;
+import com.justinwells.xlsUploader.model.UploadJob;
+import com.justinwells.xlsUploader.model.XlsSpec;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HexFormat;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+class IngestWorkerTests {
+    private static final String KEY = "uploads/1_test-participant.xlsx";
+
+    private final InMemoryS3 s3 = new InMemoryS3();
+    private final UploadJobService uploadJobService = mock(UploadJobService.class);
+    private final UploadDedupService uploadDedupService = mock(UploadDedupService.class);
+    private final FileStateService fileStateService = new FileStateService(s3, "bucket",
+            new S3TagWriter(s3, "bucket", new UploadMetrics(new SimpleMeterRegistry())),
+            Duration.ofMinutes(15), Duration.ofMinutes(1), 1, Duration.ofHours(1));
+
+    @Test
+    void onlyOneWorkerClaimsAFile() throws Exception {
+        s3.put(KEY, Files.readAllBytes(Path.of("src/test/xlsTestFiles", "test-participant_MissingID.xlsx")));
+        s3.tags.put(KEY, List.of(new Tag("fileProcessingState", "New"), new Tag("spec", "participant")));
+        when(uploadJobService.isAcceptingJobs()).thenReturn(true);
+        when(uploadJobService.submit(any(), eq("participant"), eq(KEY), anyString(), any())).thenAnswer(call -> {
+            ((InspectedPackage) call.getArgument(0)).close();
+            return new UploadJob(KEY, "participant");
+        });
+        FileReadyMessage message = new FileReadyMessage(KEY, "participant", null);
+
+        UploadJob first = worker("worker-a").handle(message);
+        UploadJob second = worker("worker-b").handle(message);
+
+        assertThat(first).isNotNull();
+        assertThat(second).isNull();
+        assertThat(s3.tag(KEY, "fileProcessingState")).isEqualTo("Processing");
+        assertThat(s3.tag(KEY, "claimedBy")).isEqualTo("worker-a");
+        verify(uploadJobService, times(1)).submit(any(), any(), any(), any(), any());
+        assertThat(fileStateService.getState(KEY).getState()).isEqualTo("Processing");
+    }
+
+    @Test
+    void racingWorkersNeverBothClaimAFile() throws Exception {
+        s3.tags.put(KEY, List.of(new Tag("fileProcessingState", "New"), new Tag("spec", "participant")));
+
+        assertThat(race()).hasSize(1);
+        assertThat(s3.tag(KEY, "fileProcessingState")).isEqualTo("Processing");
+    }
+
+    @Test
+    void staleClaimIsTakenOverByOneWorker() throws Exception {
+        String claimedAt = Long.toString(System.currentTimeMillis() - Duration.ofMinutes(20).toMillis());
+        s3.tags.put(KEY, List.of(new Tag("fileProcessingState", "Processing"), new Tag("spec", "participant"),
+                new Tag("claimedBy", "worker-gone"), new Tag("claimedAt", claimedAt)));
+        ObjectMetadata claim = new ObjectMetadata();
+        claim.addUserMetadata("claimed-by", "worker-gone");
+        claim.addUserMetadata("claimed-at", claimedAt);
+        // MD5 of an empty body
+        claim.setHeader("ETag", "d41d8cd98f00b204e9800998ecf8427e");
+        s3.claims.put("claims/" + KEY, claim);
+
+        List<String> winners = race();
+
+        assertThat(winners).hasSize(1);
+        assertThat(s3.tag(KEY, "claimedBy")).isEqualTo(winners.get(0));
+        assertThat(s3.claims.get("claims/" + KEY).getUserMetaDataOf("claimed-by")).isEqualTo(winners.get(0));
+    }
+
+    @Test
+    void releasedFileCanBeClaimedAgain() {
+        s3.tags.put(KEY, List.of(new Tag("fileProcessingState", "New"), new Tag("spec", "participant")));
+
+        assertThat(fileStateService.claim(KEY, "worker-a")).isTrue();
+        assertThat(fileStateService.claim(KEY, "worker-b")).isFalse();
+        fileStateService.release(KEY, "participant");
+
+        assertThat(fileStateService.claim(KEY, "worker-b")).isTrue();
+        assertThat(s3.tag(KEY, "claimedBy")).isEqualTo("worker-b");
+    }
+
+    @Test
+    void unreadableFileIsRejected() throws Exception {
+        s3.put(KEY, "not a workbook".getBytes(StandardCharsets.UTF_8));
+        when(uploadJobService.isAcceptingJobs()).thenReturn(true);
+
+        UploadJob job = worker("worker-a").handle(new FileReadyMessage(KEY, "participant", null));
+
+        assertThat(job).isNull();
+        fileStateService.flush();
+        assertThat(s3.tag(KEY, "fileProcessingState")).isEqualTo("Rejected");
+        verify(uploadJobService, never()).submit(any(), any(), any(), any(), any());
+    }
+
+    @Test
+    void identicalUploadIsTaggedWithTheEarlierOutcome() throws Exception {
+        s3.put(KEY, Files.readAllBytes(Path.of("src/test/xlsTestFiles", "test-participant_MissingID.xlsx")));
+        s3.tags.put(KEY, List.of(new Tag("fileProcessingState", "New"), new Tag("spec", "participant")));
+        when(uploadJobService.isAcceptingJobs()).thenReturn(true);
+        when(uploadDedupService.find(anyString(), eq("participant"))).thenReturn(
+                new ProcessedUpload("uploads/0_first.xlsx", "Quarantine", 1, "reports/0_first.csv", Instant.now()));
+
+        UploadJob job = worker("worker-a").handle(new FileReadyMessage(KEY, "participant", null));
+
+        assertThat(job).isNull();
+        fileStateService.flush();
+        assertThat(s3.tag(KEY, "fileProcessingState")).isEqualTo("Quarantine");
+        assertThat(s3.tag(KEY, "duplicateOf")).isEqualTo("uploads/0_first.xlsx");
+        assertThat(fileStateService.readState(KEY).getDuplicateOf()).isEqualTo("uploads/0_first.xlsx");
+        verify(uploadJobService, never()).submit(any(), any(), any(), any(), any());
+    }
+
+    // Workers that claimed KEY when all of them tried at once
+    private List<String> race() throws Exception {
+        int workers = 8;
+        CountDownLatch start = new CountDownLatch(1);
+        List<String> winners = Collections.synchronizedList(new ArrayList<>());
+        ExecutorService executor = Executors.newFixedThreadPool(workers);
+        try {
+            List<Future<?>> attempts = new ArrayList<>();
+            for (int i = 0; i < workers; i++) {
+                String workerId = "worker-" + i;
+                attempts.add(executor.submit(() -> {
+                    start.await();
+                    if (fileStateService.claim(KEY, workerId)) {
+                        winners.add(workerId);
+                    }
+                    return null;
+                }));
+            }
+            start.countDown();
+            for (Future<?> attempt : attempts) {
+                attempt.get(10, TimeUnit.SECONDS);
+            }
+        } finally {
+            executor.shutdownNow();
+        }
+        return winners;
+    }
+
+    private IngestWorker worker(String id) throws IOException {
+        ObjectMapper objectMapper = new ObjectMapper();
+        return new IngestWorker(fileStateService, new S3Downloader(s3, "bucket"), new PackageInspector(),
+                uploadJobService, uploadDedupService, new XlsSpec(objectMapper), objectMapper, id);
+    }
+
+    // Just enough of S3 for the worker: object reads, tag reads/writes and the conditional writes of claims
+    private static class InMemoryS3 extends AbstractAmazonS3 {
+        private final Map<String, byte[]> objects = new ConcurrentHashMap<>();
+        private final Map<String, List<Tag>> tags = new ConcurrentHashMap<>();
+        private final Map<String, ObjectMetadata> claims = new ConcurrentHashMap<>();
+
+        void put(String key, byte[] content) {
+            objects.put(key, content);
+        }
+
+        String tag(String key, String name) {
+            return tags.getOrDefault(key, List.of()).stream()
+                    .filter(tag -> tag.getKey().equals(name))
+                    .map(Tag::getValue)
+                    .findFirst()
+                    .orElse(null);
+        }
+
+        @Override
+        public S3Object getObject(String bucketName, String key) {
+            S3Object object = new S3Object();
+            object.setKey(key);
+            object.setObjectContent(new ByteArrayInputStream(objects.get(key)));
+            return object;
+        }
+
+        @Override
+        public GetObjectTaggingResult getObjectTagging(GetObjectTaggingRequest request) {
+            return new GetObjectTaggingResult(new ArrayList<>(tags.getOrDefault(request.getKey(), List.of())));
+        }
+
+        @Override
+        public SetObjectTaggingResult setObjectTagging(SetObjectTaggingRequest request) {
+            tags.put(request.getKey(), new ArrayList<>(request.getTagging().getTagSet()));
+            return new SetObjectTaggingResult();
+        }
+
+        @Override
+        public synchronized PutObjectResult putObject(PutObjectRequest request) {
+            ObjectMetadata current = claims.get(request.getKey());
+            String ifNoneMatch = request.getCustomRequestHeaders().get("If-None-Match");
+            String ifMatch = request.getCustomRequestHeaders().get("If-Match");
+            if ((ifNoneMatch != null && current != null)
+                    || (ifMatch != null && (current == null || !ifMatch.equals(current.getETag())))) {
+                AmazonS3Exception e = new AmazonS3Exception("Precondition Failed");
+                e.setStatusCode(412);
+                throw e;
+            }
+            ObjectMetadata stored = request.getMetadata().clone();
+            // Like S3, the ETag of a single-part object is the MD5 of its body
+            try {
+                stored.setHeader("ETag", HexFormat.of().formatHex(
+                        MessageDigest.getInstance("MD5").digest(request.getInputStream().readAllBytes())));
+            } catch (IOException | NoSuchAlgorithmException e) {
+                throw new IllegalStateException(e);
+            }
+            claims.put(request.getKey(), stored);
+            return new PutObjectResult();
+        }
+
+        @Override
+        public synchronized ObjectMetadata getObjectMetadata(String bucketName, String key) {
+            ObjectMetadata metadata = claims.get(key);
+            if (metadata == null) {
+                AmazonS3Exception e = new AmazonS3Exception("Not Found");
+                e.setStatusCode(404);
+                throw e;
+            }
+            return metadata.clone();
+        }
+
+        @Override
+        public synchronized void deleteObject(String bucketName, String key) {
+            claims.remove(key);
+        }
+    }
+}
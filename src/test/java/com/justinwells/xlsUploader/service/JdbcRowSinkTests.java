@@ -0,0 +1,57 @@
+package com.justinwells.xlsUploader.service;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.datasource.embedded.EmbeddedDatabase;
+import org.springframework.jdbc.datasource.embedded.EmbeddedDatabaseBuilder;
+import org.springframework.jdbc.datasource.embedded.EmbeddedDatabaseType;
+
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class JdbcRowSinkTests {
+
+    private EmbeddedDatabase database;
+    private JdbcTemplate jdbcTemplate;
+
+    @BeforeEach
+    void createTable() {
+        database = new EmbeddedDatabaseBuilder().setType(EmbeddedDatabaseType.H2).generateUniqueName(true).build();
+        jdbcTemplate = new JdbcTemplate(database);
+        jdbcTemplate.execute("CREATE TABLE participant (participant_id VARCHAR(64) PRIMARY KEY, "
+                + "first_name VARCHAR(255), s3_key VARCHAR(1024), line_number INT)");
+    }
+
+    @AfterEach
+    void dropDatabase() {
+        database.shutdown();
+    }
+
+    @Test
+    void upsertsRowsByKeyField() {
+        JdbcRowSink sink = new JdbcRowSink(database, "participant",
+                List.of("participantId", "firstName", "s3Key", "lineNumber"), "participantId");
+
+        sink.write(List.of(row("P001", "John", 2), row("P002", "Jane", 3)));
+        // Redelivered message with a changed value
+        sink.write(List.of(row("P001", "Johnny", 2)));
+
+        assertThat(jdbcTemplate.queryForObject("SELECT COUNT(*) FROM participant", Integer.class)).isEqualTo(2);
+        assertThat(jdbcTemplate.queryForObject(
+                "SELECT first_name FROM participant WHERE participant_id = 'P001'", String.class)).isEqualTo("Johnny");
+    }
+
+    private static Map<String, Object> row(String id, String firstName, int lineNumber) {
+        Map<String, Object> row = new HashMap<>();
+        row.put("participantId", id);
+        row.put("firstName", firstName);
+        row.put("s3Key", "uploads/test.xlsx");
+        row.put("lineNumber", lineNumber);
+        return row;
+    }
+}
@@ -0,0 +1,34 @@
+package com.justinwells.xlsUploader.service;
+
+import com.justinwells.xlsUploader.model.KeyHash;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.nio.file.Path;
+import java.util.stream.LongStream;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class MappedKeyIndexTests {
+
+    @TempDir
+    Path dir;
+
+    @Test
+    void keepsKeysAcrossGrowthAndReopening() throws Exception {
+        Path file = dir.resolve("participant.participantId.idx");
+        long[] keys = LongStream.range(0, 100_000).map(i -> KeyHash.of("P" + i)).toArray();
+
+        try (MappedKeyIndex index = new MappedKeyIndex(file)) {
+            index.addAll(keys);
+            index.addAll(new long[] {keys[0], keys[1]});
+            assertThat(index.size()).isEqualTo(100_000);
+        }
+
+        try (MappedKeyIndex reopened = new MappedKeyIndex(file)) {
+            assertThat(reopened.size()).isEqualTo(100_000);
+            assertThat(reopened.contains(KeyHash.of("P99999"))).isTrue();
+            assertThat(reopened.contains(KeyHash.of("P100000"))).isFalse();
+        }
+    }
+}
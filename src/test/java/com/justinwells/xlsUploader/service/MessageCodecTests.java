@@ -0,0 +1,56 @@
+package com.justinwells.xlsUploader.service;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.junit.jupiter.api.Test;
+import org.mockito.ArgumentCaptor;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.Mockito.atLeast;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.verify;
+
+class MessageCodecTests {
+
+    @Test
+    void envelopesRoundTripAndStayUnderTheSizeLimit() throws Exception {
+        MessageCodec codec = new MessageCodec(new ObjectMapper(), "envelope-gzip", 2048);
+        SqsBatchPublisher.PublishSession session = mock(SqsBatchPublisher.PublishSession.class);
+
+        MessageCodec.EnvelopeWriter writer = codec.openEnvelope("participant", "uploads/test.xlsx",
+                "2025-01-01T00:00:00Z", List.of("participantId", "firstName"), session);
+        for (int line = 2; line <= 501; line++) {
+            writer.accept(codec.encodeValues(line, new Object[] {"P" + line + "-" + Integer.toHexString(line * 7919), null}),
+                    line);
+        }
+        writer.flush();
+
+        ArgumentCaptor<String> bodies = ArgumentCaptor.forClass(String.class);
+        ArgumentCaptor<int[]> lines = ArgumentCaptor.forClass(int[].class);
+        verify(session, atLeast(2)).publish(bodies.capture(), lines.capture());
+        assertThat(lines.getAllValues().stream().mapToInt(l -> l.length).sum()).isEqualTo(500);
+        List<Map<String, Object>> rows = new ArrayList<>();
+        for (String body : bodies.getAllValues()) {
+            assertThat(body.length()).isLessThanOrEqualTo(2048);
+            rows.addAll(codec.decode(body));
+        }
+        assertThat(rows).hasSize(500);
+        assertThat(rows.get(0))
+                .containsEntry("participantId", "P2-" + Integer.toHexString(2 * 7919))
+                .containsEntry("firstName", null)
+                .containsEntry("lineNumber", 2)
+                .containsEntry("s3Key", "uploads/test.xlsx");
+    }
+
+    @Test
+    void decodesSingleRowMessages() throws Exception {
+        MessageCodec codec = new MessageCodec(new ObjectMapper(), "row", 262144);
+
+        List<Map<String, Object>> rows = codec.decode("{\"participantId\":\"P001\",\"lineNumber\":2}");
+
+        assertThat(rows).containsExactly(Map.of("participantId", "P001", "lineNumber", 2));
+    }
+}
@@ -0,0 +1,81 @@
+package com.justinwells.xlsUploader.service;
+
+import org.junit.jupiter.api.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.Random;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+class MultipartStreamTests {
+    private static final String BOUNDARY = "----xlsBoundary7MA4YWxk";
+
+    @Test
+    void readsFieldsAndFileInOrder() throws Exception {
+        byte[] content = new byte[200_000];
+        new Random(7).nextBytes(content);
+        // Bytes that look like the start of a delimiter must stay part of the file
+        byte[] lookalike = ("\r\n--" + BOUNDARY.substring(0, 10)).getBytes(StandardCharsets.ISO_8859_1);
+        System.arraycopy(lookalike, 0, content, 70_000, lookalike.length);
+
+        MultipartStream multipart = new MultipartStream(trickle(body(content)), BOUNDARY);
+
+        MultipartStream.Part spec = multipart.next();
+        assertThat(spec.getName()).isEqualTo("specName");
+        assertThat(spec.getFileName()).isNull();
+        assertThat(spec.readString(100)).isEqualTo("participant");
+
+        MultipartStream.Part file = multipart.next();
+        assertThat(file.getName()).isEqualTo("file");
+        assertThat(file.getFileName()).isEqualTo("test-participant.xlsx");
+        assertThat(file.getBody().readAllBytes()).isEqualTo(content);
+
+        assertThat(multipart.next()).isNull();
+    }
+
+    @Test
+    void limitStopsOversizedParts() throws Exception {
+        MultipartStream multipart = new MultipartStream(new ByteArrayInputStream(body(new byte[10_000])), BOUNDARY);
+        multipart.next();
+        MultipartStream.Part file = multipart.next();
+        file.limitTo(4_096);
+
+        assertThatThrownBy(() -> file.getBody().readAllBytes()).isInstanceOf(MultipartStream.PartTooLargeException.class);
+    }
+
+    @Test
+    void parsesBoundaryFromContentType() {
+        assertThat(MultipartStream.boundary("multipart/form-data; boundary=\"abc\"")).isEqualTo("abc");
+        assertThat(MultipartStream.boundary("multipart/form-data;boundary=abc")).isEqualTo("abc");
+        assertThat(MultipartStream.boundary("application/json")).isNull();
+    }
+
+    private static byte[] body(byte[] content) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        out.write(("--" + BOUNDARY + "\r\n"
+                + "Content-Disposition: form-data; name=\"specName\"\r\n\r\n"
+                + "participant\r\n"
+                + "--" + BOUNDARY + "\r\n"
+                + "Content-Disposition: form-data; name=\"file\"; filename=\"C:\\uploads\\test-participant.xlsx\"\r\n"
+                + "Content-Type: application/vnd.openxmlformats-officedocument.spreadsheetml.sheet\r\n\r\n")
+                .getBytes(StandardCharsets.UTF_8));
+        out.write(content);
+        out.write(("\r\n--" + BOUNDARY + "--\r\n").getBytes(StandardCharsets.UTF_8));
+        return out.toByteArray();
+    }
+
+    // Hands out the body in small reads, the way a socket does
+    private static InputStream trickle(byte[] bytes) {
+        return new ByteArrayInputStream(bytes) {
+            @Override
+            public synchronized int read(byte[] b, int off, int len) {
+                return super.read(b, off, Math.min(len, 1_337));
+            }
+        };
+    }
+}
@@ -0,0 +1,78 @@
+package com.justinwells.xlsUploader.service;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.justinwells.xlsUploader.model.XlsSpec;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.springframework.beans.factory.ObjectProvider;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.datasource.embedded.EmbeddedDatabase;
+import org.springframework.jdbc.datasource.embedded.EmbeddedDatabaseBuilder;
+import org.springframework.jdbc.datasource.embedded.EmbeddedDatabaseType;
+
+import javax.sql.DataSource;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+class RowSinkRegistryTests {
+
+    @TempDir
+    Path specDir;
+
+    private final EmbeddedDatabase database = new EmbeddedDatabaseBuilder()
+            .setType(EmbeddedDatabaseType.H2).generateUniqueName(true).build();
+    private final JdbcTemplate jdbcTemplate = new JdbcTemplate(database);
+
+    @AfterEach
+    void dropDatabase() {
+        database.shutdown();
+    }
+
+    @Test
+    @SuppressWarnings("unchecked")
+    void reloadedSpecGetsASinkWithItsNewFields() throws Exception {
+        jdbcTemplate.execute("CREATE TABLE participant (participant_id VARCHAR(64) PRIMARY KEY, "
+                + "nickname VARCHAR(255), s3_key VARCHAR(1024), line_number INT, created_at VARCHAR(64))");
+        Path spec = specDir.resolve("participant.json");
+        Files.writeString(spec, "{\"headers\": [" + header("Participant ID", "participantId") + "]}");
+        XlsSpec xlsSpec = new XlsSpec(new ObjectMapper(), specDir.toString(), false);
+        ObjectProvider<DataSource> dataSource = mock(ObjectProvider.class);
+        when(dataSource.getIfAvailable()).thenReturn(database);
+        RowSinkRegistry registry = new RowSinkRegistry(xlsSpec, dataSource, true);
+
+        RowSink before = registry.getSink("participant");
+        assertThat(registry.getSink("participant")).isSameAs(before);
+
+        Files.writeString(spec, "{\"headers\": [" + header("Participant ID", "participantId") + ", "
+                + header("Nickname", "nickname") + "]}");
+        xlsSpec.reload();
+        RowSink after = registry.getSink("participant");
+        after.write(List.of(row("P001", "Ada")));
+
+        assertThat(after).isNotSameAs(before);
+        assertThat(jdbcTemplate.queryForObject(
+                "SELECT nickname FROM participant WHERE participant_id = 'P001'", String.class)).isEqualTo("Ada");
+    }
+
+    private static String header(String header, String field) {
+        return "{\"header\": \"" + header + "\", \"field\": \"" + field + "\", \"type\": \"STRING\"}";
+    }
+
+    private static Map<String, Object> row(String id, String nickname) {
+        Map<String, Object> row = new HashMap<>();
+        row.put("participantId", id);
+        row.put("nickname", nickname);
+        row.put("s3Key", "uploads/test.xlsx");
+        row.put("lineNumber", 2);
+        row.put("createdAt", "2025-03-01T00:00:00Z");
+        return row;
+    }
+}
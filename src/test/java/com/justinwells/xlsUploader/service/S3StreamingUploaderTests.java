@@ -0,0 +1,66 @@
+package com.justinwells.xlsUploader.service;
+
+import org.junit.jupiter.api.Test;
+import org.springframework.util.unit.DataSize;
+import software.amazon.awssdk.core.async.AsyncRequestBody;
+import software.amazon.awssdk.services.s3.S3AsyncClient;
+import software.amazon.awssdk.services.s3.model.AbortMultipartUploadResponse;
+import software.amazon.awssdk.services.s3.model.CreateMultipartUploadResponse;
+import software.amazon.awssdk.services.s3.model.PutObjectResponse;
+import software.amazon.awssdk.services.s3.model.S3Exception;
+
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.util.concurrent.CompletableFuture;
+import java.util.function.Consumer;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+class S3StreamingUploaderTests {
+    private final S3AsyncClient s3AsyncClient = mock(S3AsyncClient.class);
+    private final S3StreamingUploader uploader = new S3StreamingUploader(s3AsyncClient, "bucket",
+            DataSize.ofMegabytes(5), 2);
+
+    @Test
+    @SuppressWarnings("unchecked")
+    void smallFileIsSentInOnePut() throws Exception {
+        when(s3AsyncClient.putObject(any(Consumer.class), any(AsyncRequestBody.class)))
+                .thenReturn(CompletableFuture.completedFuture(PutObjectResponse.builder().build()));
+        File spool = File.createTempFile("spool-", ".csv");
+        try {
+            uploader.upload(new ByteArrayInputStream(new byte[200_000]), "uploads/small.csv", spool).join();
+
+            assertThat(spool).hasSize(200_000);
+            verify(s3AsyncClient, never()).createMultipartUpload(any(Consumer.class));
+        } finally {
+            spool.delete();
+        }
+    }
+
+    @Test
+    @SuppressWarnings("unchecked")
+    void failedPartStopsTheUploadInsteadOfLeavingAShortSpoolFile() throws Exception {
+        when(s3AsyncClient.createMultipartUpload(any(Consumer.class))).thenReturn(CompletableFuture.completedFuture(
+                CreateMultipartUploadResponse.builder().uploadId("upload-1").build()));
+        when(s3AsyncClient.uploadPart(any(Consumer.class), any(AsyncRequestBody.class))).thenReturn(
+                CompletableFuture.failedFuture(S3Exception.builder().statusCode(500).message("Internal Error").build()));
+        when(s3AsyncClient.abortMultipartUpload(any(Consumer.class)))
+                .thenReturn(CompletableFuture.completedFuture(AbortMultipartUploadResponse.builder().build()));
+        File spool = File.createTempFile("spool-", ".csv");
+        try {
+            assertThatThrownBy(() -> uploader.upload(new ByteArrayInputStream(new byte[12 * 1024 * 1024]),
+                    "uploads/large.csv", spool))
+                    .isInstanceOf(S3StreamingUploader.UploadFailedException.class)
+                    .hasMessageContaining("Internal Error");
+            verify(s3AsyncClient).abortMultipartUpload(any(Consumer.class));
+        } finally {
+            spool.delete();
+        }
+    }
+}
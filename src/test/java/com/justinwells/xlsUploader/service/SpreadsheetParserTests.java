@@ -0,0 +1,217 @@
+package com.justinwells.xlsUploader.service;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.justinwells.xlsUploader.model.LineCheckpoint;
+import com.justinwells.xlsUploader.model.RowErrors;
+import com.justinwells.xlsUploader.model.XlsSpec;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.apache.poi.ss.usermodel.Row;
+import org.apache.poi.ss.usermodel.Sheet;
+import org.apache.poi.xssf.usermodel.XSSFWorkbook;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.springframework.core.env.StandardEnvironment;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.OutputStream;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.entry;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.doAnswer;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.verifyNoInteractions;
+import static org.mockito.Mockito.when;
+
+class SpreadsheetParserTests {
+
+    @TempDir
+    Path keyDir;
+
+    @TempDir
+    Path workDir;
+
+    private final SqsBatchPublisher publisher = mock(SqsBatchPublisher.class);
+    private final PackageInspector packageInspector = new PackageInspector();
+    private final SimpleMeterRegistry registry = new SimpleMeterRegistry();
+
+    @Test
+    void validateCollectsRowErrorsWithoutPublishing() throws Exception {
+        SpreadsheetParser parser = parser();
+
+        File file = new File("src/test/xlsTestFiles", "test-participant_MissingID.xlsx");
+        try (InspectedPackage upload = packageInspector.inspect(file)) {
+            ParseResult result = parser.validate(upload, "participant");
+
+            assertThat(result.getRowsRead()).isEqualTo(3);
+            RowErrors errors = result.getErrors();
+            assertThat(errors.hasErrors()).isTrue();
+            assertThat(errors.describe(100)).contains("Row 4: participantId is required");
+            assertThat(registry.get("xls.rows.read").tag("spec", "participant").counter().count()).isEqualTo(3);
+        }
+        verifyNoInteractions(publisher);
+    }
+
+    @Test
+    void everyMappedSheetIsReadAgainstItsSpec() throws Exception {
+        File file = workDir.resolve("multi.xlsx").toFile();
+        try (XSSFWorkbook workbook = new XSSFWorkbook()) {
+            sheet(workbook, "People",
+                    new String[] {"Participant ID", "First Name", "Last Name"},
+                    new String[] {"P1", "Ada", "Lovelace"},
+                    new String[] {"", "Alan", "Turing"});
+            String[] eventHeader = {"Event ID", "Activity ID", "Event Name", "Event Date"};
+            sheet(workbook, "Events", eventHeader,
+                    new String[] {"E1", "A1", "Kickoff", "2024-03-15"},
+                    new String[] {"E2", "A1", "Review", "2024-03-16"});
+            sheet(workbook, "Activities", eventHeader,
+                    new String[] {"E3", "A2", "Launch", "2024-03-17"},
+                    new String[] {"E4", "A2", "", "2024-03-18"});
+            sheet(workbook, "Notes", new String[] {"Anything"}, new String[] {"not a spec"});
+            workbook.getProperties().getCustomProperties().addProperty("Spec.Activities", "events");
+            try (OutputStream out = new FileOutputStream(file)) {
+                workbook.write(out);
+            }
+        }
+
+        try (InspectedPackage upload = packageInspector.inspect(file)) {
+            assertThat(upload.getSheetSpecs("participant", Set.of("participant", "events")))
+                    .containsExactly(entry(0, "participant"), entry(1, "events"), entry(2, "events"));
+
+            ParseResult result = parser().validate(upload, "participant");
+
+            assertThat(result.getRowsRead()).isEqualTo(6);
+            assertThat(result.getErrors().describe(100)).containsExactly(
+                    "Sheet People row 3: participantId is required",
+                    "Sheet Activities row 3: eventName is required");
+        }
+    }
+
+    @Test
+    void firstValidRowKeepsAUniqueKey() throws Exception {
+        File file = workDir.resolve("duplicates.xlsx").toFile();
+        try (XSSFWorkbook workbook = new XSSFWorkbook()) {
+            sheet(workbook, "People",
+                    new String[] {"Participant ID", "First Name", "Last Name"},
+                    new String[] {"P1", "", "Lovelace"},
+                    new String[] {"P1", "Ada", "Lovelace"},
+                    new String[] {"P2", "Alan", "Turing"},
+                    new String[] {"P1", "Ada", "Byron"},
+                    new String[] {"P2", "Alan", "Turing"});
+            try (OutputStream out = new FileOutputStream(file)) {
+                workbook.write(out);
+            }
+        }
+
+        try (InspectedPackage upload = packageInspector.inspect(file)) {
+            ParseResult result = parser().validate(upload, "participant");
+
+            assertThat(result.getErrors().describe(100)).containsExactly(
+                    "Row 2: firstName is required",
+                    "Row 5: participantId must be unique within the file",
+                    "Row 6: participantId must be unique within the file");
+            assertThat(result.getErrors().getInvalidRows()).isEqualTo(3);
+        }
+    }
+
+    @Test
+    void repeatedKeyIsPublishedOnlyFromItsFirstValidLine() throws Exception {
+        File file = workDir.resolve("published.xlsx").toFile();
+        try (XSSFWorkbook workbook = new XSSFWorkbook()) {
+            sheet(workbook, "People",
+                    new String[] {"Participant ID", "First Name", "Last Name"},
+                    new String[] {"P1", "", "Lovelace"},
+                    new String[] {"P1", "Ada", "Lovelace"},
+                    new String[] {"P2", "Alan", "Turing"},
+                    new String[] {"P1", "Ada", "Byron"},
+                    new String[] {"P2", "Alan", "Turing"},
+                    new String[] {"P3", "Grace", "Hopper"});
+            try (OutputStream out = new FileOutputStream(file)) {
+                workbook.write(out);
+            }
+        }
+        List<Integer> published = publishedLines("participant-queue", "uploads/published.xlsx#0");
+
+        try (InspectedPackage upload = packageInspector.inspect(file)) {
+            ParseResult result = parser().parseAndQueue(upload, "participant", "uploads/published.xlsx",
+                    count -> { }, null);
+
+            assertThat(published).containsExactlyInAnyOrder(3, 4, 7);
+            assertThat(result.getErrors().describe(100)).containsExactly(
+                    "Row 2: firstName is required",
+                    "Row 5: participantId must be unique within the file",
+                    "Row 6: participantId must be unique within the file");
+        }
+    }
+
+    @Test
+    void everySheetResumesFromItsOwnCheckpoint() throws Exception {
+        File file = workDir.resolve("resumed.xlsx").toFile();
+        try (XSSFWorkbook workbook = new XSSFWorkbook()) {
+            sheet(workbook, "People",
+                    new String[] {"Participant ID", "First Name", "Last Name"},
+                    new String[] {"P1", "Ada", "Lovelace"},
+                    new String[] {"P2", "Alan", "Turing"},
+                    new String[] {"P3", "Grace", "Hopper"});
+            sheet(workbook, "Events",
+                    new String[] {"Event ID", "Activity ID", "Event Name", "Event Date"},
+                    new String[] {"E1", "A1", "Kickoff", "2024-03-15"},
+                    new String[] {"E2", "A1", "Review", "2024-03-16"});
+            try (OutputStream out = new FileOutputStream(file)) {
+                workbook.write(out);
+            }
+        }
+        List<Integer> participants = publishedLines("participant-queue", "uploads/resumed.xlsx#0");
+        List<Integer> events = publishedLines("events-queue", "uploads/resumed.xlsx#1");
+        Map<Integer, LineCheckpoint> checkpoints = Map.of(0, new LineCheckpoint(3), 1, new LineCheckpoint(2));
+
+        try (InspectedPackage upload = packageInspector.inspect(file)) {
+            ParseResult result = parser().parseAndQueue(upload, "participant", "uploads/resumed.xlsx",
+                    count -> { }, checkpoints::get);
+
+            assertThat(result.getRowsRead()).isEqualTo(5);
+            assertThat(participants).containsExactly(4);
+            assertThat(events).containsExactly(3);
+        }
+    }
+
+    // Lines published through the session opened for queueUrl with dedupScope
+    private List<Integer> publishedLines(String queueUrl, String dedupScope) throws Exception {
+        SqsBatchPublisher.PublishSession session = mock(SqsBatchPublisher.PublishSession.class);
+        when(session.complete()).thenReturn(CompletableFuture.completedFuture(null));
+        when(publisher.open(eq(queueUrl), any(), any(), any(), eq(dedupScope), any())).thenReturn(session);
+        List<Integer> published = new CopyOnWriteArrayList<>();
+        doAnswer(call -> {
+            published.add(call.<int[]>getArgument(1)[0]);
+            return null;
+        }).when(session).publish(anyString(), any(int[].class));
+        return published;
+    }
+
+    private SpreadsheetParser parser() throws Exception {
+        ObjectMapper objectMapper = new ObjectMapper();
+        return new SpreadsheetParser(publisher, packageInspector, new RowPipeline(2, 1, 0),
+                new XlsSpec(objectMapper), new MessageCodec(objectMapper, "row", 262144),
+                new KeyIndexService(keyDir.toString()), new UploadMetrics(registry), new StandardEnvironment(),
+                true, 1000, 0, 1000);
+    }
+
+    private static void sheet(XSSFWorkbook workbook, String name, String[]... rows) {
+        Sheet sheet = workbook.createSheet(name);
+        for (int i = 0; i < rows.length; i++) {
+            Row row = sheet.createRow(i);
+            for (int j = 0; j < rows[i].length; j++) {
+                row.createCell(j).setCellValue(rows[i][j]);
+            }
+        }
+    }
+}
@@ -0,0 +1,87 @@
+package com.justinwells.xlsUploader.service;
+
+import com.justinwells.xlsUploader.model.ErrorCode;
+import com.justinwells.xlsUploader.model.RowErrors;
+import org.junit.jupiter.api.Test;
+import org.mockito.ArgumentCaptor;
+import software.amazon.awssdk.services.sqs.SqsAsyncClient;
+import software.amazon.awssdk.services.sqs.model.BatchResultErrorEntry;
+import software.amazon.awssdk.services.sqs.model.SendMessageBatchRequest;
+import software.amazon.awssdk.services.sqs.model.SendMessageBatchRequestEntry;
+import software.amazon.awssdk.services.sqs.model.SendMessageBatchResponse;
+import software.amazon.awssdk.services.sqs.model.SendMessageBatchResultEntry;
+import software.amazon.awssdk.services.sqs.model.SqsException;
+
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.stream.Collectors;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+class SqsBatchPublisherTests {
+
+    @Test
+    void groupsRowsIntoBatchesAndRetriesOnlyFailedEntries() throws Exception {
+        SqsAsyncClient sqsClient = mock(SqsAsyncClient.class);
+        when(sqsClient.sendMessageBatch(any(SendMessageBatchRequest.class))).thenAnswer(invocation -> {
+            SendMessageBatchRequest request = invocation.getArgument(0);
+            List<SendMessageBatchRequestEntry> entries = request.entries();
+            SendMessageBatchResponse.Builder response = SendMessageBatchResponse.builder();
+            // First attempt of the first batch loses entry "3"
+            if (entries.size() == 10 && entries.get(0).id().equals("0")) {
+                response.failed(BatchResultErrorEntry.builder().id("3").code("InternalError").senderFault(false).build());
+                entries = entries.stream().filter(e -> !e.id().equals("3")).collect(Collectors.toList());
+            }
+            response.successful(entries.stream()
+                    .map(e -> SendMessageBatchResultEntry.builder().id(e.id()).messageId("m" + e.id()).build())
+                    .collect(Collectors.toList()));
+            return CompletableFuture.completedFuture(response.build());
+        });
+
+        SqsBatchPublisher publisher = new SqsBatchPublisher(sqsClient, 2, 2, 3, 1, 1);
+        SqsBatchPublisher.PublishSession session = publisher.open("participant-queue");
+        for (int i = 0; i < 25; i++) {
+            session.publish("{\"row\":" + i + "}");
+        }
+        session.complete().get();
+
+        ArgumentCaptor<SendMessageBatchRequest> requests = ArgumentCaptor.forClass(SendMessageBatchRequest.class);
+        verify(sqsClient, times(4)).sendMessageBatch(requests.capture());
+        assertThat(requests.getAllValues()).extracting(r -> r.entries().size()).containsExactlyInAnyOrder(10, 10, 5, 1);
+        assertThat(session.getPublishedCount()).isEqualTo(25);
+    }
+
+    @Test
+    void serverErrorsCutTheInFlightLimitAndRefusedRowsBecomeErrors() throws Exception {
+        SqsAsyncClient sqsClient = mock(SqsAsyncClient.class);
+        when(sqsClient.sendMessageBatch(any(SendMessageBatchRequest.class))).thenReturn(CompletableFuture.failedFuture(
+                SqsException.builder().statusCode(503).message("Service Unavailable").build()));
+
+        SqsBatchPublisher publisher = new SqsBatchPublisher(sqsClient, 8, 16, 2, 1, 1);
+        RowErrors errors = new RowErrors(100, 0);
+        SqsBatchPublisher.PublishSession session = publisher.open("payment-queue", count -> { }, null, null, null,
+                errors);
+        for (int line = 2; line <= 4; line++) {
+            session.publish("{\"row\":" + line + "}", new int[] {line});
+        }
+
+        assertThatThrownBy(() -> session.complete().join())
+                .hasCauseInstanceOf(SqsBatchPublisher.UnpublishedRowsException.class);
+        verify(sqsClient, times(2)).sendMessageBatch(any(SendMessageBatchRequest.class));
+        // Halved once per attempt, since the retry went out after the first cut
+        assertThat(publisher.controller("payment-queue").getLimit()).isEqualTo(2);
+        assertThat(publisher.controller("payment-queue").getInFlight()).isZero();
+        assertThat(errors.getInvalidRows()).isEqualTo(3);
+        assertThat(errors.getCode(0)).isEqualTo(ErrorCode.NOT_PUBLISHED);
+        assertThat(errors.describe(10)).containsExactly(
+                "Row 2: could not be published to SQS",
+                "Row 3: could not be published to SQS",
+                "Row 4: could not be published to SQS");
+    }
+}
@@ -0,0 +1,108 @@
+package com.justinwells.xlsUploader.service;
+
+import com.justinwells.xlsUploader.model.ErrorCode;
+import com.justinwells.xlsUploader.model.FieldValidator;
+import com.justinwells.xlsUploader.model.RowErrors;
+import com.justinwells.xlsUploader.model.UploadCheckpoint;
+import com.justinwells.xlsUploader.model.UploadJob;
+import com.justinwells.xlsUploader.model.XlsSpec;
+import org.junit.jupiter.api.Test;
+import software.amazon.awssdk.core.async.AsyncRequestBody;
+import software.amazon.awssdk.services.s3.S3AsyncClient;
+import software.amazon.awssdk.services.s3.model.NoSuchKeyException;
+import software.amazon.awssdk.services.s3.model.PutObjectResponse;
+
+import java.io.File;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.function.Consumer;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyInt;
+import static org.mockito.ArgumentMatchers.anyMap;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.verifyNoInteractions;
+import static org.mockito.Mockito.when;
+
+class UploadJobServiceTests {
+    private static final String HASH = "0123abcd";
+
+    private final S3AsyncClient s3AsyncClient = mock(S3AsyncClient.class);
+    private final UploadDedupService uploadDedupService = new UploadDedupService(s3AsyncClient, "bucket", 100,
+            Duration.ofHours(24));
+    private final CheckpointService checkpointService = mock(CheckpointService.class);
+    private final ErrorReportService errorReportService = mock(ErrorReportService.class);
+    private final S3Downloader s3Downloader = mock(S3Downloader.class);
+
+    @Test
+    void throttledUploadIsProcessedAgainWhenResent() throws Exception {
+        stubS3();
+        RowErrors refused = new RowErrors(100, 0);
+        refused.addUnpublished(2);
+        RowErrors invalid = new RowErrors(100, 0);
+        invalid.add(2, new FieldValidator(
+                new XlsSpec.HeaderSpec("Participant ID", "participantId", "STRING", true, "any")), ErrorCode.REQUIRED);
+        UploadJobService service = service();
+
+        returnErrors(refused, new SqsBatchPublisher.UnpublishedRowsException("1 row(s) not published"));
+        UploadJob throttled = service.process(upload(), "participant", "uploads/1_a.xlsx", HASH,
+                CompletableFuture.completedFuture(null));
+
+        assertThat(throttled.getState()).isEqualTo("Quarantine");
+        assertThat(uploadDedupService.find(HASH, "participant")).isNull();
+
+        returnErrors(invalid, null);
+        UploadJob rejected = service.process(upload(), "participant", "uploads/2_a.xlsx", HASH,
+                CompletableFuture.completedFuture(null));
+
+        assertThat(rejected.getState()).isEqualTo("Quarantine");
+        assertThat(uploadDedupService.find(HASH, "participant").getS3Key()).isEqualTo("uploads/2_a.xlsx");
+    }
+
+    @Test
+    void checkpointClaimedByAnotherNodeIsNotResumed() throws Exception {
+        UploadCheckpoint checkpoint = new UploadCheckpoint("uploads/1_a.xlsx", "participant", Map.of(0, 40), 0,
+                Instant.EPOCH, "\"etag-1\"");
+        when(checkpointService.find("uploads/1_a.xlsx")).thenReturn(checkpoint);
+        when(checkpointService.claim(checkpoint)).thenReturn(false);
+
+        assertThatThrownBy(() -> service().resume("uploads/1_a.xlsx")).isInstanceOf(IllegalStateException.class);
+        verifyNoInteractions(s3Downloader);
+        verify(checkpointService, never()).run(anyString(), anyString(), anyMap(), anyInt(), any());
+    }
+
+    private UploadJobService service() {
+        return new UploadJobService(mock(SpreadsheetParser.class), mock(FileStateService.class), errorReportService,
+                uploadDedupService, checkpointService, mock(PackageInspector.class), s3Downloader,
+                1, 4, Duration.ofHours(1), false);
+    }
+
+    private void returnErrors(RowErrors errors, Exception publishFailure) throws Exception {
+        CompletableFuture<Void> published = publishFailure != null
+                ? CompletableFuture.failedFuture(publishFailure) : CompletableFuture.completedFuture(null);
+        when(checkpointService.run(anyString(), anyString(), anyMap(), anyInt(), any()))
+                .thenReturn(new ParseResult(3, errors, published));
+    }
+
+    @SuppressWarnings("unchecked")
+    private void stubS3() {
+        when(errorReportService.store(anyString(), any())).thenReturn(CompletableFuture.completedFuture(null));
+        when(s3AsyncClient.putObject(any(Consumer.class), any(AsyncRequestBody.class)))
+                .thenReturn(CompletableFuture.completedFuture(PutObjectResponse.builder().build()));
+        when(s3AsyncClient.headObject(any(Consumer.class))).thenReturn(CompletableFuture.failedFuture(
+                NoSuchKeyException.builder().statusCode(404).message("No such key").build()));
+    }
+
+    private static InspectedPackage upload() throws Exception {
+        InspectedPackage upload = mock(InspectedPackage.class);
+        when(upload.getFile()).thenReturn(File.createTempFile("upload-", ".xlsx"));
+        return upload;
+    }
+}
@@ -0,0 +1,51 @@
+package com.justinwells.xlsUploader.service;
+
+import com.justinwells.xlsUploader.model.SheetRow;
+import org.apache.poi.ss.usermodel.Row;
+import org.apache.poi.ss.usermodel.Sheet;
+import org.apache.poi.ss.usermodel.Workbook;
+import org.apache.poi.xssf.usermodel.XSSFWorkbook;
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.ValueSource;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class XlsxStreamReaderTests {
+
+    @ParameterizedTest
+    @ValueSource(strings = {
+            "test-assignments.xlsx",
+            "test-events.xlsx",
+            "test-participant.xlsx",
+            "test-participant_MissingID.xlsx",
+            "test-payment.xlsx"
+    })
+    void streamedRowsMatchWorkbookRows(String fixture) throws Exception {
+        File file = new File("src/test/xlsTestFiles", fixture);
+
+        List<SheetRow> expected = new ArrayList<>();
+        try (Workbook workbook = new XSSFWorkbook(file)) {
+            Sheet sheet = workbook.getSheetAt(0);
+            for (int i = 0; i <= sheet.getLastRowNum(); i++) {
+                Row row = sheet.getRow(i);
+                if (row != null) {
+                    expected.add(SheetRow.of(row));
+                }
+            }
+        }
+
+        List<SheetRow> streamed = new ArrayList<>();
+        try (XlsxStreamReader reader = XlsxStreamReader.open(file)) {
+            SheetRow row;
+            while ((row = reader.next()) != null) {
+                streamed.add(row);
+            }
+        }
+
+        assertThat(streamed).isNotEmpty().isEqualTo(expected);
+    }
+}